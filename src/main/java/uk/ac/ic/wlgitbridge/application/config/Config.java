@@ -4,9 +4,13 @@ import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import uk.ac.ic.wlgitbridge.application.exception.ConfigFileException;
+import uk.ac.ic.wlgitbridge.bridge.gc.GcJobConfig;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStoreConfig;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJobConfig;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStoreConfig;
+import uk.ac.ic.wlgitbridge.bridge.update.UpdateJobConfig;
+import uk.ac.ic.wlgitbridge.server.AdmissionConfig;
+import uk.ac.ic.wlgitbridge.server.JettyConfig;
 import uk.ac.ic.wlgitbridge.snapshot.base.JSONSource;
 import uk.ac.ic.wlgitbridge.util.Instance;
 
@@ -34,7 +38,15 @@ public class Config implements JSONSource {
                 config.repoStore,
                 SwapStoreConfig.sanitisedCopy(config.swapStore),
                 config.swapJob,
-                config.sqliteHeapLimitBytes
+                config.sqliteHeapLimitBytes,
+                config.gcJob,
+                config.accessTrace,
+                config.pushInlineFileMaxBytes,
+                config.recentUpdateTtlMillis,
+                UpdateJobConfig.asSanitised(config.updateJob),
+                config.virtualThreads,
+                config.jetty,
+                config.admission
         );
     }
 
@@ -54,6 +66,22 @@ public class Config implements JSONSource {
     @Nullable
     private SwapJobConfig swapJob;
     private int sqliteHeapLimitBytes = 0;
+    @Nullable
+    private GcJobConfig gcJob;
+    @Nullable
+    private String accessTrace;
+    @Nullable
+    private Long pushInlineFileMaxBytes;
+    @Nullable
+    private Long recentUpdateTtlMillis;
+    @Nullable
+    private UpdateJobConfig updateJob;
+    @Nullable
+    private Boolean virtualThreads;
+    @Nullable
+    private JettyConfig jetty;
+    @Nullable
+    private AdmissionConfig admission;
 
     public Config(
             String configFilePath
@@ -63,7 +91,14 @@ public class Config implements JSONSource {
     }
 
     Config(Reader reader) {
-        fromJSON(new Gson().fromJson(reader, JsonElement.class));
+        this(new Gson().fromJson(reader, JsonElement.class));
+    }
+
+    /**
+     * @param json the config, as it would be in the config file
+     */
+    public Config(JsonElement json) {
+        fromJSON(json);
     }
 
     public Config(
@@ -78,7 +113,15 @@ public class Config implements JSONSource {
             RepoStoreConfig repoStore,
             SwapStoreConfig swapStore,
             SwapJobConfig swapJob,
-            int sqliteHeapLimitBytes
+            int sqliteHeapLimitBytes,
+            GcJobConfig gcJob,
+            String accessTrace,
+            Long pushInlineFileMaxBytes,
+            Long recentUpdateTtlMillis,
+            UpdateJobConfig updateJob,
+            Boolean virtualThreads,
+            JettyConfig jetty,
+            AdmissionConfig admission
     ) {
         this.port = port;
         this.bindIp = bindIp;
@@ -92,6 +135,14 @@ public class Config implements JSONSource {
         this.swapStore = swapStore;
         this.swapJob = swapJob;
         this.sqliteHeapLimitBytes = sqliteHeapLimitBytes;
+        this.gcJob = gcJob;
+        this.accessTrace = accessTrace;
+        this.pushInlineFileMaxBytes = pushInlineFileMaxBytes;
+        this.recentUpdateTtlMillis = recentUpdateTtlMillis;
+        this.updateJob = updateJob;
+        this.virtualThreads = virtualThreads;
+        this.jetty = jetty;
+        this.admission = admission;
     }
 
     @Override
@@ -131,6 +182,42 @@ public class Config implements JSONSource {
         if (configObject.has("sqliteHeapLimitBytes")) {
             sqliteHeapLimitBytes = getElement(configObject, "sqliteHeapLimitBytes").getAsInt();
         }
+        gcJob = new Gson().fromJson(
+                configObject.get("gcJob"),
+                GcJobConfig.class
+        );
+        JsonElement accessTrace = configObject.get("accessTrace");
+        if (accessTrace != null && !accessTrace.isJsonNull()) {
+            this.accessTrace = accessTrace.getAsString();
+        }
+        JsonElement pushInlineFileMaxBytes =
+                configObject.get("pushInlineFileMaxBytes");
+        if (pushInlineFileMaxBytes != null
+                && !pushInlineFileMaxBytes.isJsonNull()) {
+            this.pushInlineFileMaxBytes = pushInlineFileMaxBytes.getAsLong();
+        }
+        JsonElement recentUpdateTtlMillis =
+                configObject.get("recentUpdateTtlMillis");
+        if (recentUpdateTtlMillis != null
+                && !recentUpdateTtlMillis.isJsonNull()) {
+            this.recentUpdateTtlMillis = recentUpdateTtlMillis.getAsLong();
+        }
+        updateJob = new Gson().fromJson(
+                configObject.get("updateJob"),
+                UpdateJobConfig.class
+        );
+        JsonElement virtualThreads = configObject.get("virtualThreads");
+        if (virtualThreads != null && !virtualThreads.isJsonNull()) {
+            this.virtualThreads = virtualThreads.getAsBoolean();
+        }
+        jetty = new Gson().fromJson(
+                configObject.get("jetty"),
+                JettyConfig.class
+        );
+        admission = new Gson().fromJson(
+                configObject.get("admission"),
+                AdmissionConfig.class
+        );
     }
 
     public String getSanitisedString() {
@@ -192,6 +279,52 @@ public class Config implements JSONSource {
         return Optional.ofNullable(swapJob);
     }
 
+    public Optional<GcJobConfig> getGcJob() {
+        return Optional.ofNullable(gcJob);
+    }
+
+    /**
+     * @return the file to record an access trace to, if any
+     */
+    public Optional<String> getAccessTrace() {
+        return Optional.ofNullable(accessTrace);
+    }
+
+    public Optional<Long> getPushInlineFileMaxBytes() {
+        return Optional.ofNullable(pushInlineFileMaxBytes);
+    }
+
+    /**
+     * @return how long after a project was synced with Overleaf a repeat
+     * clone or fetch of it is served without asking Overleaf again, if at all
+     */
+    public Optional<Long> getRecentUpdateTtlMillis() {
+        return Optional.ofNullable(recentUpdateTtlMillis);
+    }
+
+    public Optional<UpdateJobConfig> getUpdateJob() {
+        return Optional.ofNullable(updateJob);
+    }
+
+    /**
+     * @return whether to run requests and background jobs on virtual
+     * threads, where the JDK has them
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads != null && virtualThreads;
+    }
+
+    public Optional<JettyConfig> getJetty() {
+        return Optional.ofNullable(jetty);
+    }
+
+    /**
+     * @return the rate limits and concurrency caps on git requests, if any
+     */
+    public Optional<AdmissionConfig> getAdmission() {
+        return Optional.ofNullable(admission);
+    }
+
     private JsonElement getElement(JsonObject configObject, String name) {
         JsonElement element = configObject.get(name);
         if (element == null) {
@@ -32,6 +32,9 @@ public class Oauth2 {
     }
 
     public static Oauth2 asSanitised(Oauth2 oauth2) {
+        if (oauth2 == null) {
+            return null;
+        }
         return new Oauth2(
                 "<oauth2ClientID>",
                 "<oauth2ClientSecret>",
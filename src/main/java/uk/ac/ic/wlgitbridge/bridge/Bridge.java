@@ -1,14 +1,15 @@
 package uk.ac.ic.wlgitbridge.bridge;
 
 import com.google.api.client.auth.oauth2.Credential;
+import io.prometheus.client.Counter;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
 import uk.ac.ic.wlgitbridge.bridge.gc.GcJob;
+import uk.ac.ic.wlgitbridge.bridge.gc.GcJobConfig;
 import uk.ac.ic.wlgitbridge.bridge.gc.GcJobImpl;
-import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.*;
 import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCache;
@@ -20,8 +21,13 @@ import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJobImpl;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.S3SwapStore;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
+import uk.ac.ic.wlgitbridge.bridge.trace.AccessEvent;
+import uk.ac.ic.wlgitbridge.bridge.trace.AccessTraceRecorder;
+import uk.ac.ic.wlgitbridge.bridge.update.UpdateJob;
+import uk.ac.ic.wlgitbridge.bridge.update.UpdateJobConfig;
 import uk.ac.ic.wlgitbridge.data.CandidateSnapshot;
 import uk.ac.ic.wlgitbridge.data.ProjectLockImpl;
+import uk.ac.ic.wlgitbridge.data.ServletFile;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
@@ -34,6 +40,7 @@ import uk.ac.ic.wlgitbridge.git.handler.WLRepositoryResolver;
 import uk.ac.ic.wlgitbridge.git.handler.WLUploadPackFactory;
 import uk.ac.ic.wlgitbridge.git.handler.hook.WriteLatexPutHook;
 import uk.ac.ic.wlgitbridge.server.FileHandler;
+import uk.ac.ic.wlgitbridge.server.NotifyHandler;
 import uk.ac.ic.wlgitbridge.server.PostbackContents;
 import uk.ac.ic.wlgitbridge.server.PostbackHandler;
 import uk.ac.ic.wlgitbridge.snapshot.base.MissingRepositoryException;
@@ -51,6 +58,8 @@ import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is the heart of the Git Bridge. You plug in all the parts (project
@@ -76,6 +85,12 @@ import java.util.*;
  *
  *    @see PostbackHandler - the entry point for postbacks
  *
+ * 3. The Notify Handler, which Overleaf calls when a project has a new
+ *    version, so that it can be brought up to date in the background by the
+ *    {@link UpdateJob}.
+ *
+ *    @see NotifyHandler - the entry point for notifications
+ *
  * Follow these links to go "inward" (to the Git Bridge components):
  *
  * 1. The Project Lock, used to synchronise accesses to projects and shutdown
@@ -140,6 +155,22 @@ import java.util.*;
  */
 public class Bridge {
 
+    /**
+     * How long after a sync the rest of the same clone or fetch is served
+     * without syncing again, see {@link WLRepositoryResolver}.
+     */
+    public static final long FETCH_SESSION_MILLIS =
+            TimeUnit.SECONDS.toMillis(60);
+
+    private static final Counter repoUpdates = Counter.build()
+            .name("git_bridge_repo_updates_total")
+            .help("Number of requests for an updated repo, by whether the " +
+                    "project was synced with Overleaf, a recent sync was " +
+                    "reused, or only the user's access to a hot project " +
+                    "was checked.")
+            .labelNames("result")
+            .register();
+
     private final Config config;
 
     private final ProjectLock lock;
@@ -155,6 +186,15 @@ public class Bridge {
 
     private final PostbackManager postbackManager;
 
+    /* Pushes waiting for a postback, by postback key */
+    private final Map<String, CandidateSnapshot> pushCandidates;
+
+    private final RecentUpdates recentUpdates;
+    private final Optional<UpdateJob> updateJob;
+    private final ProjectSizeUpdater projectSizes;
+
+    private final AccessTraceRecorder trace;
+
     /**
      * Creates a Bridge from its configurable parts, which are the repo, db and
      * swap store, and the swap job config.
@@ -173,6 +213,34 @@ public class Bridge {
             DBStore dbStore,
             SwapStore swapStore,
             SnapshotApi snapshotApi
+    ) {
+        return make(
+                config,
+                repoStore,
+                dbStore,
+                swapStore,
+                snapshotApi,
+                AccessTraceRecorder.fromConfig(config.getAccessTrace())
+        );
+    }
+
+    /**
+     * Creates a Bridge like {@link #make(
+     *      Config,
+     *      RepoStore,
+     *      DBStore,
+     *      SwapStore,
+     *      SnapshotApi
+     * )}, but recording project accesses to the given trace recorder rather
+     * than the configured one.
+     */
+    public static Bridge make(
+            Config config,
+            RepoStore repoStore,
+            DBStore dbStore,
+            SwapStore swapStore,
+            SnapshotApi snapshotApi,
+            AccessTraceRecorder trace
     ) {
         ProjectLock lock = new ProjectLockImpl((int threads) ->
                 Log.info("Waiting for " + threads + " projects...")
@@ -188,11 +256,19 @@ public class Bridge {
                         lock,
                         repoStore,
                         dbStore,
-                        swapStore
+                        swapStore,
+                        trace
+                ),
+                new GcJobImpl(
+                        repoStore,
+                        dbStore,
+                        lock,
+                        config.getGcJob().orElseGet(GcJobConfig::new),
+                        trace
                 ),
-                new GcJobImpl(repoStore, lock),
                 new SnapshotApiFacade(snapshotApi),
-                new UrlResourceCache(dbStore)
+                new UrlResourceCache(dbStore),
+                trace
         );
     }
 
@@ -208,6 +284,7 @@ public class Bridge {
      * @param gcJob
      * @param snapshotAPI the {@link SnapshotApi} to use
      * @param resourceCache the {@link ResourceCache} to use
+     * @param trace the {@link AccessTraceRecorder} to use
      */
     Bridge(
             Config config,
@@ -218,7 +295,8 @@ public class Bridge {
             SwapJob swapJob,
             GcJob gcJob,
             SnapshotApiFacade snapshotAPI,
-            ResourceCache resourceCache
+            ResourceCache resourceCache,
+            AccessTraceRecorder trace
     ) {
         this.config = config;
         this.lock = lock;
@@ -229,7 +307,19 @@ public class Bridge {
         this.resourceCache = resourceCache;
         this.swapJob = swapJob;
         this.gcJob = gcJob;
+        this.trace = trace;
         postbackManager = new PostbackManager();
+        pushCandidates = new ConcurrentHashMap<>();
+        recentUpdates = new RecentUpdates(
+                Math.max(
+                        FETCH_SESSION_MILLIS,
+                        Math.max(getRecentUpdateTtlMillis(), getHotMillis())
+                )
+        );
+        updateJob = config.getUpdateJob().map(
+                cfg -> new UpdateJob(cfg, this::updateInBackground)
+        );
+        projectSizes = new ProjectSizeUpdater(repoStore, dbStore);
         Runtime.getRuntime().addShutdownHook(new Thread(this::doShutdown));
         repoStore.purgeNonexistentProjects(dbStore.getProjectNames());
     }
@@ -245,12 +335,10 @@ public class Bridge {
      */
     void doShutdown() {
         Log.info("Shutdown received.");
-        Log.info("Stopping SwapJob");
-        swapJob.stop();
-        Log.info("Stopping GcJob");
-        gcJob.stop();
+        stopBackgroundJobs();
         Log.info("Waiting for projects");
         lock.lockAll();
+        trace.close();
         Log.info("Bye");
     }
 
@@ -263,6 +351,23 @@ public class Bridge {
         gcJob.start();
     }
 
+    public void stopBackgroundJobs() {
+        Log.info("Stopping SwapJob");
+        swapJob.stop();
+        Log.info("Stopping GcJob");
+        gcJob.stop();
+        updateJob.ifPresent(UpdateJob::stop);
+        projectSizes.stop();
+    }
+
+    /**
+     * Waits for the sizes of the projects that have changed so far to be
+     * recorded, for offline tools that read them straight back.
+     */
+    public void awaitProjectSizes() throws InterruptedException {
+        projectSizes.awaitQueued();
+    }
+
     public boolean healthCheck() {
        try {
          dbStore.getNumProjects();
@@ -290,7 +395,8 @@ public class Bridge {
                 continue;
             }
             String projName = f.getName();
-            try (LockGuard __ = lock.lockGuard(projName)) {
+            lock.lockForProject(projName);
+            try {
                 File dotGit = new File(f, ".git");
                 if (!dotGit.exists()) {
                     Log.warn("Project: {} has no .git", projName);
@@ -308,6 +414,8 @@ public class Bridge {
                         projName,
                         new Timestamp(dotGit.lastModified())
                 );
+            } finally {
+                lock.unlockForProject(projName);
             }
         }
     }
@@ -326,15 +434,217 @@ public class Bridge {
             Optional<Credential> oauth2,
             String projectName
     ) throws IOException, GitUserException {
-        try (LockGuard __ = lock.lockGuard(projectName)) {
-            Optional<GetDocResult> maybeDoc = snapshotAPI.getDoc(oauth2, projectName);
+        return getUpdatedRepo(oauth2, projectName, 0);
+    }
+
+    /**
+     * Like {@link #getUpdatedRepo(Optional, String)}, but if the project was
+     * synced for the same user within the last maxAgeMillis, and is still on
+     * disk, it is returned as it is, without asking Overleaf again.
+     *
+     * A push to the project, or {@link #invalidateRecentUpdates(String)},
+     * makes the next request sync again.
+     *
+     * Otherwise, if Overleaf notifies us of new versions and the project is
+     * hot, only the user's access and the latest version are checked, and
+     * the project is only synced if it is behind, e.g. because a
+     * notification was lost.
+     * @param oauth2 The oauth2 to use
+     * @param projectName The name of the project
+     * @param maxAgeMillis How old a sync may be to be reused, or 0 to always
+     * sync
+     * @throws IOException
+     * @throws GitUserException
+     */
+    public ProjectRepo getUpdatedRepo(
+            Optional<Credential> oauth2,
+            String projectName,
+            long maxAgeMillis
+    ) throws IOException, GitUserException {
+        long requested = System.nanoTime();
+        lock.lockForProject(projectName);
+        try {
+            long start = System.nanoTime();
+            OperationMetrics.observe(
+                    OperationMetrics.UPDATE,
+                    OperationMetrics.LOCK_WAIT,
+                    start - requested
+            );
+            if (recentUpdates.isRecent(projectName, oauth2, maxAgeMillis)
+                    && dbStore.getProjectState(projectName)
+                            == ProjectState.PRESENT) {
+                Log.info("[{}] Reusing recent update", projectName);
+                ProjectRepo repo = repoStore.getExistingRepo(projectName);
+                dbStore.setLastAccessedTime(
+                        projectName,
+                        Timestamp.valueOf(LocalDateTime.now())
+                );
+                repoUpdates.labels("reused").inc();
+                recordAccess(
+                        AccessEvent.Type.GET_UPDATED_REPO,
+                        projectName,
+                        start
+                );
+                return repo;
+            }
+            long generation = recentUpdates.startSync(projectName);
+            boolean current =
+                    recentUpdates.isCurrent(projectName, getHotMillis())
+                    && dbStore.getProjectState(projectName)
+                            == ProjectState.PRESENT;
+            Optional<GetDocResult> maybeDoc;
+            OperationMetrics.Timer getDocTimer = OperationMetrics.time(
+                    OperationMetrics.UPDATE,
+                    OperationMetrics.GET_DOC
+            );
+            try {
+                maybeDoc = snapshotAPI.getDoc(oauth2, projectName);
+            } finally {
+                getDocTimer.close();
+            }
             if (!maybeDoc.isPresent()) {
                 throw new RepositoryNotFoundException(projectName);
             }
             GetDocResult doc = maybeDoc.get();
-            Log.info("[{}] Updating repository", projectName);
-            return getUpdatedRepoCritical(oauth2, projectName, doc);
+            if (current && doc.getVersionID()
+                    > dbStore.getLatestVersionForProject(projectName)) {
+                /* e.g. the notification was dropped from a full queue */
+                Log.warn("[{}] Hot project is behind, syncing", projectName);
+                current = false;
+            }
+            ProjectRepo repo;
+            if (current) {
+                Log.info("[{}] Reusing hot project", projectName);
+                repo = repoStore.getExistingRepo(projectName);
+                dbStore.setLastAccessedTime(
+                        projectName,
+                        Timestamp.valueOf(LocalDateTime.now())
+                );
+                repoUpdates.labels("checked").inc();
+            } else {
+                Log.info("[{}] Updating repository", projectName);
+                repo = getUpdatedRepoCritical(oauth2, projectName, doc);
+                repoUpdates.labels("synced").inc();
+            }
+            recentUpdates.record(projectName, oauth2, generation);
+            recordAccess(AccessEvent.Type.GET_UPDATED_REPO, projectName, start);
+            return repo;
+        } catch (IOException | GitUserException | RuntimeException e) {
+            OperationMetrics.countError(OperationMetrics.UPDATE, e);
+            throw e;
+        } finally {
+            lock.unlockForProject(projectName);
+            OperationMetrics.observe(
+                    OperationMetrics.UPDATE,
+                    OperationMetrics.TOTAL,
+                    System.nanoTime() - requested
+            );
+        }
+    }
+
+    /**
+     * @return how long a sync may be reused by repeat clones and fetches of
+     * a project by the same user, without checking their access again, see
+     * {@link Config#getRecentUpdateTtlMillis()}.
+     *
+     * When Overleaf notifies us of new versions, a hot project (see
+     * {@link UpdateJobConfig#getHotMillis()}) is not synced again after
+     * this, until the next notification, but the user's access still is
+     * checked.
+     */
+    public long getRecentUpdateTtlMillis() {
+        return config.getRecentUpdateTtlMillis().orElse(0L);
+    }
+
+    /**
+     * Called by the {@link NotifyHandler} when Overleaf has a new version of
+     * a project.
+     *
+     * The next request for the project syncs again, unless the project is
+     * hot, i.e. a user synced it recently, in which case it is queued to be
+     * brought up to date in the background with that user's credentials.
+     * @param projectName The name of the project
+     * @return whether the project was queued for an update
+     */
+    public boolean notifyUpdated(String projectName) {
+        recentUpdates.invalidate(projectName);
+        if (!updateJob.isPresent() || !recentUpdates.getRecentCredential(
+                projectName,
+                getHotMillis()
+        ).isPresent()) {
+            return false;
         }
+        return updateJob.get().queue(projectName);
+    }
+
+    /**
+     * Called by the {@link UpdateJob} for a notified project. Only projects
+     * that are still hot and on disk are updated; the rest are left for their
+     * next request.
+     * @param projectName The name of the project
+     * @throws IOException
+     * @throws GitUserException
+     */
+    private void updateInBackground(
+            String projectName
+    ) throws IOException, GitUserException {
+        Optional<Optional<Credential>> oauth2 =
+                recentUpdates.getRecentCredential(projectName, getHotMillis());
+        if (!oauth2.isPresent()) {
+            return;
+        }
+        long requested = System.nanoTime();
+        lock.lockForProject(projectName);
+        try {
+            OperationMetrics.observe(
+                    OperationMetrics.BACKGROUND_UPDATE,
+                    OperationMetrics.LOCK_WAIT,
+                    System.nanoTime() - requested
+            );
+            if (dbStore.getProjectState(projectName) != ProjectState.PRESENT) {
+                return;
+            }
+            long generation = recentUpdates.startSync(projectName);
+            Log.info("[{}] Updating repository in background", projectName);
+            updateProject(
+                    OperationMetrics.BACKGROUND_UPDATE,
+                    oauth2.get(),
+                    repoStore.getExistingRepo(projectName)
+            );
+            recentUpdates.recordBackground(projectName, generation);
+        } catch (IOException | GitUserException | RuntimeException e) {
+            OperationMetrics.countError(
+                    OperationMetrics.BACKGROUND_UPDATE,
+                    e
+            );
+            throw e;
+        } finally {
+            lock.unlockForProject(projectName);
+            OperationMetrics.observe(
+                    OperationMetrics.BACKGROUND_UPDATE,
+                    OperationMetrics.TOTAL,
+                    System.nanoTime() - requested
+            );
+        }
+    }
+
+    /**
+     * @return how long a project stays hot after a sync, or 0 if Overleaf
+     * doesn't notify us of new versions, so nothing is
+     */
+    private long getHotMillis() {
+        return config.getUpdateJob().filter(
+                cfg -> cfg.getNotifySecret().isPresent()
+        ).map(UpdateJobConfig::getHotMillis).orElse(0L);
+    }
+
+    /**
+     * Makes the next request for the project sync with Overleaf, even if it
+     * was synced recently.
+     * @param projectName The name of the project
+     */
+    public void invalidateRecentUpdates(String projectName) {
+        recentUpdates.invalidate(projectName);
     }
 
     /**
@@ -354,7 +664,7 @@ public class Bridge {
      * present.
      *
      * With the project present, snapshots are downloaded from the snapshot
-     * API with {@link #updateProject(Optional, ProjectRepo)}.
+     * API with {@link #updateProject(String, Optional, ProjectRepo)}.
      *
      * Then, the last accessed time of the project is set to the current time.
      * This is to support the LRU of the swap store.
@@ -370,13 +680,18 @@ public class Bridge {
     ) throws IOException, GitUserException {
         ProjectRepo repo;
         ProjectState state = dbStore.getProjectState(projectName);
+        long started = System.nanoTime();
         switch (state) {
         case NOT_PRESENT:
             Log.info("[{}] Repo not present", projectName);
             String migratedFromID = doc.getMigratedFromID();
             if (migratedFromID != null) {
                 Log.info("[{}] Has a migratedFromId: {}", projectName, migratedFromID);
-                try (LockGuard __ = lock.lockGuard(migratedFromID)) {
+                /* The maintenance lock too, so that the source's objects
+                   aren't deleted by a GC while they are linked */
+                lock.lockMaintenanceForProject(migratedFromID);
+                lock.lockForProject(migratedFromID);
+                try {
                     ProjectState sourceState = dbStore.getProjectState(migratedFromID);
                     switch (sourceState) {
                         case NOT_PRESENT:
@@ -404,6 +719,9 @@ public class Bridge {
 
                             );
                     }
+                } finally {
+                    lock.unlockForProject(migratedFromID);
+                    lock.unlockMaintenanceForProject(migratedFromID);
                 }
                 break;
             } else {
@@ -416,14 +734,35 @@ public class Bridge {
         default:
             repo = repoStore.getExistingRepo(projectName);
         }
-        updateProject(oauth2, repo);
+        if (state != ProjectState.PRESENT) {
+            OperationMetrics.observe(
+                    OperationMetrics.UPDATE,
+                    state == ProjectState.SWAPPED
+                            ? OperationMetrics.RESTORE
+                            : OperationMetrics.INIT,
+                    System.nanoTime() - started
+            );
+        }
+        updateProject(OperationMetrics.UPDATE, oauth2, repo);
         dbStore.setLastAccessedTime(
                 projectName,
                 Timestamp.valueOf(LocalDateTime.now())
         );
+        if (state == ProjectState.NOT_PRESENT) {
+            /* Now that it counts as on disk, e.g. a fork, even if it had no
+               new versions */
+            updateProjectSize(projectName);
+        }
         return repo;
     }
 
+    /**
+     * @return the most files that a pushed project may contain, if limited
+     */
+    public Optional<Long> getMaxFileNum() {
+        return config.getRepoStore().flatMap(RepoStoreConfig::getMaxFileNum);
+    }
+
     /**
      * The public call to push a project.
      *
@@ -452,18 +791,29 @@ public class Bridge {
             String hostname
     ) throws SnapshotPostException, IOException, MissingRepositoryException, ForbiddenException, GitUserException {
         Log.debug("[{}] pushing to Overleaf", projectName);
-        try (LockGuard __ = lock.lockGuard(projectName)) {
+        long requested = System.nanoTime();
+        lock.lockForProject(projectName);
+        try {
+            long start = System.nanoTime();
+            OperationMetrics.observe(
+                    OperationMetrics.PUSH,
+                    OperationMetrics.LOCK_WAIT,
+                    start - requested
+            );
             pushCritical(
                     oauth2,
                     projectName,
                     directoryContents,
                     oldDirectoryContents
             );
+            updateProjectSize(projectName);
+            recordAccess(AccessEvent.Type.PUSH, projectName, start);
         } catch (SevereSnapshotPostException e) {
             Log.warn(
                     "[" + projectName + "] Failed to put to Overleaf",
                     e
             );
+            OperationMetrics.countError(OperationMetrics.PUSH, e);
             throw e;
         } catch (SnapshotPostException e) {
             /* Stack trace should be printed further up */
@@ -472,10 +822,22 @@ public class Bridge {
                     projectName,
                     e.getClass().getSimpleName()
             );
+            OperationMetrics.countError(OperationMetrics.PUSH, e);
             throw e;
         } catch (IOException e) {
             Log.warn("[{}] IOException on put: {}", projectName, e);
+            OperationMetrics.countError(OperationMetrics.PUSH, e);
+            throw e;
+        } catch (GitUserException | RuntimeException e) {
+            OperationMetrics.countError(OperationMetrics.PUSH, e);
             throw e;
+        } finally {
+            lock.unlockForProject(projectName);
+            OperationMetrics.observe(
+                    OperationMetrics.PUSH,
+                    OperationMetrics.TOTAL,
+                    System.nanoTime() - requested
+            );
         }
 
         gcJob.queueForGc(projectName);
@@ -493,9 +855,8 @@ public class Bridge {
      * contents. The
      * {@link CandidateSnapshot} is created using
      * {@link #createCandidateSnapshot(String, RawDirectory, RawDirectory)},
-     * which creates the snapshot object and writes the push files to the
-     * atts directory, which is served by the {@link PostbackHandler}.
-     * The files are deleted at the end of a try-with-resources block.
+     * and registered under the postback key until the push is done, so that
+     * the {@link FileHandler} can serve the push files from memory.
      *
      * Then 3 things are used to make the push request to the snapshot API:
      * 1. The oauth2
@@ -533,9 +894,7 @@ public class Bridge {
             RawDirectory directoryContents,
             RawDirectory oldDirectoryContents
     ) throws IOException, MissingRepositoryException, ForbiddenException, SnapshotPostException, GitUserException {
-        Optional<Long> maxFileNum = config
-                  .getRepoStore()
-                  .flatMap(RepoStoreConfig::getMaxFileNum);
+        Optional<Long> maxFileNum = getMaxFileNum();
         if (maxFileNum.isPresent()) {
           long maxFileNum_ = maxFileNum.get();
           if (directoryContents.getFileTable().size() > maxFileNum_) {
@@ -550,34 +909,70 @@ public class Bridge {
                 projectName,
                 postbackKey
         );
-        try (
-                CandidateSnapshot candidate = createCandidateSnapshot(
-                                projectName,
-                                directoryContents,
-                                oldDirectoryContents
-                );
-        ) {
+        CandidateSnapshot candidate;
+        OperationMetrics.Timer diffTimer = OperationMetrics.time(
+                OperationMetrics.PUSH,
+                OperationMetrics.PUSH_DIFF
+        );
+        try {
+            candidate = createCandidateSnapshot(
+                    projectName,
+                    directoryContents,
+                    oldDirectoryContents
+            );
+        } finally {
+            diffTimer.close();
+        }
+        pushCandidates.put(postbackKey, candidate);
+        try {
             Log.info(
                     "[{}] Candidate snapshot created: {}",
                     projectName,
                     candidate
             );
-            PushResult result
-                    = snapshotAPI.push(oauth2, candidate, postbackKey);
+            PushResult result;
+            OperationMetrics.Timer requestTimer = OperationMetrics.time(
+                    OperationMetrics.PUSH,
+                    OperationMetrics.PUSH_REQUEST
+            );
+            try {
+                result = snapshotAPI.push(oauth2, candidate, postbackKey);
+            } finally {
+                requestTimer.close();
+            }
             if (result.wasSuccessful()) {
                 Log.info(
                         "[{}] Push to Overleaf successful",
                         projectName
                 );
                 Log.info("[{}] Waiting for postback...", projectName);
-                int versionID =
-                        postbackManager.waitForVersionIdOrThrow(projectName);
+                int versionID;
+                OperationMetrics.Timer postbackTimer = OperationMetrics.time(
+                        OperationMetrics.PUSH,
+                        OperationMetrics.POSTBACK_WAIT
+                );
+                try {
+                    versionID = postbackManager.waitForVersionIdOrThrow(
+                            projectName,
+                            postbackKey
+                    );
+                } finally {
+                    postbackTimer.close();
+                }
                 Log.info(
                         "[{}] Got version ID for push: {}",
                         projectName,
                         versionID
                 );
-                approveSnapshot(versionID, candidate);
+                OperationMetrics.Timer approveTimer = OperationMetrics.time(
+                        OperationMetrics.PUSH,
+                        OperationMetrics.APPROVE
+                );
+                try {
+                    approveSnapshot(versionID, candidate);
+                } finally {
+                    approveTimer.close();
+                }
                 Log.info(
                         "[{}] Approved version ID: {}",
                         projectName,
@@ -594,6 +989,9 @@ public class Bridge {
                 );
                 throw new OutOfDateException();
             }
+        } finally {
+            pushCandidates.remove(postbackKey);
+            recentUpdates.invalidate(projectName);
         }
     }
 
@@ -616,6 +1014,32 @@ public class Bridge {
         postbackManager.checkPostbackKey(projectName, postbackKey);
     }
 
+    /**
+     * A public call that should originate from the {@link FileHandler}, to
+     * get a file changed by a push.
+     *
+     * The postback key is checked as in
+     * {@link #checkPostbackKey(String, String)}.
+     * @param projectName The project name that this key belongs to
+     * @param postbackKey The key
+     * @param identifier The identifier of the file in the push request
+     * @return The file, if the push is still waiting for its postback
+     * @throws InvalidPostbackKeyException If the key doesn't match
+     */
+    public Optional<ServletFile> getPushedFile(
+            String projectName,
+            String postbackKey,
+            String identifier
+    ) throws InvalidPostbackKeyException {
+        checkPostbackKey(projectName, postbackKey);
+        CandidateSnapshot candidate = pushCandidates.get(postbackKey);
+        if (candidate == null
+                || !candidate.getProjectName().equals(projectName)) {
+            return Optional.empty();
+        }
+        return candidate.getChangedFile(identifier);
+    }
+
     /**
      * A public call that originates from the postback thread
      * {@link PostbackContents#processPostback()}, i.e. once the Overleaf app
@@ -683,21 +1107,33 @@ public class Bridge {
      *
      * If any snapshots were found, sets the latest version for the project.
      *
+     * @param operation the operation to record the phases under, see
+     * {@link OperationMetrics}
      * @param oauth2
      * @param repo
      * @throws IOException
      * @throws GitUserException
      */
     private void updateProject(
+            String operation,
             Optional<Credential> oauth2,
             ProjectRepo repo
     ) throws IOException, GitUserException {
         String projectName = repo.getProjectName();
         int latestVersionId = dbStore.getLatestVersionForProject(projectName);
-        Deque<Snapshot> snapshots = snapshotAPI.getSnapshots(
-                oauth2, projectName, latestVersionId);
+        Deque<Snapshot> snapshots;
+        OperationMetrics.Timer snapshotsTimer = OperationMetrics.time(
+                operation,
+                OperationMetrics.GET_SNAPSHOTS
+        );
+        try {
+            snapshots = snapshotAPI.getSnapshots(
+                    oauth2, projectName, latestVersionId);
+        } finally {
+            snapshotsTimer.close();
+        }
 
-        makeCommitsFromSnapshots(repo, snapshots);
+        makeCommitsFromSnapshots(operation, repo, snapshots);
 
         // TODO: in case crashes around here, add an
         // "updating_from_commit" column to the DB as a way to rollback the
@@ -709,32 +1145,107 @@ public class Bridge {
                     projectName,
                     snapshots.getLast().getVersionID()
             );
+            updateProjectSize(projectName);
+            gcJob.queueForGc(projectName);
         }
     }
 
     /**
-     * Called by {@link #updateProject(Optional, ProjectRepo)}.
+     * Queues the project to have its size on disk recorded after it has
+     * changed, so that the swap job doesn't have to measure the repo store.
+     * @param projectName the name of the project
+     */
+    private void updateProjectSize(String projectName) {
+        projectSizes.queue(projectName);
+    }
+
+    /**
+     * Records an access that started at start (from System.nanoTime()) to
+     * the access trace, with the project's size from the db store.
+     * @param projectName the name of the project, which must be locked
+     */
+    private void recordAccess(
+            AccessEvent.Type type,
+            String projectName,
+            long start
+    ) {
+        Long sizeBytes = dbStore.getProjectSize(projectName);
+        trace.record(
+                type,
+                projectName,
+                sizeBytes == null ? -1 : sizeBytes,
+                System.nanoTime() - start
+        );
+    }
+
+    /**
+     * Called by {@link #updateProject(String, Optional, ProjectRepo)}.
      *
-     * Performs the actual Git commits on the disk.
+     * Performs the actual Git commits on the disk. The commits are written
+     * as a single {@link CommitBatch}, so HEAD only moves once all of them
+     * have been made.
      *
      * Each commit adds files to the db store
      * ({@link ResourceCache#get(String, String, String, Map, Map, Optional)},
      * and then removes any files that were deleted.
+     *
+     * The time spent fetching attachments and committing is recorded
+     * separately, for all of the snapshots together.
+     * @param operation the operation to record the phases under
      * @param repo The repository to commit to
      * @param snapshots The snapshots to commit
      * @throws IOException If an IOException occurred
      * @throws SizeLimitExceededException If one of the files was too big.
      */
     private void makeCommitsFromSnapshots(
+            String operation,
             ProjectRepo repo,
             Collection<Snapshot> snapshots
     ) throws IOException, GitUserException {
+        if (snapshots.isEmpty()) {
+            return;
+        }
         String name = repo.getProjectName();
         Optional<Long> maxSize = config
                 .getRepoStore()
                 .flatMap(RepoStoreConfig::getMaxFileSize);
+        boolean deltaCompression = config
+                .getRepoStore()
+                .map(RepoStoreConfig::getImportDeltaCompression)
+                .orElse(false);
+        long start = System.nanoTime();
+        long[] fetchNanos = new long[1];
+        try (CommitBatch batch = repo.beginCommitBatch(deltaCompression)) {
+            makeCommitsFromSnapshots(
+                    name,
+                    batch,
+                    snapshots,
+                    maxSize,
+                    fetchNanos
+            );
+            batch.flush();
+        }
+        OperationMetrics.observe(
+                operation,
+                OperationMetrics.FETCH_ATTACHMENTS,
+                fetchNanos[0]
+        );
+        OperationMetrics.observe(
+                operation,
+                OperationMetrics.COMMIT,
+                System.nanoTime() - start - fetchNanos[0]
+        );
+    }
+
+    private void makeCommitsFromSnapshots(
+            String name,
+            CommitBatch batch,
+            Collection<Snapshot> snapshots,
+            Optional<Long> maxSize,
+            long[] fetchNanos
+    ) throws IOException, GitUserException {
         for (Snapshot snapshot : snapshots) {
-            RawDirectory directory = repo.getDirectory();
+            RawDirectory directory = batch.getDirectory();
             Map<String, RawFile> fileTable = directory.getFileTable();
             List<RawFile> files = new ArrayList<>();
             files.addAll(snapshot.getSrcs());
@@ -750,6 +1261,7 @@ public class Bridge {
                 }
             }
             Map<String, byte[]> fetchedUrls = new HashMap<>();
+            long fetchStart = System.nanoTime();
             for (SnapshotAttachment snapshotAttachment : snapshot.getAtts()) {
                 files.add(
                         resourceCache.get(
@@ -762,12 +1274,13 @@ public class Bridge {
                         )
                 );
             }
+            fetchNanos[0] += System.nanoTime() - fetchStart;
             Log.info(
                     "[{}] Committing version ID: {}",
                     name,
                     snapshot.getVersionID()
             );
-            Collection<String> missingFiles = repo.commitAndGetMissing(
+            Collection<String> missingFiles = batch.commitAndGetMissing(
                     new GitDirectoryContents(
                             files,
                             repoStore.getRootDirectory(),
@@ -786,29 +1299,25 @@ public class Bridge {
      * Called by
      * {@link #pushCritical(Optional, String, RawDirectory, RawDirectory)}.
      *
-     * This call consists of 2 things: Creating the candidate snapshot,
-     * and writing the atts to the atts directory.
-     *
-     * The candidate snapshot RAIIs away those atts (use try-with-resources).
+     * The candidate snapshot keeps the changed files in memory, for the
+     * {@link FileHandler} to serve while the push waits for its postback.
      * @param projectName The name of the project
      * @param directoryContents The new directory contents
      * @param oldDirectoryContents The old directory contents
      * @return The {@link CandidateSnapshot} created
-     * @throws IOException If an I/O exception occurred on writing
      */
     private CandidateSnapshot createCandidateSnapshot(
             String projectName,
             RawDirectory directoryContents,
             RawDirectory oldDirectoryContents
-    ) throws IOException {
-        CandidateSnapshot candidateSnapshot = new CandidateSnapshot(
+    ) {
+        return new CandidateSnapshot(
                 projectName,
                 dbStore.getLatestVersionForProject(projectName),
                 directoryContents,
-                oldDirectoryContents
+                oldDirectoryContents,
+                config.getPushInlineFileMaxBytes().orElse(-1L)
         );
-        candidateSnapshot.writeServletFiles(repoStore.getRootDirectory());
-        return candidateSnapshot;
     }
 
     /**
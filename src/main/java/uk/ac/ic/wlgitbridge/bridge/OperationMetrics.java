@@ -0,0 +1,126 @@
+package uk.ac.ic.wlgitbridge.bridge;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import uk.ac.ic.wlgitbridge.util.RequestTrace;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of the {@link Bridge}'s operations goes, as a histogram of
+ * each of their phases, and how often they fail.
+ *
+ * An "update" is {@link Bridge#getUpdatedRepo(java.util.Optional, String)},
+ * which a clone or fetch waits for before upload-pack runs (see
+ * git_bridge_upload_pack_phase_seconds), a "background_update" is the same
+ * for a notified project, and a "push" is
+ * {@link Bridge#push(java.util.Optional, String,
+ * uk.ac.ic.wlgitbridge.data.filestore.RawDirectory,
+ * uk.ac.ic.wlgitbridge.data.filestore.RawDirectory, String)} together with
+ * loading the pushed trees.
+ *
+ * Phases are timed with {@link #time(String, String)}, closing the timer in
+ * a finally block, or observed with
+ * {@link #observe(String, String, long)} when they are interleaved. They are
+ * also added to the current {@link RequestTrace}, as "operation.phase".
+ */
+public class OperationMetrics {
+
+    public static final String UPDATE = "update";
+    public static final String BACKGROUND_UPDATE = "background_update";
+    public static final String PUSH = "push";
+
+    /* Phases of an update */
+    public static final String LOCK_WAIT = "lock_wait";
+    public static final String GET_DOC = "get_doc";
+    public static final String INIT = "init";
+    public static final String RESTORE = "restore";
+    public static final String GET_SNAPSHOTS = "get_snapshots";
+    public static final String FETCH_ATTACHMENTS = "fetch_attachments";
+    public static final String COMMIT = "commit";
+
+    /* Phases of a push */
+    public static final String LOAD_TREES = "load_trees";
+    public static final String PUSH_DIFF = "push_diff";
+    public static final String PUSH_REQUEST = "push_request";
+    public static final String POSTBACK_WAIT = "postback_wait";
+    public static final String APPROVE = "approve";
+
+    /* The whole operation, including waiting for the lock */
+    public static final String TOTAL = "total";
+
+    private static final Histogram phases = Histogram.build()
+            .name("git_bridge_operation_phase_seconds")
+            .help("Time spent in each phase of updating a repo from " +
+                    "Overleaf or pushing to it, by operation and phase.")
+            .labelNames("operation", "phase")
+            .buckets(
+                    0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+                    30, 60, 120, 360
+            )
+            .register();
+
+    private static final Counter errors = Counter.build()
+            .name("git_bridge_operation_errors_total")
+            .help("Number of operations that failed, by operation and the " +
+                    "class of the exception.")
+            .labelNames("operation", "error")
+            .register();
+
+    /**
+     * Observes its phase when it is closed.
+     */
+    public static class Timer implements AutoCloseable {
+
+        private final String operation;
+        private final String phase;
+        private final long start;
+
+        private Timer(String operation, String phase) {
+            this.operation = operation;
+            this.phase = phase;
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            observe(operation, phase, System.nanoTime() - start);
+        }
+
+    }
+
+    private OperationMetrics() {}
+
+    /**
+     * Starts timing a phase, which is observed when the timer is closed.
+     * @param operation the operation, e.g. {@link #UPDATE}
+     * @param phase the phase, e.g. {@link #GET_DOC}
+     * @return the timer, to close at the end of the phase
+     */
+    public static Timer time(String operation, String phase) {
+        return new Timer(operation, phase);
+    }
+
+    /**
+     * Records a phase that took the given time.
+     * @param operation the operation, e.g. {@link #UPDATE}
+     * @param phase the phase, e.g. {@link #COMMIT}
+     * @param nanos how long the phase took
+     */
+    public static void observe(String operation, String phase, long nanos) {
+        phases.labels(operation, phase).observe(
+                nanos / (double) TimeUnit.SECONDS.toNanos(1)
+        );
+        RequestTrace.addPhaseToCurrent(operation + "." + phase, nanos);
+    }
+
+    /**
+     * Counts a failed operation.
+     * @param operation the operation, e.g. {@link #PUSH}
+     * @param error what it failed with
+     */
+    public static void countError(String operation, Throwable error) {
+        errors.labels(operation, error.getClass().getSimpleName()).inc();
+    }
+
+}
@@ -0,0 +1,93 @@
+package uk.ac.ic.wlgitbridge.bridge;
+
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Threads;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Measures projects after they change on disk and records their sizes for
+ * the swap job, on a background thread, so that pushes and imports don't
+ * wait for a walk of the project's directory.
+ *
+ * The walk doesn't take the project lock, so it may race with a change to
+ * the project, but the change queues the project to be measured again. A
+ * project queued again before it is measured is only measured once. Sizes
+ * of projects that have since been swapped out are not recorded.
+ */
+class ProjectSizeUpdater {
+
+    private final RepoStore repoStore;
+    private final DBStore dbStore;
+    private final ExecutorService executor;
+    private final Set<String> queued;
+
+    ProjectSizeUpdater(RepoStore repoStore, DBStore dbStore) {
+        this.repoStore = repoStore;
+        this.dbStore = dbStore;
+        executor = Threads.newFixedThreadPool(1, "project-size-%d");
+        queued = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Queues the project to be measured, unless it already is.
+     * @param projectName the name of the project
+     */
+    void queue(String projectName) {
+        if (!queued.add(projectName)) {
+            return;
+        }
+        try {
+            executor.execute(() -> update(projectName));
+        } catch (RejectedExecutionException e) {
+            /* Shutting down */
+            queued.remove(projectName);
+        }
+    }
+
+    /**
+     * Waits for the projects queued so far to have been measured.
+     */
+    void awaitQueued() throws InterruptedException {
+        try {
+            /* The executor runs one task at a time, in order */
+            executor.submit(() -> {}).get();
+        } catch (RejectedExecutionException e) {
+            /* Stopped */
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    private void update(String projectName) {
+        /* Remove it first, so that a change while measuring queues it again */
+        queued.remove(projectName);
+        try {
+            long sizeBytes = repoStore.sizeOfProject(projectName);
+            if (dbStore.getLastAccessedTime(projectName) == null) {
+                return;
+            }
+            dbStore.setProjectSize(projectName, sizeBytes);
+        } catch (FileNotFoundException e) {
+            Log.debug("[{}] Not on disk to measure", projectName);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            /* e.g. a file was deleted by a concurrent GC during the walk */
+            Log.info("[{}] Failed to measure project", projectName, e);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package uk.ac.ic.wlgitbridge.bridge;
+
+import com.google.api.client.auth.oauth2.Credential;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers when each project was last synced with Overleaf on behalf of
+ * each user, so that the requests that follow soon after, such as the
+ * upload-pack request of a fetch whose refs were just advertised, can be
+ * served from what is already on disk.
+ *
+ * Syncs are remembered per access token, because syncing is also what checks
+ * that the user may read the project. Entries older than the retention are
+ * swept as new syncs are recorded, but a project's generation is kept for as
+ * long as it is newer than the project's last sync.
+ *
+ * Each project also has a generation, which moves on whenever the project
+ * may have changed on Overleaf, e.g. when Overleaf notifies us of a new
+ * version. A sync only counts if the last one to finish started in the
+ * current generation, so a sync that raced with a change is not reused.
+ */
+class RecentUpdates {
+
+    private final long retentionNanos;
+    private final AtomicLong lastGeneration;
+    private final ConcurrentMap<UpdateId, Sync> syncs;
+    private final ConcurrentMap<String, Long> generations;
+    private final ConcurrentMap<String, Long> syncedGenerations;
+
+    RecentUpdates(long retentionMillis) {
+        retentionNanos = TimeUnit.MILLISECONDS.toNanos(retentionMillis);
+        lastGeneration = new AtomicLong();
+        syncs = new ConcurrentHashMap<>();
+        generations = new ConcurrentHashMap<>();
+        syncedGenerations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the generation to pass to {@link #record} once a sync of the
+     * project that starts now has finished
+     */
+    long startSync(String projectName) {
+        return generations.getOrDefault(projectName, 0L);
+    }
+
+    /**
+     * Records that the project has just been synced for the user.
+     */
+    void record(
+            String projectName,
+            Optional<Credential> oauth2,
+            long generation
+    ) {
+        syncs.put(
+                new UpdateId(projectName, oauth2),
+                new Sync(oauth2, System.nanoTime())
+        );
+        recordBackground(projectName, generation);
+        sweep();
+    }
+
+    /**
+     * Records that the project has just been synced, but not for a user, so
+     * it doesn't let any more users reuse a sync.
+     */
+    void recordBackground(String projectName, long generation) {
+        syncedGenerations.merge(projectName, generation, Math::max);
+    }
+
+    /**
+     * @return whether the project was synced for the user within the last
+     * maxAgeMillis, and hasn't changed since its last sync
+     */
+    boolean isRecent(
+            String projectName,
+            Optional<Credential> oauth2,
+            long maxAgeMillis
+    ) {
+        if (maxAgeMillis <= 0) {
+            return false;
+        }
+        Sync sync = syncs.get(new UpdateId(projectName, oauth2));
+        return sync != null
+                && sync.isWithin(maxAgeMillis)
+                && Objects.equals(
+                        syncedGenerations.get(projectName),
+                        startSync(projectName)
+                );
+    }
+
+    /**
+     * @return whether the project was synced for anyone within the last
+     * maxAgeMillis, and hasn't changed since its last sync
+     */
+    boolean isCurrent(String projectName, long maxAgeMillis) {
+        return maxAgeMillis > 0
+                && getRecentCredential(projectName, maxAgeMillis).isPresent()
+                && Objects.equals(
+                        syncedGenerations.get(projectName),
+                        startSync(projectName)
+                );
+    }
+
+    /**
+     * @return the credentials of the latest sync of the project within the
+     * last maxAgeMillis, if any
+     */
+    Optional<Optional<Credential>> getRecentCredential(
+            String projectName,
+            long maxAgeMillis
+    ) {
+        Sync latest = null;
+        for (Map.Entry<UpdateId, Sync> entry : syncs.entrySet()) {
+            Sync sync = entry.getValue();
+            if (entry.getKey().projectName.equals(projectName)
+                    && sync.isWithin(maxAgeMillis)
+                    && (latest == null || sync.nanos - latest.nanos > 0)) {
+                latest = sync;
+            }
+        }
+        return Optional.ofNullable(latest).map(sync -> sync.oauth2);
+    }
+
+    /**
+     * Moves the project on to a new generation, so that the next request for
+     * it syncs again, e.g. because it has changed.
+     */
+    void invalidate(String projectName) {
+        generations.put(projectName, lastGeneration.incrementAndGet());
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<UpdateId, Sync>> it = syncs.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().nanos >= retentionNanos) {
+                it.remove();
+            }
+        }
+        /* Without any syncs left, a project's generations don't matter,
+           unless it has moved on since its last sync: a sync of it may be
+           running, e.g. its first, which must not be counted once done */
+        Set<String> synced = new HashSet<>();
+        syncs.keySet().forEach(id -> synced.add(id.projectName));
+        for (String projectName : generations.keySet()) {
+            if (synced.contains(projectName)) {
+                continue;
+            }
+            Long syncedGeneration = syncedGenerations.get(projectName);
+            if (syncedGeneration != null) {
+                generations.computeIfPresent(
+                        projectName,
+                        (p, generation) -> generation > syncedGeneration
+                                ? generation
+                                : null
+                );
+            }
+        }
+        syncedGenerations.keySet().retainAll(synced);
+    }
+
+    private static class Sync {
+
+        final Optional<Credential> oauth2;
+        final long nanos;
+
+        Sync(Optional<Credential> oauth2, long nanos) {
+            this.oauth2 = oauth2;
+            this.nanos = nanos;
+        }
+
+        boolean isWithin(long maxAgeMillis) {
+            return System.nanoTime() - nanos
+                    < TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        }
+
+    }
+
+    static class UpdateId {
+
+        final String projectName;
+        final String accessToken;
+
+        UpdateId(String projectName, Optional<Credential> oauth2) {
+            this.projectName = projectName;
+            accessToken = oauth2.map(Credential::getAccessToken).orElse(null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof UpdateId)) {
+                return false;
+            }
+            UpdateId that = (UpdateId) o;
+            return Objects.equals(projectName, that.projectName)
+                    && Objects.equals(accessToken, that.accessToken);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(projectName, accessToken);
+        }
+
+    }
+
+}
@@ -1,7 +1,10 @@
 package uk.ac.ic.wlgitbridge.bridge.db;
 
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SwapCandidate;
+
 import java.sql.Timestamp;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by winston on 20/08/2016.
@@ -30,15 +33,88 @@ public interface DBStore {
 
     String getSwapCompression(String projectName);
 
+    /**
+     * Records that the given pack file of a project being swapped is stored
+     * under swapKey in the swap store.
+     * @param projectName the project's name
+     * @param fileName the pack file's name in the project's object database
+     * @param swapKey the content-addressed key of the file in the swap store
+     */
+    void addSwappedPack(String projectName, String fileName, String swapKey);
+
+    /**
+     * @param projectName the project's name
+     * @return the project's swapped pack files, as a map from file name to
+     * swap key, empty if there are none
+     */
+    Map<String, String> getSwappedPacks(String projectName);
+
+    void deleteSwappedPacks(String projectName);
+
+    /**
+     * @param swapKey a key returned by {@link #getSwappedPacks(String)}
+     * @return the number of projects whose swapped packs include swapKey
+     */
+    int getNumProjectsWithSwappedPack(String swapKey);
+
     int getNumUnswappedProjects();
 
+    /**
+     * Records the size on disk of a project, which should be updated
+     * whenever the project changes on disk.
+     * @param projectName the project's name
+     * @param sizeBytes the size of the project's directory in bytes
+     */
+    void setProjectSize(String projectName, long sizeBytes);
+
+    /**
+     * @param projectName the project's name
+     * @return the recorded size of the project, or null if it isn't known
+     */
+    Long getProjectSize(String projectName);
+
+    /**
+     * @return the total recorded size of the projects on disk, not counting
+     * those whose size isn't known
+     */
+    long getTotalUnswappedProjectSize();
+
+    /**
+     * @return the projects on disk whose size hasn't been recorded, e.g.
+     * because they predate size accounting
+     */
+    List<String> getUnswappedProjectsWithoutSize();
+
+    /**
+     * @return the projects on disk, with what an eviction policy needs to
+     * know about them
+     */
+    List<SwapCandidate> getSwapCandidates();
+
     ProjectState getProjectState(String projectName);
 
     /**
-     * Sets the last accessed time for the given project name.
+     * Sets the last accessed time for the given project name, counting it as
+     * an access if it isn't null.
      * @param projectName the project's name
      * @param time the time, or null if the project is to be swapped
      */
     void setLastAccessedTime(String projectName, Timestamp time);
 
+    /**
+     * Sets the last accessed time for the given project name without
+     * counting an access, e.g. to put off swapping a project that failed to
+     * swap.
+     * @param projectName the project's name
+     * @param time the time
+     */
+    void resetLastAccessedTime(String projectName, Timestamp time);
+
+    /**
+     * @param projectName the project's name
+     * @return the project's last accessed time, or null if it is swapped or
+     * doesn't exist
+     */
+    Timestamp getLastAccessedTime(String projectName);
+
 }
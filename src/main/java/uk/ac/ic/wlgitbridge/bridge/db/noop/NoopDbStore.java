@@ -2,9 +2,12 @@ package uk.ac.ic.wlgitbridge.bridge.db.noop;
 
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SwapCandidate;
 
 import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class NoopDbStore implements DBStore {
 
@@ -53,6 +56,31 @@ public class NoopDbStore implements DBStore {
         return 0;
     }
 
+    @Override
+    public void setProjectSize(String projectName, long sizeBytes) {
+
+    }
+
+    @Override
+    public Long getProjectSize(String projectName) {
+        return null;
+    }
+
+    @Override
+    public long getTotalUnswappedProjectSize() {
+        return 0;
+    }
+
+    @Override
+    public List<String> getUnswappedProjectsWithoutSize() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<SwapCandidate> getSwapCandidates() {
+        return Collections.emptyList();
+    }
+
     @Override
     public ProjectState getProjectState(String projectName) {
         return null;
@@ -62,6 +90,15 @@ public class NoopDbStore implements DBStore {
     public void setLastAccessedTime(String projectName, Timestamp time) {
     }
 
+    @Override
+    public void resetLastAccessedTime(String projectName, Timestamp time) {
+    }
+
+    @Override
+    public Timestamp getLastAccessedTime(String projectName) {
+        return null;
+    }
+
     @Override
     public void swap(String projectName, String compressionMethod) {}
 
@@ -72,4 +109,24 @@ public class NoopDbStore implements DBStore {
     public String getSwapCompression(String projectName) {
         return null;
     }
+
+    @Override
+    public void addSwappedPack(
+            String projectName,
+            String fileName,
+            String swapKey
+    ) {}
+
+    @Override
+    public Map<String, String> getSwappedPacks(String projectName) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void deleteSwappedPacks(String projectName) {}
+
+    @Override
+    public int getNumProjectsWithSwappedPack(String swapKey) {
+        return 0;
+    }
 }
@@ -9,10 +9,12 @@ import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.create.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.delete.*;
 import uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert.*;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SwapCandidate;
 
 import java.io.File;
 import java.sql.*;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
 /**
@@ -110,6 +112,19 @@ public class SqliteDBStore implements DBStore {
         update(new SetProjectLastAccessedTime(projectName, lastAccessed));
     }
 
+    @Override
+    public void resetLastAccessedTime(
+            String projectName,
+            Timestamp lastAccessed
+    ) {
+        update(new ResetProjectLastAccessedTime(projectName, lastAccessed));
+    }
+
+    @Override
+    public Timestamp getLastAccessedTime(String projectName) {
+        return query(new GetProjectLastAccessedTime(projectName));
+    }
+
     @Override
     public void swap(String projectName, String compressionMethod) {
       update(new UpdateSwap(projectName, compressionMethod));
@@ -125,6 +140,55 @@ public class SqliteDBStore implements DBStore {
         return query(new GetSwapCompression(projectName));
     }
 
+    @Override
+    public void addSwappedPack(
+            String projectName,
+            String fileName,
+            String swapKey
+    ) {
+        update(new AddSwappedPackSQLUpdate(projectName, fileName, swapKey));
+    }
+
+    @Override
+    public Map<String, String> getSwappedPacks(String projectName) {
+        return query(new GetSwappedPacksForProject(projectName));
+    }
+
+    @Override
+    public void deleteSwappedPacks(String projectName) {
+        update(new DeleteSwappedPacksForProjectSQLUpdate(projectName));
+    }
+
+    @Override
+    public int getNumProjectsWithSwappedPack(String swapKey) {
+        return query(new GetNumProjectsWithSwappedPack(swapKey));
+    }
+
+    @Override
+    public void setProjectSize(String projectName, long sizeBytes) {
+        update(new SetProjectSize(projectName, sizeBytes));
+    }
+
+    @Override
+    public Long getProjectSize(String projectName) {
+        return query(new GetProjectSize(projectName));
+    }
+
+    @Override
+    public long getTotalUnswappedProjectSize() {
+        return query(new GetTotalUnswappedProjectSize());
+    }
+
+    @Override
+    public List<String> getUnswappedProjectsWithoutSize() {
+        return query(new GetUnswappedProjectsWithoutSize());
+    }
+
+    @Override
+    public List<SwapCandidate> getSwapCandidates() {
+        return query(new GetSwapCandidates());
+    }
+
     private Connection openConnectionTo(File dbFile) {
         File parentDir = dbFile.getParentFile();
         if (!parentDir.exists() && !parentDir.mkdirs()) {
@@ -155,13 +219,17 @@ public class SqliteDBStore implements DBStore {
         try { doUpdate(new ProjectsAddSwapTime()); } catch (SQLException ignore) {}
         try { doUpdate(new ProjectsAddRestoreTime()); } catch (SQLException ignore) {}
         try { doUpdate(new ProjectsAddSwapCompression()); } catch (SQLException ignore) {}
+        try { doUpdate(new ProjectsAddSizeBytes()); } catch (SQLException ignore) {}
+        try { doUpdate(new ProjectsAddAccessCount()); } catch (SQLException ignore) {}
 
         /* Create tables (if they don't exist) */
         Stream.of(
                 new CreateProjectsTableSQLUpdate(),
                 new CreateProjectsIndexLastAccessed(),
                 new CreateURLIndexStoreSQLUpdate(),
-                new CreateIndexURLIndexStore()
+                new CreateIndexURLIndexStore(),
+                new CreateSwappedPacksTableSQLUpdate(),
+                new CreateIndexSwappedPacksSwapKey()
         ).forEach(this::update);
 
         /* In the case of needing to change the schema, we need to check that
@@ -170,6 +238,8 @@ public class SqliteDBStore implements DBStore {
         Preconditions.checkState(query(new SwapTimeColumnExists()));
         Preconditions.checkState(query(new RestoreTimeColumnExists()));
         Preconditions.checkState(query(new SwapCompressionColumnExists()));
+        Preconditions.checkState(query(new SizeBytesColumnExists()));
+        Preconditions.checkState(query(new AccessCountColumnExists()));
     }
 
     private void update(SQLUpdate update) {
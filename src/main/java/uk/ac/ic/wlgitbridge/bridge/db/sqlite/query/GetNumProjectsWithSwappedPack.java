@@ -0,0 +1,42 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class GetNumProjectsWithSwappedPack implements SQLQuery<Integer> {
+
+    private static final String GET_NUM_PROJECTS_WITH_SWAPPED_PACK =
+            "SELECT COUNT(DISTINCT `project_name`)\n" +
+            "    FROM `swapped_packs`\n" +
+            "    WHERE `swap_key` = ?";
+
+    private final String swapKey;
+
+    public GetNumProjectsWithSwappedPack(String swapKey) {
+        this.swapKey = swapKey;
+    }
+
+    @Override
+    public String getSQL() {
+        return GET_NUM_PROJECTS_WITH_SWAPPED_PACK;
+    }
+
+    @Override
+    public Integer processResultSet(ResultSet resultSet) throws SQLException {
+        while (resultSet.next()) {
+            return resultSet.getInt(1);
+        }
+        throw new IllegalStateException("Count always returns results");
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, swapKey);
+    }
+
+}
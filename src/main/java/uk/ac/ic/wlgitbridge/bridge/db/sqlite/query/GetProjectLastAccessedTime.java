@@ -0,0 +1,44 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+public class GetProjectLastAccessedTime implements SQLQuery<Timestamp> {
+
+    private static final String GET_PROJECT_LAST_ACCESSED_TIME =
+            "SELECT `last_accessed` FROM `projects` WHERE `name` = ?";
+
+    private final String projectName;
+
+    public GetProjectLastAccessedTime(String projectName) {
+        this.projectName = projectName;
+    }
+
+    @Override
+    public String getSQL() {
+        return GET_PROJECT_LAST_ACCESSED_TIME;
+    }
+
+    @Override
+    public Timestamp processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        Timestamp lastAccessed = null;
+        while (resultSet.next()) {
+            lastAccessed = resultSet.getTimestamp("last_accessed");
+        }
+        return lastAccessed;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, projectName);
+    }
+
+}
@@ -0,0 +1,40 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class GetProjectSize implements SQLQuery<Long> {
+  private static final String GET_PROJECT_SIZE =
+    "SELECT `size_bytes` FROM `projects` WHERE `name` = ?";
+
+  private final String projectName;
+
+  public GetProjectSize(String projectName) {
+    this.projectName = projectName;
+  }
+
+  @Override
+  public Long processResultSet(ResultSet resultSet) throws SQLException {
+    Long size = null;
+    while (resultSet.next()) {
+      long sizeBytes = resultSet.getLong("size_bytes");
+      size = resultSet.wasNull() ? null : sizeBytes;
+    }
+    return size;
+  }
+
+  @Override
+  public String getSQL() {
+    return GET_PROJECT_SIZE;
+  }
+
+  @Override
+  public void addParametersToStatement(
+    PreparedStatement statement
+  ) throws SQLException {
+    statement.setString(1, projectName);
+  }
+}
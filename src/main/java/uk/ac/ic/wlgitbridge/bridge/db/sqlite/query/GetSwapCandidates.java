@@ -0,0 +1,40 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SwapCandidate;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GetSwapCandidates implements SQLQuery<List<SwapCandidate>> {
+
+    private static final String GET_SWAP_CANDIDATES =
+            "SELECT `name`, `last_accessed`, `size_bytes`, `access_count`\n" +
+            "    FROM `projects`\n" +
+            "    WHERE `last_accessed` IS NOT NULL";
+
+    @Override
+    public String getSQL() {
+        return GET_SWAP_CANDIDATES;
+    }
+
+    @Override
+    public List<SwapCandidate> processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        List<SwapCandidate> candidates = new ArrayList<>();
+        while (resultSet.next()) {
+            candidates.add(new SwapCandidate(
+                    resultSet.getString("name"),
+                    resultSet.getTimestamp("last_accessed").getTime(),
+                    /* 0 if NULL, i.e. not known yet */
+                    resultSet.getLong("size_bytes"),
+                    resultSet.getLong("access_count")
+            ));
+        }
+        return candidates;
+    }
+
+}
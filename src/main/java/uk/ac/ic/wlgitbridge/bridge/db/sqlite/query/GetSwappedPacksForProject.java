@@ -0,0 +1,51 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class GetSwappedPacksForProject
+        implements SQLQuery<Map<String, String>> {
+
+    private static final String GET_SWAPPED_PACKS_FOR_PROJECT =
+            "SELECT `file_name`, `swap_key` FROM `swapped_packs`\n" +
+            "    WHERE `project_name` = ?\n" +
+            "    ORDER BY `file_name`";
+
+    private final String projectName;
+
+    public GetSwappedPacksForProject(String projectName) {
+        this.projectName = projectName;
+    }
+
+    @Override
+    public String getSQL() {
+        return GET_SWAPPED_PACKS_FOR_PROJECT;
+    }
+
+    @Override
+    public Map<String, String> processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        Map<String, String> packs = new LinkedHashMap<>();
+        while (resultSet.next()) {
+            packs.put(
+                    resultSet.getString("file_name"),
+                    resultSet.getString("swap_key")
+            );
+        }
+        return packs;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, projectName);
+    }
+
+}
@@ -0,0 +1,28 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+public class GetTotalUnswappedProjectSize implements SQLQuery<Long> {
+
+    private static final String GET_TOTAL_UNSWAPPED_PROJECT_SIZE =
+            "SELECT COALESCE(SUM(`size_bytes`), 0) AS `total`\n" +
+            "    FROM `projects`\n" +
+            "    WHERE `last_accessed` IS NOT NULL";
+
+    @Override
+    public String getSQL() {
+        return GET_TOTAL_UNSWAPPED_PROJECT_SIZE;
+    }
+
+    @Override
+    public Long processResultSet(ResultSet resultSet) throws SQLException {
+        while (resultSet.next()) {
+            return resultSet.getLong("total");
+        }
+        throw new IllegalStateException("Sum always returns results");
+    }
+
+}
@@ -0,0 +1,35 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.query;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLQuery;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GetUnswappedProjectsWithoutSize
+        implements SQLQuery<List<String>> {
+
+    private static final String GET_UNSWAPPED_PROJECTS_WITHOUT_SIZE =
+            "SELECT `name`\n" +
+            "    FROM `projects`\n" +
+            "    WHERE `last_accessed` IS NOT NULL\n" +
+            "        AND `size_bytes` IS NULL";
+
+    @Override
+    public String getSQL() {
+        return GET_UNSWAPPED_PROJECTS_WITHOUT_SIZE;
+    }
+
+    @Override
+    public List<String> processResultSet(
+            ResultSet resultSet
+    ) throws SQLException {
+        List<String> projectNames = new ArrayList<>();
+        while (resultSet.next()) {
+            projectNames.add(resultSet.getString("name"));
+        }
+        return projectNames;
+    }
+
+}
@@ -0,0 +1,14 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class ProjectsAddAccessCount implements SQLUpdate {
+  private static final String PROJECTS_ADD_ACCESS_COUNT =
+    "ALTER TABLE `projects`\n" +
+      "ADD COLUMN `access_count` INTEGER NOT NULL DEFAULT 0;\n";
+
+  @Override
+  public String getSQL() {
+    return PROJECTS_ADD_ACCESS_COUNT;
+  }
+}
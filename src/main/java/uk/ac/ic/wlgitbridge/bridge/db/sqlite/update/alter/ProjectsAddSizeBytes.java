@@ -0,0 +1,14 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.alter;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class ProjectsAddSizeBytes implements SQLUpdate {
+  private static final String PROJECTS_ADD_SIZE_BYTES =
+    "ALTER TABLE `projects`\n" +
+      "ADD COLUMN `size_bytes` INTEGER NULL;\n";
+
+  @Override
+  public String getSQL() {
+    return PROJECTS_ADD_SIZE_BYTES;
+  }
+}
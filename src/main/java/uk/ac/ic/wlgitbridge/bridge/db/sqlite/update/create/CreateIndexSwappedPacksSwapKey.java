@@ -0,0 +1,16 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.create;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+public class CreateIndexSwappedPacksSwapKey implements SQLUpdate {
+
+    private static final String CREATE_INDEX_SWAPPED_PACKS_SWAP_KEY =
+            "CREATE INDEX IF NOT EXISTS `swapped_packs_swap_key_index` " +
+            "ON `swapped_packs`(`swap_key`);\n";
+
+    @Override
+    public String getSQL() {
+        return CREATE_INDEX_SWAPPED_PACKS_SWAP_KEY;
+    }
+
+}
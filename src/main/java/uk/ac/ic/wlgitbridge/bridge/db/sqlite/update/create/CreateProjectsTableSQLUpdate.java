@@ -15,6 +15,8 @@ public class CreateProjectsTableSQLUpdate implements SQLUpdate {
             "    `swap_time` DATETIME NULL,\n" +
             "    `restore_time` DATETIME NULL,\n" +
             "    `swap_compression` VARCHAR NULL,\n" +
+            "    `size_bytes` INTEGER NULL,\n" +
+            "    `access_count` INTEGER NOT NULL DEFAULT 0,\n" +
             "    PRIMARY KEY (`name`)\n" +
             ")";
 
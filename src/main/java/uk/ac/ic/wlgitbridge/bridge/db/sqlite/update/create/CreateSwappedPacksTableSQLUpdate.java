@@ -0,0 +1,30 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.create;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+/**
+ * Records which content-addressed pack files in the swap store belong to
+ * which swapped project, so that a pack shared by several projects is only
+ * uploaded once, and only removed when no swapped project refers to it.
+ */
+public class CreateSwappedPacksTableSQLUpdate implements SQLUpdate {
+
+    private static final String CREATE_SWAPPED_PACKS =
+            "CREATE TABLE IF NOT EXISTS `swapped_packs` (\n" +
+            "  `project_name` varchar(10) NOT NULL DEFAULT '',\n" +
+            "  `file_name` text NOT NULL,\n" +
+            "  `swap_key` text NOT NULL,\n" +
+            "  PRIMARY KEY (`project_name`,`file_name`),\n" +
+            "  CONSTRAINT `swapped_packs_ibfk_1` " +
+                    "FOREIGN KEY (`project_name`) " +
+                    "REFERENCES `projects` (`name`) " +
+                    "ON DELETE CASCADE " +
+                    "ON UPDATE CASCADE\n" +
+            ");\n";
+
+    @Override
+    public String getSQL() {
+        return CREATE_SWAPPED_PACKS;
+    }
+
+}
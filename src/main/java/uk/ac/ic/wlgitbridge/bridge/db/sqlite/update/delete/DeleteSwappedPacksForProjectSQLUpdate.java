@@ -0,0 +1,31 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.delete;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class DeleteSwappedPacksForProjectSQLUpdate implements SQLUpdate {
+
+    private static final String DELETE_SWAPPED_PACKS_FOR_PROJECT =
+            "DELETE FROM `swapped_packs` WHERE `project_name` = ?;\n";
+
+    private final String projectName;
+
+    public DeleteSwappedPacksForProjectSQLUpdate(String projectName) {
+        this.projectName = projectName;
+    }
+
+    @Override
+    public String getSQL() {
+        return DELETE_SWAPPED_PACKS_FOR_PROJECT;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, projectName);
+    }
+
+}
@@ -0,0 +1,46 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class AddSwappedPackSQLUpdate implements SQLUpdate {
+
+    private static final String ADD_SWAPPED_PACK =
+            "INSERT OR REPLACE INTO `swapped_packs`(" +
+                    "`project_name`, " +
+                    "`file_name`, " +
+                    "`swap_key`" +
+            ") VALUES " +
+            "(?, ?, ?)\n";
+
+    private final String projectName;
+    private final String fileName;
+    private final String swapKey;
+
+    public AddSwappedPackSQLUpdate(
+            String projectName,
+            String fileName,
+            String swapKey
+    ) {
+        this.projectName = projectName;
+        this.fileName = fileName;
+        this.swapKey = swapKey;
+    }
+
+    @Override
+    public String getSQL() {
+        return ADD_SWAPPED_PACK;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setString(1, projectName);
+        statement.setString(2, fileName);
+        statement.setString(3, swapKey);
+    }
+
+}
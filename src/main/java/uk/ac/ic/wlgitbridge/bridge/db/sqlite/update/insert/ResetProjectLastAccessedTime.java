@@ -0,0 +1,44 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Like {@link SetProjectLastAccessedTime}, but leaves the access count as it
+ * is.
+ */
+public class ResetProjectLastAccessedTime implements SQLUpdate {
+
+    private static final String RESET_PROJECT_LAST_ACCESSED_TIME =
+            "UPDATE `projects`\n" +
+            "SET `last_accessed` = ?\n" +
+            "WHERE `name` = ?";
+
+    private final String projectName;
+    private final Timestamp lastAccessed;
+
+    public ResetProjectLastAccessedTime(
+            String projectName,
+            Timestamp lastAccessed
+    ) {
+        this.projectName = projectName;
+        this.lastAccessed = lastAccessed;
+    }
+
+    @Override
+    public String getSQL() {
+        return RESET_PROJECT_LAST_ACCESSED_TIME;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setTimestamp(1, lastAccessed);
+        statement.setString(2, projectName);
+    }
+
+}
@@ -13,7 +13,9 @@ public class SetProjectLastAccessedTime implements SQLUpdate {
 
     private static final String SET_PROJECT_LAST_ACCESSED_TIME =
             "UPDATE `projects`\n" +
-            "SET `last_accessed` = ?\n" +
+            "SET `last_accessed` = ?,\n" +
+            "    `access_count` = `access_count`\n" +
+            "        + (CASE WHEN ? IS NULL THEN 0 ELSE 1 END)\n" +
             "WHERE `name` = ?";
 
     private final String projectName;
@@ -37,7 +39,8 @@ public class SetProjectLastAccessedTime implements SQLUpdate {
             PreparedStatement statement
     ) throws SQLException {
         statement.setTimestamp(1, lastAccessed);
-        statement.setString(2, projectName);
+        statement.setTimestamp(2, lastAccessed);
+        statement.setString(3, projectName);
     }
 
 }
@@ -0,0 +1,36 @@
+package uk.ac.ic.wlgitbridge.bridge.db.sqlite.update.insert;
+
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SQLUpdate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class SetProjectSize implements SQLUpdate {
+
+    private static final String SET_PROJECT_SIZE =
+            "UPDATE `projects`\n" +
+            "SET `size_bytes` = ?\n" +
+            "WHERE `name` = ?";
+
+    private final String projectName;
+    private final long sizeBytes;
+
+    public SetProjectSize(String projectName, long sizeBytes) {
+        this.projectName = projectName;
+        this.sizeBytes = sizeBytes;
+    }
+
+    @Override
+    public String getSQL() {
+        return SET_PROJECT_SIZE;
+    }
+
+    @Override
+    public void addParametersToStatement(
+            PreparedStatement statement
+    ) throws SQLException {
+        statement.setLong(1, sizeBytes);
+        statement.setString(2, projectName);
+    }
+
+}
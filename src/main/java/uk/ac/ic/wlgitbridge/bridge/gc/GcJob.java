@@ -8,8 +8,9 @@ import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 /**
- * Is started by the bridge. Every time a project is updated, we queue it for
- * GC which executes every hour or so.
+ * Is started by the bridge. Every time a project is updated, either by a push
+ * or by new snapshots, we queue it for GC which executes every hour or so.
+ * Projects which turn out not to have much garbage are not GCed.
  *
  * We don't queue it into a more immediate Executor because there is no way to
  * know if a call to {@link Bridge#updateProject(Optional, ProjectRepo)},
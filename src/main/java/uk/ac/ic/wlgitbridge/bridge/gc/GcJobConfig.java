@@ -0,0 +1,191 @@
+package uk.ac.ic.wlgitbridge.bridge.gc;
+
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import javax.annotation.Nullable;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of the GC job. Any field can be left out, in which case the
+ * defaults are to run every hour on a single worker, GCing the queued
+ * projects with at least 100 loose objects or 5 packs, with no budget, and
+ * reusing existing deltas (like a plain git gc) with JGit's default pack
+ * settings.
+ */
+public class GcJobConfig {
+
+    private static final long DEFAULT_INTERVAL_MILLIS =
+            TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+
+    private static final long DEFAULT_MIN_LOOSE_OBJECTS = 100;
+    private static final long DEFAULT_MIN_PACK_FILES = 5;
+
+    /* The same as git's gc.aggressiveWindow and gc.aggressiveDepth */
+    private static final int AGGRESSIVE_DELTA_SEARCH_WINDOW_SIZE = 250;
+    private static final int AGGRESSIVE_MAX_DELTA_DEPTH = 50;
+
+    @Nullable
+    private final Long intervalMillis;
+
+    @Nullable
+    private final Integer numWorkers;
+
+    @Nullable
+    private final Boolean aggressive;
+
+    @Nullable
+    private final Integer deltaSearchWindowSize;
+
+    @Nullable
+    private final Integer maxDeltaDepth;
+
+    @Nullable
+    private final Integer compressionLevel;
+
+    @Nullable
+    private final Long minLooseObjects;
+
+    @Nullable
+    private final Long minPackFiles;
+
+    @Nullable
+    private final Long maxRunMillis;
+
+    @Nullable
+    private final Long maxBytesPerRun;
+
+    @Nullable
+    private final Double maxLoadPerCpu;
+
+    /**
+     * The config with all the defaults.
+     */
+    public GcJobConfig() {
+        this(null, null, null, null, null, null, null, null, null, null, null);
+    }
+
+    public GcJobConfig(
+            Long intervalMillis,
+            Integer numWorkers,
+            Boolean aggressive,
+            Integer deltaSearchWindowSize,
+            Integer maxDeltaDepth,
+            Integer compressionLevel,
+            Long minLooseObjects,
+            Long minPackFiles,
+            Long maxRunMillis,
+            Long maxBytesPerRun,
+            Double maxLoadPerCpu
+    ) {
+        this.intervalMillis = intervalMillis;
+        this.numWorkers = numWorkers;
+        this.aggressive = aggressive;
+        this.deltaSearchWindowSize = deltaSearchWindowSize;
+        this.maxDeltaDepth = maxDeltaDepth;
+        this.compressionLevel = compressionLevel;
+        this.minLooseObjects = minLooseObjects;
+        this.minPackFiles = minPackFiles;
+        this.maxRunMillis = maxRunMillis;
+        this.maxBytesPerRun = maxBytesPerRun;
+        this.maxLoadPerCpu = maxLoadPerCpu;
+    }
+
+    public long getIntervalMillis() {
+        return Optional.ofNullable(
+                intervalMillis
+        ).orElse(DEFAULT_INTERVAL_MILLIS);
+    }
+
+    public int getNumWorkers() {
+        return Math.max(1, Optional.ofNullable(numWorkers).orElse(1));
+    }
+
+    /**
+     * @return whether to recompute all deltas with a deep search, like
+     * git gc --aggressive, instead of reusing the deltas already in the packs
+     */
+    public boolean isAggressive() {
+        return Optional.ofNullable(aggressive).orElse(false);
+    }
+
+    public Optional<Integer> getDeltaSearchWindowSize() {
+        return Optional.ofNullable(deltaSearchWindowSize);
+    }
+
+    public Optional<Integer> getMaxDeltaDepth() {
+        return Optional.ofNullable(maxDeltaDepth);
+    }
+
+    public Optional<Integer> getCompressionLevel() {
+        return Optional.ofNullable(compressionLevel);
+    }
+
+    /**
+     * @return the number of loose objects at which a queued project is worth
+     * GCing
+     */
+    public long getMinLooseObjects() {
+        return Optional.ofNullable(
+                minLooseObjects
+        ).orElse(DEFAULT_MIN_LOOSE_OBJECTS);
+    }
+
+    /**
+     * @return the number of packs at which a queued project is worth GCing
+     */
+    public long getMinPackFiles() {
+        return Optional.ofNullable(
+                minPackFiles
+        ).orElse(DEFAULT_MIN_PACK_FILES);
+    }
+
+    /**
+     * @return how long a run may keep starting GCs for. Projects that haven't
+     * been started by then are left queued for the next run.
+     */
+    public Optional<Long> getMaxRunMillis() {
+        return Optional.ofNullable(maxRunMillis);
+    }
+
+    /**
+     * @return how many bytes of objects a run may GC, as a bound on its I/O.
+     * The first project of a run is always GCed, however big.
+     */
+    public Optional<Long> getMaxBytesPerRun() {
+        return Optional.ofNullable(maxBytesPerRun);
+    }
+
+    /**
+     * @return the system load average per CPU above which no more GCs are
+     * started in a run
+     */
+    public Optional<Double> getMaxLoadPerCpu() {
+        return Optional.ofNullable(maxLoadPerCpu);
+    }
+
+    /**
+     * @return the pack settings to GC with. These write a bitmap index, as
+     * JGit does by default, for upload-pack to serve clones with. In
+     * aggressive mode, the window and depth default to those of git gc
+     * --aggressive, and existing deltas are not reused.
+     */
+    public PackConfig makePackConfig() {
+        PackConfig packConfig = new PackConfig();
+        if (isAggressive()) {
+            packConfig.setDeltaSearchWindowSize(
+                    AGGRESSIVE_DELTA_SEARCH_WINDOW_SIZE
+            );
+            packConfig.setMaxDeltaDepth(AGGRESSIVE_MAX_DELTA_DEPTH);
+            packConfig.setReuseDeltas(false);
+            packConfig.setReuseObjects(false);
+        }
+        getDeltaSearchWindowSize().ifPresent(
+                packConfig::setDeltaSearchWindowSize
+        );
+        getMaxDeltaDepth().ifPresent(packConfig::setMaxDeltaDepth);
+        getCompressionLevel().ifPresent(packConfig::setCompressionLevel);
+        return packConfig;
+    }
+
+}
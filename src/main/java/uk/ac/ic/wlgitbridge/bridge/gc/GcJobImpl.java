@@ -1,32 +1,71 @@
 package uk.ac.ic.wlgitbridge.bridge.gc;
 
-import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import org.eclipse.jgit.internal.storage.file.GC;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.bridge.trace.AccessEvent;
+import uk.ac.ic.wlgitbridge.bridge.trace.AccessTraceRecorder;
+import uk.ac.ic.wlgitbridge.bridge.trace.NoopAccessTraceRecorder;
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Threads;
 import uk.ac.ic.wlgitbridge.util.TimerUtils;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementation of {@link GcJob} using its own Timer and a synchronized
- * queue.
+ * queue. Each run GCs the queued projects in-process with JGit, on a fixed
+ * pool of workers.
+ *
+ * Queued projects without enough loose objects or packs to be worth it are
+ * not GCed. The rest are GCed in order of how much they are expected to
+ * save, until the run's time, I/O or CPU budget runs out, in which case the
+ * remaining projects are left queued for the next run.
  */
 public class GcJobImpl implements GcJob {
 
+    private static final Histogram gcDuration = Histogram.build()
+            .name("git_bridge_gc_duration_seconds")
+            .help("Time taken to GC a project.")
+            .register();
+
+    private static final Counter gcReclaimedBytes = Counter.build()
+            .name("git_bridge_gc_reclaimed_bytes_total")
+            .help("Bytes of objects reclaimed by GC.")
+            .register();
+
+    private static final Counter gcFailures = Counter.build()
+            .name("git_bridge_gc_failures_total")
+            .help("Number of project GCs that failed.")
+            .register();
+
     private final RepoStore repoStore;
+    private final DBStore dbStore;
     private final ProjectLock locks;
+    private final GcJobConfig config;
+    private final AccessTraceRecorder trace;
 
     private final long intervalMs;
     private final Timer timer;
+    private final ExecutorService workers;
 
     private final Set<String> gcQueue;
 
@@ -40,11 +79,33 @@ public class GcJobImpl implements GcJob {
     private final Lock jobWaitersLock;
     private final List<CompletableFuture<Void>> jobWaiters;
 
-    public GcJobImpl(RepoStore repoStore, ProjectLock locks, long intervalMs) {
+    public GcJobImpl(
+            RepoStore repoStore,
+            DBStore dbStore,
+            ProjectLock locks,
+            GcJobConfig config
+    ) {
+        this(repoStore, dbStore, locks, config, new NoopAccessTraceRecorder());
+    }
+
+    public GcJobImpl(
+            RepoStore repoStore,
+            DBStore dbStore,
+            ProjectLock locks,
+            GcJobConfig config,
+            AccessTraceRecorder trace
+    ) {
         this.repoStore = repoStore;
+        this.dbStore = dbStore;
         this.locks = locks;
-        this.intervalMs = intervalMs;
+        this.config = config;
+        this.trace = trace;
+        intervalMs = config.getIntervalMillis();
         timer = new Timer();
+        workers = Threads.newFixedThreadPool(
+                config.getNumWorkers(),
+                "gc-worker-%d"
+        );
         gcQueue = Collections.newSetFromMap(new ConcurrentHashMap<>());
         preGc = new AtomicReference<>(() -> {});
         postGc = new AtomicReference<>(() -> {});
@@ -52,17 +113,47 @@ public class GcJobImpl implements GcJob {
         jobWaiters = new ArrayList<>();
     }
 
-    public GcJobImpl(RepoStore repoStore, ProjectLock locks) {
+    public GcJobImpl(
+            RepoStore repoStore,
+            DBStore dbStore,
+            ProjectLock locks,
+            long intervalMs
+    ) {
         this(
                 repoStore,
+                dbStore,
                 locks,
-                TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS)
+                new GcJobConfig(
+                        intervalMs,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        null
+                )
         );
     }
 
+    public GcJobImpl(
+            RepoStore repoStore,
+            DBStore dbStore,
+            ProjectLock locks
+    ) {
+        this(repoStore, dbStore, locks, new GcJobConfig());
+    }
+
     @Override
     public void start() {
-        Log.info("Starting GC job to run every [{}] ms", intervalMs);
+        Log.info(
+                "Starting GC job to run every [{}] ms on {} workers",
+                intervalMs,
+                config.getNumWorkers()
+        );
         timer.scheduleAtFixedRate(
                 TimerUtils.makeTimerTask(this::doGC),
                 intervalMs,
@@ -74,6 +165,7 @@ public class GcJobImpl implements GcJob {
     public void stop() {
         Log.info("Stopping GC job");
         timer.cancel();
+        workers.shutdown();
     }
 
     @Override
@@ -109,26 +201,61 @@ public class GcJobImpl implements GcJob {
 
     private void doGC() {
         Log.info("GC job running");
-        int numGcs = 0;
         preGc.get().run();
-        for (
-                Iterator<String> it = gcQueue.iterator();
-                it.hasNext();
-                it.remove(), ++numGcs
-        ) {
+        List<GcCandidate> candidates = new ArrayList<>();
+        int numSkipped = 0;
+        for (Iterator<String> it = gcQueue.iterator(); it.hasNext(); ) {
             String proj = it.next();
-            Log.info("[{}] Running GC job on project", proj);
-            try (LockGuard __ = locks.lockGuard(proj)) {
-                try {
-                    ProjectRepo repo = repoStore.getExistingRepo(proj);
-                    repo.runGC();
-                    repo.deleteIncomingPacks();
-                } catch (IOException e) {
-                    Log.info("[{}] Failed to GC project", proj);
+            /* Remove it first, so that it can be queued again while running */
+            it.remove();
+            Optional<GcCandidate> candidate = inspect(proj);
+            if (candidate.isPresent()) {
+                candidates.add(candidate.get());
+            } else {
+                ++numSkipped;
+            }
+        }
+        candidates.sort(Comparator.comparingLong(
+                (GcCandidate c) -> c.expectedSavings
+        ).reversed());
+        long deadline = config.getMaxRunMillis().map(
+                ms -> System.currentTimeMillis() + ms
+        ).orElse(Long.MAX_VALUE);
+        AtomicLong bytesLeft = new AtomicLong(
+                config.getMaxBytesPerRun().orElse(Long.MAX_VALUE)
+        );
+        AtomicInteger numGcs = new AtomicInteger();
+        AtomicInteger numDeferred = new AtomicInteger();
+        List<Future<?>> gcs = new ArrayList<>();
+        for (GcCandidate candidate : candidates) {
+            gcs.add(workers.submit(() -> {
+                if (!withinBudget(deadline, bytesLeft, candidate.sizeBytes)) {
+                    gcQueue.add(candidate.projectName);
+                    numDeferred.incrementAndGet();
+                    return;
                 }
+                gcProject(candidate.projectName);
+                numGcs.incrementAndGet();
+            }));
+        }
+        for (Future<?> gc : gcs) {
+            try {
+                gc.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.warn("GC worker failed", e.getCause());
             }
         }
-        Log.info("GC job finished, num gcs: {}", numGcs);
+        Log.info(
+                "GC job finished, num gcs: {}, " +
+                        "skipped (not enough garbage): {}, " +
+                        "deferred (over budget): {}",
+                numGcs.get(),
+                numSkipped,
+                numDeferred.get()
+        );
         jobWaitersLock.lock();
         try {
             jobWaiters.forEach(w -> w.complete(null));
@@ -138,4 +265,149 @@ public class GcJobImpl implements GcJob {
         postGc.get().run();
     }
 
+    /**
+     * Looks at how much garbage a queued project has. If it isn't worth a
+     * GC, just deletes its incoming packs, like a GC would have.
+     * @return the project, if it should be GCed
+     */
+    private Optional<GcCandidate> inspect(String proj) {
+        locks.lockForProject(proj);
+        try {
+            ProjectRepo repo = repoStore.getExistingRepo(proj);
+            GC.RepoStatistics stats = repo.getRepoStatistics();
+            if (stats.numberOfLooseObjects >= config.getMinLooseObjects()
+                    || stats.numberOfPackFiles >= config.getMinPackFiles()) {
+                return Optional.of(new GcCandidate(proj, stats));
+            }
+            Log.info("[{}] Not enough garbage to GC: {}", proj, stats);
+            repo.deleteIncomingPacks();
+            updateProjectSize(proj);
+        } catch (IOException e) {
+            Log.info("[{}] Failed to inspect project for GC", proj, e);
+        } finally {
+            locks.unlockForProject(proj);
+        }
+        return Optional.empty();
+    }
+
+    private boolean withinBudget(
+            long deadline,
+            AtomicLong bytesLeft,
+            long sizeBytes
+    ) {
+        if (System.currentTimeMillis() > deadline || isCpuOverloaded()) {
+            return false;
+        }
+        if (bytesLeft.get() <= 0) {
+            return false;
+        }
+        bytesLeft.addAndGet(-sizeBytes);
+        return true;
+    }
+
+    private boolean isCpuOverloaded() {
+        Optional<Double> maxLoadPerCpu = config.getMaxLoadPerCpu();
+        if (!maxLoadPerCpu.isPresent()) {
+            return false;
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage();
+        /* Negative if the platform can't tell us */
+        return load >= 0
+                && load / os.getAvailableProcessors() > maxLoadPerCpu.get();
+    }
+
+    /**
+     * GCs the project without its project lock, so that requests for it don't
+     * wait for the repack. JGit's GC is safe alongside other readers and
+     * writers, and only prunes loose objects that are weeks old. The
+     * maintenance lock keeps the project from being swapped out, or forked
+     * by hard-linking files that the GC may delete, meanwhile, and shutdown
+     * waits for it.
+     * The incoming packs of pushes are only deleted under the project lock.
+     */
+    private void gcProject(String proj) {
+        Log.info("[{}] Running GC job on project", proj);
+        locks.lockMaintenanceForProject(proj);
+        try {
+            long start = System.nanoTime();
+            try {
+                ProjectRepo repo;
+                locks.lockForProject(proj);
+                try {
+                    repo = repoStore.getExistingRepo(proj);
+                } finally {
+                    locks.unlockForProject(proj);
+                }
+                long reclaimed = repo.runGC(config.makePackConfig());
+                long sizeBytes;
+                locks.lockForProject(proj);
+                try {
+                    repo.deleteIncomingPacks();
+                    sizeBytes = updateProjectSize(proj);
+                } finally {
+                    locks.unlockForProject(proj);
+                }
+                trace.record(
+                        AccessEvent.Type.GC,
+                        proj,
+                        sizeBytes,
+                        System.nanoTime() - start
+                );
+                if (reclaimed > 0) {
+                    gcReclaimedBytes.inc(reclaimed);
+                }
+                Log.info(
+                        "[{}] GC took {} ms, reclaimed {} bytes",
+                        proj,
+                        TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - start
+                        ),
+                        reclaimed
+                );
+            } catch (IOException e) {
+                gcFailures.inc();
+                Log.info("[{}] Failed to GC project", proj, e);
+            } finally {
+                gcDuration.observe(
+                        (System.nanoTime() - start) / 1e9
+                );
+            }
+        } finally {
+            locks.unlockMaintenanceForProject(proj);
+        }
+    }
+
+    private long updateProjectSize(String proj) throws IOException {
+        long sizeBytes = repoStore.sizeOfProject(proj);
+        dbStore.setProjectSize(proj, sizeBytes);
+        return sizeBytes;
+    }
+
+    private static class GcCandidate {
+
+        final String projectName;
+
+        final long sizeBytes;
+
+        /**
+         * A rough estimate of the bytes GC can compact: loose objects get
+         * packed and deltified, and all but one pack's worth of packed
+         * objects get merged, which finds deltas between the packs.
+         */
+        final long expectedSavings;
+
+        GcCandidate(String projectName, GC.RepoStatistics stats) {
+            this.projectName = projectName;
+            sizeBytes = stats.sizeOfLooseObjects + stats.sizeOfPackedObjects;
+            long packedSavings = stats.numberOfPackFiles == 0
+                    ? 0
+                    : stats.sizeOfPackedObjects
+                            / stats.numberOfPackFiles
+                            * (stats.numberOfPackFiles - 1);
+            expectedSavings = stats.sizeOfLooseObjects + packedSavings;
+        }
+
+    }
+
 }
@@ -5,6 +5,13 @@ package uk.ac.ic.wlgitbridge.bridge.lock;
  *
  * The locks should be re-entrant. For example, we are usually holding the lock
  * when a project must be restored, which tries to acquire the lock again.
+ *
+ * Background maintenance of a project, i.e. GC and swapping it out, also
+ * takes the project's maintenance lock, before its project lock. A GC only
+ * holds the maintenance lock while it repacks, so requests for the project
+ * can go on, but the project can't be swapped out from under it, or forked
+ * while packs are being deleted. {@link #lockAll()} waits for the holders
+ * of maintenance locks as well as project locks.
  */
 public interface ProjectLock {
 
@@ -14,10 +21,19 @@ public interface ProjectLock {
 
     void unlockForProject(String projectName);
 
+    void lockMaintenanceForProject(String projectName);
+
+    void unlockMaintenanceForProject(String projectName);
+
     /* RAII hahaha */
     default LockGuard lockGuard(String projectName) {
         lockForProject(projectName);
         return () -> unlockForProject(projectName);
     }
 
+    default LockGuard maintenanceGuard(String projectName) {
+        lockMaintenanceForProject(projectName);
+        return () -> unlockMaintenanceForProject(projectName);
+    }
+
 }
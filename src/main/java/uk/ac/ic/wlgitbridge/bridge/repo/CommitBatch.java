@@ -0,0 +1,41 @@
+package uk.ac.ic.wlgitbridge.bridge.repo;
+
+import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
+import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A series of commits to a project, e.g. the snapshots of a catch-up, whose
+ * objects all go into a single pack instead of thousands of loose objects.
+ *
+ * Nothing is visible in the repository until {@link #flush()}, which writes
+ * the pack and moves HEAD to the last commit. Closing a batch without
+ * flushing it throws the commits away, leaving the repository as it was.
+ *
+ * Make sure to hold the project lock for the lifetime of the batch.
+ */
+public interface CommitBatch extends AutoCloseable {
+
+    /**
+     * @return the contents of the last commit in the batch, or of HEAD if
+     * nothing has been committed yet
+     */
+    RawDirectory getDirectory() throws IOException, GitUserException;
+
+    /**
+     * Commits the contents on top of the last commit in the batch.
+     * @return the paths that were in the last commit but not in this one
+     */
+    Collection<String> commitAndGetMissing(
+            GitDirectoryContents contents
+    ) throws IOException;
+
+    void flush() throws IOException;
+
+    @Override
+    void close();
+
+}
@@ -4,19 +4,34 @@ import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.Project;
 import uk.ac.ic.wlgitbridge.util.Tar;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static uk.ac.ic.wlgitbridge.util.Util.deleteInDirectoryApartFrom;
 
@@ -27,6 +42,12 @@ public class FSGitRepoStore implements RepoStore {
 
     private static final long DEFAULT_MAX_FILE_SIZE = 50 * 1024 * 1024;
 
+    private static final Pattern PACK_FILE_NAME =
+            Pattern.compile("^(pack-[0-9a-f]+)\\.(pack|idx|bitmap)$");
+
+    /* A pack ends with the SHA-1 checksum of everything before it */
+    private static final int PACK_CHECKSUM_LENGTH = 20;
+
     private final String repoStorePath;
 
     private final File rootDirectory;
@@ -82,14 +103,14 @@ public class FSGitRepoStore implements RepoStore {
          String repoRoot = getRepoStorePath();
          String sourcePath = repoRoot + "/" + fromProject;
          String destinationPath = repoRoot + "/" + project;
-         Log.info("[{}] Init repo by copying data from: {}, to: {}",
+         Log.info("[{}] Init repo by forking data from: {}, to: {}",
              project,
              sourcePath,
              destinationPath
          );
          File source = new File(sourcePath);
          File destination = new File(destinationPath);
-         FileUtils.copyDirectory(source, destination);
+         forkDirectory(source.toPath(), destination.toPath());
          GitProjectRepo ret = GitProjectRepo.fromName(project);
          ret.useExistingRepository(this);
          return new WalkOverrideGitRepo(
@@ -111,6 +132,11 @@ public class FSGitRepoStore implements RepoStore {
                 ret, Optional.of(maxFileSize), Optional.of(commitId));
     }
 
+    @Override
+    public long getMaxFileSize() {
+        return maxFileSize;
+    }
+
     /* TODO: Perhaps we should just delete bad directories on the fly. */
     @Override
     public void purgeNonexistentProjects(
@@ -130,6 +156,65 @@ public class FSGitRepoStore implements RepoStore {
         return fsSizer.apply(rootDirectory);
     }
 
+    @Override
+    public long sizeOfProject(String projectName) throws IOException {
+        File dir = getDirForProject(projectName);
+        if (!dir.isDirectory()) {
+            throw new FileNotFoundException(dir.getAbsolutePath());
+        }
+        return sizeOfDirectory(dir.toPath());
+    }
+
+    /**
+     * Adds up the sizes of the files in a directory, sharing the size of a
+     * hard-linked file, e.g. a pack of a fork, equally between its links, so
+     * that the sizes of the projects that share it only add up to its size
+     * on disk once. Files that are deleted during the walk, e.g. by a GC,
+     * are left out.
+     */
+    static long sizeOfDirectory(Path dir) throws IOException {
+        boolean unix = dir.getFileSystem(
+        ).supportedFileAttributeViews().contains("unix");
+        long[] size = new long[1];
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(
+                    Path file,
+                    BasicFileAttributes attrs
+            ) throws IOException {
+                long bytes = attrs.size();
+                if (unix && attrs.isRegularFile()) {
+                    try {
+                        int links = (Integer) Files.getAttribute(
+                                file,
+                                "unix:nlink",
+                                LinkOption.NOFOLLOW_LINKS
+                        );
+                        bytes /= Math.max(1, links);
+                    } catch (NoSuchFileException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+                size[0] += bytes;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(
+                    Path file,
+                    IOException e
+            ) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+
+        });
+        return size[0];
+    }
+
     @Override
     public InputStream bzip2Project(
             String projectName,
@@ -150,11 +235,64 @@ public class FSGitRepoStore implements RepoStore {
         return Tar.gzip.zip(getDotGitForProject(projectName), sizePtr);
     }
 
+    @Override
+    public List<RepoPackFile> getPackFiles(
+            String projectName
+    ) throws IOException {
+        Project.checkValidProjectName(projectName);
+        File dotGit = getDotGitForProject(projectName);
+        if (!dotGit.isDirectory()) {
+            throw new FileNotFoundException(dotGit.getAbsolutePath());
+        }
+        List<RepoPackFile> ret = new ArrayList<>();
+        File packDir = getPackDirForProject(projectName);
+        File[] files = packDir.listFiles();
+        if (files == null) {
+            return ret;
+        }
+        for (File file : files) {
+            Matcher m = PACK_FILE_NAME.matcher(file.getName());
+            if (!m.matches()) {
+                continue;
+            }
+            File pack = new File(packDir, m.group(1) + ".pack");
+            if (!pack.isFile()) {
+                /* A stray .idx or .bitmap, leave it with the rest of .git */
+                continue;
+            }
+            ret.add(new RepoPackFile(
+                    file,
+                    readPackChecksum(pack) + "." + m.group(2)
+            ));
+        }
+        return ret;
+    }
+
+    @Override
+    public InputStream gzipProjectWithoutPacks(
+            String projectName,
+            long[] sizePtr
+    ) throws IOException {
+        Set<File> packFiles = getPackFiles(
+                projectName
+        ).stream().map(RepoPackFile::getFile).collect(Collectors.toSet());
+        Log.info(
+                "[{}] gzip project without {} pack files",
+                projectName,
+                packFiles.size()
+        );
+        return Tar.gzip.zip(
+                getDotGitForProject(projectName),
+                sizePtr,
+                f -> !packFiles.contains(f)
+        );
+    }
+
     @Override
     public void gcProject(String projectName) throws IOException {
         Project.checkValidProjectName(projectName);
         ProjectRepo repo = getExistingRepo(projectName);
-        repo.runGC();
+        repo.runGC(new PackConfig());
     }
 
     @Override
@@ -203,6 +341,103 @@ public class FSGitRepoStore implements RepoStore {
         Tar.gzip.unzip(dataStream, getDirForProject(projectName));
     }
 
+    @Override
+    public void addPackFile(
+            String projectName,
+            String fileName,
+            InputStream dataStream
+    ) throws IOException {
+        Preconditions.checkArgument(
+                PACK_FILE_NAME.matcher(fileName).matches(),
+                "[%s] invalid pack file name: %s",
+                projectName,
+                fileName
+        );
+        File packDir = getPackDirForProject(projectName);
+        packDir.mkdirs();
+        Files.copy(dataStream, new File(packDir, fileName).toPath());
+    }
+
+    /**
+     * Copies a project's directory for a fork, hard-linking the object files
+     * instead of copying them. Git never modifies an object or pack file once
+     * it has been written, so the two projects can share them until either
+     * is repacked, which just unlinks its own copy. Everything else, e.g.
+     * refs, config and objects/info, is copied. Falls back to copying if the
+     * file system doesn't support hard links.
+     */
+    private static void forkDirectory(
+            Path source,
+            Path destination
+    ) throws IOException {
+        Path objects = Paths.get(".git", "objects");
+        Path objectsInfo = objects.resolve("info");
+        long[] linked = new long[1];
+        long[] copied = new long[1];
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(
+                    Path dir,
+                    BasicFileAttributes attrs
+            ) throws IOException {
+                Files.createDirectories(
+                        destination.resolve(source.relativize(dir))
+                );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(
+                    Path file,
+                    BasicFileAttributes attrs
+            ) throws IOException {
+                Path relative = source.relativize(file);
+                Path target = destination.resolve(relative);
+                if (relative.startsWith(objects)
+                        && !relative.startsWith(objectsInfo)) {
+                    try {
+                        Files.createLink(target, file);
+                        ++linked[0];
+                        return FileVisitResult.CONTINUE;
+                    } catch (IOException | UnsupportedOperationException e) {
+                        Log.debug("Could not link {}, copying", file, e);
+                    }
+                }
+                Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+                ++copied[0];
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+        Log.info(
+                "Forked {} to {}: {} files linked, {} files copied",
+                source,
+                destination,
+                linked[0],
+                copied[0]
+        );
+    }
+
+    private static String readPackChecksum(File pack) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            long length = in.length();
+            if (length < PACK_CHECKSUM_LENGTH) {
+                throw new IOException("pack file too short: " + pack);
+            }
+            byte[] checksum = new byte[PACK_CHECKSUM_LENGTH];
+            in.seek(length - PACK_CHECKSUM_LENGTH);
+            in.readFully(checksum);
+            return ObjectId.fromRaw(checksum).name();
+        }
+    }
+
+    private File getPackDirForProject(String projectName) {
+        return getDotGitForProject(
+                projectName
+        ).toPath().resolve("objects").resolve("pack").toFile();
+    }
+
     private File getDirForProject(String projectName) {
         Project.checkValidProjectName(projectName);
         return Paths.get(
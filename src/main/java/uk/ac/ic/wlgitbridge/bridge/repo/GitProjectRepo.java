@@ -1,29 +1,29 @@
 package uk.ac.ic.wlgitbridge.bridge.repo;
 
 import com.google.common.base.Preconditions;
-import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.git.util.RepositoryObjectTreeWalker;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.Project;
-import uk.ac.ic.wlgitbridge.util.Util;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
 import java.util.*;
 
 /**
@@ -101,45 +101,67 @@ public class GitProjectRepo implements ProjectRepo {
     public Collection<String> commitAndGetMissing(
             GitDirectoryContents contents
     ) throws IOException {
+        try (CommitBatch batch = beginCommitBatch(false)) {
+            Collection<String> missingFiles =
+                    batch.commitAndGetMissing(contents);
+            batch.flush();
+            return missingFiles;
+        }
+    }
+
+    @Override
+    public CommitBatch beginCommitBatch(
+            boolean deltaCompression
+    ) throws IOException {
+        Preconditions.checkState(repository.isPresent());
+        return new PackCommitBatch(
+                projectName,
+                getJGitRepository(),
+                deltaCompression
+        );
+    }
+
+    @Override
+    public long runGC(PackConfig packConfig) throws IOException {
+        Log.info("[{}] Running gc", projectName);
+        GC gc = newGC();
+        gc.setPackConfig(packConfig);
+        long before = sizeOfObjects(gc.getStatistics());
         try {
-            return doCommitAndGetMissing(contents);
-        } catch (GitAPIException e) {
+            gc.gc();
+        } catch (ParseException e) {
+            /* Only thrown for a bad gc.pruneExpire in the repo's config */
             throw new IOException(e);
         }
+        long reclaimed = before - sizeOfObjects(gc.getStatistics());
+        Log.info(
+                "[{}] gc successful, reclaimed {} bytes",
+                projectName,
+                reclaimed
+        );
+        return reclaimed;
     }
 
     @Override
-    public void runGC() throws IOException {
+    public GC.RepoStatistics getRepoStatistics() throws IOException {
+        return newGC().getStatistics();
+    }
+
+    private GC newGC() {
         Preconditions.checkState(
                 repository.isPresent(),
                 "Repo is not present"
         );
-        File dir = getProjectDir();
-        Preconditions.checkState(dir.isDirectory());
-        Log.info("[{}] Running git gc", projectName);
-        Process proc = new ProcessBuilder(
-                "git", "gc"
-        ).directory(dir).start();
-        int exitCode;
-        try {
-            exitCode = proc.waitFor();
-            Log.info("Exit: {}", exitCode);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-        if (exitCode != 0) {
-            Log.warn("[{}] Git gc failed", dir.getAbsolutePath());
-            Log.warn(IOUtils.toString(
-                    proc.getInputStream(),
-                    StandardCharsets.UTF_8
-            ));
-            Log.warn(IOUtils.toString(
-                    proc.getErrorStream(),
-                    StandardCharsets.UTF_8
-            ));
-            throw new IOException("git gc error");
-        }
-        Log.info("[{}] git gc successful", projectName);
+        Repository repo = repository.get();
+        Preconditions.checkState(
+                repo instanceof FileRepository,
+                "Repo is not on disk"
+        );
+        return new GC((FileRepository) repo);
+    }
+
+    private static long sizeOfObjects(GC.RepoStatistics stats) {
+        return stats.sizeOfLooseObjects + stats.sizeOfPackedObjects;
     }
 
     @Override
@@ -235,46 +257,4 @@ public class GitProjectRepo implements ProjectRepo {
         return new FileRepositoryBuilder().setWorkTree(repoDir).build();
     }
 
-    private Collection<String> doCommitAndGetMissing(
-            GitDirectoryContents contents
-    ) throws IOException, GitAPIException {
-        Preconditions.checkState(repository.isPresent());
-        Repository repo = getJGitRepository();
-        resetHard();
-        String name = getProjectName();
-        Log.info("[{}] Writing commit", name);
-        contents.write();
-        Git git = new Git(getJGitRepository());
-        Log.info("[{}] Getting missing files", name);
-        Set<String> missingFiles = git.status().call().getMissing();
-        for (String missing : missingFiles) {
-            Log.info("[{}] Git rm {}", name, missing);
-            git.rm().setCached(true).addFilepattern(missing).call();
-        }
-        Log.info("[{}] Calling Git add", name);
-        git.add(
-        ).setWorkingTreeIterator(
-                new NoGitignoreIterator(repo)
-        ).addFilepattern(".").call();
-        Log.info("[{}] Calling Git commit", name);
-        git.commit(
-        ).setAuthor(
-                new PersonIdent(
-                        contents.getUserName(),
-                        contents.getUserEmail(),
-                        contents.getWhen(),
-                        TimeZone.getDefault()
-                )
-        ).setMessage(
-                contents.getCommitMessage()
-        ).call();
-        Log.info(
-                "[{}] Deleting files in directory: {}",
-                name,
-                contents.getDirectory().getAbsolutePath()
-        );
-        Util.deleteInDirectoryApartFrom(contents.getDirectory(), ".git");
-        return missingFiles;
-    }
-
 }
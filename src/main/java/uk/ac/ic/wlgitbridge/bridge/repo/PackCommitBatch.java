@@ -0,0 +1,273 @@
+package uk.ac.ic.wlgitbridge.bridge.repo;
+
+import com.google.common.base.Preconditions;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackInserter;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
+import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.git.util.RepositoryObjectTreeWalker;
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * {@link CommitBatch} which builds each commit in memory, without touching
+ * the working tree, and inserts its objects with a {@link PackInserter}.
+ *
+ * If delta compression is on, the objects aren't flushed as they are, but
+ * repacked with deltas between them first. Successive versions of a project
+ * mostly differ by a few lines, so this is much smaller than the plain pack.
+ */
+class PackCommitBatch implements CommitBatch {
+
+    private final String projectName;
+    private final Repository repo;
+    private final boolean deltaCompression;
+
+    private final PackInserter inserter;
+    private final ObjectReader reader;
+
+    /* Null while the repo has no commits */
+    private ObjectId flushedHead;
+    private ObjectId head;
+    private int numCommits;
+
+    PackCommitBatch(
+            String projectName,
+            Repository repo,
+            boolean deltaCompression
+    ) throws IOException {
+        Preconditions.checkArgument(
+                repo instanceof FileRepository,
+                "Repo is not on disk"
+        );
+        this.projectName = projectName;
+        this.repo = repo;
+        this.deltaCompression = deltaCompression;
+        ObjectDirectory objectDirectory =
+                ((FileRepository) repo).getObjectDatabase();
+        /* Git doesn't need it until there are packs, so it may be missing */
+        Files.createDirectories(objectDirectory.getPackDirectory().toPath());
+        inserter = objectDirectory.newPackInserter();
+        reader = inserter.newReader();
+        flushedHead = repo.resolve(Constants.HEAD);
+        head = flushedHead;
+        numCommits = 0;
+    }
+
+    @Override
+    public RawDirectory getDirectory() throws IOException, GitUserException {
+        return new RepositoryObjectTreeWalker(
+                reader,
+                head
+        ).getDirectoryContents(Optional.empty());
+    }
+
+    @Override
+    public Collection<String> commitAndGetMissing(
+            GitDirectoryContents contents
+    ) throws IOException {
+        Log.info("[{}] Writing commit", projectName);
+        /* Later files with the same path win, like writing them to disk */
+        Map<String, RawFile> files = new LinkedHashMap<>();
+        for (RawFile file : contents.getFiles()) {
+            files.put(file.getPath(), file);
+        }
+        DirCache dirCache = DirCache.newInCore();
+        DirCacheBuilder builder = dirCache.builder();
+        for (RawFile file : files.values()) {
+            DirCacheEntry entry = new DirCacheEntry(file.getPath());
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(
+                    inserter.insert(Constants.OBJ_BLOB, file.getContents())
+            );
+            builder.add(entry);
+        }
+        builder.finish();
+        Set<String> missingFiles = getPathsInHead();
+        missingFiles.removeAll(files.keySet());
+        CommitBuilder commit = new CommitBuilder();
+        commit.setTreeId(dirCache.writeTree(inserter));
+        if (head != null) {
+            commit.setParentId(head);
+        }
+        commit.setAuthor(
+                new PersonIdent(
+                        contents.getUserName(),
+                        contents.getUserEmail(),
+                        contents.getWhen(),
+                        TimeZone.getDefault()
+                )
+        );
+        commit.setCommitter(new PersonIdent(repo));
+        commit.setMessage(contents.getCommitMessage());
+        head = inserter.insert(commit);
+        ++numCommits;
+        return missingFiles;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (Objects.equals(head, flushedHead)) {
+            return;
+        }
+        Log.info(
+                "[{}] Writing pack of {} commits{}",
+                projectName,
+                numCommits,
+                deltaCompression ? ", with deltas" : ""
+        );
+        if (deltaCompression) {
+            writeDeltaCompressedPack();
+        } else {
+            inserter.flush();
+        }
+        updateHead();
+        updateIndex();
+        /* The working tree is only a scratch area, so leave it empty */
+        Util.deleteInDirectoryApartFrom(repo.getWorkTree(), ".git");
+        flushedHead = head;
+        numCommits = 0;
+    }
+
+    @Override
+    public void close() {
+        reader.close();
+        /* Deletes the pack if it wasn't flushed */
+        inserter.close();
+    }
+
+    private Set<String> getPathsInHead() throws IOException {
+        Set<String> paths = new HashSet<>();
+        if (head == null) {
+            return paths;
+        }
+        try (RevWalk walk = new RevWalk(reader);
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(walk.parseCommit(head).getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Repacks the objects in the batch with deltas between them, and adds
+     * the new pack to the repo in place of the pack being inserted.
+     *
+     * The previous HEAD's objects are left out, so the pack isn't thin, and
+     * the first version in the batch is stored whole. GC will find deltas
+     * against the previous versions later.
+     */
+    private void writeDeltaCompressedPack() throws IOException {
+        File packDir = ((FileRepository) repo).getObjectDatabase(
+        ).getPackDirectory();
+        /* Named so that it gets cleaned up as garbage if we crash */
+        File tmp = File.createTempFile("incoming_", ".pack", packDir);
+        try {
+            try (PackWriter writer = new PackWriter(
+                    new PackConfig(repo), reader);
+                 OutputStream out = new BufferedOutputStream(
+                         new FileOutputStream(tmp))) {
+                writer.setDeltaBaseAsOffset(true);
+                writer.preparePack(
+                        NullProgressMonitor.INSTANCE,
+                        Collections.singleton(head),
+                        flushedHead == null
+                                ? Collections.emptySet()
+                                : Collections.singleton(flushedHead)
+                );
+                writer.writePack(
+                        NullProgressMonitor.INSTANCE,
+                        NullProgressMonitor.INSTANCE,
+                        out
+                );
+            }
+            try (ObjectInserter packInserter = repo.newObjectInserter();
+                 InputStream in = new BufferedInputStream(
+                         new FileInputStream(tmp))) {
+                PackParser parser = packInserter.newPackParser(in);
+                parser.parse(NullProgressMonitor.INSTANCE);
+                packInserter.flush();
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private void updateHead() throws IOException {
+        RefUpdate update = repo.updateRef(Constants.HEAD);
+        update.setNewObjectId(head);
+        update.setExpectedOldObjectId(
+                flushedHead == null ? ObjectId.zeroId() : flushedHead
+        );
+        update.setRefLogMessage(
+                "commit: " + numCommits + " snapshots",
+                false
+        );
+        RefUpdate.Result result = update.update();
+        switch (result) {
+        case NEW:
+        case FAST_FORWARD:
+            break;
+        default:
+            throw new IOException(
+                    "Failed to update HEAD of " + projectName + ": " + result
+            );
+        }
+    }
+
+    /**
+     * Keeps the index in line with HEAD, like a commit would.
+     */
+    private void updateIndex() throws IOException {
+        DirCache index = repo.lockDirCache();
+        try (ObjectReader headReader = repo.newObjectReader();
+             RevWalk walk = new RevWalk(headReader)) {
+            DirCacheBuilder builder = index.builder();
+            builder.addTree(
+                    new byte[0],
+                    DirCacheEntry.STAGE_0,
+                    headReader,
+                    walk.parseCommit(head).getTree()
+            );
+            builder.commit();
+        } finally {
+            index.unlock();
+        }
+    }
+
+}
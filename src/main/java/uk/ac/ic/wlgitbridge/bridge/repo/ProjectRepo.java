@@ -1,6 +1,8 @@
 package uk.ac.ic.wlgitbridge.bridge.repo;
 
+import org.eclipse.jgit.internal.storage.file.GC;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
@@ -31,7 +33,30 @@ public interface ProjectRepo {
             GitDirectoryContents gitDirectoryContents
     ) throws IOException, GitUserException;
 
-    void runGC() throws IOException;
+    /**
+     * Starts a batch of commits whose objects are written as one pack.
+     * @param deltaCompression whether to find deltas between the objects in
+     * the batch before writing the pack
+     */
+    CommitBatch beginCommitBatch(
+            boolean deltaCompression
+    ) throws IOException;
+
+    /**
+     * Garbage collects the repository in-process: repacks everything
+     * reachable into a single pack, prunes expired loose objects and packs
+     * the refs.
+     * @param packConfig the settings to write the new pack with
+     * @return the number of bytes of objects reclaimed, which can be
+     * negative if the new pack ends up larger, e.g. because of a bitmap
+     */
+    long runGC(PackConfig packConfig) throws IOException;
+
+    /**
+     * @return the numbers and sizes of the loose objects and packs in the
+     * repository, which are cheap to get and say how much GC could save
+     */
+    GC.RepoStatistics getRepoStatistics() throws IOException;
 
     void deleteIncomingPacks() throws IOException;
 
@@ -0,0 +1,33 @@
+package uk.ac.ic.wlgitbridge.bridge.repo;
+
+import java.io.File;
+
+/**
+ * A file belonging to a pack in a project's object database, i.e. a .pack
+ * file or one of its .idx or .bitmap siblings, along with a key derived
+ * from the contents of the pack. Two projects whose packs have the same key
+ * can share a single copy of them.
+ */
+public class RepoPackFile {
+
+    private final File file;
+    private final String contentKey;
+
+    public RepoPackFile(File file, String contentKey) {
+        this.file = file;
+        this.contentKey = contentKey;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the checksum of the pack this file belongs to, followed by the
+     * file's extension, e.g. 0a1b...9f.idx
+     */
+    public String getContentKey() {
+        return contentKey;
+    }
+
+}
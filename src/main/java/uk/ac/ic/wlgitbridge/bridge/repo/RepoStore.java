@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Created by winston on 20/08/2016.
@@ -28,12 +29,27 @@ public interface RepoStore {
 
     ProjectRepo useJGitRepo(Repository repo, ObjectId commitId);
 
+    /**
+     * @return the largest file that a project's directory may contain
+     */
+    long getMaxFileSize();
+
     void purgeNonexistentProjects(
             Collection<String> existingProjectNames
     );
 
     long totalSize();
 
+    /**
+     * Measures the size on disk of the given project's directory by walking
+     * it, so it costs time proportional to the number of files in the
+     * project. Files that are shared with other projects, e.g. by a fork,
+     * are only counted in part, so that the sizes of all the projects add up
+     * to the space they use. Throws an IOException if the project doesn't
+     * exist.
+     */
+    long sizeOfProject(String projectName) throws IOException;
+
     /**
      * Tars and bzip2s the .git directory of the given project. Throws an
      * IOException if the project doesn't exist. The returned stream is a copy
@@ -66,6 +82,24 @@ public interface RepoStore {
         return gzipProject(projectName, null);
     }
 
+    /**
+     * Lists the pack files in the object database of the given project. Each
+     * pack's .pack, .idx and .bitmap files are listed separately, keyed by
+     * the checksum of the pack. Throws an IOException if the project doesn't
+     * exist.
+     */
+    List<RepoPackFile> getPackFiles(String projectName) throws IOException;
+
+    /**
+     * Tars and gzips the .git directory of the given project, apart from the
+     * files returned by {@link #getPackFiles(String)}, which are already
+     * compressed and should be stored separately.
+     */
+    InputStream gzipProjectWithoutPacks(
+            String projectName,
+            long[] sizePtr
+    ) throws IOException;
+
     void gcProject(String projectName) throws IOException;
 
     /**
@@ -101,4 +135,18 @@ public interface RepoStore {
         InputStream dataStream
     ) throws IOException;
 
+    /**
+     * Writes a pack file returned by {@link #getPackFiles(String)} back into
+     * the object database of a project restored by
+     * {@link #ungzipProject(String, InputStream)}.
+     * @param projectName the name of the project, e.g. abc123
+     * @param fileName the name of the pack file, e.g. pack-0a1b...9f.pack
+     * @param dataStream the contents of the pack file
+     */
+    void addPackFile(
+            String projectName,
+            String fileName,
+            InputStream dataStream
+    ) throws IOException;
+
 }
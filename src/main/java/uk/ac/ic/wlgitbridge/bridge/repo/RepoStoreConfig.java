@@ -14,9 +14,17 @@ public class RepoStoreConfig {
     @Nullable
     private final Long maxFileNum;
 
-    public RepoStoreConfig(Long maxFileSize, Long maxFileNum) {
+    @Nullable
+    private final Boolean importDeltaCompression;
+
+    public RepoStoreConfig(
+            Long maxFileSize,
+            Long maxFileNum,
+            Boolean importDeltaCompression
+    ) {
         this.maxFileSize = maxFileSize;
         this.maxFileNum = maxFileNum;
+        this.importDeltaCompression = importDeltaCompression;
     }
 
     public Optional<Long> getMaxFileSize() {
@@ -26,4 +34,12 @@ public class RepoStoreConfig {
     public Optional<Long> getMaxFileNum() {
         return Optional.ofNullable(maxFileNum);
     }
+
+    /**
+     * @return whether to find deltas between the versions when writing the
+     * pack of a snapshot import, defaults to false
+     */
+    public boolean getImportDeltaCompression() {
+        return Boolean.TRUE.equals(importDeltaCompression);
+    }
 }
@@ -1,7 +1,9 @@
 package uk.ac.ic.wlgitbridge.bridge.repo;
 
+import org.eclipse.jgit.internal.storage.file.GC;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
@@ -73,8 +75,20 @@ public class WalkOverrideGitRepo implements ProjectRepo {
     }
 
     @Override
-    public void runGC() throws IOException {
-        gitRepo.runGC();
+    public CommitBatch beginCommitBatch(
+            boolean deltaCompression
+    ) throws IOException {
+        return gitRepo.beginCommitBatch(deltaCompression);
+    }
+
+    @Override
+    public long runGC(PackConfig packConfig) throws IOException {
+        return gitRepo.runGC(packConfig);
+    }
+
+    @Override
+    public GC.RepoStatistics getRepoStatistics() throws IOException {
+        return gitRepo.getRepoStatistics();
     }
 
     @Override
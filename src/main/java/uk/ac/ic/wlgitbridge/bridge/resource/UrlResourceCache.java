@@ -1,6 +1,8 @@
 package uk.ac.ic.wlgitbridge.bridge.resource;
 
 import static org.asynchttpclient.Dsl.*;
+
+import io.prometheus.client.Counter;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
@@ -9,6 +11,7 @@ import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClient;
 import uk.ac.ic.wlgitbridge.io.http.ning.NingHttpClientFacade;
 import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.RequestTrace;
 
 import java.io.IOException;
 import java.util.List;
@@ -21,6 +24,13 @@ import java.util.concurrent.ExecutionException;
  */
 public class UrlResourceCache implements ResourceCache {
 
+    private static final Counter lookups = Counter.build()
+            .name("git_bridge_attachment_cache_total")
+            .help("Attachment lookups, by whether the attachment was " +
+                    "already in the project or had to be fetched.")
+            .labelNames("result")
+            .register();
+
     private final DBStore dbStore;
 
     private final NingHttpClientFacade http;
@@ -46,6 +56,7 @@ public class UrlResourceCache implements ResourceCache {
         String path = dbStore.getPathForURLInProject(projectName, getCacheKeyFromUrl(url));
         byte[] contents;
         if (path == null) {
+            lookups.labels("miss").inc();
             path = newPath;
             contents = fetch(projectName, url, path, maxFileSize);
             fetchedUrls.put(url, contents);
@@ -63,10 +74,14 @@ public class UrlResourceCache implements ResourceCache {
                                     + "File url is: "
                                     + url
                     );
+                    lookups.labels("miss").inc();
                     contents = fetch(projectName, url, path, maxFileSize);
                 } else {
+                    lookups.labels("hit").inc();
                     contents = rawFile.getContents();
                 }
+            } else {
+                lookups.labels("hit").inc();
             }
         }
         return new RepositoryFile(newPath, contents);
@@ -119,6 +134,7 @@ public class UrlResourceCache implements ResourceCache {
                     Optional.of(path), contents.length, maxFileSize.get());
         }
         dbStore.addURLIndexForProject(projectName, getCacheKeyFromUrl(url), path);
+        RequestTrace.addCountToCurrent("attachment_bytes", contents.length);
         return contents;
     }
 
@@ -0,0 +1,71 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Decides which projects the swap job evicts first.
+ *
+ * The swap job gives the policy every project on disk at the start of each
+ * run, and evicts them in the order it returns until it is under the low
+ * watermark. Policies may keep state between runs, e.g. to notice which
+ * projects were accessed since the last one, but must cope with projects
+ * they have never seen, e.g. after a restart.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * @param candidates the projects on disk
+     * @param nowMillis the current time
+     * @return the candidates, in the order they should be evicted
+     */
+    List<SwapCandidate> rank(List<SwapCandidate> candidates, long nowMillis);
+
+    /**
+     * Called after the swap job has evicted a project returned by
+     * {@link #rank(List, long)}.
+     */
+    default void onEvicted(SwapCandidate evicted) {}
+
+    /**
+     * Breaks ties between equally ranked projects, oldest first.
+     */
+    Comparator<SwapCandidate> OLDEST_FIRST = Comparator.comparingLong(
+            SwapCandidate::getLastAccessedMillis
+    );
+
+    /**
+     * The names understood by {@link #fromName(String)}.
+     */
+    List<String> NAMES = Collections.unmodifiableList(Arrays.asList(
+            "lru",
+            "size-weighted-lru",
+            "lfu",
+            "gds"
+    ));
+
+    /**
+     * @param name one of {@link #NAMES}
+     * @return a new policy of the given name, or null if there is none
+     */
+    static EvictionPolicy fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        switch (name) {
+            case "lru":
+                return new LruEvictionPolicy();
+            case "size-weighted-lru":
+                return new SizeWeightedLruEvictionPolicy();
+            case "lfu":
+                return new LfuEvictionPolicy();
+            case "gds":
+                return new GreedyDualSizeEvictionPolicy();
+            default:
+                return null;
+        }
+    }
+
+}
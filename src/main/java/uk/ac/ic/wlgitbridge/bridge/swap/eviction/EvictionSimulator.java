@@ -0,0 +1,260 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Replays a trace of project accesses through eviction policies, the way
+ * the swap job would run them, and reports how many accesses each policy
+ * would have had to restore from swap, and how many bytes it would have
+ * moved to and from the swap store.
+ *
+ * A trace is a text file with one access per line, in time order:
+ *
+ *     <time in millis> <project name> <project size in bytes>
+ *
+ * Blank lines and lines starting with # are ignored.
+ *
+ * Run with:
+ *
+ *     java -cp writelatex-git-bridge.jar \
+ *         uk.ac.ic.wlgitbridge.bridge.swap.eviction.EvictionSimulator \
+ *         trace.txt lowBytes highBytes intervalMillis [minProjects]
+ */
+public class EvictionSimulator {
+
+    public static class Access {
+
+        private final long timeMillis;
+        private final String projectName;
+        private final long sizeBytes;
+
+        public Access(long timeMillis, String projectName, long sizeBytes) {
+            this.timeMillis = timeMillis;
+            this.projectName = projectName;
+            this.sizeBytes = sizeBytes;
+        }
+
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public String getProjectName() {
+            return projectName;
+        }
+
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+    }
+
+    public static class Result {
+
+        private long accesses;
+        private long swapIns;
+        private long bytesRestored;
+        private long bytesEvicted;
+
+        public long getAccesses() {
+            return accesses;
+        }
+
+        public long getSwapIns() {
+            return swapIns;
+        }
+
+        public double getSwapInRate() {
+            return accesses == 0 ? 0 : (double) swapIns / accesses;
+        }
+
+        public long getBytesRestored() {
+            return bytesRestored;
+        }
+
+        public long getBytesEvicted() {
+            return bytesEvicted;
+        }
+
+    }
+
+    private static class Project {
+
+        long lastAccessedMillis;
+        long sizeBytes;
+        long accessCount;
+        boolean onDisk;
+
+        SwapCandidate asCandidate(String projectName) {
+            return new SwapCandidate(
+                    projectName,
+                    lastAccessedMillis,
+                    sizeBytes,
+                    accessCount
+            );
+        }
+
+    }
+
+    private final long lowWatermarkBytes;
+    private final long highWatermarkBytes;
+    private final long intervalMillis;
+    private final int minProjects;
+
+    public EvictionSimulator(
+            long lowWatermarkBytes,
+            long highWatermarkBytes,
+            long intervalMillis,
+            int minProjects
+    ) {
+        this.lowWatermarkBytes = lowWatermarkBytes;
+        this.highWatermarkBytes = highWatermarkBytes;
+        this.intervalMillis = intervalMillis;
+        this.minProjects = minProjects;
+    }
+
+    public Result run(EvictionPolicy policy, List<Access> trace) {
+        Result result = new Result();
+        Map<String, Project> projects = new HashMap<>();
+        long nextSwapMillis = trace.isEmpty()
+                ? 0
+                : trace.get(0).getTimeMillis() + intervalMillis;
+        for (Access access : trace) {
+            while (nextSwapMillis <= access.getTimeMillis()) {
+                swap(policy, projects, nextSwapMillis, result);
+                nextSwapMillis += intervalMillis;
+            }
+            Project project = projects.get(access.getProjectName());
+            if (project == null) {
+                project = new Project();
+                projects.put(access.getProjectName(), project);
+            } else if (!project.onDisk) {
+                ++result.swapIns;
+                result.bytesRestored += project.sizeBytes;
+            }
+            project.onDisk = true;
+            project.lastAccessedMillis = access.getTimeMillis();
+            project.sizeBytes = access.getSizeBytes();
+            ++project.accessCount;
+            ++result.accesses;
+        }
+        return result;
+    }
+
+    private void swap(
+            EvictionPolicy policy,
+            Map<String, Project> projects,
+            long nowMillis,
+            Result result
+    ) {
+        List<SwapCandidate> candidates = projects.entrySet().stream(
+        ).filter(
+                e -> e.getValue().onDisk
+        ).map(
+                e -> e.getValue().asCandidate(e.getKey())
+        ).collect(Collectors.toList());
+        long totalSize = candidates.stream(
+        ).mapToLong(SwapCandidate::getSizeBytes).sum();
+        if (totalSize < highWatermarkBytes) {
+            return;
+        }
+        int numProjects = candidates.size();
+        Iterator<SwapCandidate> victims =
+                policy.rank(candidates, nowMillis).iterator();
+        while (
+                totalSize > lowWatermarkBytes
+                        && numProjects > minProjects
+                        && victims.hasNext()
+        ) {
+            SwapCandidate victim = victims.next();
+            projects.get(victim.getProjectName()).onDisk = false;
+            totalSize -= victim.getSizeBytes();
+            --numProjects;
+            result.bytesEvicted += victim.getSizeBytes();
+            policy.onEvicted(victim);
+        }
+    }
+
+    public static List<Access> readTrace(Reader in) throws IOException {
+        List<Access> trace = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3) {
+                throw new IOException(
+                        "Bad access on line " + lineNumber + ": " + line
+                );
+            }
+            try {
+                trace.add(new Access(
+                        Long.parseLong(fields[0]),
+                        fields[1],
+                        Long.parseLong(fields[2])
+                ));
+            } catch (NumberFormatException e) {
+                throw new IOException(
+                        "Bad access on line " + lineNumber + ": " + line,
+                        e
+                );
+            }
+        }
+        return trace;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println(
+                    "Usage: EvictionSimulator "
+                            + "trace lowBytes highBytes intervalMillis "
+                            + "[minProjects]"
+            );
+            System.exit(1);
+        }
+        List<Access> trace;
+        try (Reader in = new FileReader(args[0])) {
+            trace = readTrace(in);
+        }
+        EvictionSimulator simulator = new EvictionSimulator(
+                Long.parseLong(args[1]),
+                Long.parseLong(args[2]),
+                Long.parseLong(args[3]),
+                args.length > 4 ? Integer.parseInt(args[4]) : 0
+        );
+        System.out.printf(
+                "%-20s %10s %10s %10s %16s %16s%n",
+                "policy",
+                "accesses",
+                "swap-ins",
+                "rate",
+                "bytes restored",
+                "bytes evicted"
+        );
+        for (String name : EvictionPolicy.NAMES) {
+            Result result = simulator.run(
+                    EvictionPolicy.fromName(name),
+                    trace
+            );
+            System.out.printf(
+                    "%-20s %10d %10d %10.4f %16d %16d%n",
+                    name,
+                    result.getAccesses(),
+                    result.getSwapIns(),
+                    result.getSwapInRate(),
+                    result.getBytesRestored(),
+                    result.getBytesEvicted()
+            );
+        }
+    }
+
+}
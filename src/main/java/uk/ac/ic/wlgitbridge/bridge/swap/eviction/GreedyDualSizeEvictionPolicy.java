@@ -0,0 +1,76 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * GreedyDual-Size, with the same cost for restoring any project.
+ *
+ * Each project gets a value of L + 1 / size when it is accessed, and the
+ * project with the lowest value is evicted first. L starts at 0 and becomes
+ * the value of each project that is evicted, so projects that haven't been
+ * accessed for a while fall behind the ones that have. Small projects are
+ * kept over large ones, which minimises the number of restores rather than
+ * the bytes restored.
+ *
+ * Accesses are noticed from the last accessed times of the candidates, so a
+ * project accessed several times between runs counts once. Projects seen
+ * for the first time count as just accessed, which after a restart, when L
+ * is back to 0, is true of all of them.
+ */
+public class GreedyDualSizeEvictionPolicy implements EvictionPolicy {
+
+    private double inflation;
+
+    private final Map<String, Value> values;
+
+    public GreedyDualSizeEvictionPolicy() {
+        inflation = 0;
+        values = new HashMap<>();
+    }
+
+    @Override
+    public List<SwapCandidate> rank(
+            List<SwapCandidate> candidates,
+            long nowMillis
+    ) {
+        Map<String, Value> updated = new HashMap<>();
+        for (SwapCandidate c : candidates) {
+            Value v = values.get(c.getProjectName());
+            if (v == null || c.getLastAccessedMillis() > v.lastAccessedMillis) {
+                v = new Value(inflation, c);
+            }
+            updated.put(c.getProjectName(), v);
+        }
+        /* Forget projects that have gone, e.g. been deleted */
+        values.clear();
+        values.putAll(updated);
+        Comparator<SwapCandidate> lowestValueFirst = Comparator.comparingDouble(
+                c -> values.get(c.getProjectName()).value
+        );
+        return candidates.stream().sorted(
+                lowestValueFirst.thenComparing(OLDEST_FIRST)
+        ).collect(Collectors.toList());
+    }
+
+    @Override
+    public void onEvicted(SwapCandidate evicted) {
+        Value v = values.remove(evicted.getProjectName());
+        if (v != null) {
+            inflation = Math.max(inflation, v.value);
+        }
+    }
+
+    private static class Value {
+
+        final double value;
+        final long lastAccessedMillis;
+
+        Value(double inflation, SwapCandidate c) {
+            value = inflation + 1.0 / Math.max(c.getSizeBytes(), 1);
+            lastAccessedMillis = c.getLastAccessedMillis();
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Evicts the least frequently accessed projects first.
+ *
+ * Accesses count for less the older they are, halving every half-life, so
+ * a project that was popular once doesn't stay on disk forever. The decayed
+ * counts are kept in memory and built up from the access counts in the
+ * candidates, which only ever go up. After a restart, all past accesses
+ * count in full until the next run.
+ */
+public class LfuEvictionPolicy implements EvictionPolicy {
+
+    public static final long DEFAULT_HALF_LIFE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    private final long halfLifeMillis;
+
+    private final Map<String, Frequency> frequencies;
+
+    public LfuEvictionPolicy() {
+        this(DEFAULT_HALF_LIFE_MILLIS);
+    }
+
+    public LfuEvictionPolicy(long halfLifeMillis) {
+        this.halfLifeMillis = halfLifeMillis;
+        frequencies = new HashMap<>();
+    }
+
+    @Override
+    public List<SwapCandidate> rank(
+            List<SwapCandidate> candidates,
+            long nowMillis
+    ) {
+        Map<String, Frequency> updated = new HashMap<>();
+        for (SwapCandidate c : candidates) {
+            Frequency f = frequencies.get(c.getProjectName());
+            updated.put(
+                    c.getProjectName(),
+                    f == null
+                            ? new Frequency(c.getAccessCount(), c, nowMillis)
+                            : f.update(c, nowMillis, halfLifeMillis)
+            );
+        }
+        /* Forget projects that have gone, e.g. been deleted */
+        frequencies.clear();
+        frequencies.putAll(updated);
+        Comparator<SwapCandidate> leastFrequentFirst = Comparator.comparingDouble(
+                c -> frequencies.get(c.getProjectName()).value
+        );
+        return candidates.stream().sorted(
+                leastFrequentFirst.thenComparing(OLDEST_FIRST)
+        ).collect(Collectors.toList());
+    }
+
+    @Override
+    public void onEvicted(SwapCandidate evicted) {
+        frequencies.remove(evicted.getProjectName());
+    }
+
+    private static class Frequency {
+
+        final double value;
+        final long accessCount;
+        final long atMillis;
+
+        Frequency(double value, SwapCandidate c, long atMillis) {
+            this.value = value;
+            accessCount = c.getAccessCount();
+            this.atMillis = atMillis;
+        }
+
+        Frequency update(SwapCandidate c, long nowMillis, long halfLifeMillis) {
+            double decay = Math.pow(
+                    0.5,
+                    (double) Math.max(nowMillis - atMillis, 0) / halfLifeMillis
+            );
+            long newAccesses = Math.max(c.getAccessCount() - accessCount, 0);
+            return new Frequency(value * decay + newAccesses, c, nowMillis);
+        }
+
+    }
+
+}
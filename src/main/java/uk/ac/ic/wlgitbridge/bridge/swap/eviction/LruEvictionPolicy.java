@@ -0,0 +1,20 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Evicts the least recently accessed projects first, whatever their size.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public List<SwapCandidate> rank(
+            List<SwapCandidate> candidates,
+            long nowMillis
+    ) {
+        return candidates.stream(
+        ).sorted(OLDEST_FIRST).collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,33 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Evicts the projects with the most bytes times time since they were last
+ * accessed first, i.e. those that free the most disk for the least chance
+ * of being needed again soon. Projects whose size isn't known count as 1
+ * byte, so they are evicted oldest first.
+ */
+public class SizeWeightedLruEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public List<SwapCandidate> rank(
+            List<SwapCandidate> candidates,
+            long nowMillis
+    ) {
+        Comparator<SwapCandidate> mostStaleBytesFirst = Comparator.comparingDouble(
+                (SwapCandidate c) -> -staleBytes(c, nowMillis)
+        );
+        return candidates.stream().sorted(
+                mostStaleBytesFirst.thenComparing(OLDEST_FIRST)
+        ).collect(Collectors.toList());
+    }
+
+    private static double staleBytes(SwapCandidate c, long nowMillis) {
+        return (double) Math.max(c.getSizeBytes(), 1)
+                * Math.max(nowMillis - c.getLastAccessedMillis(), 0);
+    }
+
+}
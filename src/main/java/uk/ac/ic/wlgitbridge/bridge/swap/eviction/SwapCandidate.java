@@ -0,0 +1,55 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+/**
+ * What an {@link EvictionPolicy} knows about a project on disk.
+ */
+public class SwapCandidate {
+
+    private final String projectName;
+    private final long lastAccessedMillis;
+    private final long sizeBytes;
+    private final long accessCount;
+
+    /**
+     * @param projectName the project's name
+     * @param lastAccessedMillis when the project was last accessed
+     * @param sizeBytes the project's size on disk, 0 if it isn't known
+     * @param accessCount the number of times the project has been accessed
+     */
+    public SwapCandidate(
+            String projectName,
+            long lastAccessedMillis,
+            long sizeBytes,
+            long accessCount
+    ) {
+        this.projectName = projectName;
+        this.lastAccessedMillis = lastAccessedMillis;
+        this.sizeBytes = sizeBytes;
+        this.accessCount = accessCount;
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public long getLastAccessedMillis() {
+        return lastAccessedMillis;
+    }
+
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public long getAccessCount() {
+        return accessCount;
+    }
+
+    @Override
+    public String toString() {
+        return projectName
+                + " (" + sizeBytes + " bytes, "
+                + accessCount + " accesses, last at "
+                + lastAccessedMillis + ")";
+    }
+
+}
@@ -4,6 +4,7 @@ import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
+import uk.ac.ic.wlgitbridge.bridge.trace.AccessTraceRecorder;
 
 import java.io.IOException;
 import java.util.Optional;
@@ -13,7 +14,14 @@ import java.util.Optional;
  */
 public interface SwapJob {
 
-    enum CompressionMethod { Bzip2, Gzip }
+    /**
+     * How an evicted project is stored in the swap store. Bzip2 and Gzip
+     * upload the whole .git directory as a single compressed tarball. Pack
+     * uploads the project's pack files as they are, under keys derived from
+     * their contents, so that packs shared between projects (e.g. forks) are
+     * only stored once, and only the rest of the .git directory is gzipped.
+     */
+    enum CompressionMethod { Bzip2, Gzip, Pack }
 
     static CompressionMethod stringToCompressionMethod(String compressionString) {
         if (compressionString == null) {
@@ -27,6 +35,9 @@ public interface SwapJob {
             case "bzip2":
                 result = CompressionMethod.Bzip2;
                 break;
+            case "pack":
+                result = CompressionMethod.Pack;
+                break;
             default:
                 result = null;
                 break;
@@ -46,6 +57,9 @@ public interface SwapJob {
             case Bzip2:
                 result =  "bzip2";
                 break;
+            case Pack:
+                result =  "pack";
+                break;
             default:
                 result =  null;
                 break;
@@ -58,7 +72,8 @@ public interface SwapJob {
             ProjectLock lock,
             RepoStore repoStore,
             DBStore dbStore,
-            SwapStore swapStore
+            SwapStore swapStore,
+            AccessTraceRecorder trace
     ) {
         if (cfg.isPresent()) {
             return new SwapJobImpl(
@@ -66,7 +81,8 @@ public interface SwapJob {
                     lock,
                     repoStore,
                     dbStore,
-                    swapStore
+                    swapStore,
+                    trace
             );
         }
         return new NoopSwapJob();
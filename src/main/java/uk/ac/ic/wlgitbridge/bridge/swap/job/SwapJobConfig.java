@@ -1,6 +1,8 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.job;
 
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.EvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SizeWeightedLruEvictionPolicy;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob.CompressionMethod;
 
 /**
@@ -13,19 +15,22 @@ public class SwapJobConfig {
     private final int highGiB;
     private final long intervalMillis;
     private final String compressionMethod;
+    private final String evictionPolicy;
 
     public SwapJobConfig(
             int minProjects,
             int lowGiB,
             int highGiB,
             long intervalMillis,
-            String compressionMethod
+            String compressionMethod,
+            String evictionPolicy
     ) {
         this.minProjects = minProjects;
         this.lowGiB = lowGiB;
         this.highGiB = highGiB;
         this.intervalMillis = intervalMillis;
         this.compressionMethod = compressionMethod;
+        this.evictionPolicy = evictionPolicy;
     }
 
     public int getMinProjects() {
@@ -52,4 +57,19 @@ public class SwapJobConfig {
       }
       return result;
     }
+
+    /**
+     * @return a new instance of the configured policy, size-weighted LRU if
+     * there is none
+     */
+    public EvictionPolicy getEvictionPolicy() {
+      EvictionPolicy result = EvictionPolicy.fromName(evictionPolicy);
+      if (result == null) {
+        if (evictionPolicy != null) {
+          Log.info("SwapJobConfig: un-supported evictionPolicy '{}', default to 'size-weighted-lru'", evictionPolicy);
+        }
+        result = new SizeWeightedLruEvictionPolicy();
+      }
+      return result;
+    }
 }
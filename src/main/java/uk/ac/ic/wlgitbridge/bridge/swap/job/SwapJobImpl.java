@@ -1,22 +1,38 @@
 package uk.ac.ic.wlgitbridge.bridge.swap.job;
 
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Striped;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
-import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoPackFile;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.EvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SizeWeightedLruEvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SwapCandidate;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
+import uk.ac.ic.wlgitbridge.bridge.trace.AccessEvent;
+import uk.ac.ic.wlgitbridge.bridge.trace.AccessTraceRecorder;
+import uk.ac.ic.wlgitbridge.bridge.trace.NoopAccessTraceRecorder;
 import uk.ac.ic.wlgitbridge.util.Log;
 import uk.ac.ic.wlgitbridge.util.TimerUtils;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Timer;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Created by winston on 20/08/2016.
@@ -25,6 +41,24 @@ public class SwapJobImpl implements SwapJob {
 
     private static final long GiB = (1l << 30);
 
+    private static final String PACK_KEY_PREFIX = "packs/";
+
+    private static final Histogram swapDuration = Histogram.build()
+            .name("git_bridge_swap_seconds")
+            .help("Time taken to swap a project out to the swap store or " +
+                    "back in, by direction.")
+            .labelNames("direction")
+            .buckets(0.1, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300)
+            .register();
+
+    private static final Counter swapCount = Counter.build()
+            .name("git_bridge_swaps_total")
+            .help("Number of projects swapped out or in, by direction and " +
+                    "whether it succeeded, or was skipped because the " +
+                    "project was accessed since it was picked.")
+            .labelNames("direction", "result")
+            .register();
+
     int minProjects;
     long lowWatermarkBytes;
     long highWatermarkBytes;
@@ -35,6 +69,14 @@ public class SwapJobImpl implements SwapJob {
     private final DBStore dbStore;
     private final SwapStore swapStore;
     private final CompressionMethod compressionMethod;
+    private final EvictionPolicy evictionPolicy;
+    private final AccessTraceRecorder trace;
+
+    /* Guard the reference count of each shared pack in the swap store, by
+       its key, together with its upload or removal. Only projects that
+       share a pack wait for each other. Not monitors, as they are held
+       across uploads, which would pin a virtual thread that waits. */
+    private final Striped<Lock> swappedPackLocks = Striped.lock(64);
 
     private final Timer timer;
 
@@ -46,6 +88,24 @@ public class SwapJobImpl implements SwapJob {
             RepoStore repoStore,
             DBStore dbStore,
             SwapStore swapStore
+    ) {
+        this(
+                cfg,
+                lock,
+                repoStore,
+                dbStore,
+                swapStore,
+                new NoopAccessTraceRecorder()
+        );
+    }
+
+    public SwapJobImpl(
+            SwapJobConfig cfg,
+            ProjectLock lock,
+            RepoStore repoStore,
+            DBStore dbStore,
+            SwapStore swapStore,
+            AccessTraceRecorder trace
     ) {
         this(
                 cfg.getMinProjects(),
@@ -53,6 +113,33 @@ public class SwapJobImpl implements SwapJob {
                 GiB * cfg.getHighGiB(),
                 Duration.ofMillis(cfg.getIntervalMillis()),
                 cfg.getCompressionMethod(),
+                cfg.getEvictionPolicy(),
+                lock,
+                repoStore,
+                dbStore,
+                swapStore,
+                trace
+        );
+    }
+
+    SwapJobImpl(
+            int minProjects,
+            long lowWatermarkBytes,
+            long highWatermarkBytes,
+            Duration interval,
+            CompressionMethod method,
+            ProjectLock lock,
+            RepoStore repoStore,
+            DBStore dbStore,
+            SwapStore swapStore
+    ) {
+        this(
+                minProjects,
+                lowWatermarkBytes,
+                highWatermarkBytes,
+                interval,
+                method,
+                new SizeWeightedLruEvictionPolicy(),
                 lock,
                 repoStore,
                 dbStore,
@@ -66,20 +153,51 @@ public class SwapJobImpl implements SwapJob {
             long highWatermarkBytes,
             Duration interval,
             CompressionMethod method,
+            EvictionPolicy evictionPolicy,
             ProjectLock lock,
             RepoStore repoStore,
             DBStore dbStore,
             SwapStore swapStore
+    ) {
+        this(
+                minProjects,
+                lowWatermarkBytes,
+                highWatermarkBytes,
+                interval,
+                method,
+                evictionPolicy,
+                lock,
+                repoStore,
+                dbStore,
+                swapStore,
+                new NoopAccessTraceRecorder()
+        );
+    }
+
+    SwapJobImpl(
+            int minProjects,
+            long lowWatermarkBytes,
+            long highWatermarkBytes,
+            Duration interval,
+            CompressionMethod method,
+            EvictionPolicy evictionPolicy,
+            ProjectLock lock,
+            RepoStore repoStore,
+            DBStore dbStore,
+            SwapStore swapStore,
+            AccessTraceRecorder trace
     ) {
         this.minProjects = minProjects;
         this.lowWatermarkBytes = lowWatermarkBytes;
         this.highWatermarkBytes = highWatermarkBytes;
         this.interval = interval;
         this.compressionMethod = method;
+        this.evictionPolicy = evictionPolicy;
         this.lock = lock;
         this.repoStore = repoStore;
         this.dbStore = dbStore;
         this.swapStore = swapStore;
+        this.trace = trace;
         timer = new Timer();
         swaps = new AtomicInteger(0);
     }
@@ -113,7 +231,8 @@ public class SwapJobImpl implements SwapJob {
         ArrayList<String> exceptionProjectNames = new ArrayList<String>();
 
         Log.info("Running swap number {}", swaps.get() + 1);
-        long totalSize = repoStore.totalSize();
+        recordMissingProjectSizes();
+        long totalSize = dbStore.getTotalUnswappedProjectSize();
         Log.info("Size is {}/{} (high)", totalSize, highWatermarkBytes);
         if (totalSize < highWatermarkBytes) {
             Log.info("No need to swap.");
@@ -121,9 +240,14 @@ public class SwapJobImpl implements SwapJob {
             return;
         }
         int numProjects = dbStore.getNumProjects();
+        Iterator<SwapCandidate> victims = evictionPolicy.rank(
+                dbStore.getSwapCandidates(),
+                System.currentTimeMillis()
+        ).iterator();
         // while we have too many projects on disk
         while (
-                (totalSize = repoStore.totalSize()) > lowWatermarkBytes &&
+                (totalSize = dbStore.getTotalUnswappedProjectSize())
+                        > lowWatermarkBytes &&
                 (numProjects = dbStore.getNumUnswappedProjects()) > minProjects
         ) {
             // check if we've had too many exceptions so far
@@ -139,18 +263,25 @@ public class SwapJobImpl implements SwapJob {
                 );
                 break;
             }
-            // get the oldest project and try to swap it
-            String projectName = dbStore.getOldestUnswappedProject();
+            if (!victims.hasNext()) {
+                Log.warn("No more projects to swap on this run");
+                break;
+            }
+            // get the policy's next choice and try to swap it
+            SwapCandidate victim = victims.next();
+            String projectName = victim.getProjectName();
             try {
-                evict(projectName);
+                if (evict(projectName, Optional.of(victim))) {
+                    evictionPolicy.onEvicted(victim);
+                }
             } catch (Exception e) {
                 Log.warn("[{}] Exception while swapping, mark project and move on", projectName, e);
-                // NOTE: this is something of a hack. If a project fails to swap we get stuck in a
-                // loop where `dbStore.getOldestUnswappedProject()` gives the same failing project over and over again,
-                // which fills up the disk with errors. By touching the access time we can mark the project as a
-                // non-candidate for swapping. Ideally we should be checking the logs for these log events and fixing
-                // whatever is wrong with the project
-                dbStore.setLastAccessedTime(
+                // NOTE: this is something of a hack. If a project fails to swap, the eviction policy would
+                // choose the same failing project first on every run, which fills up the disk with errors.
+                // By touching the access time we can mark the project as a non-candidate for swapping.
+                // Ideally we should be checking the logs for these log events and fixing whatever is wrong
+                // with the project. This isn't an access, so it doesn't count towards the project's accesses.
+                dbStore.resetLastAccessedTime(
                     projectName,
                     Timestamp.valueOf(LocalDateTime.now())
                 );
@@ -177,12 +308,42 @@ public class SwapJobImpl implements SwapJob {
         swaps.incrementAndGet();
     }
 
+    /**
+     * Measures and records the size of any project on disk that doesn't
+     * have one in the dbStore yet, e.g. because it was there before sizes
+     * were recorded. The sizes of the rest are kept up to date as they change,
+     * so the total size can be read from the dbStore rather than the disk.
+     */
+    private void recordMissingProjectSizes() {
+        List<String> projectNames = dbStore.getUnswappedProjectsWithoutSize();
+        if (projectNames.isEmpty()) {
+            return;
+        }
+        Log.info("Measuring {} projects without sizes", projectNames.size());
+        for (String projectName : projectNames) {
+            lock.lockForProject(projectName);
+            try {
+                dbStore.setProjectSize(
+                        projectName,
+                        repoStore.sizeOfProject(projectName)
+                );
+            } catch (IOException e) {
+                Log.warn("[{}] Failed to measure project", projectName, e);
+            } finally {
+                lock.unlockForProject(projectName);
+            }
+        }
+    }
+
     /**
      * @see SwapJob#evict(String) for high-level description.
      *
-     * 1. Acquires the project lock.
+     * 1. Acquires the project's maintenance lock, so that it isn't GCed
+     *    meanwhile, and then the project lock.
      * 2. Gets a bz2 stream and size of a project from the repo store, or throws
      * 3. Uploads the bz2 stream and size to the projName in the swapStore.
+     *    With the pack method, the project's packs are uploaded first under
+     *    their content keys, skipping any that are already there.
      * 4. Sets the last accessed time in the dbStore to null, which makes our
      *    state SWAPPED
      * 5. Removes the project from the repo store.
@@ -191,26 +352,167 @@ public class SwapJobImpl implements SwapJob {
      */
     @Override
     public void evict(String projName) throws IOException {
+        evict(projName, Optional.empty());
+    }
+
+    /**
+     * Like {@link #evict(String)}, but when the project was picked as a
+     * victim, it is only evicted if it hasn't been accessed since it was
+     * ranked, which may have been a while ago in a long swap run.
+     * @return whether the project was evicted
+     */
+    private boolean evict(
+            String projName,
+            Optional<SwapCandidate> victim
+    ) throws IOException {
         Preconditions.checkNotNull(projName, "projName was null");
         Log.info("Evicting project: {}", projName);
-        try (LockGuard __ = lock.lockGuard(projName)) {
+        String result = "failure";
+        lock.lockMaintenanceForProject(projName);
+        lock.lockForProject(projName);
+        try {
+            if (victim.isPresent() && wasAccessedSince(victim.get())) {
+                Log.info(
+                        "[{}] Accessed since it was ranked, not evicting",
+                        projName
+                );
+                result = "skipped";
+                return false;
+            }
+            long start = System.nanoTime();
+            Long sizeBytes = dbStore.getProjectSize(projName);
             try {
                 repoStore.gcProject(projName);
             } catch (Exception e) {
                 Log.error("[{}] Exception while running gc on project: {}", projName, e);
             }
-            long[] sizePtr = new long[1];
-            try (InputStream blob = getBlobStream(projName, sizePtr)) {
-                swapStore.upload(projName, blob, sizePtr[0]);
-                String compression = SwapJob.compressionMethodAsString(compressionMethod);
-                if (compression == null) {
-                  throw new RuntimeException("invalid compression method, should not happen");
+            String compression = SwapJob.compressionMethodAsString(compressionMethod);
+            if (compression == null) {
+              throw new RuntimeException("invalid compression method, should not happen");
+            }
+            if (compressionMethod == CompressionMethod.Pack) {
+                uploadPacked(projName);
+            } else {
+                long[] sizePtr = new long[1];
+                try (InputStream blob = getBlobStream(projName, sizePtr)) {
+                    swapStore.upload(projName, blob, sizePtr[0]);
                 }
-                dbStore.swap(projName, compression);
-                repoStore.remove(projName);
             }
+            dbStore.swap(projName, compression);
+            repoStore.remove(projName);
+            trace.record(
+                    AccessEvent.Type.EVICT,
+                    projName,
+                    sizeBytes == null ? -1 : sizeBytes,
+                    System.nanoTime() - start
+            );
+            swapDuration.labels("out").observe(
+                    (System.nanoTime() - start) / 1e9
+            );
+            result = "success";
+        } finally {
+            lock.unlockForProject(projName);
+            lock.unlockMaintenanceForProject(projName);
+            swapCount.labels("out", result).inc();
         }
         Log.info("Evicted project: {}", projName);
+        return true;
+    }
+
+    private boolean wasAccessedSince(SwapCandidate victim) {
+        Timestamp lastAccessed =
+                dbStore.getLastAccessedTime(victim.getProjectName());
+        return lastAccessed == null
+                || lastAccessed.getTime() != victim.getLastAccessedMillis();
+    }
+
+    /**
+     * Uploads the packs of projName that aren't already in the swap store,
+     * and then the rest of its .git directory. Packs are already compressed,
+     * so they are uploaded as they are.
+     */
+    private void uploadPacked(String projName) throws IOException {
+        List<RepoPackFile> packFiles = repoStore.getPackFiles(projName);
+        long[] sizePtr = new long[1];
+        try (
+                InputStream rest = repoStore.gzipProjectWithoutPacks(
+                        projName,
+                        sizePtr
+                )
+        ) {
+            int uploaded = 0;
+            try {
+                for (RepoPackFile packFile : packFiles) {
+                    String key = PACK_KEY_PREFIX + packFile.getContentKey();
+                    Lock packLock = swappedPackLocks.get(key);
+                    packLock.lock();
+                    try {
+                        if (dbStore.getNumProjectsWithSwappedPack(key) == 0) {
+                            try (
+                                    InputStream in = new FileInputStream(
+                                            packFile.getFile()
+                                    )
+                            ) {
+                                swapStore.upload(
+                                        key,
+                                        in,
+                                        packFile.getFile().length()
+                                );
+                            }
+                            ++uploaded;
+                        }
+                        dbStore.addSwappedPack(
+                                projName,
+                                packFile.getFile().getName(),
+                                key
+                        );
+                    } finally {
+                        packLock.unlock();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                releaseSwappedPacks(projName);
+                throw e;
+            }
+            Log.info(
+                    "[{}] Uploaded {}/{} pack files, rest is {} bytes",
+                    projName,
+                    uploaded,
+                    packFiles.size(),
+                    sizePtr[0]
+            );
+            try {
+                swapStore.upload(projName, rest, sizePtr[0]);
+            } catch (IOException | RuntimeException e) {
+                releaseSwappedPacks(projName);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Forgets the swapped packs of projName, and removes from the swap store
+     * any of them that no other swapped project refers to.
+     *
+     * Forgetting them needs no lock: a pack that another project is being
+     * swapped out with either still counts this project, and isn't uploaded
+     * again, or is uploaded again, and counts that project by the time its
+     * lock is free here.
+     */
+    private void releaseSwappedPacks(String projName) {
+        Collection<String> keys = dbStore.getSwappedPacks(projName).values();
+        dbStore.deleteSwappedPacks(projName);
+        for (String key : keys) {
+            Lock packLock = swappedPackLocks.get(key);
+            packLock.lock();
+            try {
+                if (dbStore.getNumProjectsWithSwappedPack(key) == 0) {
+                    swapStore.remove(key);
+                }
+            } finally {
+                packLock.unlock();
+            }
+        }
     }
 
     private InputStream getBlobStream(String projName, long[] sizePtr) throws IOException {
@@ -229,14 +531,20 @@ public class SwapJobImpl implements SwapJob {
      * 1. Acquires the project lock.
      * 2. Gets a bz2 stream for the project from the swapStore.
      * 3. Fully downloads and places the bz2 stream back in the repo store.
+     *    With the pack method, the rest of .git is a gzip stream, and the
+     *    project's packs are then downloaded alongside it.
      * 4. Sets the last accessed time in the dbStore to now, which makes our
-     *    state PRESENT and the last project to be evicted.
+     *    state PRESENT and the last project to be evicted, and records the
+     *    project's size.
      * @param projName
      * @throws IOException
      */
     @Override
     public void restore(String projName) throws IOException {
-        try (LockGuard __ = lock.lockGuard(projName)) {
+        boolean restored = false;
+        lock.lockForProject(projName);
+        try {
+            long start = System.nanoTime();
             try (InputStream zipped = swapStore.openDownloadStream(projName)) {
                 String compression = dbStore.getSwapCompression(projName);
                 if (compression == null) {
@@ -252,9 +560,45 @@ public class SwapJobImpl implements SwapJob {
                     projName,
                     zipped
                   );
+                } else if ("pack".equals(compression)) {
+                  repoStore.ungzipProject(
+                    projName,
+                    zipped
+                  );
+                  restorePacks(projName);
                 }
                 swapStore.remove(projName);
+                releaseSwappedPacks(projName);
                 dbStore.restore(projName);
+                long sizeBytes = repoStore.sizeOfProject(projName);
+                dbStore.setProjectSize(projName, sizeBytes);
+                trace.record(
+                        AccessEvent.Type.RESTORE,
+                        projName,
+                        sizeBytes,
+                        System.nanoTime() - start
+                );
+                swapDuration.labels("in").observe(
+                        (System.nanoTime() - start) / 1e9
+                );
+                restored = true;
+            }
+        } finally {
+            lock.unlockForProject(projName);
+            swapCount.labels("in", restored ? "success" : "failure").inc();
+        }
+    }
+
+    private void restorePacks(String projName) throws IOException {
+        Map<String, String> packs = dbStore.getSwappedPacks(projName);
+        Log.info("[{}] Restoring {} pack files", projName, packs.size());
+        for (Map.Entry<String, String> pack : packs.entrySet()) {
+            try (
+                    InputStream in = swapStore.openDownloadStream(
+                            pack.getValue()
+                    )
+            ) {
+                repoStore.addPackFile(projName, pack.getKey(), in);
             }
         }
     }
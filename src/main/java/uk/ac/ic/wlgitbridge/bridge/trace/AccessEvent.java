@@ -0,0 +1,99 @@
+package uk.ac.ic.wlgitbridge.bridge.trace;
+
+/**
+ * Something that happened to a project, as recorded in an access trace.
+ */
+public class AccessEvent {
+
+    public enum Type {
+        /* Don't reorder, the ordinals are stored in traces */
+        GET_UPDATED_REPO,
+        PUSH,
+        EVICT,
+        RESTORE,
+        GC;
+
+        static Type fromOrdinal(int ordinal) {
+            Type[] types = values();
+            if (ordinal < 0 || ordinal >= types.length) {
+                return null;
+            }
+            return types[ordinal];
+        }
+
+    }
+
+    private final Type type;
+    private final long timeMillis;
+    private final String projectName;
+    private final long sizeBytes;
+    private final long durationMicros;
+
+    public AccessEvent(
+            Type type,
+            long timeMillis,
+            String projectName,
+            long sizeBytes,
+            long durationMicros
+    ) {
+        this.type = type;
+        this.timeMillis = timeMillis;
+        this.projectName = projectName;
+        this.sizeBytes = sizeBytes;
+        this.durationMicros = durationMicros;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return when the event finished
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    /**
+     * @return the size of the project on disk, or -1 if it wasn't known
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    @Override
+    public String toString() {
+        return timeMillis
+                + " " + type
+                + " " + projectName
+                + " " + sizeBytes
+                + " " + durationMicros;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof AccessEvent)) {
+            return false;
+        }
+        AccessEvent that = (AccessEvent) obj;
+        return type == that.type
+                && timeMillis == that.timeMillis
+                && projectName.equals(that.projectName)
+                && sizeBytes == that.sizeBytes
+                && durationMicros == that.durationMicros;
+    }
+
+    @Override
+    public int hashCode() {
+        return projectName.hashCode() * 31 + Long.hashCode(timeMillis);
+    }
+
+}
@@ -0,0 +1,168 @@
+package uk.ac.ic.wlgitbridge.bridge.trace;
+
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the events of a trace written by {@link FileAccessTraceRecorder}.
+ *
+ * A trace that ends partway through an event, because the server was killed
+ * while writing it, ends cleanly at the last whole event.
+ *
+ * Run with:
+ *
+ *     java -cp writelatex-git-bridge.jar \
+ *         uk.ac.ic.wlgitbridge.bridge.trace.AccessTraceReader \
+ *         trace.bin [--accesses]
+ *
+ * to print the events as text, or, with --accesses, to print just the
+ * accesses in the format read by
+ * {@link uk.ac.ic.wlgitbridge.bridge.swap.eviction.EvictionSimulator}.
+ */
+public class AccessTraceReader implements Closeable {
+
+    private final CountingInputStream counted;
+    private final DataInputStream in;
+    private final List<String> projectNames;
+    private long lastTimeMillis;
+    private long completeBytes;
+
+    public AccessTraceReader(InputStream in) throws IOException {
+        counted = new CountingInputStream(new BufferedInputStream(in));
+        this.in = new DataInputStream(counted);
+        byte[] header = new byte[FileAccessTraceRecorder.MAGIC.length];
+        try {
+            this.in.readFully(header);
+        } catch (EOFException e) {
+            throw new IOException("Access trace is too short", e);
+        }
+        if (!Arrays.equals(header, FileAccessTraceRecorder.MAGIC)) {
+            throw new IOException("Not an access trace");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version != FileAccessTraceRecorder.VERSION) {
+            throw new IOException(
+                    "Unsupported access trace version: " + version
+            );
+        }
+        projectNames = new ArrayList<>();
+        lastTimeMillis = 0;
+        completeBytes = counted.getCount();
+    }
+
+    /**
+     * @return the next event, or null at the end of the trace
+     */
+    public AccessEvent next() throws IOException {
+        int typeOrdinal;
+        while ((typeOrdinal = in.read()) == FileAccessTraceRecorder.SEGMENT) {
+            projectNames.clear();
+            lastTimeMillis = 0;
+            completeBytes = counted.getCount();
+        }
+        if (typeOrdinal < 0) {
+            return null;
+        }
+        AccessEvent.Type type = AccessEvent.Type.fromOrdinal(typeOrdinal);
+        if (type == null) {
+            throw new IOException("Unknown event type: " + typeOrdinal);
+        }
+        try {
+            lastTimeMillis += FileAccessTraceRecorder.unzigzag(readVarLong());
+            int id = (int) readVarLong();
+            if (id == projectNames.size()) {
+                projectNames.add(in.readUTF());
+            } else if (id > projectNames.size()) {
+                throw new IOException("Unknown project id: " + id);
+            }
+            long sizeBytes = FileAccessTraceRecorder.unzigzag(readVarLong());
+            long durationMicros = readVarLong();
+            completeBytes = counted.getCount();
+            return new AccessEvent(
+                    type,
+                    lastTimeMillis,
+                    projectNames.get(id),
+                    sizeBytes,
+                    durationMicros
+            );
+        } catch (EOFException e) {
+            /* The recorder was killed mid-event, so the event is lost */
+            return null;
+        }
+    }
+
+    /**
+     * @return how many bytes of the trace have been read as whole events and
+     * segment starts, which is the length of the trace without an event it
+     * ends partway through
+     */
+    long getCompleteBytes() {
+        return completeBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public static List<AccessEvent> readAll(
+            InputStream in
+    ) throws IOException {
+        List<AccessEvent> events = new ArrayList<>();
+        try (AccessTraceReader reader = new AccessTraceReader(in)) {
+            AccessEvent event;
+            while ((event = reader.next()) != null) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    private long readVarLong() throws IOException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2
+                || (args.length == 2 && !args[1].equals("--accesses"))) {
+            System.err.println("Usage: AccessTraceReader trace [--accesses]");
+            System.exit(1);
+        }
+        boolean accessesOnly = args.length == 2;
+        try (AccessTraceReader reader = new AccessTraceReader(
+                new FileInputStream(args[0]))) {
+            AccessEvent event;
+            while ((event = reader.next()) != null) {
+                if (!accessesOnly) {
+                    System.out.println(event);
+                } else if (event.getType() == AccessEvent.Type.GET_UPDATED_REPO
+                        || event.getType() == AccessEvent.Type.PUSH) {
+                    System.out.println(
+                            event.getTimeMillis()
+                                    + " " + event.getProjectName()
+                                    + " " + Math.max(event.getSizeBytes(), 0)
+                    );
+                }
+            }
+        }
+    }
+
+}
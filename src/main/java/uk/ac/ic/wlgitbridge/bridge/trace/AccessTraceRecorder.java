@@ -0,0 +1,51 @@
+package uk.ac.ic.wlgitbridge.bridge.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Records what happens to projects, so that production access patterns can
+ * be replayed offline, e.g. by {@link AccessTraceReplay}, to size disks and
+ * tune the swap job.
+ *
+ * Recording must never make the recorded operation fail, so implementations
+ * log their errors rather than throwing them.
+ */
+public interface AccessTraceRecorder {
+
+    static AccessTraceRecorder fromConfig(Optional<String> accessTrace) {
+        if (!accessTrace.isPresent()) {
+            return new NoopAccessTraceRecorder();
+        }
+        try {
+            return new FileAccessTraceRecorder(new File(accessTrace.get()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Failed to open access trace: " + accessTrace.get(),
+                    e
+            );
+        }
+    }
+
+    /**
+     * @param type what happened
+     * @param projectName the project it happened to
+     * @param sizeBytes the size of the project on disk afterwards (before,
+     *                  for an eviction), or -1 if it isn't known. Sizes are
+     *                  measured in the background after a project changes,
+     *                  so an access may be recorded with the size from
+     *                  before it, or -1 for a new project
+     * @param durationNanos how long it took
+     */
+    void record(
+            AccessEvent.Type type,
+            String projectName,
+            long sizeBytes,
+            long durationNanos
+    );
+
+    void close();
+
+}
@@ -0,0 +1,539 @@
+package uk.ac.ic.wlgitbridge.bridge.trace;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.eclipse.jgit.util.FileUtils;
+import uk.ac.ic.wlgitbridge.application.config.Config;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoStoreConfig;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.NetSnapshotApi;
+import uk.ac.ic.wlgitbridge.bridge.swap.store.InMemorySwapStore;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.snapshot.base.SnapshotAPIRequest;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotAttachment;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotData;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.GetSavedVersResult;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.server.MockSnapshotServer;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.state.SnapshotAPIState;
+import uk.ac.ic.wlgitbridge.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays an access trace recorded by {@link FileAccessTraceRecorder}
+ * against a real {@link Bridge}, to see how much disk a configuration needs
+ * and how often it swaps, without experimenting on production.
+ *
+ * The bridge gets its snapshots from a {@link MockSnapshotServer}, swaps to
+ * an {@link InMemorySwapStore}, and keeps its repos in a fresh directory.
+ * Each project is text of its recorded size, which gets a new version
+ * whenever the project was pushed to. The text is written to disk and
+ * served by the mock as attachments, so that it is never held in memory
+ * here, in files of at most {@link #MAX_FILE_BYTES}. The recorded evictions,
+ * restores and GCs are only counted, for comparison, since the replayed
+ * bridge's own swap and GC jobs decide when to do those.
+ *
+ * The trace is replayed speedup times faster than it was recorded, and the
+ * swap job runs speedup times more often than configured to match. GC runs
+ * at its configured interval.
+ *
+ * Run with:
+ *
+ *     java -cp writelatex-git-bridge.jar \
+ *         uk.ac.ic.wlgitbridge.bridge.trace.AccessTraceReplay \
+ *         trace.bin config.json [speedup]
+ *
+ * where config.json is a git bridge config, of which the repoStore, swapJob
+ * and gcJob sections are used. speedup defaults to 60, and 0 replays the
+ * trace as fast as possible.
+ */
+public class AccessTraceReplay {
+
+    private static final double DEFAULT_SPEEDUP = 60;
+
+    static final long MAX_FILE_BYTES = 16 << 20;
+
+    private static final String ALPHABET =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+    public static class Report {
+
+        private long accesses;
+        private long failedAccesses;
+        private final Map<AccessEvent.Type, Long> recorded =
+                new EnumMap<>(AccessEvent.Type.class);
+        private final Map<AccessEvent.Type, Long> replayed =
+                new EnumMap<>(AccessEvent.Type.class);
+        private long peakBytesOnDisk;
+        private long finalBytesOnDisk;
+        private long elapsedMillis;
+
+        public long getAccesses() {
+            return accesses;
+        }
+
+        public long getFailedAccesses() {
+            return failedAccesses;
+        }
+
+        /**
+         * @return how many events of the type were in the trace
+         */
+        public long getRecorded(AccessEvent.Type type) {
+            return recorded.getOrDefault(type, 0L);
+        }
+
+        /**
+         * @return how many events of the type the replayed bridge had
+         */
+        public long getReplayed(AccessEvent.Type type) {
+            return replayed.getOrDefault(type, 0L);
+        }
+
+        public long getPeakBytesOnDisk() {
+            return peakBytesOnDisk;
+        }
+
+        public long getFinalBytesOnDisk() {
+            return finalBytesOnDisk;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(
+                    "accesses replayed:  %d (%d failed)%n",
+                    accesses,
+                    failedAccesses
+            ));
+            sb.append(String.format(
+                    "%-20s %12s %12s%n",
+                    "event",
+                    "recorded",
+                    "replayed"
+            ));
+            for (AccessEvent.Type type : AccessEvent.Type.values()) {
+                sb.append(String.format(
+                        "%-20s %12d %12d%n",
+                        type,
+                        getRecorded(type),
+                        getReplayed(type)
+                ));
+            }
+            sb.append(String.format(
+                    "peak bytes on disk: %d%n",
+                    peakBytesOnDisk
+            ));
+            sb.append(String.format(
+                    "final bytes on disk: %d%n",
+                    finalBytesOnDisk
+            ));
+            sb.append(String.format("elapsed millis: %d%n", elapsedMillis));
+            return sb.toString();
+        }
+
+    }
+
+    /**
+     * Counts the events of the replayed bridge.
+     */
+    private static class Tally implements AccessTraceRecorder {
+
+        private final Map<AccessEvent.Type, AtomicLong> counts;
+
+        Tally() {
+            counts = new EnumMap<>(AccessEvent.Type.class);
+            for (AccessEvent.Type type : AccessEvent.Type.values()) {
+                counts.put(type, new AtomicLong());
+            }
+        }
+
+        @Override
+        public void record(
+                AccessEvent.Type type,
+                String projectName,
+                long sizeBytes,
+                long durationNanos
+        ) {
+            counts.get(type).incrementAndGet();
+        }
+
+        @Override
+        public void close() {}
+
+    }
+
+    private final JsonObject config;
+    private final File rootDir;
+    private final double speedup;
+
+    private String apiBaseURL;
+    private String filesBaseURL;
+    private long maxFileBytes;
+
+    /* The mock snapshot API's state, which we update as we go */
+    private final Map<String, GetDocResult> getDoc;
+    private final Map<String, GetSavedVersResult> getSavedVers;
+    private final Map<String, Map<Integer, GetForVersionResult>> getForVers;
+    private final Map<String, Integer> versions;
+
+    /**
+     * @param config the config, as in a config file, to take the repo store,
+     *               swap job and gc job config from
+     * @param rootDir an empty directory to keep the replayed repos in
+     * @param speedup how many times faster than recorded to replay, or 0
+     *                for as fast as possible
+     */
+    public AccessTraceReplay(
+            JsonObject config,
+            File rootDir,
+            double speedup
+    ) {
+        this.config = config;
+        this.rootDir = rootDir;
+        this.speedup = speedup;
+        getDoc = new ConcurrentHashMap<>();
+        getSavedVers = new ConcurrentHashMap<>();
+        getForVers = new ConcurrentHashMap<>();
+        versions = new HashMap<>();
+    }
+
+    public Report replay(
+            List<AccessEvent> events
+    ) throws IOException, InterruptedException {
+        MockSnapshotServer server = new MockSnapshotServer(0, rootDir);
+        server.setState(new SnapshotAPIState(
+                getDoc,
+                getSavedVers,
+                getForVers,
+                new HashMap<>(),
+                new HashMap<>()
+        ));
+        server.start();
+        String baseURL = "http://127.0.0.1:" + server.getPort();
+        apiBaseURL = baseURL + "/api/v0/";
+        filesBaseURL = baseURL + "/files/";
+        SnapshotAPIRequest.setBaseURL(apiBaseURL);
+        File repos = new File(rootDir, "repos");
+        Files.createDirectories(repos.toPath());
+        Config replayConfig = replayConfig(repos);
+        Optional<Long> maxFileSize = replayConfig.getRepoStore().flatMap(
+                RepoStoreConfig::getMaxFileSize
+        );
+        maxFileBytes = Math.min(
+                MAX_FILE_BYTES,
+                maxFileSize.orElse(MAX_FILE_BYTES)
+        );
+        RepoStore repoStore = new FSGitRepoStore(
+                repos.getAbsolutePath(),
+                maxFileSize
+        );
+        DBStore dbStore = new SqliteDBStore(
+                repos.toPath().resolve(".wlgb").resolve("wlgb.db").toFile(),
+                replayConfig.getSqliteHeapLimitBytes()
+        );
+        Tally tally = new Tally();
+        Bridge bridge = Bridge.make(
+                replayConfig,
+                repoStore,
+                dbStore,
+                new InMemorySwapStore(),
+                new NetSnapshotApi(),
+                tally
+        );
+        Report report = new Report();
+        long start = System.currentTimeMillis();
+        try {
+            bridge.startBackgroundJobs();
+            long firstEventMillis =
+                    events.isEmpty() ? 0 : events.get(0).getTimeMillis();
+            long[] sizes = sizesAfter(events);
+            for (int i = 0; i < events.size(); ++i) {
+                AccessEvent event = events.get(i);
+                report.recorded.merge(event.getType(), 1L, Long::sum);
+                waitUntil(
+                        start,
+                        event.getTimeMillis() - firstEventMillis
+                );
+                switch (event.getType()) {
+                case GET_UPDATED_REPO:
+                case PUSH:
+                    access(bridge, event, sizes[i], report);
+                    bridge.awaitProjectSizes();
+                    report.peakBytesOnDisk = Math.max(
+                            report.peakBytesOnDisk,
+                            dbStore.getTotalUnswappedProjectSize()
+                    );
+                    break;
+                default:
+                    /* Left to the replayed bridge's swap and gc jobs */
+                    break;
+                }
+            }
+        } finally {
+            bridge.stopBackgroundJobs();
+            server.stop();
+        }
+        report.finalBytesOnDisk = dbStore.getTotalUnswappedProjectSize();
+        report.elapsedMillis = System.currentTimeMillis() - start;
+        tally.counts.forEach(
+                (type, count) -> report.replayed.put(type, count.get())
+        );
+        return report;
+    }
+
+    /**
+     * @return the given config, pointed at the mock API and the replay's
+     * repos, without the parts that would reach outside the replay, and with
+     * the swap job sped up
+     */
+    private Config replayConfig(File repos) {
+        JsonObject replayConfig = config.deepCopy();
+        replayConfig.addProperty("rootGitDirectory", repos.getAbsolutePath());
+        replayConfig.addProperty("apiBaseUrl", apiBaseURL);
+        for (String key : new String[] {
+                "oauth2",
+                "swapStore",
+                "accessTrace",
+                "updateJob",
+                "admission"
+        }) {
+            replayConfig.remove(key);
+        }
+        if (speedup > 0 && replayConfig.has("swapJob")) {
+            JsonObject swapJob =
+                    replayConfig.getAsJsonObject("swapJob");
+            swapJob.addProperty("intervalMillis", Math.max(
+                    1,
+                    (long) (swapJob.get("intervalMillis").getAsLong()
+                            / speedup)
+            ));
+        }
+        return new Config(replayConfig);
+    }
+
+    private void waitUntil(long start, long traceOffsetMillis) {
+        if (speedup <= 0) {
+            return;
+        }
+        long sleepMillis = start
+                + (long) (traceOffsetMillis / speedup)
+                - System.currentTimeMillis();
+        if (sleepMillis > 0) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The bridge measures a project after an access has been recorded, so
+     * the size recorded with the project's next event is the closer one to
+     * what the access left on disk.
+     * @return the size of each event's project after it, as best known
+     */
+    private static long[] sizesAfter(List<AccessEvent> events) {
+        long[] sizes = new long[events.size()];
+        Map<String, Long> nextSizes = new HashMap<>();
+        for (int i = events.size() - 1; i >= 0; --i) {
+            AccessEvent event = events.get(i);
+            Long next = nextSizes.get(event.getProjectName());
+            sizes[i] = next == null ? event.getSizeBytes() : next;
+            if (event.getSizeBytes() >= 0) {
+                nextSizes.put(event.getProjectName(), event.getSizeBytes());
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Gets the updated repo, after making a new version of the project if
+     * it's new or was pushed to.
+     */
+    private void access(
+            Bridge bridge,
+            AccessEvent event,
+            long sizeBytes,
+            Report report
+    ) {
+        String projectName = event.getProjectName();
+        Integer version = versions.get(projectName);
+        if (version == null || event.getType() == AccessEvent.Type.PUSH) {
+            version = version == null ? 1 : version + 1;
+            versions.put(projectName, version);
+            String createdAt = Instant.ofEpochMilli(
+                    event.getTimeMillis()
+            ).truncatedTo(ChronoUnit.SECONDS).toString();
+            getDoc.put(projectName, new GetDocResult(
+                    null,
+                    version,
+                    createdAt,
+                    "replay@example.com",
+                    "Replay",
+                    null
+            ));
+            getSavedVers.putIfAbsent(
+                    projectName,
+                    new GetSavedVersResult(new ArrayList<>())
+            );
+            Map<Integer, GetForVersionResult> forVers = new HashMap<>();
+            try {
+                forVers.put(version, new GetForVersionResult(new SnapshotData(
+                        Collections.emptyList(),
+                        writeContents(projectName, version, sizeBytes)
+                )));
+            } catch (IOException e) {
+                ++report.accesses;
+                ++report.failedAccesses;
+                Log.warn(
+                        "[{}] Failed to write replayed version",
+                        projectName,
+                        e
+                );
+                return;
+            }
+            getForVers.put(projectName, forVers);
+        }
+        ++report.accesses;
+        try {
+            bridge.getUpdatedRepo(Optional.empty(), projectName);
+            /* The bridge has it now, so don't hold on to it */
+            getForVers.get(projectName).clear();
+            deleteContents(projectName);
+        } catch (IOException | GitUserException e) {
+            ++report.failedAccesses;
+            Log.warn("[{}] Replayed access failed", projectName, e);
+        }
+    }
+
+    /**
+     * Writes sizeBytes of text for the mock to serve, which is mostly the
+     * same for every version of a project, so that they delta against each
+     * other like real edits. Only the first file differs between versions.
+     * @return the files, as attachments
+     */
+    private List<SnapshotAttachment> writeContents(
+            String projectName,
+            int version,
+            long sizeBytes
+    ) throws IOException {
+        String header = "% version " + version + "\n";
+        long remaining = Math.max(sizeBytes, header.length());
+        Path dir = filesDir(projectName).resolve(Integer.toString(version));
+        Files.createDirectories(dir);
+        List<SnapshotAttachment> files = new ArrayList<>();
+        for (int part = 0; remaining > 0; ++part) {
+            String path = part == 0 ? "main.tex" : "part" + part + ".tex";
+            long size = Math.min(remaining, maxFileBytes);
+            remaining -= size;
+            try (Writer out = Files.newBufferedWriter(
+                    dir.resolve(path),
+                    StandardCharsets.US_ASCII
+            )) {
+                Random random = new Random(projectName.hashCode() * 31L + part);
+                long written = 0;
+                if (part == 0) {
+                    out.write(header);
+                    written = header.length();
+                }
+                for (; written < size; ++written) {
+                    out.write(
+                            written % 80 == 79
+                                    ? '\n'
+                                    : ALPHABET.charAt(
+                                            random.nextInt(ALPHABET.length())
+                                    )
+                    );
+                }
+            }
+            files.add(new SnapshotAttachment(
+                    filesBaseURL
+                            + projectName + "/" + version + "/" + path,
+                    path
+            ));
+        }
+        return files;
+    }
+
+    private void deleteContents(String projectName) throws IOException {
+        FileUtils.delete(
+                filesDir(projectName).toFile(),
+                FileUtils.RECURSIVE | FileUtils.SKIP_MISSING
+        );
+    }
+
+    private Path filesDir(String projectName) {
+        return rootDir.toPath().resolve("files").resolve(projectName);
+    }
+
+    public static void main(
+            String[] args
+    ) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println(
+                    "Usage: AccessTraceReplay trace config [speedup]"
+            );
+            System.exit(1);
+        }
+        List<AccessEvent> events =
+                AccessTraceReader.readAll(new FileInputStream(args[0]));
+        JsonObject config;
+        try (Reader reader = new FileReader(args[1])) {
+            config = new Gson().fromJson(reader, JsonObject.class);
+        }
+        double speedup = args.length > 2
+                ? Double.parseDouble(args[2])
+                : DEFAULT_SPEEDUP;
+        File rootDir = Files.createTempDirectory("wlgb-replay").toFile();
+        Log.info(
+                "Replaying {} events at {}x in {}",
+                events.size(),
+                speedup,
+                rootDir
+        );
+        if (!events.isEmpty()) {
+            Log.info(
+                    "Trace covers {} hours",
+                    TimeUnit.MILLISECONDS.toHours(
+                            events.get(events.size() - 1).getTimeMillis()
+                                    - events.get(0).getTimeMillis()
+                    )
+            );
+        }
+        Report report = new AccessTraceReplay(
+                config,
+                rootDir,
+                speedup
+        ).replay(events);
+        System.out.print(report);
+        /* The bridge's shutdown hook waits for its projects */
+        System.exit(0);
+    }
+
+}
@@ -0,0 +1,218 @@
+package uk.ac.ic.wlgitbridge.bridge.trace;
+
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.TimerUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Appends events to a compact binary trace file, which can be read back with
+ * {@link AccessTraceReader}.
+ *
+ * The file starts with {@link #MAGIC} and {@link #VERSION}. Every time it is
+ * opened, a segment starts with a {@link #SEGMENT} byte, followed by the
+ * segment's events, each of which is:
+ *
+ *     byte     type ordinal
+ *     varlong  time in millis, zigzag delta from the previous event
+ *     varint   project id, followed by the name in modified UTF-8 if it is
+ *              the first time the project appears in the segment
+ *     varlong  size in bytes, zigzag
+ *     varlong  duration in micros
+ *
+ * A typical event takes 8 bytes or so, so a day of a busy server's accesses
+ * fits in a few MB. Events are buffered, and flushed every second by a
+ * timer, and on close.
+ *
+ * If the server was killed while writing an event, the part of it that was
+ * written is cut off when the trace is opened again, so that the new
+ * segment isn't read as the rest of it.
+ */
+public class FileAccessTraceRecorder implements AccessTraceRecorder {
+
+    static final byte[] MAGIC = { 'W', 'L', 'G', 'T' };
+    static final int VERSION = 1;
+    static final int SEGMENT = 0xFF;
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    private final File file;
+    private final DataOutputStream out;
+    private final Map<String, Integer> projectIds;
+    /* Not a monitor, so that writing doesn't pin a virtual thread */
+    private final Lock lock;
+    private final Timer flushTimer;
+
+    private long lastTimeMillis;
+    private boolean failed;
+
+    public FileAccessTraceRecorder(File file) throws IOException {
+        this.file = file;
+        boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew) {
+            truncatePartialEvent(file);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true),
+                1 << 16
+        ));
+        if (isNew) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+        }
+        out.writeByte(SEGMENT);
+        out.flush();
+        projectIds = new HashMap<>();
+        lock = new ReentrantLock();
+        lastTimeMillis = 0;
+        failed = false;
+        flushTimer = new Timer("access-trace-flush", true);
+        flushTimer.schedule(
+                TimerUtils.makeTimerTask(this::flush),
+                FLUSH_INTERVAL_MS,
+                FLUSH_INTERVAL_MS
+        );
+        Log.info("Recording access trace to {}", file.getAbsolutePath());
+    }
+
+    @Override
+    public void record(
+            AccessEvent.Type type,
+            String projectName,
+            long sizeBytes,
+            long durationNanos
+    ) {
+        lock.lock();
+        try {
+            if (failed) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            try {
+                out.writeByte(type.ordinal());
+                writeVarLong(out, zigzag(now - lastTimeMillis));
+                lastTimeMillis = now;
+                Integer id = projectIds.get(projectName);
+                if (id == null) {
+                    id = projectIds.size();
+                    projectIds.put(projectName, id);
+                    writeVarLong(out, id);
+                    out.writeUTF(projectName);
+                } else {
+                    writeVarLong(out, id);
+                }
+                writeVarLong(out, zigzag(sizeBytes));
+                writeVarLong(out, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+            } catch (IOException e) {
+                writeFailed(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush() {
+        lock.lock();
+        try {
+            if (failed) {
+                return;
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                writeFailed(e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeFailed(IOException e) {
+        Log.warn(
+                "Failed to write access trace {}, stopping recording",
+                file.getAbsolutePath(),
+                e
+        );
+        failed = true;
+    }
+
+    @Override
+    public void close() {
+        flushTimer.cancel();
+        lock.lock();
+        try {
+            try {
+                out.close();
+            } catch (IOException e) {
+                Log.warn(
+                        "Failed to close access trace {}",
+                        file.getAbsolutePath(),
+                        e
+                );
+            }
+            failed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks the file is an access trace, and cuts off an event at its end
+     * that was only partly written.
+     */
+    private static void truncatePartialEvent(File file) throws IOException {
+        long completeBytes;
+        try (AccessTraceReader reader = new AccessTraceReader(
+                new FileInputStream(file))) {
+            while (reader.next() != null) {}
+            completeBytes = reader.getCompleteBytes();
+        }
+        if (completeBytes == file.length()) {
+            return;
+        }
+        Log.warn(
+                "Access trace {} ends with a partly written event, " +
+                        "cutting off its last {} bytes",
+                file.getAbsolutePath(),
+                file.length() - completeBytes
+        );
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.WRITE)) {
+            channel.truncate(completeBytes);
+        }
+    }
+
+    static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    static void writeVarLong(
+            DataOutputStream out,
+            long n
+    ) throws IOException {
+        while ((n & ~0x7FL) != 0) {
+            out.writeByte((int) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+}
@@ -0,0 +1,16 @@
+package uk.ac.ic.wlgitbridge.bridge.trace;
+
+public class NoopAccessTraceRecorder implements AccessTraceRecorder {
+
+    @Override
+    public void record(
+            AccessEvent.Type type,
+            String projectName,
+            long sizeBytes,
+            long durationNanos
+    ) {}
+
+    @Override
+    public void close() {}
+
+}
@@ -0,0 +1,105 @@
+package uk.ac.ic.wlgitbridge.bridge.update;
+
+import io.prometheus.client.Counter;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Threads;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings projects up to date in the background, off the request threads, when
+ * Overleaf notifies the bridge that they have a new version.
+ *
+ * Projects wait in a bounded queue for a fixed pool of workers. A project is
+ * only queued once at a time, and a notification that finds the queue full
+ * is dropped, as the project will still be updated on its next request.
+ *
+ * @see Bridge#notifyUpdated(String)
+ */
+public class UpdateJob {
+
+    private static final Counter backgroundUpdates = Counter.build()
+            .name("git_bridge_background_updates_total")
+            .help("Number of projects notified for a background update, by " +
+                    "whether they were queued, already queued, dropped " +
+                    "because the queue was full, updated or failed.")
+            .labelNames("result")
+            .register();
+
+    /**
+     * Updates a project, like {@link Bridge#getUpdatedRepo}, but without a
+     * user waiting for it.
+     */
+    public interface ProjectUpdater {
+
+        void update(String projectName) throws IOException, GitUserException;
+
+    }
+
+    private final ProjectUpdater updater;
+    private final ThreadPoolExecutor workers;
+    private final Set<String> queued;
+
+    public UpdateJob(UpdateJobConfig config, ProjectUpdater updater) {
+        this.updater = updater;
+        workers = new ThreadPoolExecutor(
+                config.getNumWorkers(),
+                config.getNumWorkers(),
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.getMaxQueuedProjects()),
+                Threads.newThreadFactory("update-worker-%d")
+        );
+        queued = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Queues the project for an update, unless it is already queued or the
+     * queue is full. Needs to be callable from any thread.
+     * @param projectName the name of the project
+     * @return whether the project is now queued
+     */
+    public boolean queue(String projectName) {
+        if (!queued.add(projectName)) {
+            backgroundUpdates.labels("already_queued").inc();
+            return true;
+        }
+        try {
+            workers.execute(() -> update(projectName));
+        } catch (RejectedExecutionException e) {
+            queued.remove(projectName);
+            backgroundUpdates.labels("dropped").inc();
+            Log.info("[{}] Update queue full, not updating", projectName);
+            return false;
+        }
+        backgroundUpdates.labels("queued").inc();
+        return true;
+    }
+
+    public void stop() {
+        Log.info("Stopping update job");
+        workers.shutdownNow();
+    }
+
+    private void update(String projectName) {
+        /* Remove it first, so that it can be queued again while updating */
+        queued.remove(projectName);
+        try {
+            updater.update(projectName);
+            backgroundUpdates.labels("updated").inc();
+        } catch (IOException | GitUserException | RuntimeException e) {
+            backgroundUpdates.labels("failed").inc();
+            Log.warn("[{}] Background update failed", projectName, e);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package uk.ac.ic.wlgitbridge.bridge.update;
+
+import javax.annotation.Nullable;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration of the update job, which brings projects up to date in the
+ * background when Overleaf notifies the bridge of a new version. Without a
+ * notify secret, the notify endpoint is not served. The other fields can be
+ * left out, in which case the defaults are a single worker, up to 100 queued
+ * projects, and only updating projects that a user has synced in the last
+ * hour.
+ */
+public class UpdateJobConfig {
+
+    private static final int DEFAULT_MAX_QUEUED_PROJECTS = 100;
+
+    private static final long DEFAULT_HOT_MILLIS =
+            TimeUnit.MILLISECONDS.convert(1, TimeUnit.HOURS);
+
+    @Nullable
+    private final String notifySecret;
+
+    @Nullable
+    private final Integer numWorkers;
+
+    @Nullable
+    private final Integer maxQueuedProjects;
+
+    @Nullable
+    private final Long hotMillis;
+
+    public UpdateJobConfig(
+            String notifySecret,
+            Integer numWorkers,
+            Integer maxQueuedProjects,
+            Long hotMillis
+    ) {
+        this.notifySecret = notifySecret;
+        this.numWorkers = numWorkers;
+        this.maxQueuedProjects = maxQueuedProjects;
+        this.hotMillis = hotMillis;
+    }
+
+    /**
+     * @return the secret that notifications must be sent with, as a bearer
+     * token
+     */
+    public Optional<String> getNotifySecret() {
+        return Optional.ofNullable(notifySecret);
+    }
+
+    public int getNumWorkers() {
+        return Math.max(1, Optional.ofNullable(numWorkers).orElse(1));
+    }
+
+    /**
+     * @return how many projects may wait for an update. Notifications for
+     * projects beyond this are dropped, and the project is updated on its
+     * next request instead.
+     */
+    public int getMaxQueuedProjects() {
+        return Math.max(1, Optional.ofNullable(
+                maxQueuedProjects
+        ).orElse(DEFAULT_MAX_QUEUED_PROJECTS));
+    }
+
+    /**
+     * @return how recently a user must have synced a project for it to be
+     * updated in the background, and for later requests to only check the
+     * user's access with Overleaf, until the next notification. Only applies
+     * when a notifySecret is set.
+     */
+    public long getHotMillis() {
+        return Optional.ofNullable(hotMillis).orElse(DEFAULT_HOT_MILLIS);
+    }
+
+    public static UpdateJobConfig asSanitised(UpdateJobConfig config) {
+        if (config == null) {
+            return null;
+        }
+        return new UpdateJobConfig(
+                config.notifySecret == null ? null : "<notifySecret>",
+                config.numWorkers,
+                config.maxQueuedProjects,
+                config.hotMillis
+        );
+    }
+
+}
@@ -7,33 +7,63 @@ import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.util.Util;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 
 /**
  * Created by Winston on 16/11/14.
  */
-public class CandidateSnapshot implements AutoCloseable {
+public class CandidateSnapshot {
 
     private final String projectName;
     private final int currentVersion;
+    private final long inlineFileMaxBytes;
     private final List<ServletFile> files;
+    private final Map<String, ServletFile> changedFiles;
     private final List<String> deleted;
-    private File attsDirectory;
 
     public CandidateSnapshot(
             String projectName,
             int currentVersion,
             RawDirectory directoryContents,
             RawDirectory oldDirectoryContents
+    ) {
+        this(
+                projectName,
+                currentVersion,
+                directoryContents,
+                oldDirectoryContents,
+                -1
+        );
+    }
+
+    /**
+     * @param inlineFileMaxBytes changed files up to this size are sent in
+     *                           the push request itself, rather than
+     *                           fetched from us by url; -1 for none
+     */
+    public CandidateSnapshot(
+            String projectName,
+            int currentVersion,
+            RawDirectory directoryContents,
+            RawDirectory oldDirectoryContents,
+            long inlineFileMaxBytes
     ) {
         this.projectName = projectName;
         this.currentVersion = currentVersion;
+        this.inlineFileMaxBytes = inlineFileMaxBytes;
         files = diff(directoryContents, oldDirectoryContents);
+        changedFiles = new HashMap<>();
+        for (ServletFile file : files) {
+            if (file.isChanged()) {
+                changedFiles.put(file.getUniqueIdentifier(), file);
+            }
+        }
         deleted = deleted(directoryContents, oldDirectoryContents);
     }
 
@@ -70,22 +100,14 @@ public class CandidateSnapshot implements AutoCloseable {
         return deleted;
     }
 
-    public void writeServletFiles(File rootGitDirectory) throws IOException {
-        attsDirectory = new File(
-                rootGitDirectory,
-                ".wlgb/atts/" + projectName
-        );
-        for (ServletFile file : files) {
-            if (file.isChanged()) {
-                file.writeToDiskWithName(attsDirectory, file.getUniqueIdentifier());
-            }
-        }
-    }
-
-    public void deleteServletFiles() throws IOException {
-        if (attsDirectory != null) {
-            Util.deleteDirectory(attsDirectory);
-        }
+    /**
+     * The Overleaf app fetches the changed files from us during the push.
+     * They are served from memory, where the pushed tree already is.
+     * @param identifier the identifier in the file's url
+     * @return the changed file with the identifier, if any
+     */
+    public Optional<ServletFile> getChangedFile(String identifier) {
+        return Optional.ofNullable(changedFiles.get(identifier));
     }
 
     public JsonElement getJsonRepresentation(String postbackKey) {
@@ -114,7 +136,13 @@ public class CandidateSnapshot implements AutoCloseable {
     ) {
         JsonObject jsonFile = new JsonObject();
         jsonFile.addProperty("name", file.getPath());
-        if (file.isChanged()) {
+        if (file.isChanged() && file.size() <= inlineFileMaxBytes) {
+            jsonFile.addProperty("encoding", "base64");
+            jsonFile.addProperty(
+                    "content",
+                    Base64.getEncoder().encodeToString(file.getContents())
+            );
+        } else if (file.isChanged()) {
             String identifier = file.getUniqueIdentifier();
             String url = projectURL + "/" + identifier + "?key=" + postbackKey;
             jsonFile.addProperty("url", url);
@@ -142,9 +170,4 @@ public class CandidateSnapshot implements AutoCloseable {
         return sb.toString();
     }
 
-    @Override
-    public void close() throws IOException {
-        deleteServletFiles();
-    }
-
 }
@@ -2,8 +2,8 @@ package uk.ac.ic.wlgitbridge.data;
 
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -14,15 +14,17 @@ import uk.ac.ic.wlgitbridge.util.Log;
  */
 public class ProjectLockImpl implements ProjectLock {
 
-    private final Map<String, Lock> projectLocks;
+    private final ConcurrentMap<String, Lock> projectLocks;
+    private final ConcurrentMap<String, Lock> maintenanceLocks;
     private final ReentrantReadWriteLock rwlock;
     private final Lock rlock;
     private final ReentrantReadWriteLock.WriteLock wlock;
     private LockAllWaiter waiter;
-    private boolean waiting;
+    private volatile boolean waiting;
 
     public ProjectLockImpl() {
-        projectLocks = new HashMap<String, Lock>();
+        projectLocks = new ConcurrentHashMap<>();
+        maintenanceLocks = new ConcurrentHashMap<>();
         rwlock = new ReentrantReadWriteLock();
         rlock = rwlock.readLock();
         wlock = rwlock.writeLock();
@@ -36,10 +38,13 @@ public class ProjectLockImpl implements ProjectLock {
 
     @Override
     public void lockForProject(String projectName) {
-        Log.debug("[{}] taking project lock", projectName);
-        getLockForProjectName(projectName).lock();
+        /* The reentrant lock first, so that a thread waiting for it once
+           lockAll() has started doesn't hold up holders of the read lock,
+           e.g. a GC, that need its project lock to finish */
         Log.debug("[{}] taking reentrant lock", projectName);
         rlock.lock();
+        Log.debug("[{}] taking project lock", projectName);
+        getLockForProjectName(projectName).lock();
         Log.debug("[{}] taken locks", projectName);
     }
 
@@ -56,6 +61,26 @@ public class ProjectLockImpl implements ProjectLock {
         }
     }
 
+    @Override
+    public void lockMaintenanceForProject(String projectName) {
+        /* Also the reentrant lock, so that lockAll() waits for a GC that
+           only holds the maintenance lock */
+        rlock.lock();
+        maintenanceLocks.computeIfAbsent(
+                projectName,
+                name -> new ReentrantLock()
+        ).lock();
+    }
+
+    @Override
+    public void unlockMaintenanceForProject(String projectName) {
+        maintenanceLocks.get(projectName).unlock();
+        rlock.unlock();
+        if (waiting) {
+            trySignal();
+        }
+    }
+
     private void trySignal() {
         int threads = rwlock.getReadLockCount();
         Log.debug("-> waiting for {} threads", threads);
@@ -73,13 +98,12 @@ public class ProjectLockImpl implements ProjectLock {
         wlock.lock();
     }
 
-    private synchronized Lock getLockForProjectName(String projectName) {
-        Lock lock = projectLocks.get(projectName);
-        if (lock == null) {
-            lock = new ReentrantLock();
-            projectLocks.put(projectName, lock);
-        }
-        return lock;
+    /* No monitor, so that virtual threads never pin while they lock */
+    private Lock getLockForProjectName(String projectName) {
+        return projectLocks.computeIfAbsent(
+                projectName,
+                name -> new ReentrantLock()
+        );
     }
 
     public void setWaiter(LockAllWaiter waiter) {
@@ -61,6 +61,10 @@ public class GitDirectoryContents {
         }
     }
 
+    public List<RawFile> getFiles() {
+        return files;
+    }
+
     public File getDirectory() {
         return gitDirectory;
     }
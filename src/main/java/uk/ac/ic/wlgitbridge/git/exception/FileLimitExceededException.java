@@ -8,11 +8,26 @@ import java.util.Optional;
 
 public class FileLimitExceededException extends GitUserException {
 
-    private final long numFiles;
+    private final Optional<Long> numFiles;
 
     private final long maxFiles;
 
     public FileLimitExceededException(long numFiles, long maxFiles) {
+        this(Optional.of(numFiles), maxFiles);
+    }
+
+    /**
+     * For when counting stopped at the limit, so the total isn't known.
+     * @param maxFiles the limit that was exceeded
+     */
+    public FileLimitExceededException(long maxFiles) {
+        this(Optional.empty(), maxFiles);
+    }
+
+    private FileLimitExceededException(
+            Optional<Long> numFiles,
+            long maxFiles
+    ) {
         this.numFiles = numFiles;
         this.maxFiles = maxFiles;
     }
@@ -24,9 +39,15 @@ public class FileLimitExceededException extends GitUserException {
 
     @Override
     public List<String> getDescriptionLines() {
+        if (!numFiles.isPresent()) {
+            return Arrays.asList(
+                "repository contains more than the limit of " +
+                maxFiles + " files"
+            );
+        }
         return Arrays.asList(
             "repository contains " +
-            numFiles + " files, which exceeds the limit of " +
+            numFiles.get() + " files, which exceeds the limit of " +
             maxFiles + " files"
         );
     }
@@ -63,6 +63,12 @@ public class WLRepositoryResolver
      * {@link WLReceivePackFactory} and {@link WriteLatexPutHook}. In this case,
      * the user will have to try again (which prompts another update, etc. until
      * this no longer happens).
+     *
+     * A clone or fetch is several requests: the ref advertisement, and then
+     * one or more upload-pack requests for the refs that were advertised.
+     * Only the advertisement syncs with Overleaf; the upload-pack requests
+     * that follow it are served from disk, which has at least the advertised
+     * commits, see {@link #maxUpdateAgeMillis(HttpServletRequest)}.
      * @param httpServletRequest The HttpServletRequest as required by the
      * interface. We injected the oauth2 creds into it with
      * {@link Oauth2Filter}, which was set up by the {@link GitBridgeServer}.
@@ -88,7 +94,11 @@ public class WLRepositoryResolver
                         Oauth2Filter.ATTRIBUTE_KEY));
         String projName = Util.removeAllSuffixes(name, "/", ".git");
         try {
-            return bridge.getUpdatedRepo(oauth2, projName).getJGitRepository();
+            return bridge.getUpdatedRepo(
+                    oauth2,
+                    projName,
+                    maxUpdateAgeMillis(httpServletRequest)
+            ).getJGitRepository();
         } catch (RepositoryNotFoundException e) {
             Log.info("Repository not found: " + name);
             throw e;
@@ -123,4 +133,33 @@ public class WLRepositoryResolver
         }
     }
 
+    /**
+     * Upload-pack requests reuse a sync from the same fetch, which is within
+     * {@link Bridge#FETCH_SESSION_MILLIS}. Ref advertisements for clones and
+     * fetches reuse a sync only within the configured recent update TTL, as
+     * they may then miss a version made on Overleaf since. Pushes always
+     * sync.
+     * @param request the request for the repository
+     * @return how old a sync of the project may be to be reused
+     */
+    private long maxUpdateAgeMillis(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        if (uri == null) {
+            return 0;
+        }
+        if ("POST".equals(request.getMethod())
+                && uri.endsWith("/git-upload-pack")) {
+            return Math.max(
+                    Bridge.FETCH_SESSION_MILLIS,
+                    bridge.getRecentUpdateTtlMillis()
+            );
+        }
+        if ("GET".equals(request.getMethod())
+                && uri.endsWith("/info/refs")
+                && "git-upload-pack".equals(request.getParameter("service"))) {
+            return bridge.getRecentUpdateTtlMillis();
+        }
+        return 0;
+    }
+
 }
@@ -1,12 +1,21 @@
 package uk.ac.ic.wlgitbridge.git.handler;
 
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.transport.GitProtocolConstants;
+import org.eclipse.jgit.transport.TransferConfig;
 import org.eclipse.jgit.transport.UploadPack;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
 import uk.ac.ic.wlgitbridge.git.servlet.WLGitServlet;
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.RequestTrace;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Winston on 02/11/14.
@@ -21,24 +30,99 @@ import javax.servlet.http.HttpServletRequest;
 public class WLUploadPackFactory
         implements UploadPackFactory<HttpServletRequest> {
 
+    private static final Histogram uploadPackPhase = Histogram.build()
+            .name("git_bridge_upload_pack_phase_seconds")
+            .help("Time spent in each phase of serving a clone or fetch.")
+            .labelNames("phase")
+            .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30)
+            .register();
+
+    private static final Counter uploadPackBytes = Counter.build()
+            .name("git_bridge_upload_pack_bytes_total")
+            .help("Bytes of packs sent to clones and fetches.")
+            .register();
+
     /**
-     * This does nothing special. Synchronising the project with Overleaf will
-     * have been performed by {@link WLRepositoryResolver}.
-     * @param __ Not used, required by the {@link UploadPackFactory} interface
+     * Synchronising the project with Overleaf will have been performed by
+     * {@link WLRepositoryResolver}, so this just configures which protocol
+     * features are served, with {@link #makeTransferConfig(Repository)}.
+     * Packs are written with JGit's defaults, which reuse the objects and
+     * deltas already in the project's packs, and use the bitmap index that
+     * GC writes to skip enumerating the objects of a clone.
+     *
+     * Clients ask for protocol v2 with the Git-Protocol header, which is
+     * passed on to the {@link UploadPack} here, as JGit's default factory
+     * does.
+     * @param request the request, for its Git-Protocol header
      * @param repository The JGit repository provided by the
      * {@link WLRepositoryResolver}
      * @return the {@link UploadPack}, used by JGit to serve the request
      */
     @Override
     public UploadPack create(
-            HttpServletRequest __,
+            HttpServletRequest request,
             Repository repository
     ) {
         Log.info(
                 "[{}] Creating upload-pack",
                 repository.getWorkTree().getName()
         );
-       return new UploadPack(repository);
+        UploadPack uploadPack = new UploadPack(repository);
+        uploadPack.setTransferConfig(makeTransferConfig(repository));
+        String protocol = request.getHeader(
+                GitProtocolConstants.PROTOCOL_HEADER
+        );
+        if (protocol != null) {
+            uploadPack.setExtraParameters(Arrays.asList(protocol.split(":")));
+        }
+        uploadPack.setPostUploadHook(WLUploadPackFactory::observe);
+        return uploadPack;
+    }
+
+    /**
+     * Protocol v2 is served, so that clients can ask for only the refs they
+     * want with ls-refs, and fetches may be filtered, so that partial clones
+     * (e.g. --filter=blob:limit=1m) can leave out large files until they are
+     * checked out.
+     * @param repository the repository being served
+     * @return the transfer config to serve the repository with
+     */
+    static TransferConfig makeTransferConfig(Repository repository) {
+        Config config = new Config(repository.getConfig());
+        config.setString("protocol", null, "version", "2");
+        config.setBoolean("uploadpack", null, "allowfilter", true);
+        return new TransferConfig(config);
+    }
+
+    /**
+     * Records how long a served pack spent negotiating with the client,
+     * generating the pack (counting, reusing and compressing objects) and
+     * transferring it.
+     * @param stats the statistics of the pack that was sent
+     */
+    private static void observe(PackStatistics stats) {
+        observe("negotiation", stats.getTimeNegotiating());
+        observe(
+                "pack_generation",
+                stats.getTimeCounting()
+                        + stats.getTimeSearchingForReuse()
+                        + stats.getTimeSearchingForSizes()
+                        + stats.getTimeCompressing()
+        );
+        observe("transfer", stats.getTimeWriting());
+        observe("total", stats.getTimeTotal());
+        uploadPackBytes.inc(stats.getTotalBytes());
+        RequestTrace.addCountToCurrent("pack_bytes", stats.getTotalBytes());
+    }
+
+    private static void observe(String phase, long millis) {
+        uploadPackPhase.labels(phase).observe(
+                millis / (double) TimeUnit.SECONDS.toMillis(1)
+        );
+        RequestTrace.addPhaseToCurrent(
+                "upload_pack." + phase,
+                TimeUnit.MILLISECONDS.toNanos(millis)
+        );
     }
 
 }
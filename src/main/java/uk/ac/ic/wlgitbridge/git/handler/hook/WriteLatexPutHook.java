@@ -1,27 +1,32 @@
 package uk.ac.ic.wlgitbridge.git.handler.hook;
 
 import com.google.api.client.auth.oauth2.Credential;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.PreReceiveHook;
 import org.eclipse.jgit.transport.ReceiveCommand;
 import org.eclipse.jgit.transport.ReceiveCommand.Result;
 import org.eclipse.jgit.transport.ReceivePack;
 import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.bridge.OperationMetrics;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.git.handler.WLReceivePackFactory;
 import uk.ac.ic.wlgitbridge.git.handler.hook.exception.ForcedPushException;
 import uk.ac.ic.wlgitbridge.git.handler.hook.exception.WrongBranchException;
+import uk.ac.ic.wlgitbridge.git.util.PushPreflightValidator;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InternalErrorException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.OutOfDateException;
-import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
 import uk.ac.ic.wlgitbridge.util.Log;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by Winston on 03/11/14.
@@ -66,38 +71,82 @@ public class WriteLatexPutHook implements PreReceiveHook {
             Collection<ReceiveCommand> receiveCommands
     ) {
         Log.debug("-> Handling {} commands in {}", receiveCommands.size(), receivePack.getRepository().getDirectory().getAbsolutePath());
+        Repository repository = receivePack.getRepository();
+        /* Reject the commands we can't accept before loading any trees */
+        List<ReceiveCommand> validCommands = new ArrayList<>();
         for (ReceiveCommand receiveCommand : receiveCommands) {
-            try {
-                handleReceiveCommand(
-                        oauth2,
-                        receivePack.getRepository(),
-                        receiveCommand
-                );
-            } catch (IOException e) {
-                Log.debug("IOException on pre receive: {}", e.getMessage());
-                receivePack.sendError(e.getMessage());
-                receiveCommand.setResult(
-                        Result.REJECTED_OTHER_REASON,
-                        e.getMessage()
+            handleReceiveCommand(receivePack, receiveCommand, () -> {
+                checkBranch(receiveCommand);
+                checkForcedPush(receiveCommand);
+                validCommands.add(receiveCommand);
+            });
+        }
+        /* Every command is diffed against the same HEAD */
+        AtomicReference<RawDirectory> oldDirectoryContents =
+                new AtomicReference<>();
+        for (ReceiveCommand receiveCommand : validCommands) {
+            handleReceiveCommand(receivePack, receiveCommand, () -> {
+                checkLimits(repository, receiveCommand);
+                RawDirectory directoryContents;
+                OperationMetrics.Timer loadTreesTimer = OperationMetrics.time(
+                        OperationMetrics.PUSH,
+                        OperationMetrics.LOAD_TREES
                 );
-            } catch (OutOfDateException e) {
-                Log.debug("OutOfDateException on pre receive: {}", e.getMessage());
-                receiveCommand.setResult(Result.REJECTED_NONFASTFORWARD);
-            } catch (GitUserException e) {
-                Log.debug("GitUserException on pre receive: {}", e.getMessage());
-                handleSnapshotPostException(receivePack, receiveCommand, e);
-            } catch (Throwable t) {
-                Log.warn("Throwable on pre receive: {}", t.getMessage());
-                handleSnapshotPostException(
-                        receivePack,
-                        receiveCommand,
-                        new InternalErrorException()
+                try {
+                    if (oldDirectoryContents.get() == null) {
+                        oldDirectoryContents.set(
+                                getOldDirectoryContents(repository)
+                        );
+                    }
+                    directoryContents = getPushedDirectoryContents(
+                            repository,
+                            receiveCommand
+                    );
+                } finally {
+                    loadTreesTimer.close();
+                }
+                bridge.push(
+                        oauth2,
+                        repository.getWorkTree().getName(),
+                        directoryContents,
+                        oldDirectoryContents.get(),
+                        hostname
                 );
-            }
+            });
         }
         Log.debug("-> Handled {} commands in {}", receiveCommands.size(), receivePack.getRepository().getDirectory().getAbsolutePath());
     }
 
+    private void handleReceiveCommand(
+            ReceivePack receivePack,
+            ReceiveCommand receiveCommand,
+            CommandHandler handler
+    ) {
+        try {
+            handler.handle();
+        } catch (IOException e) {
+            Log.debug("IOException on pre receive: {}", e.getMessage());
+            receivePack.sendError(e.getMessage());
+            receiveCommand.setResult(
+                    Result.REJECTED_OTHER_REASON,
+                    e.getMessage()
+            );
+        } catch (OutOfDateException e) {
+            Log.debug("OutOfDateException on pre receive: {}", e.getMessage());
+            receiveCommand.setResult(Result.REJECTED_NONFASTFORWARD);
+        } catch (GitUserException e) {
+            Log.debug("GitUserException on pre receive: {}", e.getMessage());
+            handleSnapshotPostException(receivePack, receiveCommand, e);
+        } catch (Throwable t) {
+            Log.warn("Throwable on pre receive: {}", t.getMessage());
+            handleSnapshotPostException(
+                    receivePack,
+                    receiveCommand,
+                    new InternalErrorException()
+            );
+        }
+    }
+
     private void handleSnapshotPostException(
             ReceivePack receivePack,
             ReceiveCommand receiveCommand,
@@ -122,23 +171,6 @@ public class WriteLatexPutHook implements PreReceiveHook {
         receiveCommand.setResult(Result.REJECTED_OTHER_REASON, message);
     }
 
-    private void handleReceiveCommand(
-            Optional<Credential> oauth2,
-            Repository repository,
-            ReceiveCommand receiveCommand
-    ) throws IOException, GitUserException {
-        checkBranch(receiveCommand);
-        checkForcedPush(receiveCommand);
-        bridge.push(
-                oauth2,
-                repository.getWorkTree().getName(),
-                getPushedDirectoryContents(repository,
-                        receiveCommand),
-                getOldDirectoryContents(repository),
-                hostname
-        );
-    }
-
     private void checkBranch(
             ReceiveCommand receiveCommand
     ) throws WrongBranchException {
@@ -158,6 +190,23 @@ public class WriteLatexPutHook implements PreReceiveHook {
         }
     }
 
+    /**
+     * Checks the pushed tree against the file size and count limits without
+     * reading any file contents, so that an oversized push is rejected before
+     * its tree is loaded.
+     */
+    private void checkLimits(
+            Repository repository,
+            ReceiveCommand receiveCommand
+    ) throws IOException, GitUserException {
+        try (ObjectReader reader = repository.newObjectReader()) {
+            new PushPreflightValidator(
+                    repoStore.getMaxFileSize(),
+                    bridge.getMaxFileNum()
+            ).validate(reader, receiveCommand.getNewId());
+        }
+    }
+
     private RawDirectory getPushedDirectoryContents(
             Repository repository,
             ReceiveCommand receiveCommand
@@ -175,4 +224,10 @@ public class WriteLatexPutHook implements PreReceiveHook {
                 .getDirectory();
     }
 
+    private interface CommandHandler {
+
+        void handle() throws IOException, GitUserException;
+
+    }
+
 }
@@ -0,0 +1,87 @@
+package uk.ac.ic.wlgitbridge.git.util;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import uk.ac.ic.wlgitbridge.git.exception.FileLimitExceededException;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.git.exception.InvalidGitRepository;
+import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Checks a pushed commit against the file count and size limits before its
+ * tree is loaded into memory.
+ *
+ * Only trees and object headers are read: the file count comes from the
+ * tree entries, and each file's size from
+ * {@link ObjectReader#getObjectSize(org.eclipse.jgit.lib.AnyObjectId, int)},
+ * which for packed objects is read from the pack without inflating the
+ * contents. The walk stops as soon as the count goes over the limit, before
+ * any sizes are looked up, and each distinct blob is only looked up once.
+ */
+public class PushPreflightValidator {
+
+    private final long maxFileSize;
+    private final Optional<Long> maxFileNum;
+
+    public PushPreflightValidator(long maxFileSize, Optional<Long> maxFileNum) {
+        this.maxFileSize = maxFileSize;
+        this.maxFileNum = maxFileNum;
+    }
+
+    public void validate(
+            ObjectReader reader,
+            ObjectId commitId
+    ) throws IOException, GitUserException {
+        List<String> paths = new ArrayList<>();
+        List<ObjectId> blobIds = new ArrayList<>();
+        try (RevWalk walk = new RevWalk(reader);
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(walk.parseCommit(commitId).getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                if (treeWalk.getFileMode(0) == FileMode.GITLINK) {
+                    throw new InvalidGitRepository();
+                }
+                if (maxFileNum.isPresent()
+                        && paths.size() >= maxFileNum.get()) {
+                    throw new FileLimitExceededException(maxFileNum.get());
+                }
+                paths.add(treeWalk.getPathString());
+                blobIds.add(treeWalk.getObjectId(0));
+            }
+        }
+        Set<ObjectId> checked = new HashSet<>();
+        for (int i = 0; i < blobIds.size(); ++i) {
+            ObjectId blobId = blobIds.get(i);
+            if (!checked.add(blobId)) {
+                continue;
+            }
+            long size;
+            try {
+                size = reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+            } catch (MissingObjectException e) {
+                throw new InvalidGitRepository();
+            }
+            if (size > maxFileSize) {
+                throw new SizeLimitExceededException(
+                        Optional.of(paths.get(i)),
+                        size,
+                        maxFileSize
+                );
+            }
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package uk.ac.ic.wlgitbridge.git.util;
 
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
@@ -24,14 +25,27 @@ import java.util.Optional;
 public class RepositoryObjectTreeWalker {
 
     private final TreeWalk treeWalk;
-    private final Repository repository;
+    private final ObjectReader reader;
 
     public RepositoryObjectTreeWalker(
             Repository repository,
             ObjectId objectId
     ) throws IOException {
-        treeWalk = initTreeWalk(repository, objectId);
-        this.repository = repository;
+        this(repository.newObjectReader(), objectId);
+    }
+
+    /**
+     * Walks a commit using the given reader, e.g. to see objects that an
+     * inserter hasn't flushed to the repository yet.
+     * @param reader the reader to read the commit and its objects with
+     * @param objectId the commit, or null for an empty directory
+     */
+    public RepositoryObjectTreeWalker(
+            ObjectReader reader,
+            ObjectId objectId
+    ) throws IOException {
+        treeWalk = initTreeWalk(reader, objectId);
+        this.reader = reader;
     }
 
     public RepositoryObjectTreeWalker(
@@ -55,14 +69,14 @@ public class RepositoryObjectTreeWalker {
     }
 
     private TreeWalk initTreeWalk(
-            Repository repository,
+            ObjectReader reader,
             ObjectId objectId
     ) throws IOException {
         if (objectId == null) {
             return null;
         }
-        RevWalk walk = new RevWalk(repository);
-        TreeWalk treeWalk = new TreeWalk(repository);
+        RevWalk walk = new RevWalk(reader);
+        TreeWalk treeWalk = new TreeWalk(reader);
         treeWalk.addTree(walk.parseCommit(objectId).getTree());
         treeWalk.setRecursive(true);
         return treeWalk;
@@ -80,10 +94,10 @@ public class RepositoryObjectTreeWalker {
             String path = treeWalk.getPathString();
 
             ObjectId objectId = treeWalk.getObjectId(0);
-            if (!repository.hasObject(objectId)) {
+            if (!reader.has(objectId)) {
                 throw new InvalidGitRepository();
             }
-            ObjectLoader obj = repository.open(objectId);
+            ObjectLoader obj = reader.open(objectId);
             long size = obj.getSize();
             if (maxFileSize.isPresent() && size > maxFileSize.get()) {
                 throw new SizeLimitExceededException(
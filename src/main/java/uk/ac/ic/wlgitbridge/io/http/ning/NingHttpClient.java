@@ -5,9 +5,11 @@ import org.asynchttpclient.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ic.wlgitbridge.util.FunctionT;
+import uk.ac.ic.wlgitbridge.util.RequestTrace;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Optional;
 import java.util.concurrent.ExecutionException;
 
 public class NingHttpClient implements NingHttpClientFacade {
@@ -26,6 +28,8 @@ public class NingHttpClient implements NingHttpClientFacade {
             String url,
             FunctionT<HttpHeaders, Boolean, E> handler
     ) throws ExecutionException {
+        /* The handler runs on the client's threads */
+        Optional<RequestTrace> trace = RequestTrace.current();
         try {
             return http
                     .prepareGet(url)
@@ -60,15 +64,20 @@ public class NingHttpClient implements NingHttpClientFacade {
                     }
                     byte[] ret = bytes.toByteArray();
                     bytes.close();
-                    log.info(
-                            statusCode
-                                    + " "
-                                    + response.getStatusText()
-                                    + " ("
-                                    + ret.length
-                                    + "B) -> "
-                                    + url
-                    );
+                    RequestTrace.Scope scope = RequestTrace.enter(trace);
+                    try {
+                        log.info(
+                                statusCode
+                                        + " "
+                                        + response.getStatusText()
+                                        + " ("
+                                        + ret.length
+                                        + "B) -> "
+                                        + url
+                        );
+                    } finally {
+                        scope.close();
+                    }
                     return ret;
                 }
 
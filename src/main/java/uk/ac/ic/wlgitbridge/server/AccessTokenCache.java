@@ -0,0 +1,178 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.prometheus.client.Counter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches the access tokens that {@link Oauth2Filter} gets from the OAuth
+ * server for a username and password, so that the several requests of a git
+ * operation only need one token request between them.
+ *
+ * Entries are keyed by an HMAC of the username, password and client IP, with
+ * a key that is random for each process, so the cache never holds anything
+ * that could be used to recover a password. Tokens are kept for at most the
+ * TTL, or until they expire if that is sooner, and the least recently used
+ * are dropped past the maximum size. A token that Overleaf rejects is
+ * invalidated, so that the next request asks for a new one.
+ */
+public class AccessTokenCache {
+
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    static final long DEFAULT_MAX_SIZE = 10000;
+
+    private static final Counter lookups = Counter.build()
+            .name("git_bridge_access_token_cache_total")
+            .help("Access token cache lookups, by whether they hit, missed " +
+                    "and requested a token, or the token was revoked.")
+            .labelNames("result")
+            .register();
+
+    /**
+     * Asks the OAuth server for a token, on a cache miss.
+     */
+    public interface TokenRequester {
+
+        TokenResponse request() throws IOException;
+
+    }
+
+    private final long ttlMillis;
+    private final HashFunction hmac;
+    private final Cache<HashCode, CachedToken> tokens;
+
+    AccessTokenCache(long ttlMillis, long maxSize) {
+        this.ttlMillis = ttlMillis;
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        hmac = Hashing.hmacSha256(key);
+        tokens = CacheBuilder.newBuilder(
+        ).expireAfterWrite(
+                ttlMillis,
+                TimeUnit.MILLISECONDS
+        ).maximumSize(maxSize).build();
+    }
+
+    public AccessTokenCache() {
+        this(DEFAULT_TTL_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @return the cached access token for the credentials, or one from the
+     * requester. Concurrent misses for the same credentials share a request.
+     * @throws IOException if the token request failed, e.g. with a
+     * {@link com.google.api.client.auth.oauth2.TokenResponseException} for
+     * bad credentials, in which case nothing is cached
+     */
+    public String getAccessToken(
+            String username,
+            String password,
+            String clientIp,
+            TokenRequester requester
+    ) throws IOException {
+        HashCode key = key(username, password, clientIp);
+        CachedToken cached = tokens.getIfPresent(key);
+        if (cached != null && cached.isExpired()) {
+            tokens.invalidate(key);
+        }
+        AtomicBoolean missed = new AtomicBoolean();
+        try {
+            cached = tokens.get(key, () -> {
+                missed.set(true);
+                return new CachedToken(requester.request(), ttlMillis);
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        lookups.labels(missed.get() ? "miss" : "hit").inc();
+        return cached.accessToken;
+    }
+
+    /**
+     * @return the cached access token for the credentials, if it hasn't
+     * expired, without requesting one. Doesn't count a miss, since the caller
+     * goes on to {@link #getAccessToken}.
+     */
+    public Optional<String> getCachedAccessToken(
+            String username,
+            String password,
+            String clientIp
+    ) {
+        CachedToken cached = tokens.getIfPresent(
+                key(username, password, clientIp)
+        );
+        if (cached == null || cached.isExpired()) {
+            return Optional.empty();
+        }
+        lookups.labels("hit").inc();
+        return Optional.of(cached.accessToken);
+    }
+
+    /**
+     * Forgets the token for the credentials, e.g. because it was revoked.
+     */
+    public void invalidate(String username, String password, String clientIp) {
+        HashCode key = key(username, password, clientIp);
+        if (tokens.getIfPresent(key) != null) {
+            tokens.invalidate(key);
+            lookups.labels("revoked").inc();
+        }
+    }
+
+    long size() {
+        tokens.cleanUp();
+        return tokens.size();
+    }
+
+    private HashCode key(String username, String password, String clientIp) {
+        Hasher hasher = hmac.newHasher();
+        for (String part : new String[] {username, password, clientIp}) {
+            hasher.putInt(part.length());
+            hasher.putString(part, StandardCharsets.UTF_8);
+        }
+        return hasher.hash();
+    }
+
+    private static class CachedToken {
+
+        final String accessToken;
+        final long expiresAtNanos;
+
+        CachedToken(TokenResponse response, long ttlMillis) {
+            accessToken = response.getAccessToken();
+            long lifetimeMillis = ttlMillis;
+            Long expiresInSeconds = response.getExpiresInSeconds();
+            if (expiresInSeconds != null) {
+                lifetimeMillis = Math.min(
+                        lifetimeMillis,
+                        TimeUnit.SECONDS.toMillis(expiresInSeconds)
+                );
+            }
+            expiresAtNanos = System.nanoTime()
+                    + TimeUnit.MILLISECONDS.toNanos(lifetimeMillis);
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAtNanos >= 0;
+        }
+
+    }
+
+}
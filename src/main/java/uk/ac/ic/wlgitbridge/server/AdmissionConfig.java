@@ -0,0 +1,137 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Configuration of {@link AdmissionControlFilter}. Every field can be left
+ * out, in which case there is no such limit.
+ */
+public class AdmissionConfig {
+
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 1;
+
+    /**
+     * A token bucket that allows perMinute git operations on average, and up
+     * to burst at once, which defaults to perMinute.
+     */
+    public static class RateLimit {
+
+        private final double perMinute;
+
+        @Nullable
+        private final Integer burst;
+
+        public RateLimit(double perMinute, Integer burst) {
+            this.perMinute = perMinute;
+            this.burst = burst;
+        }
+
+        public double getPerMinute() {
+            return perMinute;
+        }
+
+        public int getBurst() {
+            return Math.max(1, Optional.ofNullable(
+                    burst
+            ).orElse((int) Math.ceil(perMinute)));
+        }
+
+    }
+
+    @Nullable
+    private final RateLimit perClientIp;
+
+    @Nullable
+    private final RateLimit perUser;
+
+    @Nullable
+    private final RateLimit perProject;
+
+    @Nullable
+    private final Integer maxExpensiveRequests;
+
+    @Nullable
+    private final Integer maxCheapRequests;
+
+    @Nullable
+    private final Integer retryAfterSeconds;
+
+    @Nullable
+    private final List<String> trustedProxies;
+
+    public AdmissionConfig(
+            RateLimit perClientIp,
+            RateLimit perUser,
+            RateLimit perProject,
+            Integer maxExpensiveRequests,
+            Integer maxCheapRequests,
+            Integer retryAfterSeconds,
+            List<String> trustedProxies
+    ) {
+        this.perClientIp = perClientIp;
+        this.perUser = perUser;
+        this.perProject = perProject;
+        this.maxExpensiveRequests = maxExpensiveRequests;
+        this.maxCheapRequests = maxCheapRequests;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.trustedProxies = trustedProxies;
+    }
+
+    public Optional<RateLimit> getPerClientIp() {
+        return Optional.ofNullable(perClientIp);
+    }
+
+    /**
+     * @return the limit for each set of credentials that requests are made
+     * with
+     */
+    public Optional<RateLimit> getPerUser() {
+        return Optional.ofNullable(perUser);
+    }
+
+    public Optional<RateLimit> getPerProject() {
+        return Optional.ofNullable(perProject);
+    }
+
+    /**
+     * @return how many requests that may sync with Overleaf, restore a
+     * project or push may run at once
+     */
+    public Optional<Integer> getMaxExpensiveRequests() {
+        return Optional.ofNullable(maxExpensiveRequests);
+    }
+
+    /**
+     * @return how many other git requests, such as sending packs, may run at
+     * once
+     */
+    public Optional<Integer> getMaxCheapRequests() {
+        return Optional.ofNullable(maxCheapRequests);
+    }
+
+    /**
+     * @return what to tell clients that are turned away because too many
+     * requests are running
+     */
+    public int getRetryAfterSeconds() {
+        return Math.max(1, Optional.ofNullable(
+                retryAfterSeconds
+        ).orElse(DEFAULT_RETRY_AFTER_SECONDS));
+    }
+
+    /**
+     * @return the addresses of the proxies in front of the bridge, whose
+     * X-Forwarded-For is believed for the client's address
+     */
+    public Set<String> getTrustedProxies() {
+        return trustedProxies == null
+                ? Collections.emptySet()
+                : new HashSet<>(trustedProxies);
+    }
+
+}
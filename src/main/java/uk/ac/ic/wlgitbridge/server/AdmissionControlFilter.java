@@ -0,0 +1,331 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Util;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.StringTokenizer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Turns away git requests before they take a project lock or call Overleaf,
+ * when a client, user or project is making too many, or too many are already
+ * running.
+ *
+ * Git operations, which start with a ref advertisement (GET .../info/refs),
+ * are rate limited with a token bucket per client IP, per user and per
+ * project, and are refused with a 429 when a bucket is empty. Users are told
+ * apart by their credentials, which are only kept as an HMAC, so that nobody
+ * can use up another user's limit without their password. A ref
+ * advertisement without credentials that is answered with a 401, so that git
+ * asks for them and makes it again, isn't charged, so that the operation is
+ * only charged once.
+ *
+ * Requests are also capped by how many can run at once, separately for
+ * expensive ones, which may sync with Overleaf, restore a swapped project or
+ * push (ref advertisements and receive-pack), and cheap ones, which serve
+ * what is already on disk (upload-pack). Requests beyond a cap are refused
+ * with a 503. Both kinds of refusal have a Retry-After.
+ */
+public class AdmissionControlFilter implements Filter {
+
+    private static final Counter rejections = Counter.build()
+            .name("git_bridge_admission_rejected_total")
+            .help("Number of git requests turned away, by the limit that " +
+                    "they were over.")
+            .labelNames("reason")
+            .register();
+
+    private static final Gauge running = Gauge.build()
+            .name("git_bridge_admission_running")
+            .help("Number of admitted git requests running, by cost.")
+            .labelNames("cost")
+            .register();
+
+    enum Cost {
+
+        EXPENSIVE, CHEAP;
+
+        String label() {
+            return name().toLowerCase();
+        }
+
+    }
+
+    private final Optional<RateLimiter> perClientIp;
+    private final Optional<RateLimiter> perUser;
+    private final Optional<RateLimiter> perProject;
+    private final Optional<Semaphore> expensive;
+    private final Optional<Semaphore> cheap;
+    private final int retryAfterSeconds;
+    private final ClientIpResolver clientIps;
+    private final HashFunction hmac;
+    private final LongSupplier nanoTime;
+
+    public AdmissionControlFilter(AdmissionConfig config) {
+        this(config, System::nanoTime);
+    }
+
+    AdmissionControlFilter(AdmissionConfig config, LongSupplier nanoTime) {
+        perClientIp = config.getPerClientIp().map(RateLimiter::new);
+        perUser = config.getPerUser().map(RateLimiter::new);
+        perProject = config.getPerProject().map(RateLimiter::new);
+        expensive = config.getMaxExpensiveRequests().map(Semaphore::new);
+        cheap = config.getMaxCheapRequests().map(Semaphore::new);
+        retryAfterSeconds = config.getRetryAfterSeconds();
+        clientIps = new ClientIpResolver(config.getTrustedProxies());
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        hmac = Hashing.hmacSha256(key);
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {}
+
+    @Override
+    public void doFilter(
+            ServletRequest servletRequest,
+            ServletResponse servletResponse,
+            FilterChain filterChain
+    ) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        String[] parts = request.getRequestURI().split("/");
+        if (parts.length < 2) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        String projectName = Util.removeAllSuffixes(parts[1], ".git");
+        Runnable refund = () -> {};
+        if (isOperationStart(request)) {
+            if (!tryStartOperation(projectName, request, response)) {
+                return;
+            }
+            if (request.getHeader("Authorization") == null) {
+                String clientIp = clientIps.getClientIp(request);
+                refund = () -> {
+                    refund(perClientIp, clientIp);
+                    refund(perProject, projectName);
+                };
+            }
+        }
+        Cost cost = getCost(request);
+        Optional<Semaphore> permits = cost == Cost.EXPENSIVE
+                ? expensive
+                : cheap;
+        if (permits.isPresent() && !permits.get().tryAcquire()) {
+            reject(
+                    response,
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    cost.label() + "_requests",
+                    retryAfterSeconds,
+                    projectName,
+                    "The server is busy."
+            );
+            return;
+        }
+        Runnable release = releaser(cost, permits, response, refund);
+        running.labels(cost.label()).inc();
+        boolean releasedLater = false;
+        try {
+            filterChain.doFilter(servletRequest, servletResponse);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(
+                        new ReleaseListener(release)
+                );
+                releasedLater = true;
+            }
+        } finally {
+            if (!releasedLater) {
+                release.run();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {}
+
+    static boolean isOperationStart(HttpServletRequest request) {
+        return "GET".equals(request.getMethod())
+                && request.getRequestURI().endsWith("/info/refs");
+    }
+
+    static Cost getCost(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        return uri.endsWith("/info/refs") || uri.endsWith("/git-receive-pack")
+                ? Cost.EXPENSIVE
+                : Cost.CHEAP;
+    }
+
+    /**
+     * Takes a token from each of the request's buckets, or responds with a
+     * 429 if one of them is empty.
+     * @return whether the operation may go ahead
+     */
+    private boolean tryStartOperation(
+            String projectName,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        long now = nanoTime.getAsLong();
+        String clientIp = clientIps.getClientIp(request);
+        Optional<String> user = getUserKey(request);
+        long waitNanos;
+        String reason;
+        if ((waitNanos = tryAcquire(perClientIp, clientIp, now)) > 0) {
+            reason = "client_ip";
+        } else if (user.isPresent()
+                && (waitNanos = tryAcquire(perUser, user.get(), now)) > 0) {
+            reason = "user";
+        } else if ((waitNanos = tryAcquire(perProject, projectName, now)) > 0) {
+            reason = "project";
+        } else {
+            return true;
+        }
+        Log.info(
+                "[{}] Rate limited by {} for {}",
+                projectName,
+                reason,
+                clientIp
+        );
+        reject(
+                response,
+                429,
+                reason,
+                (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(
+                        waitNanos + TimeUnit.SECONDS.toNanos(1) - 1
+                )),
+                projectName,
+                "Too many requests."
+        );
+        return false;
+    }
+
+    private static long tryAcquire(
+            Optional<RateLimiter> limiter,
+            String key,
+            long nowNanos
+    ) {
+        return limiter.map(l -> l.tryAcquire(key, nowNanos)).orElse(0L);
+    }
+
+    private static void refund(Optional<RateLimiter> limiter, String key) {
+        limiter.ifPresent(l -> l.refund(key));
+    }
+
+    private Optional<String> getUserKey(HttpServletRequest request) {
+        String authHeader = request.getHeader("Authorization");
+        if (authHeader == null) {
+            return Optional.empty();
+        }
+        StringTokenizer st = new StringTokenizer(authHeader);
+        if (!st.hasMoreTokens()
+                || !st.nextToken().equalsIgnoreCase("Basic")
+                || !st.hasMoreTokens()) {
+            return Optional.empty();
+        }
+        return Optional.of(hmac.hashString(
+                st.nextToken(),
+                StandardCharsets.UTF_8
+        ).toString());
+    }
+
+    /**
+     * @param refund puts back the tokens taken for a request without
+     * credentials, if it was only challenged for them
+     */
+    private static Runnable releaser(
+            Cost cost,
+            Optional<Semaphore> permits,
+            HttpServletResponse response,
+            Runnable refund
+    ) {
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                running.labels(cost.label()).dec();
+                permits.ifPresent(Semaphore::release);
+                if (response.getStatus()
+                        == HttpServletResponse.SC_UNAUTHORIZED) {
+                    refund.run();
+                }
+            }
+        };
+    }
+
+    private static void reject(
+            HttpServletResponse response,
+            int status,
+            String reason,
+            int retryAfterSeconds,
+            String projectName,
+            String message
+    ) throws IOException {
+        rejections.labels(reason).inc();
+        response.setContentType("text/plain");
+        response.setStatus(status);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        PrintWriter w = response.getWriter();
+        w.println(message);
+        w.println(
+                "Please try again in " + retryAfterSeconds + " second"
+                        + (retryAfterSeconds == 1 ? "" : "s") + "."
+        );
+        w.close();
+    }
+
+    /**
+     * Releases the request's permit when it is done, carrying over to any
+     * later asynchronous cycles of the request.
+     */
+    private static class ReleaseListener implements AsyncListener {
+
+        private final Runnable release;
+
+        ReleaseListener(Runnable release) {
+            this.release = release;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {}
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release.run();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+
+    }
+
+}
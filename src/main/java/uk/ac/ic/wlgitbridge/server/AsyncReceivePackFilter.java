@@ -0,0 +1,187 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import uk.ac.ic.wlgitbridge.util.Log;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many pushes hold Jetty's threads.
+ *
+ * A push holds its thread until Overleaf posts back the new version, which
+ * can take minutes. The postback itself needs a Jetty thread, so a burst of
+ * pushes could take the whole pool and starve the postbacks that would
+ * finish them. JGit's receive-pack hooks have to return the result of the
+ * push synchronously, so the wait can't be composed onto the postback's
+ * future. Instead, only a bounded number of pushes run at a time. With
+ * virtual threads, Jetty's threads are virtual, so the wait doesn't park a
+ * platform thread.
+ *
+ * A push beyond the limit is made asynchronous, which releases its thread,
+ * and queued. When a running push finishes, the next queued one is
+ * dispatched back to Jetty to run. Pushes beyond a bounded queue are turned
+ * away with a 503 straight away.
+ */
+public class AsyncReceivePackFilter implements Filter {
+
+    static final int DEFAULT_MAX_PUSHES = 64;
+    static final int DEFAULT_MAX_QUEUED_PUSHES = 64;
+
+    /* Set on a queued push when it is dispatched to run */
+    static final String RESUMED_KEY =
+            AsyncReceivePackFilter.class.getName() + ".resumed";
+
+    private final int maxPushes;
+    private final int maxQueuedPushes;
+
+    /* No monitor, so that virtual threads never pin while they lock */
+    private final Lock lock;
+    private final Deque<AsyncContext> queued;
+    private int running;
+
+    public AsyncReceivePackFilter(int maxPushes) {
+        this(maxPushes, DEFAULT_MAX_QUEUED_PUSHES);
+    }
+
+    AsyncReceivePackFilter(int maxPushes, int maxQueuedPushes) {
+        this.maxPushes = maxPushes;
+        this.maxQueuedPushes = maxQueuedPushes;
+        lock = new ReentrantLock();
+        queued = new ArrayDeque<>();
+        running = 0;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) {}
+
+    @Override
+    public void doFilter(
+            ServletRequest servletRequest,
+            ServletResponse servletResponse,
+            FilterChain filterChain
+    ) throws IOException, ServletException {
+        if (!isReceivePack(servletRequest)
+                || !servletRequest.isAsyncSupported()) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        if (servletRequest.getDispatcherType() == DispatcherType.ASYNC
+                && servletRequest.getAttribute(RESUMED_KEY) != null) {
+            /* Its place was handed over by the push that finished */
+            servletRequest.removeAttribute(RESUMED_KEY);
+            runPush(servletRequest, servletResponse, filterChain);
+            return;
+        }
+        boolean run = false;
+        boolean turnedAway = false;
+        lock.lock();
+        try {
+            if (running < maxPushes) {
+                ++running;
+                run = true;
+            } else if (queued.size() < maxQueuedPushes) {
+                AsyncContext ctx = servletRequest.startAsync(
+                        servletRequest,
+                        servletResponse
+                );
+                /* The postback has its own timeout */
+                ctx.setTimeout(0);
+                queued.add(ctx);
+            } else {
+                turnedAway = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (run) {
+            runPush(servletRequest, servletResponse, filterChain);
+        } else if (turnedAway) {
+            Log.warn("Too many pushes, turning one away");
+            sendError(
+                    servletResponse,
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE
+            );
+        }
+    }
+
+    @Override
+    public void destroy() {
+        List<AsyncContext> turnedAway;
+        lock.lock();
+        try {
+            turnedAway = new ArrayList<>(queued);
+            queued.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (AsyncContext ctx : turnedAway) {
+            sendError(
+                    ctx.getResponse(),
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE
+            );
+            ctx.complete();
+        }
+    }
+
+    private void runPush(
+            ServletRequest servletRequest,
+            ServletResponse servletResponse,
+            FilterChain filterChain
+    ) throws IOException, ServletException {
+        try {
+            filterChain.doFilter(servletRequest, servletResponse);
+        } finally {
+            finishPush();
+        }
+    }
+
+    /**
+     * Hands the finished push's place to the next queued push, if any.
+     */
+    private void finishPush() {
+        AsyncContext next;
+        lock.lock();
+        try {
+            next = queued.poll();
+            if (next == null) {
+                --running;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (next != null) {
+            next.getRequest().setAttribute(RESUMED_KEY, Boolean.TRUE);
+            next.dispatch();
+        }
+    }
+
+    private static boolean isReceivePack(ServletRequest servletRequest) {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        return "POST".equals(request.getMethod())
+                && request.getRequestURI().endsWith("/git-receive-pack");
+    }
+
+    private static void sendError(
+            ServletResponse servletResponse,
+            int status
+    ) {
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        if (response.isCommitted()) {
+            return;
+        }
+        try {
+            response.sendError(status);
+        } catch (IOException e) {
+            Log.warn("Failed to send push error", e);
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Set;
+
+/**
+ * Works out the address of the client that made a request, believing
+ * X-Forwarded-For only from the proxies in front of the bridge.
+ */
+class ClientIpResolver {
+
+    private final Set<String> trustedProxies;
+
+    ClientIpResolver(Set<String> trustedProxies) {
+        this.trustedProxies = trustedProxies;
+    }
+
+    /**
+     * @return the address of the peer, or if that is a trusted proxy, the
+     * address it appended to X-Forwarded-For. The rest of the header comes
+     * from the client, which could make it up.
+     */
+    String getClientIp(HttpServletRequest request) {
+        String remoteAddr = request.getRemoteAddr();
+        if (!trustedProxies.contains(remoteAddr)) {
+            return remoteAddr;
+        }
+        String forwardedFor = request.getHeader("X-Forwarded-For");
+        if (forwardedFor == null) {
+            return remoteAddr;
+        }
+        String[] hops = forwardedFor.split(",");
+        String clientIp = hops[hops.length - 1].trim();
+        return clientIp.isEmpty() ? remoteAddr : clientIp;
+    }
+
+}
@@ -1,16 +1,19 @@
 package uk.ac.ic.wlgitbridge.server;
 
 import org.eclipse.jetty.server.Request;
-import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.data.ServletFile;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,13 +21,19 @@ import java.util.regex.Pattern;
  * Serve files referenced by the snapshot that we send to the Overleaf API.
  *
  * Requests must include the postback key.
+ *
+ * The files are served from the push's contents in memory, without staging
+ * them on disk, and handed to Jetty as a buffer so they aren't copied
+ * through the servlet stream. The push has already read every file's
+ * contents out of the object database, to compare it with the last version,
+ * so streaming the blob from there again would only read it twice.
  */
-public class FileHandler extends ResourceHandler {
+public class FileHandler extends AbstractHandler {
     private static final Logger LOG
             = LoggerFactory.getLogger(FileHandler.class);
 
     private final Bridge bridge;
-    private final Pattern DOC_KEY_PATTERN = Pattern.compile("^/(\\w+)/.+$");
+    private final Pattern FILE_PATTERN = Pattern.compile("^/(\\w+)/([^/]+)$");
 
     public FileHandler(Bridge bridge) {
         this.bridge = bridge;
@@ -40,15 +49,17 @@ public class FileHandler extends ResourceHandler {
         if (!"GET".equals(baseRequest.getMethod())) return;
         LOG.info("GET <- {}", baseRequest.getRequestURI());
 
-        Matcher docKeyMatcher = DOC_KEY_PATTERN.matcher(target);
-        if (!docKeyMatcher.matches()) return;
-        String docKey = docKeyMatcher.group(1);
+        Matcher fileMatcher = FILE_PATTERN.matcher(target);
+        if (!fileMatcher.matches()) return;
+        String docKey = fileMatcher.group(1);
+        String identifier = fileMatcher.group(2);
 
         String apiKey = request.getParameter("key");
         if (apiKey == null) return;
 
+        Optional<ServletFile> file;
         try {
-            bridge.checkPostbackKey(docKey, apiKey);
+            file = bridge.getPushedFile(docKey, apiKey, identifier);
         } catch (InvalidPostbackKeyException e) {
             LOG.warn(
                     "INVALID POST BACK KEY: docKey={} apiKey={}",
@@ -57,8 +68,16 @@ public class FileHandler extends ResourceHandler {
             );
             return;
         }
+        if (!file.isPresent()) return;
 
-        super.handle(target, baseRequest, request, response);
+        byte[] contents = file.get().getContents();
+        baseRequest.setHandled(true);
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/octet-stream");
+        response.setContentLength(contents.length);
+        baseRequest.getResponse().getHttpOutput().sendContent(
+                ByteBuffer.wrap(contents)
+        );
     }
 
 }
@@ -1,6 +1,10 @@
 package uk.ac.ic.wlgitbridge.server;
 
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.ConnectionFactory;
 import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.*;
@@ -18,18 +22,22 @@ import uk.ac.ic.wlgitbridge.bridge.repo.RepoStoreConfig;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.NetSnapshotApi;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApi;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
+import uk.ac.ic.wlgitbridge.bridge.update.UpdateJobConfig;
 import uk.ac.ic.wlgitbridge.git.servlet.WLGitServlet;
 import uk.ac.ic.wlgitbridge.snapshot.base.SnapshotAPIRequest;
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Threads;
 import uk.ac.ic.wlgitbridge.util.Util;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.ServletException;
-import java.io.File;
 import java.net.BindException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
 
 /**
  * Created by Winston on 02/11/14.
@@ -52,6 +60,8 @@ public class GitBridgeServer {
             Config config
     ) throws ServletException {
         org.eclipse.jetty.util.log.Log.setLog(new NullLogger());
+        /* Before anything makes its executors */
+        Threads.useVirtualThreads(config.isUsingVirtualThreads());
         this.port = config.getPort();
         this.rootGitDirectoryPath = config.getRootGitDirectory();
         RepoStore repoStore = new FSGitRepoStore(
@@ -73,7 +83,9 @@ public class GitBridgeServer {
                 swapStore,
                 snapshotApi
         );
-        jettyServer = new Server();
+        jettyServer = new Server(new JettyThreadPool(
+                config.getJetty().orElseGet(JettyConfig::new)
+        ));
         configureJettyServer(config, repoStore, snapshotApi);
         apiBaseURL = config.getAPIBaseURL();
         SnapshotAPIRequest.setBaseURL(apiBaseURL);
@@ -115,14 +127,32 @@ public class GitBridgeServer {
             RepoStore repoStore,
             SnapshotApi snapshotApi
     ) throws ServletException {
-        ServerConnector connector = new ServerConnector(this.jettyServer);
+        JettyConfig jettyConfig = config.getJetty().orElseGet(JettyConfig::new);
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setOutputBufferSize(jettyConfig.getOutputBufferSize());
+        httpConfig.setOutputAggregationSize(
+                jettyConfig.getOutputAggregationSize()
+        );
+        List<ConnectionFactory> connectionFactories = new ArrayList<>();
+        connectionFactories.add(new HttpConnectionFactory(httpConfig));
+        if (jettyConfig.isUsingH2c()) {
+            connectionFactories.add(
+                    new HTTP2CServerConnectionFactory(httpConfig)
+            );
+        }
+        ServerConnector connector = new ServerConnector(
+                this.jettyServer,
+                jettyConfig.getAcceptors(),
+                jettyConfig.getSelectors(),
+                connectionFactories.toArray(new ConnectionFactory[0])
+        );
         connector.setPort(config.getPort());
         connector.setHost(config.getBindIp());
         connector.setIdleTimeout(config.getIdleTimeout());
         this.jettyServer.addConnector(connector);
 
         HandlerCollection handlers = new HandlerList();
-        handlers.addHandler(initApiHandler());
+        handlers.addHandler(initApiHandler(config));
         handlers.addHandler(initBaseHandler());
         handlers.addHandler(initGitHandler(config, repoStore, snapshotApi));
         jettyServer.setHandler(handlers);
@@ -141,13 +171,18 @@ public class GitBridgeServer {
         return base;
     }
 
-    private Handler initApiHandler() {
+    private Handler initApiHandler(Config config) {
         ContextHandler api = new ContextHandler();
         api.setContextPath("/api");
 
         HandlerCollection handlers = new HandlerList();
         handlers.addHandler(initResourceHandler());
         handlers.addHandler(new PostbackHandler(bridge));
+        config.getUpdateJob().flatMap(
+                UpdateJobConfig::getNotifySecret
+        ).ifPresent(
+                secret -> handlers.addHandler(new NotifyHandler(bridge, secret))
+        );
         handlers.addHandler(new DefaultHandler());
 
         api.setHandler(handlers);
@@ -164,36 +199,76 @@ public class GitBridgeServer {
     ) throws ServletException {
         final ServletContextHandler servletContextHandler =
                 new ServletContextHandler(ServletContextHandler.SESSIONS);
-        if (config.isUsingOauth2()) {
-            Filter filter = new Oauth2Filter(snapshotApi, config.getOauth2());
+        /* First, so that every request is traced, even if turned away */
+        FilterHolder traceHolder =
+                new FilterHolder(new RequestTraceFilter());
+        traceHolder.setAsyncSupported(true);
+        servletContextHandler.addFilter(
+                traceHolder,
+                "/*",
+                EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC)
+        );
+        /* Next, so that it turns requests away before they cost anything */
+        config.getAdmission().ifPresent(admission -> {
+            FilterHolder admissionHolder = new FilterHolder(
+                    new AdmissionControlFilter(admission)
+            );
+            admissionHolder.setAsyncSupported(true);
             servletContextHandler.addFilter(
-                    new FilterHolder(filter),
+                    admissionHolder,
                     "/*",
                     EnumSet.of(DispatcherType.REQUEST)
             );
+        });
+        if (config.isUsingOauth2()) {
+            Filter filter = new Oauth2Filter(
+                    snapshotApi,
+                    config.getOauth2(),
+                    config.getAdmission().map(
+                            AdmissionConfig::getTrustedProxies
+                    ).orElse(Collections.emptySet())
+            );
+            FilterHolder oauth2Holder = new FilterHolder(filter);
+            oauth2Holder.setAsyncSupported(true);
+            servletContextHandler.addFilter(
+                    oauth2Holder,
+                    "/*",
+                    EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC)
+            );
         }
+        /* Pushes wait on Jetty's threads, so leave at least half of them
+           for everything else, including the postbacks that finish pushes */
+        int maxPushes = Math.max(1, Math.min(
+                AsyncReceivePackFilter.DEFAULT_MAX_PUSHES,
+                config.getJetty().orElseGet(JettyConfig::new).getMaxThreads(
+                        Threads.isUsingVirtualThreads()
+                ) / 2
+        ));
+        FilterHolder pushHolder =
+                new FilterHolder(new AsyncReceivePackFilter(maxPushes));
+        pushHolder.setAsyncSupported(true);
+        servletContextHandler.addFilter(
+                pushHolder,
+                "/*",
+                EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC)
+        );
         servletContextHandler.setContextPath("/");
-        servletContextHandler.addServlet(
-                new ServletHolder(
-                        new WLGitServlet(
-                                servletContextHandler,
-                                repoStore,
-                                bridge
-                        )
-                ),
-                "/*"
+        ServletHolder gitHolder = new ServletHolder(
+                new WLGitServlet(
+                        servletContextHandler,
+                        repoStore,
+                        bridge
+                )
         );
+        gitHolder.setAsyncSupported(true);
+        servletContextHandler.addServlet(gitHolder, "/*");
         ProductionErrorHandler errorHandler = new ProductionErrorHandler();
         servletContextHandler.setErrorHandler(errorHandler);
         return servletContextHandler;
     }
 
     private Handler initResourceHandler() {
-        ResourceHandler resourceHandler = new FileHandler(bridge);
-        resourceHandler.setResourceBase(
-                new File(rootGitDirectoryPath, ".wlgb/atts").getAbsolutePath()
-        );
-        return resourceHandler;
+        return new FileHandler(bridge);
     }
 
 }
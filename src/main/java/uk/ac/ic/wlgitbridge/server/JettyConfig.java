@@ -0,0 +1,133 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import javax.annotation.Nullable;
+import java.util.Optional;
+
+/**
+ * Configuration of Jetty's thread pool and connector. Any field can be left
+ * out, in which case Jetty's defaults are used: 8 to 200 threads (or up to
+ * 10000 virtual threads), an unbounded queue of requests waiting for a
+ * thread, acceptors and selectors sized by the number of CPUs, a 32KB output
+ * buffer that writes of up to 8KB are aggregated into, and no HTTP/2.
+ */
+public class JettyConfig {
+
+    static final int DEFAULT_MIN_THREADS = 8;
+    static final int DEFAULT_MAX_THREADS = 200;
+    static final int DEFAULT_MAX_VIRTUAL_THREADS = 10000;
+    static final int DEFAULT_OUTPUT_BUFFER_SIZE = 32 * 1024;
+
+    @Nullable
+    private final Integer minThreads;
+
+    @Nullable
+    private final Integer maxThreads;
+
+    @Nullable
+    private final Integer maxQueuedRequests;
+
+    @Nullable
+    private final Integer acceptors;
+
+    @Nullable
+    private final Integer selectors;
+
+    @Nullable
+    private final Integer outputBufferSize;
+
+    @Nullable
+    private final Integer outputAggregationSize;
+
+    @Nullable
+    private final Boolean h2c;
+
+    /**
+     * The config with all the defaults.
+     */
+    public JettyConfig() {
+        this(null, null, null, null, null, null, null, null);
+    }
+
+    public JettyConfig(
+            Integer minThreads,
+            Integer maxThreads,
+            Integer maxQueuedRequests,
+            Integer acceptors,
+            Integer selectors,
+            Integer outputBufferSize,
+            Integer outputAggregationSize,
+            Boolean h2c
+    ) {
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.acceptors = acceptors;
+        this.selectors = selectors;
+        this.outputBufferSize = outputBufferSize;
+        this.outputAggregationSize = outputAggregationSize;
+        this.h2c = h2c;
+    }
+
+    public int getMinThreads() {
+        return Math.max(1, Optional.ofNullable(
+                minThreads
+        ).orElse(DEFAULT_MIN_THREADS));
+    }
+
+    /**
+     * @param virtual whether the threads are virtual, which are cheap enough
+     * to have many more of
+     */
+    public int getMaxThreads(boolean virtual) {
+        return Math.max(getMinThreads(), Optional.ofNullable(
+                maxThreads
+        ).orElse(virtual ? DEFAULT_MAX_VIRTUAL_THREADS : DEFAULT_MAX_THREADS));
+    }
+
+    /**
+     * @return how many requests may wait for a thread, beyond which they are
+     * rejected, if at all
+     */
+    public Optional<Integer> getMaxQueuedRequests() {
+        return Optional.ofNullable(maxQueuedRequests).map(n -> Math.max(1, n));
+    }
+
+    /**
+     * @return the number of acceptor threads, or -1 for Jetty's default
+     */
+    public int getAcceptors() {
+        return Optional.ofNullable(acceptors).orElse(-1);
+    }
+
+    /**
+     * @return the number of selector threads, or -1 for Jetty's default
+     */
+    public int getSelectors() {
+        return Optional.ofNullable(selectors).orElse(-1);
+    }
+
+    public int getOutputBufferSize() {
+        return Optional.ofNullable(
+                outputBufferSize
+        ).orElse(DEFAULT_OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * @return the size of writes that are copied into the output buffer
+     * rather than written straight away
+     */
+    public int getOutputAggregationSize() {
+        return Math.min(getOutputBufferSize(), Optional.ofNullable(
+                outputAggregationSize
+        ).orElse(getOutputBufferSize() / 4));
+    }
+
+    /**
+     * @return whether to also serve HTTP/2 over cleartext, for clients and
+     * proxies that support it
+     */
+    public boolean isUsingH2c() {
+        return h2c != null && h2c;
+    }
+
+}
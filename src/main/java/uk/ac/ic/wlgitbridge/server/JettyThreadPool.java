@@ -0,0 +1,70 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import io.prometheus.client.Counter;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import uk.ac.ic.wlgitbridge.util.Threads;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Jetty's thread pool, sized by the {@link JettyConfig}, which counts the
+ * jobs it rejects because its queue is full. Jetty closes the connection of
+ * a request that it can't find a thread for.
+ *
+ * With virtual threads, Jetty 9.4 can't keep its selectors on platform
+ * threads, so the whole pool is virtual, and there are no idle threads worth
+ * reserving.
+ */
+public class JettyThreadPool extends QueuedThreadPool {
+
+    private static final int IDLE_TIMEOUT_MILLIS = 60000;
+
+    private static final Counter rejected = Counter.build()
+            .name("git_bridge_jetty_rejected_total")
+            .help("Number of jobs, such as requests, that Jetty's thread " +
+                    "pool rejected because its queue was full.")
+            .register();
+
+    public JettyThreadPool(JettyConfig config) {
+        super(
+                config.getMaxThreads(Threads.isUsingVirtualThreads()),
+                config.getMinThreads(),
+                IDLE_TIMEOUT_MILLIS,
+                Threads.isUsingVirtualThreads() ? 0 : -1,
+                makeQueue(config),
+                null,
+                Threads.isUsingVirtualThreads()
+                        ? Threads.newThreadFactory("jetty-%d")
+                        : null
+        );
+        if (Threads.isUsingVirtualThreads()) {
+            setName("jetty-virtual");
+        }
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        try {
+            super.execute(job);
+        } catch (RejectedExecutionException e) {
+            if (isRunning()) {
+                rejected.inc();
+            }
+            throw e;
+        }
+    }
+
+    private static BlockingQueue<Runnable> makeQueue(JettyConfig config) {
+        int minCapacity = Math.max(config.getMinThreads(), 8);
+        return config.getMaxQueuedRequests().map(
+                max -> (BlockingQueue<Runnable>) new BlockingArrayQueue<Runnable>(
+                        Math.min(minCapacity, max),
+                        minCapacity,
+                        max
+                )
+        ).orElseGet(() -> new BlockingArrayQueue<>(minCapacity, minCapacity));
+    }
+
+}
@@ -0,0 +1,96 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.Project;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Receives notifications from Overleaf that a project has a new version, at
+ * POST /api/{projectName}/notify, with the configured notify secret as a
+ * bearer token.
+ *
+ * Responds with 202 if the project was queued for a background update, 200
+ * if it will be updated on its next request instead, or 400 if the project
+ * name isn't valid.
+ *
+ * @see Bridge#notifyUpdated(String)
+ */
+public class NotifyHandler extends AbstractHandler {
+
+    private static final Pattern NOTIFY_PATTERN =
+            Pattern.compile("^/([^/]+)/notify$");
+
+    private final Bridge bridge;
+    private final byte[] expectedAuthorization;
+
+    public NotifyHandler(Bridge bridge, String notifySecret) {
+        this.bridge = bridge;
+        expectedAuthorization = ("Bearer " + notifySecret).getBytes(
+                StandardCharsets.UTF_8
+        );
+    }
+
+    @Override
+    public void handle(
+            String target,
+            Request baseRequest,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        if (!"POST".equals(request.getMethod())) {
+            return;
+        }
+        Matcher matcher = NOTIFY_PATTERN.matcher(target);
+        if (!matcher.matches()) {
+            return;
+        }
+        String projectName = matcher.group(1);
+        baseRequest.setHandled(true);
+        response.setContentType("application/json");
+        JsonObject body = new JsonObject();
+        if (!isAuthorized(request)) {
+            Log.warn("[{}] Unauthorized notification", projectName);
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            body.add("code", new JsonPrimitive("unauthorized"));
+            response.getWriter().println(body);
+            return;
+        }
+        if (!Project.isValidProjectName(projectName)) {
+            Log.warn("[{}] Notification for invalid project", projectName);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            body.add("code", new JsonPrimitive("invalidProject"));
+            response.getWriter().println(body);
+            return;
+        }
+        Log.info("[{}] Notified of new version", projectName);
+        if (bridge.notifyUpdated(projectName)) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            body.add("code", new JsonPrimitive("queued"));
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+            body.add("code", new JsonPrimitive("notQueued"));
+        }
+        response.getWriter().println(body);
+    }
+
+    private boolean isAuthorized(HttpServletRequest request) {
+        String authorization = request.getHeader("Authorization");
+        return authorization != null && MessageDigest.isEqual(
+                expectedAuthorization,
+                authorization.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+}
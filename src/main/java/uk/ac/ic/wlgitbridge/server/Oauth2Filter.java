@@ -8,9 +8,10 @@ import uk.ac.ic.wlgitbridge.application.config.Oauth2;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApi;
 import uk.ac.ic.wlgitbridge.snapshot.base.MissingRepositoryException;
 import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
-import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocRequest;
 import uk.ac.ic.wlgitbridge.util.Instance;
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.RequestTrace;
+import uk.ac.ic.wlgitbridge.util.Threads;
 import uk.ac.ic.wlgitbridge.util.Util;
 
 import javax.servlet.*;
@@ -20,6 +21,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by winston on 25/10/15.
@@ -28,13 +36,64 @@ public class Oauth2Filter implements Filter {
 
     public static final String ATTRIBUTE_KEY = "oauth2";
 
+    /**
+     * Set on a request once it has been allowed, to what to run if its
+     * access token is rejected, so it passes straight through when it is
+     * dispatched again.
+     */
+    static final String CHECKED_KEY =
+            Oauth2Filter.class.getName() + ".checked";
+
+    static final int MAX_TOKEN_REQUESTS = 32;
+    static final int MAX_QUEUED_TOKEN_REQUESTS = 256;
+
+    /*
+     * The OAuth client blocks, so token requests wait here instead. There are
+     * a bounded number of them at a time, and requests beyond the queue are
+     * turned away with a 503, so a slow OAuth server can't pile up threads.
+     */
+    private static final Executor tokenRequests = RequestTrace.propagating(
+            new ThreadPoolExecutor(
+                    MAX_TOKEN_REQUESTS,
+                    MAX_TOKEN_REQUESTS,
+                    0,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED_TOKEN_REQUESTS),
+                    Threads.newThreadFactory("oauth-%d")
+            )
+    );
+
     private final SnapshotApi snapshotApi;
 
     private final Oauth2 oauth2;
 
-    public Oauth2Filter(SnapshotApi snapshotApi, Oauth2 oauth2) {
+    private final AccessTokenCache tokenCache;
+
+    private final ClientIpResolver clientIps;
+
+    /**
+     * @param trustedProxies the addresses of the proxies in front of the
+     * bridge, whose X-Forwarded-For is believed for the client_ip sent to the
+     * OAuth server
+     */
+    public Oauth2Filter(
+            SnapshotApi snapshotApi,
+            Oauth2 oauth2,
+            Set<String> trustedProxies
+    ) {
+        this(snapshotApi, oauth2, trustedProxies, new AccessTokenCache());
+    }
+
+    Oauth2Filter(
+            SnapshotApi snapshotApi,
+            Oauth2 oauth2,
+            Set<String> trustedProxies,
+            AccessTokenCache tokenCache
+    ) {
         this.snapshotApi = snapshotApi;
         this.oauth2 = oauth2;
+        this.tokenCache = tokenCache;
+        clientIps = new ClientIpResolver(trustedProxies);
     }
 
     @Override
@@ -57,6 +116,11 @@ public class Oauth2Filter implements Filter {
      *
      * So, for projects that need auth, we return 401. Git will swallow this
      * and prompt the user for user/pass, and then make a brand new request.
+     *
+     * The request is made asynchronous while we wait for the snapshot API and
+     * the OAuth server, so that it doesn't hold a Jetty thread. Once the
+     * request is known to be allowed, it is dispatched back to Jetty, and
+     * passes through this filter to the git servlet.
      * @param servletRequest
      * @param servletResponse
      * @param filterChain
@@ -69,6 +133,11 @@ public class Oauth2Filter implements Filter {
             ServletResponse servletResponse,
             FilterChain filterChain
     ) throws IOException, ServletException {
+        if (servletRequest.getDispatcherType() == DispatcherType.ASYNC
+                && servletRequest.getAttribute(CHECKED_KEY) != null) {
+            continueAfterCheck(servletRequest, servletResponse, filterChain);
+            return;
+        }
         String requestUri = ((Request) servletRequest).getRequestURI();
         if (requestUri.startsWith("/project")) {
             Log.info("[{}] Invalid request URI", requestUri);
@@ -98,106 +167,272 @@ public class Oauth2Filter implements Filter {
             return;
         }
         Log.info("[{}] Checking if auth needed", project);
-        GetDocRequest doc = new GetDocRequest(project);
-        doc.request();
-        try {
-            SnapshotApi.getResult(
-                    snapshotApi.getDoc(Optional.empty(), project));
-        } catch (ForbiddenException e) {
+        AsyncContext ctx = servletRequest.startAsync(
+                servletRequest,
+                servletResponse
+        );
+        /* The snapshot API and OAuth requests have their own timeouts */
+        ctx.setTimeout(0);
+        snapshotApi.getDoc(
+                Optional.empty(),
+                project
+        ).thenApply(doc -> {
+            Log.info("[{}] Auth not needed", project);
+            return Optional.<Runnable>empty();
+        }).exceptionally(t -> {
+            Throwable cause = t instanceof CompletionException
+                    ? t.getCause()
+                    : t;
+            if (!(cause instanceof ForbiddenException)) {
+                throw new CompletionException(cause);
+            }
             Log.info("[{}] Auth needed", project);
-            getAndInjectCredentials(
-                    project,
-                    servletRequest,
-                    servletResponse,
-                    filterChain
-            );
-            return;
-        } catch (MissingRepositoryException e) {
-            handleMissingRepository(project, e, (HttpServletResponse) servletResponse);
-        }
-        Log.info("[{}] Auth not needed", project);
-        filterChain.doFilter(servletRequest, servletResponse);
+            return null;
+        }).thenCompose(noAuth -> noAuth != null
+                ? CompletableFuture.completedFuture(noAuth)
+                : getAndInjectCredentials(
+                        project,
+                        (HttpServletRequest) servletRequest,
+                        (HttpServletResponse) servletResponse
+                )
+        ).whenComplete((invalidateToken, t) -> {
+            if (t != null) {
+                handleCheckFailure(project, t, servletResponse);
+                ctx.complete();
+            } else if (invalidateToken == null) {
+                /* The response has already been sent */
+                ctx.complete();
+            } else {
+                servletRequest.setAttribute(
+                        CHECKED_KEY,
+                        invalidateToken.orElse(() -> {})
+                );
+                ctx.dispatch();
+            }
+        });
     }
 
-    // TODO: this is ridiculous. Check for error cases first, then return/throw
-    // TODO: also, use an Optional credential, since we treat it as optional
-    private void getAndInjectCredentials(
-            String projectName,
+    /**
+     * Runs the rest of the chain for a request that has been allowed by
+     * {@link #doFilter}.
+     *
+     * If the rest of the request rejects the access token, e.g. because it
+     * was revoked, it is removed from the cache.
+     */
+    private void continueAfterCheck(
             ServletRequest servletRequest,
             ServletResponse servletResponse,
             FilterChain filterChain
     ) throws IOException, ServletException {
-        HttpServletRequest request = (HttpServletRequest) servletRequest;
-        HttpServletResponse response = (HttpServletResponse) servletResponse;
-        String capturedUsername = "(unknown)";
+        filterChain.doFilter(servletRequest, servletResponse);
+        int status = ((HttpServletResponse) servletResponse).getStatus();
+        if (!servletRequest.isAsyncStarted()
+                && (status == 401 || status == 403)) {
+            ((Runnable) servletRequest.getAttribute(CHECKED_KEY)).run();
+        }
+    }
+
+    private void handleCheckFailure(
+            String projectName,
+            Throwable t,
+            ServletResponse servletResponse
+    ) {
+        Throwable cause = t instanceof CompletionException
+                ? t.getCause()
+                : t;
+        try {
+            if (cause instanceof MissingRepositoryException) {
+                handleMissingRepository(
+                        projectName,
+                        (MissingRepositoryException) cause,
+                        (HttpServletResponse) servletResponse
+                );
+                return;
+            }
+            if (cause instanceof RejectedExecutionException) {
+                Log.warn(
+                        "[{}] Too many token requests, turning one away",
+                        projectName
+                );
+                if (!servletResponse.isCommitted()) {
+                    ((HttpServletResponse) servletResponse).sendError(
+                            HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                    );
+                }
+                return;
+            }
+            Log.warn("[{}] Failed to check auth", projectName, cause);
+            if (!servletResponse.isCommitted()) {
+                ((HttpServletResponse) servletResponse).sendError(
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR
+                );
+            }
+        } catch (IOException e) {
+            Log.warn("[{}] Failed to send auth failure", projectName, e);
+        }
+    }
 
+    /**
+     * Gets an access token for the credentials in the request, and injects
+     * it into the request.
+     *
+     * Only a request to the OAuth server goes to the token request executor.
+     * Missing credentials, and tokens that are already cached, are handled on
+     * the calling thread.
+     * @return a future of what to run if the token is later rejected, or of
+     * null if the response has already been sent because the user needs to
+     * authorize
+     */
+    private CompletableFuture<Optional<Runnable>> getAndInjectCredentials(
+            String projectName,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) {
         String authHeader = request.getHeader("Authorization");
-        if (authHeader != null) {
-            String clientIp = request.getHeader("X-Forwarded-For");
-            if (clientIp == null) {
-              clientIp = request.getRemoteAddr();
+        Optional<String[]> credentials = authHeader == null
+                ? Optional.empty()
+                : getBasicCredentials(authHeader);
+        if (!credentials.isPresent()) {
+            try {
+                handleNeedAuthorization(
+                        projectName,
+                        "(unknown)",
+                        0,
+                        request,
+                        response
+                );
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
-            Log.info("[{}] Authorization header present", clientIp);
-            StringTokenizer st = new StringTokenizer(authHeader);
-            if (st.hasMoreTokens()) {
-                String basic = st.nextToken();
-                if (basic.equalsIgnoreCase("Basic")) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String clientIp = clientIps.getClientIp(request);
+        Log.info("[{}] Authorization header present", clientIp);
+        String username = credentials.get()[0];
+        String password = credentials.get()[1];
+        Optional<String> cached = tokenCache.getCachedAccessToken(
+                username,
+                password,
+                clientIp
+        );
+        CompletableFuture<Optional<String>> accessToken = cached.isPresent()
+                ? CompletableFuture.completedFuture(cached)
+                : CompletableFuture.supplyAsync(() -> {
+                    long start = System.nanoTime();
                     try {
-                        String credentials = new String(
-                                Base64.decodeBase64(st.nextToken()),
-                                "UTF-8"
+                        return getAccessToken(
+                                projectName,
+                                username,
+                                password,
+                                clientIp,
+                                request,
+                                response
+                        );
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    } finally {
+                        RequestTrace.addPhaseToCurrent(
+                                "oauth_token",
+                                System.nanoTime() - start
                         );
-                        String[] split = credentials.split(":",2);
-                        if (split.length == 2) {
-                            String username = split[0];
-                            String password = split[1];
-                            String accessToken = null;
-                            if (username.length() > 0) {
-                                capturedUsername = username;
-                            }
-                            try {
-                                accessToken = new PasswordTokenRequest(
-                                        Instance.httpTransport,
-                                        Instance.jsonFactory,
-                                        new GenericUrl(
-                                                oauth2.getOauth2Server()
-                                                        + "/oauth/token?client_ip="
-                                                        + clientIp
-                                        ),
-                                        username,
-                                        password
-                                ).setClientAuthentication(
-                                        new ClientParametersAuthentication(
-                                                oauth2.getOauth2ClientID(),
-                                                oauth2.getOauth2ClientSecret()
-                                        )
-                                ).execute().getAccessToken();
-                            } catch (TokenResponseException e) {
-                                handleNeedAuthorization(projectName, capturedUsername, e.getStatusCode(), request, response);
-                                return;
-                            }
-                            final Credential cred = new Credential.Builder(
-                                    BearerToken.authorizationHeaderAccessMethod(
-                                    )
-                            ).build();
-                            cred.setAccessToken(accessToken);
-                            servletRequest.setAttribute(ATTRIBUTE_KEY, cred);
-
-                            filterChain.doFilter(
-                                    servletRequest,
-                                    servletResponse
-                            );
-                        } else {
-                            handleNeedAuthorization(projectName, capturedUsername, 0, request, response);
-                        }
-                    } catch (UnsupportedEncodingException e) {
-                        throw new Error("Couldn't retrieve authentication", e);
                     }
-                }
+                }, tokenRequests);
+        return accessToken.thenApply(token -> {
+            if (!token.isPresent()) {
+                return null;
             }
-        } else {
-            handleNeedAuthorization(projectName, capturedUsername, 0, request, response);
+            final Credential cred = new Credential.Builder(
+                    BearerToken.authorizationHeaderAccessMethod()
+            ).build();
+            cred.setAccessToken(token.get());
+            request.setAttribute(ATTRIBUTE_KEY, cred);
+            return Optional.of(() -> tokenCache.invalidate(
+                    username,
+                    password,
+                    clientIp
+            ));
+        });
+    }
+
+    /**
+     * @return the username and password from a Basic Authorization header,
+     * or empty if it doesn't have them
+     */
+    private static Optional<String[]> getBasicCredentials(String authHeader) {
+        StringTokenizer st = new StringTokenizer(authHeader);
+        if (!st.hasMoreTokens()
+                || !st.nextToken().equalsIgnoreCase("Basic")
+                || !st.hasMoreTokens()) {
+            return Optional.empty();
         }
+        String credentials;
+        try {
+            credentials = new String(
+                    Base64.decodeBase64(st.nextToken()),
+                    "UTF-8"
+            );
+        } catch (UnsupportedEncodingException e) {
+            throw new Error("Couldn't retrieve authentication", e);
+        }
+        String[] split = credentials.split(":", 2);
+        if (split.length != 2) {
+            return Optional.empty();
+        }
+        return Optional.of(split);
+    }
+
+    /**
+     * @return the access token for the credentials, or empty if the user
+     * needs to authorize, in which case the response has been sent
+     */
+    private Optional<String> getAccessToken(
+            String projectName,
+            String username,
+            String password,
+            String clientIp,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        try {
+            return Optional.of(getAccessToken(username, password, clientIp));
+        } catch (TokenResponseException e) {
+            handleNeedAuthorization(
+                    projectName,
+                    username.length() > 0 ? username : "(unknown)",
+                    e.getStatusCode(),
+                    request,
+                    response
+            );
+            return Optional.empty();
+        }
+    }
+
+    private String getAccessToken(
+            String username,
+            String password,
+            String clientIp
+    ) throws IOException {
+        return tokenCache.getAccessToken(
+                username,
+                password,
+                clientIp,
+                () -> new PasswordTokenRequest(
+                        Instance.httpTransport,
+                        Instance.jsonFactory,
+                        new GenericUrl(
+                                oauth2.getOauth2Server()
+                                        + "/oauth/token?client_ip="
+                                        + clientIp
+                        ),
+                        username,
+                        password
+                ).setClientAuthentication(
+                        new ClientParametersAuthentication(
+                                oauth2.getOauth2ClientID(),
+                                oauth2.getOauth2ClientSecret()
+                        )
+                ).execute()
+        );
     }
 
     @Override
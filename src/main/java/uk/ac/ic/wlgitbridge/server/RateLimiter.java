@@ -0,0 +1,96 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket for each key, e.g. each client IP, that is filled at the
+ * configured rate up to its burst size, and emptied by one for each request.
+ *
+ * A bucket that hasn't been used for long enough to have filled up again is
+ * the same as a new one, so it is dropped, as are the least recently used
+ * past the maximum number of keys.
+ */
+class RateLimiter {
+
+    private static final long MAX_KEYS = 100000;
+
+    private final double tokensPerNano;
+    private final int burst;
+    private final Cache<String, TokenBucket> buckets;
+
+    RateLimiter(AdmissionConfig.RateLimit limit) {
+        tokensPerNano = limit.getPerMinute() / TimeUnit.MINUTES.toNanos(1);
+        burst = limit.getBurst();
+        long refillMillis = tokensPerNano > 0
+                ? (long) Math.ceil(burst / tokensPerNano / 1e6)
+                : TimeUnit.DAYS.toMillis(1);
+        buckets = CacheBuilder.newBuilder(
+        ).expireAfterAccess(
+                Math.max(TimeUnit.MINUTES.toMillis(1), refillMillis),
+                TimeUnit.MILLISECONDS
+        ).maximumSize(MAX_KEYS).build();
+    }
+
+    /**
+     * Takes a token from the key's bucket, if it has one.
+     * @return 0 if a token was taken, or else how long until there is one
+     */
+    long tryAcquire(String key, long nowNanos) {
+        TokenBucket bucket;
+        try {
+            bucket = buckets.get(key, () -> new TokenBucket(nowNanos));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return bucket.tryAcquire(nowNanos);
+    }
+
+    /**
+     * Puts back a token taken by {@link #tryAcquire(String, long)}, for a
+     * request that turned out not to count.
+     */
+    void refund(String key) {
+        TokenBucket bucket = buckets.getIfPresent(key);
+        if (bucket != null) {
+            bucket.refund();
+        }
+    }
+
+    private class TokenBucket {
+
+        private double tokens;
+        private long lastNanos;
+
+        TokenBucket(long nowNanos) {
+            tokens = burst;
+            lastNanos = nowNanos;
+        }
+
+        synchronized long tryAcquire(long nowNanos) {
+            tokens = Math.min(
+                    burst,
+                    tokens + Math.max(0, nowNanos - lastNanos) * tokensPerNano
+            );
+            lastNanos = Math.max(lastNanos, nowNanos);
+            if (tokens >= 1) {
+                --tokens;
+                return 0;
+            }
+            if (tokensPerNano <= 0) {
+                return TimeUnit.MINUTES.toNanos(1);
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        synchronized void refund() {
+            tokens = Math.min(burst, tokens + 1);
+        }
+
+    }
+
+}
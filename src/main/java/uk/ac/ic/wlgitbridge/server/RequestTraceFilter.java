@@ -0,0 +1,178 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import org.eclipse.jetty.server.Request;
+import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.RequestTrace;
+import uk.ac.ic.wlgitbridge.util.Util;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Gives each git request a {@link RequestTrace}, which is current whenever
+ * one of the request's dispatches runs, and logs its summary once the
+ * request is complete, including after asynchronous processing.
+ *
+ * The request id is taken from the X-Request-Id header, if a proxy set one,
+ * and is sent back in the response.
+ */
+public class RequestTraceFilter implements Filter {
+
+    static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    private static final String TRACE_KEY = RequestTrace.class.getName();
+
+    @Override
+    public void init(FilterConfig filterConfig) {}
+
+    @Override
+    public void doFilter(
+            ServletRequest servletRequest,
+            ServletResponse servletResponse,
+            FilterChain filterChain
+    ) throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        RequestTrace trace =
+                (RequestTrace) request.getAttribute(TRACE_KEY);
+        if (trace != null) {
+            /* A later dispatch of a request that went asynchronous */
+            RequestTrace.Scope scope = trace.enter();
+            try {
+                filterChain.doFilter(servletRequest, servletResponse);
+            } finally {
+                scope.close();
+            }
+            return;
+        }
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            filterChain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+        trace = newTrace(request);
+        request.setAttribute(TRACE_KEY, trace);
+        response.setHeader(REQUEST_ID_HEADER, trace.getId());
+        boolean completesLater = false;
+        RequestTrace.Scope scope = trace.enter();
+        try {
+            filterChain.doFilter(servletRequest, servletResponse);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(
+                        new SummaryListener(trace, request, response)
+                );
+                completesLater = true;
+            }
+        } finally {
+            try {
+                if (!completesLater) {
+                    logSummary(trace, request, response);
+                }
+            } finally {
+                scope.close();
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {}
+
+    private static RequestTrace newTrace(HttpServletRequest request) {
+        String[] parts = request.getRequestURI().split("/", 3);
+        String projectName = parts.length < 2
+                ? ""
+                : Util.removeAllSuffixes(parts[1], ".git");
+        String operation = parts.length < 3 ? "" : parts[2];
+        /* Not getParameter, which could read the body */
+        String query = request.getQueryString();
+        if (query != null && query.startsWith("service=")) {
+            operation += "?" + query.split("&", 2)[0];
+        }
+        return new RequestTrace(
+                Optional.ofNullable(request.getHeader(REQUEST_ID_HEADER)),
+                operation,
+                projectName
+        );
+    }
+
+    /**
+     * Logs the summary of a completed request, with the bytes it read and
+     * wrote, which Jetty already counts.
+     */
+    private static void logSummary(
+            RequestTrace trace,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) {
+        Request baseRequest = Request.getBaseRequest(request);
+        if (baseRequest != null) {
+            trace.addCount(
+                    "bytes_in",
+                    baseRequest.getHttpInput().getContentReceived()
+            );
+            trace.addCount(
+                    "bytes_out",
+                    baseRequest.getHttpChannel().getBytesWritten()
+            );
+        }
+        RequestTrace.Scope scope = trace.enter();
+        try {
+            Log.info("Request summary: {}", trace.getSummary(
+                    response.getStatus()
+            ));
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Logs the summary when the request completes, carrying over to any
+     * later asynchronous cycles of the request.
+     */
+    private static class SummaryListener implements AsyncListener {
+
+        private final RequestTrace trace;
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+
+        SummaryListener(
+                RequestTrace trace,
+                HttpServletRequest request,
+                HttpServletResponse response
+        ) {
+            this.trace = trace;
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            logSummary(trace, request, response);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {}
+
+        @Override
+        public void onError(AsyncEvent event) {
+            trace.addCount("errors", 1);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+
+    }
+
+}
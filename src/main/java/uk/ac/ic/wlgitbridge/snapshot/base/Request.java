@@ -8,6 +8,8 @@ import static org.asynchttpclient.Dsl.*;
 import uk.ac.ic.wlgitbridge.snapshot.exception.FailedConnectionException;
 import uk.ac.ic.wlgitbridge.util.Instance;
 import uk.ac.ic.wlgitbridge.util.Log;
+import uk.ac.ic.wlgitbridge.util.RequestTrace;
+import uk.ac.ic.wlgitbridge.util.Threads;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
@@ -21,41 +23,74 @@ public abstract class Request<T extends Result> {
 
     public static final AsyncHttpClient httpClient = asyncHttpClient();
 
-    private static final Executor executor = Executors.newCachedThreadPool();
+    static final int MAX_REQUESTS = 64;
+    static final int MAX_QUEUED_REQUESTS = 1024;
+
+    /*
+     * The HTTP client blocks, so each request waits for its response on one
+     * of a bounded number of threads. Requests beyond the queue fail with a
+     * RejectedExecutionException, so a slow snapshot API can't pile up
+     * threads.
+     */
+    private static final Executor executor = RequestTrace.propagating(
+            new ThreadPoolExecutor(
+                    MAX_REQUESTS,
+                    MAX_REQUESTS,
+                    0,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS),
+                    Threads.newThreadFactory("snapshot-request-%d")
+            )
+    );
 
     private final String url;
 
-    private Future<HttpResponse> future;
+    private long startNanos;
 
     public Request(String url) {
         this.url = url;
     }
 
     public CompletableFuture<T> request() {
-        switch (httpMethod()) {
-            case GET:
-                performGetRequest();
-                break;
-            case POST:
-                performPostRequest();
-                break;
-            default:
-                break;
-        }
+        startNanos = System.nanoTime();
         CompletableFuture<T> ret = new CompletableFuture<>();
-        executor.execute(() -> {
-            try {
-                ret.complete(getResult());
-            } catch (Throwable t) {
-                ret.completeExceptionally(t);
-            }
-        });
+        try {
+            executor.execute(() -> {
+                try {
+                    ret.complete(getResult());
+                } catch (Throwable t) {
+                    ret.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ret.completeExceptionally(e);
+        }
         return ret;
     }
 
     private T getResult() throws MissingRepositoryException, FailedConnectionException, ForbiddenException {
+        HttpResponse response;
         try {
-            HttpResponse response = future.get();
+            response = execute();
+        } catch (HttpResponseException httpCause) {
+            throwForErrorResponse(httpCause);
+            throw new FailedConnectionException(httpCause);
+        } catch (IOException e) {
+            throw new FailedConnectionException(e);
+        }
+        try {
+            RequestTrace.addPhaseToCurrent(
+                    "snapshot_api",
+                    System.nanoTime() - startNanos
+            );
+            RequestTrace.addCountToCurrent("snapshot_api_calls", 1);
+            Long contentLength = response.getHeaders().getContentLength();
+            if (contentLength != null) {
+                RequestTrace.addCountToCurrent(
+                        "snapshot_api_bytes",
+                        contentLength
+                );
+            }
             Log.info(
                     "{} {} ({}B) -> " + url,
                     response.getStatusCode(),
@@ -67,81 +102,80 @@ public abstract class Request<T extends Result> {
                     JsonElement.class
             );
             return parseResponse(json);
-        } catch (InterruptedException e) {
+        } catch (IOException e) {
+            Log.error("Failed to parse JSON.", e);
             throw new FailedConnectionException();
-        } catch (ExecutionException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof HttpResponseException) {
-                HttpResponseException httpCause = (HttpResponseException) cause;
-                int sc = httpCause.getStatusCode();
-                if (sc == HttpServletResponse.SC_UNAUTHORIZED || sc == HttpServletResponse.SC_FORBIDDEN) {  // 401, 403
-                    throw new ForbiddenException();
-                } else if (sc == HttpServletResponse.SC_CONFLICT) {  // 409
-                    try {
-                        JsonObject json = Instance.gson.fromJson(httpCause.getContent(), JsonObject.class);
-                        String code = json.get("code").getAsString();
-                        if ("projectHasDotGit".equals(code)) {
-                            throw new MissingRepositoryException(Arrays.asList(
-                                    "This project contains a '.git' entity at the top level, indicating that it is",
-                                    "already a git repository. The Overleaf git-bridge cannot work with this project",
-                                    "due to a known problem with handling these '.git' folders.",
-                                    "",
-                                    "We recommend removing the .git folder before trying again.",
-                                    "",
-                                    "If this is unexpected, please contact us at support@overleaf.com, or",
-                                    "see https://www.overleaf.com/help/342 for more information."
-                            ));
-                        } else {
-                            throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
-                        }
-                    } catch (IllegalStateException
-                            | ClassCastException
-                            | NullPointerException _e) { // json parse errors
-                        throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
-                    }
-                } else if (sc == HttpServletResponse.SC_NOT_FOUND) {  // 404
-                    try {
-                        JsonObject json = Instance.gson.fromJson(httpCause.getContent(), JsonObject.class);
-                        String message = json.get("message").getAsString();
-                        String newRemote;
-                        if (json.has("newRemote")) {
-                            newRemote = json.get("newRemote").getAsString();
-                        } else {
-                            newRemote = null;
-                        }
-
-                        if ("Exported to v2".equals(message)) {
-                            throw new MissingRepositoryException(
-                                MissingRepositoryException.buildExportedToV2Message(newRemote)
-                            );
-                        } else if ("Overleaf v1 is Deprecated".equals(message)) {
-                            String newUrl;
-                            if (json.has("newUrl")) {
-                                newUrl = json.get("newUrl").getAsString();
-                            } else {
-                                newUrl = null;
-                            }
-                            throw new MissingRepositoryException(
-                                    MissingRepositoryException.buildDeprecatedMessage(newUrl)
-                            );
-                        }
-                    } catch (IllegalStateException
-                            | ClassCastException
-                            | NullPointerException _) {
-                        // disregard any errors that arose while handling the JSON
-                    }
+        }
+    }
 
-                    throw new MissingRepositoryException();
-                } else if (sc >= 400 && sc < 500) {
-                    throw new MissingRepositoryException(MissingRepositoryException.GENERIC_REASON);
+    /**
+     * Throws the exception for a client error response from the snapshot
+     * API. Returns for any other error, e.g. a 5xx.
+     */
+    private static void throwForErrorResponse(
+            HttpResponseException httpCause
+    ) throws MissingRepositoryException, ForbiddenException {
+        int sc = httpCause.getStatusCode();
+        if (sc == HttpServletResponse.SC_UNAUTHORIZED || sc == HttpServletResponse.SC_FORBIDDEN) {  // 401, 403
+            throw new ForbiddenException();
+        } else if (sc == HttpServletResponse.SC_CONFLICT) {  // 409
+            try {
+                JsonObject json = Instance.gson.fromJson(httpCause.getContent(), JsonObject.class);
+                String code = json.get("code").getAsString();
+                if ("projectHasDotGit".equals(code)) {
+                    throw new MissingRepositoryException(Arrays.asList(
+                            "This project contains a '.git' entity at the top level, indicating that it is",
+                            "already a git repository. The Overleaf git-bridge cannot work with this project",
+                            "due to a known problem with handling these '.git' folders.",
+                            "",
+                            "We recommend removing the .git folder before trying again.",
+                            "",
+                            "If this is unexpected, please contact us at support@overleaf.com, or",
+                            "see https://www.overleaf.com/help/342 for more information."
+                    ));
+                } else {
+                    throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
                 }
-                throw new FailedConnectionException(cause);
-            } else {
-                throw new FailedConnectionException(cause);
+            } catch (IllegalStateException
+                    | ClassCastException
+                    | NullPointerException _e) { // json parse errors
+                throw new MissingRepositoryException(Arrays.asList("Conflict: 409"));
             }
-        } catch (IOException e) {
-            Log.error("Failed to parse JSON.", e);
-            throw new FailedConnectionException();
+        } else if (sc == HttpServletResponse.SC_NOT_FOUND) {  // 404
+            try {
+                JsonObject json = Instance.gson.fromJson(httpCause.getContent(), JsonObject.class);
+                String message = json.get("message").getAsString();
+                String newRemote;
+                if (json.has("newRemote")) {
+                    newRemote = json.get("newRemote").getAsString();
+                } else {
+                    newRemote = null;
+                }
+
+                if ("Exported to v2".equals(message)) {
+                    throw new MissingRepositoryException(
+                        MissingRepositoryException.buildExportedToV2Message(newRemote)
+                    );
+                } else if ("Overleaf v1 is Deprecated".equals(message)) {
+                    String newUrl;
+                    if (json.has("newUrl")) {
+                        newUrl = json.get("newUrl").getAsString();
+                    } else {
+                        newUrl = null;
+                    }
+                    throw new MissingRepositoryException(
+                            MissingRepositoryException.buildDeprecatedMessage(newUrl)
+                    );
+                }
+            } catch (IllegalStateException
+                    | ClassCastException
+                    | NullPointerException _) {
+                // disregard any errors that arose while handling the JSON
+            }
+
+            throw new MissingRepositoryException();
+        } else if (sc >= 400 && sc < 500) {
+            throw new MissingRepositoryException(MissingRepositoryException.GENERIC_REASON);
         }
     }
 
@@ -158,41 +192,44 @@ public abstract class Request<T extends Result> {
         return null;
     }
 
-    private void performGetRequest() {
-        Log.info("GET -> " + url);
-        try {
-            HttpRequest request = Instance.httpRequestFactory.buildGetRequest(
-                    new GenericUrl(url)
-            );
-            setTimeouts(request);
-            request(request);
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+    /**
+     * Sends the request, and waits for the response, on the calling thread.
+     */
+    private HttpResponse execute() throws IOException {
+        HttpRequest request;
+        switch (httpMethod()) {
+            case GET:
+                request = buildGetRequest();
+                break;
+            case POST:
+                request = buildPostRequest();
+                break;
+            default:
+                throw new IllegalStateException(
+                        "unknown method: " + httpMethod()
+                );
         }
+        setTimeouts(request);
+        onBeforeRequest(request);
+        return request.execute();
     }
 
-    private void performPostRequest() {
-        Log.info("POST -> " + url);
-        try {
-            HttpRequest request = Instance.httpRequestFactory.buildPostRequest(
-                    new GenericUrl(url),
-                    new ByteArrayContent(
-                            "application/json",
-                            getPostBody().getBytes()
-                    )
-            );
-            setTimeouts(request);
-            request(request);
-        } catch (IOException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
-        }
+    private HttpRequest buildGetRequest() throws IOException {
+        Log.info("GET -> " + url);
+        return Instance.httpRequestFactory.buildGetRequest(
+                new GenericUrl(url)
+        );
     }
 
-    private void request(HttpRequest request) throws IOException {
-        onBeforeRequest(request);
-        future = request.executeAsync();
+    private HttpRequest buildPostRequest() throws IOException {
+        Log.info("POST -> " + url);
+        return Instance.httpRequestFactory.buildPostRequest(
+                new GenericUrl(url),
+                new ByteArrayContent(
+                        "application/json",
+                        getPostBody().getBytes()
+                )
+        );
     }
 
     private void setTimeouts(HttpRequest request) {
@@ -1,45 +1,71 @@
 package uk.ac.ic.wlgitbridge.snapshot.push;
 
 import com.google.common.base.Preconditions;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.UnexpectedPostbackException;
+import uk.ac.ic.wlgitbridge.util.Log;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Winston on 17/11/14.
+ *
+ * Postbacks are registered by project and postback key, so concurrent pushes
+ * to the same project each get their own. Entries are removed when waited
+ * for, and any left behind, e.g. by a push that failed before waiting, are
+ * removed once they are older than the expiry, by a task scheduled for each
+ * entry that is cancelled if it is waited for first.
  */
 public class PostbackManager {
 
+    /* Long enough that a postback times out before it is removed */
+    private static final long DEFAULT_EXPIRY_MILLIS = TimeUnit.SECONDS.toMillis(
+            PostbackPromise.TIMEOUT_SECONDS + 60
+    );
+
+    private static final Gauge outstanding = Gauge.build()
+            .name("git_bridge_postbacks_outstanding")
+            .help("Number of pushes registered for a postback.")
+            .register();
+
+    private static final Counter expired = Counter.build()
+            .name("git_bridge_postbacks_expired_total")
+            .help("Number of registered postbacks removed after expiring.")
+            .register();
+
     private final SecureRandom random;
-    final Map<String, PostbackPromise> postbackContentsTable;
+    private final long expiryNanos;
+    final ConcurrentMap<PostbackId, PostbackPromise> postbackContentsTable;
 
-    PostbackManager(SecureRandom random) {
+    PostbackManager(SecureRandom random, long expiryMillis) {
         this.random = random;
-        postbackContentsTable = Collections.synchronizedMap(
-                new HashMap<String, PostbackPromise>()
-        );
+        expiryNanos = TimeUnit.MILLISECONDS.toNanos(expiryMillis);
+        postbackContentsTable = new ConcurrentHashMap<>();
     }
 
     public PostbackManager() {
-        this(new SecureRandom());
+        this(new SecureRandom(), DEFAULT_EXPIRY_MILLIS);
     }
 
     public int waitForVersionIdOrThrow(
-            String projectName
+            String projectName,
+            String postbackKey
     ) throws SnapshotPostException {
+        PostbackId id = new PostbackId(projectName, postbackKey);
         try {
-            PostbackPromise postbackPromise =
-                    postbackContentsTable.get(projectName);
+            PostbackPromise postbackPromise = postbackContentsTable.get(id);
             Preconditions.checkNotNull(postbackPromise);
             return postbackPromise.waitForPostback();
         } finally {
-            postbackContentsTable.remove(projectName);
+            remove(id);
         }
     }
 
@@ -49,7 +75,8 @@ public class PostbackManager {
             String postbackKey
     ) throws UnexpectedPostbackException {
         getPostbackForProject(
-                projectName
+                projectName,
+                postbackKey
         ).receivedVersionID(versionID, postbackKey);
     }
 
@@ -59,13 +86,18 @@ public class PostbackManager {
             String postbackKey
     ) throws UnexpectedPostbackException {
         getPostbackForProject(
-                projectName
+                projectName,
+                postbackKey
         ).receivedException(exception, postbackKey);
     }
 
-    private PostbackPromise getPostbackForProject(String projectName)
-            throws UnexpectedPostbackException {
-        PostbackPromise contents = postbackContentsTable.get(projectName);
+    private PostbackPromise getPostbackForProject(
+            String projectName,
+            String postbackKey
+    ) throws UnexpectedPostbackException {
+        PostbackPromise contents = postbackContentsTable.get(
+                new PostbackId(projectName, postbackKey)
+        );
         if (contents == null) {
             throw new UnexpectedPostbackException();
         }
@@ -74,19 +106,41 @@ public class PostbackManager {
 
     public String makeKeyForProject(String projectName) {
         String key = System.currentTimeMillis() + randomString();
+        PostbackId id = new PostbackId(projectName, key);
         PostbackPromise contents = new PostbackPromise(key);
-        postbackContentsTable.put(projectName, contents);
+        postbackContentsTable.put(id, contents);
+        outstanding.inc();
+        contents.expireAfter(expiryNanos, () -> expire(id, contents));
         return key;
     }
 
     public void checkPostbackKey(String projectName, String postbackKey)
             throws InvalidPostbackKeyException {
-        PostbackPromise postbackPromise = postbackContentsTable.get(projectName);
-        if (postbackPromise == null) {
-            // project not found; can't check key
+        if (!postbackContentsTable.containsKey(
+                new PostbackId(projectName, postbackKey))) {
             throw new InvalidPostbackKeyException();
-        } else {
-            postbackPromise.checkPostbackKey(postbackKey);
+        }
+    }
+
+    /**
+     * Removes the postback if it hasn't been already, timing it out in case
+     * it is still being waited on.
+     */
+    private void expire(PostbackId id, PostbackPromise promise) {
+        if (!postbackContentsTable.remove(id, promise)) {
+            return;
+        }
+        Log.warn("[{}] Removing expired postback", id.projectName);
+        promise.timeOut();
+        outstanding.dec();
+        expired.inc();
+    }
+
+    private void remove(PostbackId id) {
+        PostbackPromise promise = postbackContentsTable.remove(id);
+        if (promise != null) {
+            promise.cancelExpiry();
+            outstanding.dec();
         }
     }
 
@@ -94,4 +148,34 @@ public class PostbackManager {
         return new BigInteger(130, random).toString(32);
     }
 
+    static class PostbackId {
+
+        final String projectName;
+        final String postbackKey;
+
+        PostbackId(String projectName, String postbackKey) {
+            this.projectName = projectName;
+            this.postbackKey = postbackKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PostbackId)) {
+                return false;
+            }
+            PostbackId that = (PostbackId) o;
+            return Objects.equals(projectName, that.projectName)
+                    && Objects.equals(postbackKey, that.postbackKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(projectName, postbackKey);
+        }
+
+    }
+
 }
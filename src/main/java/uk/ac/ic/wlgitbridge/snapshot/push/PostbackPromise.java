@@ -1,68 +1,89 @@
 package uk.ac.ic.wlgitbridge.snapshot.push;
 
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InternalErrorException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.PostbackTimeoutException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by Winston on 17/11/14.
  */
 public class PostbackPromise {
 
-    private static int TIMEOUT_SECONDS = 60 * 6;
+    static final int TIMEOUT_SECONDS = 60 * 6;
 
-    private final String postbackKey;
-    private final ReentrantLock lock;
-    private final Condition cond;
+    private static final Histogram postbackLatency = Histogram.build()
+            .name("git_bridge_postback_latency_seconds")
+            .help("Time from a push to Overleaf to its postback.")
+            .buckets(0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 360)
+            .register();
+
+    private static final Counter postbacks = Counter.build()
+            .name("git_bridge_postbacks_total")
+            .help("Number of pushes waited on, by how the wait ended.")
+            .labelNames("result")
+            .register();
+
+    /* Times out the promises, rather than a thread waiting for each one */
+    private static final ScheduledThreadPoolExecutor timeouts =
+            new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "postback-timeouts");
+                t.setDaemon(true);
+                return t;
+            });
 
-    private boolean received;
-    private int versionID;
-    private SnapshotPostException exception;
+    static {
+        timeouts.setRemoveOnCancelPolicy(true);
+    }
+
+    private final String postbackKey;
+    private final long createdNanos;
+    private final CompletableFuture<Integer> versionID;
+    private volatile ScheduledFuture<?> expiry;
 
     public PostbackPromise(String postbackKey) {
         this.postbackKey = postbackKey;
-        lock = new ReentrantLock();
-        cond = lock.newCondition();
-        received = false;
-        exception = null;
+        createdNanos = System.nanoTime();
+        versionID = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeouts.schedule(
+                this::timeOut,
+                TIMEOUT_SECONDS,
+                TimeUnit.SECONDS
+        );
+        versionID.whenComplete((v, e) -> timeout.cancel(false));
     }
 
+    /**
+     * Waits for the postback of the push.
+     * @return the version ID of the push
+     * @throws SnapshotPostException if the postback was an error, or a
+     * {@link PostbackTimeoutException} if there was no postback in time
+     */
     public int waitForPostback() throws SnapshotPostException {
-        lock.lock();
         try {
-            while (!received) {
-                try {
-                    if (!cond.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
-                        throw new PostbackTimeoutException(TIMEOUT_SECONDS);
-                    }
-                } catch (InterruptedException e) {
-                    throw new InternalErrorException();
-                }
+            return versionID.get();
+        } catch (InterruptedException e) {
+            throw new InternalErrorException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SnapshotPostException) {
+                throw (SnapshotPostException) e.getCause();
             }
-            if (exception != null) {
-                throw exception;
-            }
-            return versionID;
-        } finally {
-            lock.unlock();
+            throw new InternalErrorException();
         }
     }
 
     public void receivedVersionID(int versionID, String postbackKey) {
-        lock.lock();
-        try {
-            if (postbackKey.equals(this.postbackKey)) {
-                this.versionID = versionID;
-                received = true;
-                cond.signalAll();
-            }
-        } finally {
-            lock.unlock();
+        if (postbackKey.equals(this.postbackKey)
+                && this.versionID.complete(versionID)) {
+            observe("version");
         }
     }
 
@@ -70,15 +91,9 @@ public class PostbackPromise {
             SnapshotPostException exception,
             String postbackKey
     ) {
-        lock.lock();
-        try {
-            if (postbackKey.equals(this.postbackKey)) {
-                this.exception = exception;
-                received = true;
-                cond.signalAll();
-            }
-        } finally {
-            lock.unlock();
+        if (postbackKey.equals(this.postbackKey)
+                && versionID.completeExceptionally(exception)) {
+            observe("error");
         }
     }
 
@@ -90,4 +105,40 @@ public class PostbackPromise {
         }
     }
 
+    /**
+     * Fails the promise with a {@link PostbackTimeoutException}, unless it
+     * has already been completed.
+     */
+    void timeOut() {
+        if (versionID.completeExceptionally(
+                new PostbackTimeoutException(TIMEOUT_SECONDS))) {
+            postbacks.labels("timeout").inc();
+        }
+    }
+
+    /**
+     * Runs the task once the promise is older than the given age, on the
+     * thread that times out the promises, unless cancelled first by
+     * {@link #cancelExpiry()}.
+     */
+    void expireAfter(long nanos, Runnable onExpiry) {
+        expiry = timeouts.schedule(
+                onExpiry,
+                createdNanos + nanos - System.nanoTime(),
+                TimeUnit.NANOSECONDS
+        );
+    }
+
+    void cancelExpiry() {
+        ScheduledFuture<?> expiry = this.expiry;
+        if (expiry != null) {
+            expiry.cancel(false);
+        }
+    }
+
+    private void observe(String result) {
+        postbacks.labels(result).inc();
+        postbackLatency.observe((System.nanoTime() - createdNanos) / 1e9);
+    }
+
 }
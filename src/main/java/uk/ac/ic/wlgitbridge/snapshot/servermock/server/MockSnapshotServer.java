@@ -55,6 +55,14 @@ public class MockSnapshotServer {
         }
     }
 
+    /**
+     * @return the port the server is listening on, once started, which is
+     * useful if it was constructed with port 0
+     */
+    public int getPort() {
+        return port;
+    }
+
     public void setState(SnapshotAPIState state) {
         responseBuilder.setState(state);
     }
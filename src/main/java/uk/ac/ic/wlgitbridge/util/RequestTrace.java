@@ -0,0 +1,199 @@
+package uk.ac.ic.wlgitbridge.util;
+
+import org.slf4j.MDC;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one git request has done so far: its id, which is put in the
+ * {@link MDC} so that every log line made on its behalf carries it, and the
+ * time spent in each of its phases and the bytes that it moved, for the
+ * summary line logged when it completes.
+ *
+ * A trace is current on a thread while it is entered with {@link #enter()}.
+ * Work that a request hands to another thread takes its trace along with
+ * {@link #wrap(Runnable)} or {@link #propagating(Executor)}.
+ *
+ * Phases and bytes are only added up, under the trace's own lock, so keeping
+ * a trace for every request costs a few map entries.
+ */
+public class RequestTrace {
+
+    public static final String MDC_KEY = "requestId";
+
+    private static final int MAX_ID_LENGTH = 64;
+
+    private static final ThreadLocal<RequestTrace> current =
+            new ThreadLocal<>();
+
+    /**
+     * Ends the current thread's use of a trace, restoring whatever trace was
+     * current before it was entered.
+     */
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+    private final String id;
+    private final String operation;
+    private final String projectName;
+    private final long startNanos;
+
+    /* Guarded by this */
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final Map<String, Long> counts = new LinkedHashMap<>();
+
+    public RequestTrace(
+            Optional<String> id,
+            String operation,
+            String projectName
+    ) {
+        this.id = id.filter(RequestTrace::isValidId).orElseGet(
+                RequestTrace::newId
+        );
+        this.operation = operation;
+        this.projectName = projectName;
+        startNanos = System.nanoTime();
+    }
+
+    public static Optional<RequestTrace> current() {
+        return Optional.ofNullable(current.get());
+    }
+
+    /**
+     * Adds time spent in a phase to the current trace, if there is one.
+     */
+    public static void addPhaseToCurrent(String phase, long nanos) {
+        RequestTrace trace = current.get();
+        if (trace != null) {
+            trace.addPhase(phase, nanos);
+        }
+    }
+
+    /**
+     * Adds to a count, such as of bytes, of the current trace, if there is
+     * one.
+     */
+    public static void addCountToCurrent(String name, long n) {
+        RequestTrace trace = current.get();
+        if (trace != null) {
+            trace.addCount(name, n);
+        }
+    }
+
+    /**
+     * Enters the given trace, if there is one, e.g. on a thread that runs
+     * callbacks for work started under {@link #current()}.
+     */
+    public static Scope enter(Optional<RequestTrace> trace) {
+        return trace.map(RequestTrace::enter).orElse(() -> {});
+    }
+
+    /**
+     * @return the task, which runs with the trace that is current now
+     */
+    public static Runnable wrap(Runnable task) {
+        RequestTrace trace = current.get();
+        if (trace == null) {
+            return task;
+        }
+        return () -> {
+            Scope scope = trace.enter();
+            try {
+                task.run();
+            } finally {
+                scope.close();
+            }
+        };
+    }
+
+    /**
+     * @return an executor that runs each task with the trace that was
+     * current when it was submitted
+     */
+    public static Executor propagating(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Makes this the current trace of the calling thread until the returned
+     * scope is closed.
+     */
+    public Scope enter() {
+        RequestTrace previous = current.get();
+        String previousId = MDC.get(MDC_KEY);
+        current.set(this);
+        MDC.put(MDC_KEY, id);
+        return () -> {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+            if (previousId == null) {
+                MDC.remove(MDC_KEY);
+            } else {
+                MDC.put(MDC_KEY, previousId);
+            }
+        };
+    }
+
+    public synchronized void addPhase(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    public synchronized void addCount(String name, long n) {
+        counts.merge(name, n, Long::sum);
+    }
+
+    /**
+     * @return a line of key=value pairs describing the request, e.g.
+     * "op=git-upload-pack status=200 ms=12 get_doc_ms=3 bytes_out=1024"
+     */
+    public synchronized String getSummary(int status) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("op=").append(operation);
+        sb.append(" project=").append(projectName);
+        sb.append(" status=").append(status);
+        sb.append(" ms=").append(toMillis(System.nanoTime() - startNanos));
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            sb.append(' ').append(phase.getKey()).append("_ms=").append(
+                    toMillis(phase.getValue())
+            );
+        }
+        for (Map.Entry<String, Long> count : counts.entrySet()) {
+            sb.append(' ').append(count.getKey()).append('=').append(
+                    count.getValue()
+            );
+        }
+        return sb.toString();
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String newId() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /* Ids from clients are logged, so they mustn't be able to forge lines */
+    private static boolean isValidId(String id) {
+        return !id.isEmpty()
+                && id.length() <= MAX_ID_LENGTH
+                && id.matches("[A-Za-z0-9._-]+");
+    }
+
+}
@@ -36,13 +36,25 @@ public class Tar {
         public static InputStream zip(
             File fileOrDir,
             long[] sizePtr
+        ) throws IOException {
+            return zip(fileOrDir, sizePtr, f -> true);
+        }
+
+        /**
+         * As {@link #zip(File, long[])}, but only includes the files and
+         * directories under fileOrDir that are accepted by filter.
+         */
+        public static InputStream zip(
+            File fileOrDir,
+            long[] sizePtr,
+            FileFilter filter
         ) throws IOException {
             File tmp = File.createTempFile(fileOrDir.getName(), ".tar.gz");
             tmp.deleteOnExit();
             OutputStream target = new FileOutputStream(tmp);
             /* Closes target */
             try (OutputStream gz = new GzipCompressorOutputStream(target)) {
-                tarTo(fileOrDir, gz);
+                tarTo(fileOrDir, gz, filter);
             } catch (IOException e) {
                 tmp.delete();
                 throw e;
@@ -121,12 +133,21 @@ public class Tar {
     public static void tarTo(
             File fileOrDir,
             OutputStream target
+    ) throws IOException {
+        tarTo(fileOrDir, target, f -> true);
+    }
+
+    public static void tarTo(
+            File fileOrDir,
+            OutputStream target,
+            FileFilter filter
     ) throws IOException {
         try (TarArchiveOutputStream tout = new TarArchiveOutputStream(target)) {
             addTarEntry(
                     tout,
                     Paths.get(fileOrDir.getParentFile().getAbsolutePath()),
-                    fileOrDir
+                    fileOrDir,
+                    filter
             );
         }
     }
@@ -166,10 +187,11 @@ public class Tar {
     private static void addTarEntry(
             TarArchiveOutputStream tout,
             Path base,
-            File fileOrDir
+            File fileOrDir,
+            FileFilter filter
     ) throws IOException {
         if (fileOrDir.isDirectory()) {
-            addTarDir(tout, base, fileOrDir);
+            addTarDir(tout, base, fileOrDir, filter);
         } else if (fileOrDir.isFile()) {
             addTarFile(tout, base, fileOrDir);
         } else {
@@ -182,7 +204,8 @@ public class Tar {
     private static void addTarDir(
             TarArchiveOutputStream tout,
             Path base,
-            File dir
+            File dir,
+            FileFilter filter
     ) throws IOException {
         Preconditions.checkArgument(dir.isDirectory());
         String name = base.relativize(
@@ -191,8 +214,8 @@ public class Tar {
         ArchiveEntry entry = tout.createArchiveEntry(dir, name);
         tout.putArchiveEntry(entry);
         tout.closeArchiveEntry();
-        for (File f : dir.listFiles()) {
-            addTarEntry(tout, base, f);
+        for (File f : dir.listFiles(filter)) {
+            addTarEntry(tout, base, f, filter);
         }
     }
 
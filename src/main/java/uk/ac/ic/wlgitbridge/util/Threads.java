@@ -0,0 +1,160 @@
+package uk.ac.ic.wlgitbridge.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Makes the threads that run requests and background work, either as
+ * platform threads or, when enabled on a JDK that has them, as virtual
+ * threads.
+ *
+ * Virtual threads let the blocking request path (the snapshot API, SQLite and
+ * JGit) wait without holding a platform thread each. We still build for Java
+ * 8, so they are only found by reflection.
+ *
+ * Executors and thread pools take the mode that was set when they are made,
+ * so it has to be set before the server is constructed.
+ */
+public class Threads {
+
+    private static volatile boolean virtual = false;
+
+    /**
+     * Sets whether new executors and thread pools use virtual threads. Falls
+     * back to platform threads if the JDK doesn't support them.
+     * @return whether virtual threads are now used
+     */
+    public static boolean useVirtualThreads(boolean use) {
+        if (use && !isVirtualThreadsSupported()) {
+            Log.warn(
+                    "Virtual threads need Java 21 or later, " +
+                            "using platform threads on Java {}",
+                    System.getProperty("java.version")
+            );
+            use = false;
+        }
+        virtual = use;
+        return use;
+    }
+
+    public static boolean isUsingVirtualThreads() {
+        return virtual;
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param nameFormat the name of the threads, ending with "%d" for their
+     * number, e.g. "gc-worker-%d"
+     * @return a factory of daemon threads
+     */
+    public static ThreadFactory newThreadFactory(String nameFormat) {
+        if (!nameFormat.endsWith("%d")) {
+            throw new IllegalArgumentException(
+                    "Thread names must end with %d: " + nameFormat
+            );
+        }
+        if (virtual) {
+            /* Virtual threads are always daemon threads */
+            return newVirtualThreadFactory(
+                    nameFormat.substring(0, nameFormat.length() - 2)
+            );
+        }
+        return new ThreadFactoryBuilder(
+        ).setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    /**
+     * @return an unbounded executor for tasks that mostly wait, which starts
+     * a virtual thread for each task, or reuses cached platform threads
+     */
+    public static ExecutorService newCachedThreadPool(String nameFormat) {
+        ThreadFactory factory = newThreadFactory(nameFormat);
+        if (virtual) {
+            return (ExecutorService) invoke(
+                    Executors.class,
+                    "newThreadPerTaskExecutor",
+                    new Class<?>[] {ThreadFactory.class},
+                    null,
+                    factory
+            );
+        }
+        return Executors.newCachedThreadPool(factory);
+    }
+
+    /**
+     * @return an executor that runs at most numThreads tasks at a time
+     */
+    public static ExecutorService newFixedThreadPool(
+            int numThreads,
+            String nameFormat
+    ) {
+        return Executors.newFixedThreadPool(
+                numThreads,
+                newThreadFactory(nameFormat)
+        );
+    }
+
+    private static ThreadFactory newVirtualThreadFactory(String prefix) {
+        try {
+            Class<?> ofVirtual = Class.forName(
+                    "java.lang.Thread$Builder$OfVirtual"
+            );
+            Object builder = invoke(
+                    Thread.class,
+                    "ofVirtual",
+                    new Class<?>[0],
+                    null
+            );
+            builder = invoke(
+                    ofVirtual,
+                    "name",
+                    new Class<?>[] {String.class, long.class},
+                    builder,
+                    prefix,
+                    0L
+            );
+            return (ThreadFactory) invoke(
+                    ofVirtual,
+                    "factory",
+                    new Class<?>[0],
+                    builder
+            );
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(
+                    "Virtual threads are not supported",
+                    e
+            );
+        }
+    }
+
+    private static Object invoke(
+            Class<?> clazz,
+            String name,
+            Class<?>[] parameterTypes,
+            Object target,
+            Object... args
+    ) {
+        try {
+            Method method = clazz.getMethod(name, parameterTypes);
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                    "Virtual threads are not supported",
+                    e
+            );
+        }
+    }
+
+}
@@ -12,11 +12,13 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpHead;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.HttpEntity;
 import org.apache.http.util.EntityUtils;
 import org.apache.http.ParseException;
 
+import io.prometheus.client.CollectorRegistry;
 import org.asynchttpclient.*;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.junit.After;
@@ -32,6 +34,7 @@ import uk.ac.ic.wlgitbridge.snapshot.servermock.util.FileUtil;
 import uk.ac.ic.wlgitbridge.util.Util;
 
 import java.io.*;
+import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -667,7 +670,7 @@ public class WLGitBridgeIntegrationTest {
         server.start();
         server.setState(states.get("wlgbCanSwapProjects").get("state"));
         wlgb = new GitBridgeApp(new String[] {
-                makeConfigFile(33874, 3874, new SwapJobConfig(1, 0, 0, 250, null))
+                makeConfigFile(33874, 3874, new SwapJobConfig(1, 0, 0, 250, null, null))
         });
         wlgb.run();
         File rootGitDir = new File(wlgb.config.getRootGitDirectory());
@@ -1045,6 +1048,177 @@ public class WLGitBridgeIntegrationTest {
       assertTrue(f.exists());
     }
 
+    @Test
+    public void canListRefsWithProtocolV2() throws IOException, InterruptedException {
+        int gitBridgePort = 33893;
+        int mockServerPort = 3857;
+        server = new MockSnapshotServer(mockServerPort, getResource("/canCloneARepository").toFile());
+        server.start();
+        server.setState(states.get("canCloneARepository").get("state"));
+        wlgb = new GitBridgeApp(new String[] {
+            makeConfigFile(gitBridgePort, mockServerPort)
+        });
+        wlgb.run();
+        HttpClient client = HttpClients.createDefault();
+        HttpPost lsRefsRequest = new HttpPost(
+                "http://127.0.0.1:" + gitBridgePort +
+                        "/testproj.git/git-upload-pack"
+        );
+        lsRefsRequest.setHeader("Git-Protocol", "version=2");
+        lsRefsRequest.setHeader(
+                "Content-Type",
+                "application/x-git-upload-pack-request"
+        );
+        lsRefsRequest.setEntity(new StringEntity(
+                pktLine("command=ls-refs\n") +
+                        "0001" +
+                        pktLine("ref-prefix refs/heads/\n") +
+                        "0000"
+        ));
+        HttpResponse lsRefsResponse = client.execute(lsRefsRequest);
+        assertEquals(200, lsRefsResponse.getStatusLine().getStatusCode());
+        String refs = EntityUtils.toString(lsRefsResponse.getEntity());
+        /* HEAD is left out, as it doesn't match the prefix */
+        assertTrue(refs.matches("^003f[0-9a-f]{40} refs/heads/master\n0000$"));
+    }
+
+    private static String pktLine(String line) {
+        return String.format("%04x", line.length() + 4) + line;
+    }
+
+    @Test
+    public void canPartiallyCloneWithABlobFilter() throws IOException, InterruptedException {
+        int gitBridgePort = 33894;
+        int mockServerPort = 3857;
+        server = new MockSnapshotServer(mockServerPort, getResource("/canCloneARepository").toFile());
+        server.start();
+        server.setState(states.get("canCloneARepository").get("state"));
+        wlgb = new GitBridgeApp(new String[] {
+            makeConfigFile(gitBridgePort, mockServerPort)
+        });
+        wlgb.run();
+        assertEquals(0, runtime.exec(
+                "git -c protocol.version=2 clone --no-checkout " +
+                        "--filter=blob:limit=1k http://127.0.0.1:" +
+                        gitBridgePort + "/testproj.git",
+                null,
+                dir
+        ).waitFor());
+        File testprojDir = new File(dir, "testproj");
+        Process revList = runtime.exec(
+                "git rev-list --objects --missing=print HEAD",
+                null,
+                testprojDir
+        );
+        String out = IOUtils.toString(revList.getInputStream(), StandardCharsets.UTF_8);
+        assertEquals(0, revList.waitFor());
+        long missing = Arrays.stream(out.split("\n"))
+                .filter(line -> line.startsWith("?"))
+                .count();
+        /* Only the 10kB image is left out */
+        assertEquals(1, missing);
+        assertEquals(0, runtime.exec(
+                "git checkout master", null, testprojDir
+        ).waitFor());
+        assertTrue(FileUtil.gitDirectoriesAreEqual(getResource("/canCloneARepository/state/testproj"), testprojDir.toPath()));
+    }
+
+    @Test
+    public void notifiedProjectIsPulledWithoutFetchingItsVersions() throws IOException, InterruptedException {
+        int gitBridgePort = 33895;
+        int mockServerPort = 3859;
+        server = new MockSnapshotServer(mockServerPort, getResource("/canPullAModifiedTexFile").toFile());
+        server.start();
+        server.setState(states.get("canPullAModifiedTexFile").get("base"));
+        wlgb = new GitBridgeApp(new String[] {
+            makeConfigFile(gitBridgePort, mockServerPort, null,
+                    "    \"oauth2\": null,\n" +
+                    "    \"updateJob\": {\n" +
+                    "        \"notifySecret\": \"secret\"\n" +
+                    "    }\n")
+        });
+        wlgb.run();
+        File testprojDir = gitClone("testproj", gitBridgePort, dir);
+        server.setState(states.get("canPullAModifiedTexFile").get("withModifiedTexFile"));
+        HttpClient client = HttpClients.createDefault();
+        String notifyUrl = "http://127.0.0.1:" + gitBridgePort + "/api/testproj/notify";
+        HttpPost unauthorized = new HttpPost(notifyUrl);
+        unauthorized.setHeader("Authorization", "Bearer wrong");
+        HttpResponse unauthorizedResponse = client.execute(unauthorized);
+        EntityUtils.consume(unauthorizedResponse.getEntity());
+        assertEquals(401, unauthorizedResponse.getStatusLine().getStatusCode());
+        double updated = backgroundUpdates("updated");
+        HttpPost notify = new HttpPost(notifyUrl);
+        notify.setHeader("Authorization", "Bearer secret");
+        HttpResponse notifyResponse = client.execute(notify);
+        EntityUtils.consume(notifyResponse.getEntity());
+        assertEquals(202, notifyResponse.getStatusLine().getStatusCode());
+        for (int i = 0; i < 100 && backgroundUpdates("updated") == updated; ++i) {
+            Thread.sleep(100);
+        }
+        assertEquals(updated + 1, backgroundUpdates("updated"), 0);
+        /* The pull only checks the user's access with Overleaf */
+        double checked = repoUpdates("checked");
+        double synced = repoUpdates("synced");
+        gitPull(testprojDir);
+        assertEquals(checked + 1, repoUpdates("checked"), 0);
+        assertEquals(synced, repoUpdates("synced"), 0);
+        assertTrue(FileUtil.gitDirectoriesAreEqual(getResource("/canPullAModifiedTexFile/withModifiedTexFile/testproj"), testprojDir.toPath()));
+    }
+
+    @Test
+    public void canCloneAndSpeakH2cWithATunedJetty() throws IOException, InterruptedException {
+        int gitBridgePort = 33896;
+        int mockServerPort = 3857;
+        server = new MockSnapshotServer(mockServerPort, getResource("/canCloneARepository").toFile());
+        server.start();
+        server.setState(states.get("canCloneARepository").get("state"));
+        wlgb = new GitBridgeApp(new String[] {
+            makeConfigFile(gitBridgePort, mockServerPort, null,
+                    "    \"jetty\": {\n" +
+                    "        \"minThreads\": 4,\n" +
+                    "        \"maxThreads\": 16,\n" +
+                    "        \"maxQueuedRequests\": 64,\n" +
+                    "        \"acceptors\": 1,\n" +
+                    "        \"selectors\": 1,\n" +
+                    "        \"outputBufferSize\": 65536,\n" +
+                    "        \"h2c\": true\n" +
+                    "    }\n")
+        });
+        wlgb.run();
+        File testprojDir = gitClone("testproj", gitBridgePort, dir);
+        assertTrue(FileUtil.gitDirectoriesAreEqual(getResource("/canCloneARepository/state/testproj"), testprojDir.toPath()));
+        /* With prior knowledge, the server answers the preface with its SETTINGS */
+        try (Socket socket = new Socket("127.0.0.1", gitBridgePort)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.write(new byte[] {0, 0, 0, 4, 0, 0, 0, 0, 0});
+            out.flush();
+            byte[] header = new byte[9];
+            new DataInputStream(socket.getInputStream()).readFully(header);
+            assertEquals("SETTINGS frame", 4, header[3]);
+        }
+    }
+
+    private static double repoUpdates(String result) {
+        Double value = CollectorRegistry.defaultRegistry.getSampleValue(
+                "git_bridge_repo_updates_total",
+                new String[] {"result"},
+                new String[] {result}
+        );
+        return value == null ? 0 : value;
+    }
+
+    private static double backgroundUpdates(String result) {
+        Double value = CollectorRegistry.defaultRegistry.getSampleValue(
+                "git_bridge_background_updates_total",
+                new String[] {"result"},
+                new String[] {result}
+        );
+        return value == null ? 0 : value;
+    }
+
     private String makeConfigFile(
             int port,
             int apiPort
@@ -1056,6 +1230,16 @@ public class WLGitBridgeIntegrationTest {
             int port,
             int apiPort,
             SwapJobConfig swapCfg
+    ) throws IOException {
+        return makeConfigFile(port, apiPort, swapCfg, null);
+    }
+
+    /* extraConfig is appended to the config, overriding what is above it */
+    private String makeConfigFile(
+            int port,
+            int apiPort,
+            SwapJobConfig swapCfg,
+            String extraConfig
     ) throws IOException {
         File wlgb = folder.newFolder();
         File config = folder.newFile();
@@ -1103,6 +1287,9 @@ public class WLGitBridgeIntegrationTest {
                     "\n" +
                     "    }\n";
         }
+        if (extraConfig != null) {
+            cfgStr += ",\n" + extraConfig;
+        }
         cfgStr += "}\n";
         writer.print(cfgStr);
         writer.close();
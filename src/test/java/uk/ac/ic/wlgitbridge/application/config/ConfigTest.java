@@ -95,7 +95,15 @@ public class ConfigTest {
                 "  \"repoStore\": null,\n" +
                 "  \"swapStore\": null,\n" +
                 "  \"swapJob\": null,\n" +
-                "  \"sqliteHeapLimitBytes\": 0\n" +
+                "  \"sqliteHeapLimitBytes\": 0,\n" +
+                "  \"gcJob\": null,\n" +
+                "  \"accessTrace\": null,\n" +
+                "  \"pushInlineFileMaxBytes\": null,\n" +
+                "  \"recentUpdateTtlMillis\": null,\n" +
+                "  \"updateJob\": null,\n" +
+                "  \"virtualThreads\": null,\n" +
+                "  \"jetty\": null,\n" +
+                "  \"admission\": null\n" +
                 "}";
         assertEquals(
                 "sanitised config did not hide sensitive fields",
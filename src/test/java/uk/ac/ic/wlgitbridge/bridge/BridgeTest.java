@@ -1,11 +1,15 @@
 package uk.ac.ic.wlgitbridge.bridge;
 
+import io.prometheus.client.CollectorRegistry;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.internal.storage.file.GC;
 import org.junit.Before;
 import org.junit.Test;
 import uk.ac.ic.wlgitbridge.application.config.Config;
 import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
 import uk.ac.ic.wlgitbridge.bridge.gc.GcJob;
+import uk.ac.ic.wlgitbridge.bridge.gc.GcJobImpl;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
@@ -13,13 +17,23 @@ import uk.ac.ic.wlgitbridge.bridge.resource.ResourceCache;
 import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApiFacade;
 import uk.ac.ic.wlgitbridge.bridge.swap.job.SwapJob;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
+import uk.ac.ic.wlgitbridge.bridge.trace.NoopAccessTraceRecorder;
+import uk.ac.ic.wlgitbridge.bridge.update.UpdateJobConfig;
+import uk.ac.ic.wlgitbridge.data.ProjectLockImpl;
 import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
@@ -51,7 +65,11 @@ public class BridgeTest {
         resourceCache = mock(ResourceCache.class);
         swapJob = mock(SwapJob.class);
         gcJob = mock(GcJob.class);
-        bridge = new Bridge(
+        bridge = newBridge(null);
+    }
+
+    private Bridge newBridge(UpdateJobConfig updateJob) {
+        return new Bridge(
                 new Config(
                         0,
                         "",
@@ -64,7 +82,15 @@ public class BridgeTest {
                         null,
                         null,
                         null,
-                        0),
+                        0,
+                        null,
+                        null,
+                        null,
+                        null,
+                        updateJob,
+                        null,
+                        null,
+                        null),
                 lock,
                 repoStore,
                 dbStore,
@@ -72,7 +98,8 @@ public class BridgeTest {
                 swapJob,
                 gcJob,
                 snapshotAPI,
-                resourceCache
+                resourceCache,
+                new NoopAccessTraceRecorder()
         );
     }
 
@@ -107,4 +134,220 @@ public class BridgeTest {
         verify(dbStore).setLastAccessedTime(eq("asdf"), any());
     }
 
+    @Test
+    public void recentUpdateIsReusedUntilInvalidated(
+    ) throws IOException, GitUserException {
+        ProjectRepo repo = mock(ProjectRepo.class);
+        when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+        when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+        when(
+            snapshotAPI.getDoc(Optional.empty(), "asdf")
+        ).thenReturn(Optional.of(mock(GetDocResult.class)));
+        when(
+                snapshotAPI.getSnapshots(
+                        any(),
+                        any(),
+                        anyInt()
+                )
+        ).thenReturn(new ArrayDeque<>());
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 60000);
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 60000);
+        verify(snapshotAPI, times(1)).getDoc(Optional.empty(), "asdf");
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        verify(snapshotAPI, times(2)).getDoc(Optional.empty(), "asdf");
+        bridge.invalidateRecentUpdates("asdf");
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 60000);
+        verify(snapshotAPI, times(3)).getDoc(Optional.empty(), "asdf");
+    }
+
+    @Test
+    public void hotProjectOnlyChecksAccessUntilNotified(
+    ) throws IOException, GitUserException {
+        bridge = newBridge(new UpdateJobConfig("secret", null, null, null));
+        mockPresentProject();
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        verify(snapshotAPI, times(2)).getDoc(Optional.empty(), "asdf");
+        verify(snapshotAPI, times(1)).getSnapshots(any(), any(), anyInt());
+        bridge.invalidateRecentUpdates("asdf");
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        verify(snapshotAPI, times(2)).getSnapshots(any(), any(), anyInt());
+    }
+
+    @Test
+    public void hotProjectIsSyncedIfANotificationWasLost(
+    ) throws IOException, GitUserException {
+        bridge = newBridge(new UpdateJobConfig("secret", null, null, null));
+        mockPresentProject();
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        verify(snapshotAPI, times(1)).getSnapshots(any(), any(), anyInt());
+        /* A new version, but no notification of it */
+        GetDocResult doc = mock(GetDocResult.class);
+        when(doc.getVersionID()).thenReturn(2);
+        when(
+            snapshotAPI.getDoc(Optional.empty(), "asdf")
+        ).thenReturn(Optional.of(doc));
+        when(dbStore.getLatestVersionForProject("asdf")).thenReturn(1);
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        verify(snapshotAPI, times(2)).getSnapshots(any(), any(), anyInt());
+    }
+
+    @Test
+    public void projectIsNotHotWithoutNotifications(
+    ) throws IOException, GitUserException {
+        bridge = newBridge(new UpdateJobConfig(null, null, null, null));
+        assertEquals(0, bridge.getRecentUpdateTtlMillis());
+        mockPresentProject();
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        bridge.getUpdatedRepo(Optional.empty(), "asdf", 0);
+        verify(snapshotAPI, times(2)).getSnapshots(any(), any(), anyInt());
+    }
+
+    @Test
+    public void forkWaitsForAGcOfItsSource() throws Exception {
+        lock = new ProjectLockImpl();
+        gcJob = new GcJobImpl(repoStore, dbStore, lock, 5);
+        bridge = newBridge(null);
+        CountDownLatch gcRunning = new CountDownLatch(1);
+        CountDownLatch finishGc = new CountDownLatch(1);
+        ProjectRepo source = mock(ProjectRepo.class);
+        GC.RepoStatistics stats = new GC.RepoStatistics();
+        stats.numberOfLooseObjects = 1000;
+        when(source.getRepoStatistics()).thenReturn(stats);
+        when(source.runGC(any())).then(invocation -> {
+            gcRunning.countDown();
+            assertTrue(finishGc.await(10, TimeUnit.SECONDS));
+            return 0L;
+        });
+        when(repoStore.getExistingRepo("source")).thenReturn(source);
+        when(dbStore.getProjectState("source"))
+                .thenReturn(ProjectState.PRESENT);
+        when(dbStore.getProjectState("fork"))
+                .thenReturn(ProjectState.NOT_PRESENT);
+        GetDocResult doc = mock(GetDocResult.class);
+        when(doc.getMigratedFromID()).thenReturn("source");
+        when(
+            snapshotAPI.getDoc(Optional.empty(), "fork")
+        ).thenReturn(Optional.of(doc));
+        when(
+                snapshotAPI.getSnapshots(
+                        any(),
+                        any(),
+                        anyInt()
+                )
+        ).thenReturn(new ArrayDeque<>());
+        when(repoStore.initRepoFromExisting("fork", "source"))
+                .thenReturn(mock(ProjectRepo.class));
+        try {
+            gcJob.queueForGc("source");
+            gcJob.start();
+            assertTrue(gcRunning.await(10, TimeUnit.SECONDS));
+            CompletableFuture<ProjectRepo> fork =
+                    CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return bridge.getUpdatedRepo(
+                                    Optional.empty(),
+                                    "fork"
+                            );
+                        } catch (IOException | GitUserException e) {
+                            throw new CompletionException(e);
+                        }
+                    });
+            verify(repoStore, after(100).never())
+                    .initRepoFromExisting(any(), any());
+            finishGc.countDown();
+            fork.get(10, TimeUnit.SECONDS);
+            verify(repoStore).initRepoFromExisting("fork", "source");
+        } finally {
+            finishGc.countDown();
+            gcJob.stop();
+        }
+    }
+
+    private void mockPresentProject() throws IOException, GitUserException {
+        ProjectRepo repo = mock(ProjectRepo.class);
+        when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+        when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+        when(
+            snapshotAPI.getDoc(Optional.empty(), "asdf")
+        ).thenReturn(Optional.of(mock(GetDocResult.class)));
+        when(
+                snapshotAPI.getSnapshots(
+                        any(),
+                        any(),
+                        anyInt()
+                )
+        ).thenReturn(new ArrayDeque<>());
+    }
+
+    @Test
+    public void updatingRepositoryRecordsPhasesAndErrors(
+    ) throws IOException, GitUserException {
+        ProjectRepo repo = mock(ProjectRepo.class);
+        when(repoStore.getExistingRepo("asdf")).thenReturn(repo);
+        when(dbStore.getProjectState("asdf")).thenReturn(ProjectState.PRESENT);
+        when(
+            snapshotAPI.getDoc(Optional.empty(), "asdf")
+        ).thenReturn(Optional.of(mock(GetDocResult.class)));
+        when(
+                snapshotAPI.getSnapshots(
+                        any(),
+                        any(),
+                        anyInt()
+                )
+        ).thenReturn(new ArrayDeque<>());
+        double getDocs = getPhaseCount("get_doc");
+        double getSnapshots = getPhaseCount("get_snapshots");
+        double totals = getPhaseCount("total");
+        bridge.getUpdatedRepo(Optional.empty(), "asdf");
+        assertEquals(getDocs + 1, getPhaseCount("get_doc"), 0);
+        assertEquals(getSnapshots + 1, getPhaseCount("get_snapshots"), 0);
+        assertEquals(totals + 1, getPhaseCount("total"), 0);
+
+        when(
+            snapshotAPI.getDoc(Optional.empty(), "missing")
+        ).thenReturn(Optional.empty());
+        double errors = getErrorCount("RepositoryNotFoundException");
+        try {
+            bridge.getUpdatedRepo(Optional.empty(), "missing");
+            fail("Expected the missing project to throw");
+        } catch (RepositoryNotFoundException e) {
+            /* Expected */
+        }
+        assertEquals(
+                errors + 1,
+                getErrorCount("RepositoryNotFoundException"),
+                0
+        );
+    }
+
+    private static double getPhaseCount(String phase) {
+        return getSampleValue(
+                "git_bridge_operation_phase_seconds_count",
+                new String[] {"operation", "phase"},
+                new String[] {"update", phase}
+        );
+    }
+
+    private static double getErrorCount(String error) {
+        return getSampleValue(
+                "git_bridge_operation_errors_total",
+                new String[] {"operation", "error"},
+                new String[] {"update", error}
+        );
+    }
+
+    private static double getSampleValue(
+            String name,
+            String[] labelNames,
+            String[] labelValues
+    ) {
+        Double value = CollectorRegistry.defaultRegistry.getSampleValue(
+                name,
+                labelNames,
+                labelValues
+        );
+        return value == null ? 0 : value;
+    }
+
 }
@@ -0,0 +1,65 @@
+package uk.ac.ic.wlgitbridge.bridge;
+
+import org.junit.After;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+
+import java.sql.Timestamp;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ProjectSizeUpdaterTest {
+
+    private final RepoStore repoStore = mock(RepoStore.class);
+    private final DBStore dbStore = mock(DBStore.class);
+    private final ProjectSizeUpdater updater =
+            new ProjectSizeUpdater(repoStore, dbStore);
+
+    @After
+    public void teardown() {
+        updater.stop();
+    }
+
+    @Test
+    public void projectsQueuedWhileWaitingAreMeasuredOnce() throws Exception {
+        CountDownLatch measuring = new CountDownLatch(1);
+        CountDownLatch measured = new CountDownLatch(1);
+        when(repoStore.sizeOfProject("busy")).then(invocation -> {
+            measuring.countDown();
+            assertTrue(measured.await(10, TimeUnit.SECONDS));
+            return 1L;
+        });
+        when(repoStore.sizeOfProject("proj")).thenReturn(100L);
+        when(dbStore.getLastAccessedTime("busy")).thenReturn(new Timestamp(0));
+        when(dbStore.getLastAccessedTime("proj")).thenReturn(new Timestamp(0));
+        updater.queue("busy");
+        assertTrue(measuring.await(10, TimeUnit.SECONDS));
+        updater.queue("proj");
+        updater.queue("proj");
+        measured.countDown();
+        verify(dbStore, timeout(5000)).setProjectSize("proj", 100L);
+        verify(repoStore, after(100).times(1)).sizeOfProject("proj");
+    }
+
+    @Test
+    public void swappedProjectsAreNotRecorded() throws Exception {
+        when(repoStore.sizeOfProject("proj")).thenReturn(100L);
+        updater.queue("proj");
+        verify(repoStore, timeout(5000)).sizeOfProject("proj");
+        verify(dbStore, after(100).never()).setProjectSize(
+                eq("proj"),
+                anyLong()
+        );
+    }
+
+}
@@ -0,0 +1,41 @@
+package uk.ac.ic.wlgitbridge.bridge;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RecentUpdatesTest {
+
+    @Test
+    public void notificationDuringAFirstSyncIsNotLost() {
+        RecentUpdates recentUpdates = new RecentUpdates(60000);
+        long generation = recentUpdates.startSync("proj");
+        recentUpdates.invalidate("proj");
+        recentUpdates.record("proj", Optional.empty(), generation);
+        assertFalse(recentUpdates.isRecent("proj", Optional.empty(), 60000));
+    }
+
+    @Test
+    public void notificationIsNotSweptByAnotherProjectsSync() {
+        RecentUpdates recentUpdates = new RecentUpdates(60000);
+        long generation = recentUpdates.startSync("proj");
+        recentUpdates.invalidate("proj");
+        recentUpdates.record(
+                "other",
+                Optional.empty(),
+                recentUpdates.startSync("other")
+        );
+        recentUpdates.record("proj", Optional.empty(), generation);
+        assertFalse(recentUpdates.isRecent("proj", Optional.empty(), 60000));
+        recentUpdates.record(
+                "proj",
+                Optional.empty(),
+                recentUpdates.startSync("proj")
+        );
+        assertTrue(recentUpdates.isRecent("proj", Optional.empty(), 60000));
+    }
+
+}
@@ -4,11 +4,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import uk.ac.ic.wlgitbridge.bridge.db.ProjectState;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SwapCandidate;
 
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -160,4 +165,67 @@ public class SqliteDBStoreTest {
         assertEquals(ProjectState.SWAPPED, dbStore.getProjectState("asdf"));
     }
 
+    @Test
+    public void totalSizeOnlyCountsUnswappedProjects() {
+        assertEquals(0, dbStore.getTotalUnswappedProjectSize());
+        dbStore.setLatestVersionForProject("a", 1);
+        dbStore.setLastAccessedTime("a", Timestamp.valueOf(LocalDateTime.now()));
+        dbStore.setLatestVersionForProject("b", 1);
+        dbStore.setLastAccessedTime("b", Timestamp.valueOf(LocalDateTime.now()));
+        assertEquals(
+                Arrays.asList("a", "b"),
+                dbStore.getUnswappedProjectsWithoutSize()
+        );
+        dbStore.setProjectSize("a", 100);
+        dbStore.setProjectSize("b", 20);
+        assertEquals(120, dbStore.getTotalUnswappedProjectSize());
+        assertEquals(
+                Collections.emptyList(),
+                dbStore.getUnswappedProjectsWithoutSize()
+        );
+        dbStore.swap("b", "bzip2");
+        assertEquals(100, dbStore.getTotalUnswappedProjectSize());
+    }
+
+    @Test
+    public void swapCandidatesAreTheUnswappedProjectsWithTheirAccesses() {
+        Timestamp lastAccessed = Timestamp.valueOf(LocalDateTime.now());
+        dbStore.setLatestVersionForProject("a", 1);
+        dbStore.setLastAccessedTime("a", lastAccessed);
+        dbStore.setLastAccessedTime("a", lastAccessed);
+        dbStore.setProjectSize("a", 100);
+        dbStore.setLatestVersionForProject("b", 1);
+        dbStore.setLastAccessedTime("b", lastAccessed);
+        dbStore.setLatestVersionForProject("swapped", 1);
+        dbStore.setLastAccessedTime("swapped", lastAccessed);
+        dbStore.swap("swapped", "bzip2");
+        List<SwapCandidate> candidates = dbStore.getSwapCandidates();
+        candidates.sort(Comparator.comparing(SwapCandidate::getProjectName));
+        assertEquals(2, candidates.size());
+        SwapCandidate a = candidates.get(0);
+        assertEquals("a", a.getProjectName());
+        assertEquals(lastAccessed.getTime(), a.getLastAccessedMillis());
+        assertEquals(100, a.getSizeBytes());
+        assertEquals(2, a.getAccessCount());
+        SwapCandidate b = candidates.get(1);
+        assertEquals("b", b.getProjectName());
+        assertEquals(0, b.getSizeBytes());
+        assertEquals(1, b.getAccessCount());
+    }
+
+    @Test
+    public void resettingTheLastAccessedTimeDoesNotCountAnAccess() {
+        Timestamp lastAccessed = Timestamp.valueOf(LocalDateTime.now());
+        dbStore.setLatestVersionForProject("a", 1);
+        dbStore.setLastAccessedTime("a", lastAccessed);
+        Timestamp later = new Timestamp(lastAccessed.getTime() + 1000);
+        dbStore.resetLastAccessedTime("a", later);
+        assertEquals(later, dbStore.getLastAccessedTime("a"));
+        SwapCandidate a = dbStore.getSwapCandidates().get(0);
+        assertEquals(later.getTime(), a.getLastAccessedMillis());
+        assertEquals(1, a.getAccessCount());
+        dbStore.swap("a", "bzip2");
+        assertNull(dbStore.getLastAccessedTime("a"));
+    }
+
 }
@@ -1,9 +1,11 @@
 package uk.ac.ic.wlgitbridge.bridge.gc;
 
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.eclipse.jgit.internal.storage.file.GC;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.stubbing.OngoingStubbing;
+import uk.ac.ic.wlgitbridge.bridge.db.DBStore;
 import uk.ac.ic.wlgitbridge.bridge.lock.LockGuard;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
@@ -11,12 +13,18 @@ import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
 import uk.ac.ic.wlgitbridge.data.ProjectLockImpl;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 /**
@@ -26,6 +34,8 @@ public class GcJobImplTest {
 
     RepoStore repoStore = mock(RepoStore.class);
 
+    DBStore dbStore = mock(DBStore.class);
+
     ProjectLock locks;
 
     GcJobImpl gcJob;
@@ -33,7 +43,7 @@ public class GcJobImplTest {
     @Before
     public void setup() {
         locks = new ProjectLockImpl();
-        gcJob = new GcJobImpl(repoStore, locks, 5);
+        gcJob = new GcJobImpl(repoStore, dbStore, locks, 5);
     }
 
     @After
@@ -45,24 +55,19 @@ public class GcJobImplTest {
     public void addedProjectsAreAllEventuallyGcedOnce() throws Exception {
         int numProjects = 5;
         /* Make the mocks, make expectations, and keep a reference to them */
-        final OngoingStubbing<ProjectRepo>[] o = new OngoingStubbing[] {
-                when(repoStore.getExistingRepo(anyString()))
-        };
-        List<ProjectRepo> mockRepos = IntStream.range(
-                0, numProjects
-        ).mapToObj(i ->
-                String.valueOf((char) ('a' + i))
-        ).map(proj -> {
+        List<ProjectRepo> mockRepos = new ArrayList<>();
+        for (int i = 0; i < numProjects; ++i) {
+            String proj = String.valueOf((char) ('a' + i));
             gcJob.queueForGc(proj);
-            ProjectRepo mockRepo = mock(ProjectRepo.class);
-            o[0] = o[0].thenReturn(mockRepo);
-            return mockRepo;
-        }).collect(Collectors.toList());
+            ProjectRepo mockRepo = mockRepoWithGarbage(1000, 1000);
+            when(repoStore.getExistingRepo(proj)).thenReturn(mockRepo);
+            mockRepos.add(mockRepo);
+        }
         CompletableFuture<Void> fut = gcJob.waitForRun();
         gcJob.start();
         fut.join();
         for (ProjectRepo mock : mockRepos) {
-            verify(mock).runGC();
+            verify(mock).runGC(any());
             verify(mock).deleteIncomingPacks();
         }
         /* Nothing should happen on the next run */
@@ -101,7 +106,7 @@ public class GcJobImplTest {
     @Test
     public void willNotGcProjectUntilItIsUnlocked()
             throws InterruptedException, IOException {
-        ProjectRepo repo = mock(ProjectRepo.class);
+        ProjectRepo repo = mockRepoWithGarbage(1000, 1000);
         when(repoStore.getExistingRepo(anyString())).thenReturn(repo);
         gcJob.onPostGc(gcJob::stop);
         gcJob.queueForGc("a");
@@ -117,4 +122,171 @@ public class GcJobImplTest {
         fut.join();
     }
 
+    @Test
+    public void projectCanBeLockedWhileItIsGced() throws Exception {
+        ProjectRepo repo = mockRepoWithGarbage(1000, 1000);
+        when(repo.runGC(any())).then(invocation -> {
+            /* e.g. a fetch of the project, on another thread */
+            CompletableFuture<Void> locked = CompletableFuture.runAsync(() -> {
+                try (LockGuard __ = locks.lockGuard("a")) {
+                    // nothing
+                }
+            });
+            locked.get(10, TimeUnit.SECONDS);
+            return 0L;
+        });
+        when(repoStore.getExistingRepo("a")).thenReturn(repo);
+        gcJob.queueForGc("a");
+        CompletableFuture<Void> fut = gcJob.waitForRun();
+        gcJob.start();
+        fut.join();
+        verify(repo).deleteIncomingPacks();
+        verify(dbStore).setProjectSize(eq("a"), anyLong());
+    }
+
+    @Test
+    public void lockAllWaitsForAGcInProgress() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        ProjectRepo repo = mockRepoWithGarbage(1000, 1000);
+        when(repo.runGC(any())).then(invocation -> {
+            running.countDown();
+            assertTrue(finish.await(10, TimeUnit.SECONDS));
+            return 0L;
+        });
+        when(repoStore.getExistingRepo("a")).thenReturn(repo);
+        gcJob.queueForGc("a");
+        gcJob.start();
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+        CompletableFuture<Void> locked = CompletableFuture.runAsync(
+                locks::lockAll
+        );
+        Thread.sleep(100);
+        assertFalse(locked.isDone());
+        finish.countDown();
+        locked.get(10, TimeUnit.SECONDS);
+        verify(repo).deleteIncomingPacks();
+    }
+
+    @Test
+    public void projectsAreGcedInParallelOnTheWorkers() throws Exception {
+        gcJob.stop();
+        gcJob = new GcJobImpl(
+                repoStore,
+                dbStore,
+                locks,
+                config(2, null)
+        );
+        /* Neither GC can finish unless the other one is running */
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        ProjectRepo repo = mockRepoWithGarbage(1000, 1000);
+        when(repo.runGC(any())).then(invocation -> {
+            bothRunning.countDown();
+            assertTrue(bothRunning.await(10, TimeUnit.SECONDS));
+            return 0L;
+        });
+        when(repoStore.getExistingRepo(anyString())).thenReturn(repo);
+        gcJob.queueForGc("a");
+        gcJob.queueForGc("b");
+        CompletableFuture<Void> fut = gcJob.waitForRun();
+        gcJob.start();
+        fut.join();
+        verify(repo, times(2)).runGC(any());
+        verify(repo, times(2)).deleteIncomingPacks();
+    }
+
+    @Test
+    public void projectsWithoutMuchGarbageAreNotGced() throws Exception {
+        ProjectRepo clean = mockRepoWithGarbage(10, 1000);
+        when(repoStore.getExistingRepo("a")).thenReturn(clean);
+        gcJob.queueForGc("a");
+        CompletableFuture<Void> fut = gcJob.waitForRun();
+        gcJob.start();
+        fut.join();
+        verify(clean, never()).runGC(any());
+        verify(clean).deleteIncomingPacks();
+        verify(dbStore).setProjectSize(eq("a"), anyLong());
+    }
+
+    @Test
+    public void projectsWithTheMostGarbageAreGcedFirst() throws Exception {
+        gcJob.stop();
+        gcJob = new GcJobImpl(repoStore, dbStore, locks, config(1, null));
+        List<String> gced = Collections.synchronizedList(new ArrayList<>());
+        for (String proj : Arrays.asList("small", "large", "medium")) {
+            long size = proj.equals("large")
+                    ? 3000 : proj.equals("medium") ? 2000 : 1000;
+            ProjectRepo repo = mockRepoWithGarbage(1000, size);
+            when(repo.runGC(any())).then(invocation -> {
+                gced.add(proj);
+                return 0L;
+            });
+            when(repoStore.getExistingRepo(proj)).thenReturn(repo);
+            gcJob.queueForGc(proj);
+        }
+        CompletableFuture<Void> fut = gcJob.waitForRun();
+        gcJob.start();
+        fut.join();
+        assertEquals(Arrays.asList("large", "medium", "small"), gced);
+    }
+
+    @Test
+    public void projectsOverTheByteBudgetAreDeferredToTheNextRun()
+            throws Exception {
+        gcJob.stop();
+        gcJob = new GcJobImpl(repoStore, dbStore, locks, config(1, 1500L));
+        ProjectRepo large = mockRepoWithGarbage(1000, 2000);
+        ProjectRepo small = mockRepoWithGarbage(1000, 1000);
+        when(repoStore.getExistingRepo("large")).thenReturn(large);
+        when(repoStore.getExistingRepo("small")).thenReturn(small);
+        gcJob.queueForGc("large");
+        gcJob.queueForGc("small");
+        /* Hold the next run until we've checked the first one */
+        CountDownLatch checked = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        gcJob.onPreGc(() -> {
+            if (runs.incrementAndGet() > 1) {
+                Uninterruptibles.awaitUninterruptibly(checked);
+            }
+        });
+        CompletableFuture<Void> first = gcJob.waitForRun();
+        gcJob.start();
+        first.join();
+        verify(large).runGC(any());
+        verify(small, never()).runGC(any());
+        CompletableFuture<Void> next = gcJob.waitForRun();
+        checked.countDown();
+        /* Still queued, so GCed as soon as there's budget again */
+        next.join();
+        verify(small).runGC(any());
+    }
+
+    private static GcJobConfig config(int numWorkers, Long maxBytesPerRun) {
+        return new GcJobConfig(
+                5L,
+                numWorkers,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                maxBytesPerRun,
+                null
+        );
+    }
+
+    private static ProjectRepo mockRepoWithGarbage(
+            long numLooseObjects,
+            long sizeOfLooseObjects
+    ) throws IOException {
+        ProjectRepo repo = mock(ProjectRepo.class);
+        GC.RepoStatistics stats = new GC.RepoStatistics();
+        stats.numberOfLooseObjects = numLooseObjects;
+        stats.sizeOfLooseObjects = sizeOfLooseObjects;
+        when(repo.getRepoStatistics()).thenReturn(stats);
+        return repo;
+    }
+
 }
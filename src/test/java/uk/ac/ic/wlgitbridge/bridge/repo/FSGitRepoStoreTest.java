@@ -90,4 +90,44 @@ public class FSGitRepoStoreTest {
         assertTrue(Files.contentsAreEqual(expected, actual));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void initRepoFromExistingLinksObjectsAndCopiesTheRest()
+            throws IOException {
+        repoStore.initRepoFromExisting("proj3", "proj1");
+        File source = new File(repoStore.getRootDirectory(), "proj1");
+        File fork = new File(repoStore.getRootDirectory(), "proj3");
+        assertTrue(Files.contentsAreEqual(source, fork));
+        Path object = Paths.get(
+                ".git", "objects", "f2", "7f21327e2f0f53e9d8afab217fedaeea6a1cee"
+        );
+        assertTrue(java.nio.file.Files.isSameFile(
+                source.toPath().resolve(object),
+                fork.toPath().resolve(object)
+        ));
+        Path head = Paths.get(".git", "HEAD");
+        assertFalse(java.nio.file.Files.isSameFile(
+                source.toPath().resolve(head),
+                fork.toPath().resolve(head)
+        ));
+    }
+
+    @Test
+    public void forkedObjectsAreOnlyCountedOnceInTheTotalSize()
+            throws IOException {
+        File source = new File(repoStore.getRootDirectory(), "proj1");
+        long sourceSize = repoStore.sizeOfProject("proj1");
+        File objects = source.toPath().resolve(
+                Paths.get(".git", "objects")
+        ).toFile();
+        long objectsSize = FileUtils.sizeOfDirectory(objects);
+        long numObjectFiles = FileUtils.listFiles(objects, null, true).size();
+        assertTrue(objectsSize > 0);
+        repoStore.initRepoFromExisting("proj3", "proj1");
+        long total = repoStore.sizeOfProject("proj1")
+                + repoStore.sizeOfProject("proj3");
+        /* Only the files that aren't objects are counted twice, give or
+           take a byte per object file shared between the two */
+        assertEquals(2 * sourceSize - objectsSize, total, numObjectFiles);
+    }
+
+}
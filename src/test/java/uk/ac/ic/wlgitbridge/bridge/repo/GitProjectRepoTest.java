@@ -2,6 +2,10 @@ package uk.ac.ic.wlgitbridge.bridge.repo;
 
 import com.google.api.client.repackaged.com.google.common.base.Preconditions;
 import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -9,6 +13,7 @@ import org.junit.rules.TemporaryFolder;
 import uk.ac.ic.wlgitbridge.data.filestore.GitDirectoryContents;
 import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
 import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 import uk.ac.ic.wlgitbridge.snapshot.servermock.util.FileUtil;
 import uk.ac.ic.wlgitbridge.util.Files;
 
@@ -162,7 +167,7 @@ public class GitProjectRepoTest {
     @Test
     public void runGCReducesTheSizeOfARepoWithGarbage() throws IOException {
         long beforeSize = repoSize(repo);
-        repo.runGC();
+        repo.runGC(new PackConfig());
         long afterSize = repoSize(repo);
         assertThat(beforeSize, lessThan(afterSize));
 
@@ -170,9 +175,9 @@ public class GitProjectRepoTest {
 
     @Test
     public void runGCDoesNothingOnARepoWithoutGarbage() throws IOException {
-        repo.runGC();
+        repo.runGC(new PackConfig());
         long beforeSize = repoSize(repo);
-        repo.runGC();
+        repo.runGC(new PackConfig());
         long afterSize = repoSize(repo);
         assertThat(beforeSize, equalTo(afterSize));
     }
@@ -197,4 +202,77 @@ public class GitProjectRepoTest {
         assertTrue(FileUtil.directoryDeepEquals(actual, expected));
     }
 
+    @Test
+    public void commitBatchWritesOnePackAndMovesHeadOnFlush()
+            throws IOException, GitUserException {
+        assertCommitBatchWritesOnePack(false);
+    }
+
+    @Test
+    public void deltaCompressedCommitBatchWritesOnePackAndMovesHeadOnFlush()
+            throws IOException, GitUserException {
+        assertCommitBatchWritesOnePack(true);
+    }
+
+    private void assertCommitBatchWritesOnePack(
+            boolean deltaCompression
+    ) throws IOException, GitUserException {
+        Repository jgitRepo = repo.getJGitRepository();
+        ObjectId headBefore = jgitRepo.resolve("HEAD");
+        Set<String> filesBefore = repo.getDirectory().getFileTable().keySet();
+        GC.RepoStatistics before = repo.getRepoStatistics();
+        try (CommitBatch batch = repo.beginCommitBatch(deltaCompression)) {
+            assertEquals(
+                    filesBefore,
+                    new HashSet<>(batch.commitAndGetMissing(
+                            makeDirContents("main.tex", "version 1\n")
+                    ))
+            );
+            assertEquals(headBefore, jgitRepo.resolve("HEAD"));
+            assertEquals(
+                    Collections.emptySet(),
+                    new HashSet<>(batch.commitAndGetMissing(
+                            makeDirContents(
+                                    "main.tex", "version 2\n",
+                                    "sub/other.tex", "other\n"
+                            )
+                    ))
+            );
+            assertEquals(
+                    new HashSet<>(Arrays.asList("main.tex", "sub/other.tex")),
+                    batch.getDirectory().getFileTable().keySet()
+            );
+            batch.flush();
+        }
+        GC.RepoStatistics after = repo.getRepoStatistics();
+        assertEquals(before.numberOfLooseObjects, after.numberOfLooseObjects);
+        assertEquals(before.numberOfPackFiles + 1, after.numberOfPackFiles);
+        Map<String, RawFile> files = repo.getDirectory().getFileTable();
+        assertEquals(
+                "version 2\n",
+                new String(
+                        files.get("main.tex").getContents(),
+                        StandardCharsets.UTF_8
+                )
+        );
+        assertEquals(
+                headBefore,
+                jgitRepo.resolve("HEAD~2")
+        );
+    }
+
+    @Test
+    public void commitBatchClosedWithoutFlushingLeavesTheRepoAlone()
+            throws IOException {
+        ObjectId headBefore = repo.getJGitRepository().resolve("HEAD");
+        GC.RepoStatistics before = repo.getRepoStatistics();
+        try (CommitBatch batch = repo.beginCommitBatch(false)) {
+            batch.commitAndGetMissing(makeDirContents("main.tex", "lost\n"));
+        }
+        GC.RepoStatistics after = repo.getRepoStatistics();
+        assertEquals(headBefore, repo.getJGitRepository().resolve("HEAD"));
+        assertEquals(before.numberOfLooseObjects, after.numberOfLooseObjects);
+        assertEquals(before.numberOfPackFiles, after.numberOfPackFiles);
+    }
+
 }
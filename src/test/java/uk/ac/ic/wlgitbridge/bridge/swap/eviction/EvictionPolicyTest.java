@@ -0,0 +1,144 @@
+package uk.ac.ic.wlgitbridge.bridge.swap.eviction;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EvictionPolicyTest {
+
+    private static final long NOW = 1_000_000;
+
+    /* Accessed long ago, but often */
+    private final SwapCandidate oldSmallPopular =
+            new SwapCandidate("old-small-popular", NOW - 1000, 10, 50);
+
+    private final SwapCandidate newLarge =
+            new SwapCandidate("new-large", NOW - 100, 1000, 1);
+
+    private final SwapCandidate newest =
+            new SwapCandidate("newest", NOW - 10, 10, 1);
+
+    private final List<SwapCandidate> candidates =
+            Arrays.asList(newest, newLarge, oldSmallPopular);
+
+    private static List<String> names(List<SwapCandidate> ranked) {
+        return ranked.stream(
+        ).map(SwapCandidate::getProjectName).collect(Collectors.toList());
+    }
+
+    @Test
+    public void allNamedPoliciesExist() {
+        for (String name : EvictionPolicy.NAMES) {
+            assertNotNull(name, EvictionPolicy.fromName(name));
+        }
+        assertNull(EvictionPolicy.fromName("random"));
+    }
+
+    @Test
+    public void lruEvictsTheOldestFirst() {
+        assertEquals(
+                Arrays.asList("old-small-popular", "new-large", "newest"),
+                names(new LruEvictionPolicy().rank(candidates, NOW))
+        );
+    }
+
+    @Test
+    public void sizeWeightedLruEvictsTheMostStaleBytesFirst() {
+        assertEquals(
+                Arrays.asList("new-large", "old-small-popular", "newest"),
+                names(new SizeWeightedLruEvictionPolicy().rank(candidates, NOW))
+        );
+    }
+
+    @Test
+    public void lfuEvictsTheLeastFrequentFirstAndForgetsOldAccesses() {
+        EvictionPolicy lfu = new LfuEvictionPolicy(1000);
+        assertEquals(
+                Arrays.asList("new-large", "newest", "old-small-popular"),
+                names(lfu.rank(candidates, NOW))
+        );
+        /* Ten half-lives later, the old accesses are worth less than a few
+           recent ones */
+        SwapCandidate accessedAgain = new SwapCandidate(
+                "newest", NOW + 10_000, 10, 3
+        );
+        assertEquals(
+                Arrays.asList("new-large", "old-small-popular", "newest"),
+                names(lfu.rank(
+                        Arrays.asList(
+                                accessedAgain,
+                                newLarge,
+                                oldSmallPopular
+                        ),
+                        NOW + 10_000
+                ))
+        );
+    }
+
+    @Test
+    public void gdsEvictsLargeProjectsFirstAndAgesOutTheRest() {
+        EvictionPolicy gds = new GreedyDualSizeEvictionPolicy();
+        List<SwapCandidate> ranked = gds.rank(candidates, NOW);
+        assertEquals(
+                Arrays.asList("new-large", "old-small-popular", "newest"),
+                names(ranked)
+        );
+        gds.onEvicted(ranked.get(0));
+        /* Projects accessed after the eviction are valued above the ones
+           of the same size that haven't been accessed since */
+        SwapCandidate fresh = new SwapCandidate("fresh", NOW + 10, 10, 1);
+        SwapCandidate accessedAgain = new SwapCandidate(
+                "new-large", NOW + 10, 1000, 2
+        );
+        assertEquals(
+                Arrays.asList(
+                        "new-large",
+                        "old-small-popular",
+                        "newest",
+                        "fresh"
+                ),
+                names(gds.rank(
+                        Arrays.asList(
+                                fresh,
+                                newest,
+                                accessedAgain,
+                                oldSmallPopular
+                        ),
+                        NOW + 10
+                ))
+        );
+    }
+
+    @Test
+    public void simulatorCountsSwapInsAndBytesMoved() throws IOException {
+        List<EvictionSimulator.Access> trace = EvictionSimulator.readTrace(
+                new StringReader(
+                        "# time project size\n" +
+                        "0 a 60\n" +
+                        "1 b 60\n" +
+                        "\n" +
+                        "20 b 60\n" +
+                        "30 a 60\n"
+                )
+        );
+        /* At time 10, a and b are over the high watermark, and a is older,
+           so it is swapped until it is accessed again at time 30 */
+        EvictionSimulator.Result result = new EvictionSimulator(
+                100, 100, 10, 0
+        ).run(new LruEvictionPolicy(), trace);
+        assertEquals(4, result.getAccesses());
+        assertEquals(1, result.getSwapIns());
+        assertEquals(0.25, result.getSwapInRate(), 0);
+        assertEquals(60, result.getBytesRestored());
+        assertEquals(60, result.getBytesEvicted());
+    }
+
+}
@@ -10,19 +10,35 @@ import uk.ac.ic.wlgitbridge.bridge.db.sqlite.SqliteDBStore;
 import uk.ac.ic.wlgitbridge.bridge.lock.ProjectLock;
 import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStore;
 import uk.ac.ic.wlgitbridge.bridge.repo.FSGitRepoStoreTest;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoPackFile;
 import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.LruEvictionPolicy;
+import uk.ac.ic.wlgitbridge.bridge.swap.eviction.SwapCandidate;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.InMemorySwapStore;
 import uk.ac.ic.wlgitbridge.bridge.swap.store.SwapStore;
 import uk.ac.ic.wlgitbridge.data.ProjectLockImpl;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
 
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * Created by winston on 20/08/2016.
@@ -134,6 +150,36 @@ public class SwapJobImplTest {
         assertEquals("proj2", dbStore.getOldestUnswappedProject());
     }
 
+    @Test
+    public void projectAccessedSinceItWasRankedIsNotEvicted() {
+        swapJob = new SwapJobImpl(
+                1,
+                16384,
+                30000,
+                Duration.ofHours(1),
+                SwapJob.CompressionMethod.Bzip2,
+                (candidates, nowMillis) -> {
+                    List<SwapCandidate> ranked = new LruEvictionPolicy(
+                    ).rank(candidates, nowMillis);
+                    /* proj2 is fetched while the run goes on */
+                    dbStore.setLastAccessedTime(
+                            "proj2",
+                            Timestamp.valueOf(LocalDateTime.now())
+                    );
+                    return ranked;
+                },
+                lock,
+                repoStore,
+                dbStore,
+                swapStore
+        );
+        swapJob.start();
+        do { waitASecond(); } while (swapJob.swaps.get() < 1);
+        assertEquals(1, dbStore.getNumUnswappedProjects());
+        assertEquals("proj2", dbStore.getOldestUnswappedProject());
+        assertEquals("bzip2", dbStore.getSwapCompression("proj1"));
+    }
+
     @Test
     public void swapCompressionGzip() throws IOException {
         swapJob = new SwapJobImpl(
@@ -163,4 +209,58 @@ public class SwapJobImplTest {
         assertEquals("proj2", dbStore.getOldestUnswappedProject());
     }
 
+    @Test
+    public void swapCompressionPackStoresSharedPacksOnce(
+    ) throws IOException, GitUserException {
+        repoStore.gcProject("proj1");
+        repoStore.initRepoFromExisting("proj3", "proj1");
+        dbStore.setLatestVersionForProject("proj3", 0);
+        dbStore.setLastAccessedTime(
+                "proj3",
+                Timestamp.valueOf(LocalDateTime.now())
+        );
+        Set<String> packKeys = contentKeys(repoStore.getPackFiles("proj3"));
+        assertFalse(packKeys.isEmpty());
+        swapStore = spy(swapStore);
+        swapJob = new SwapJobImpl(
+                1,
+                15000,
+                30000,
+                Duration.ofMillis(100),
+                SwapJob.CompressionMethod.Pack,
+                lock,
+                repoStore,
+                dbStore,
+                swapStore
+        );
+        swapJob.evict("proj1");
+        swapJob.evict("proj3");
+        assertEquals("pack", dbStore.getSwapCompression("proj3"));
+        for (String key : packKeys) {
+            verify(swapStore, times(1)).upload(
+                    eq("packs/" + key),
+                    any(),
+                    anyLong()
+            );
+        }
+        swapJob.restore("proj1");
+        verify(swapStore, never()).remove(startsWith("packs/"));
+        assertEquals(packKeys, contentKeys(repoStore.getPackFiles("proj1")));
+        swapJob.restore("proj3");
+        for (String key : packKeys) {
+            verify(swapStore).remove("packs/" + key);
+        }
+        assertEquals(packKeys, contentKeys(repoStore.getPackFiles("proj3")));
+        assertFalse(
+                repoStore.getExistingRepo(
+                        "proj3"
+                ).getDirectory().getFileTable().isEmpty()
+        );
+    }
+
+    private static Set<String> contentKeys(List<RepoPackFile> packFiles) {
+        return packFiles.stream(
+        ).map(RepoPackFile::getContentKey).collect(Collectors.toSet());
+    }
+
 }
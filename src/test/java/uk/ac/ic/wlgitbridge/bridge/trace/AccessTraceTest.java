@@ -0,0 +1,193 @@
+package uk.ac.ic.wlgitbridge.bridge.trace;
+
+import com.google.gson.JsonObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AccessTraceTest {
+
+    private TemporaryFolder tmpFolder;
+
+    @Before
+    public void setup() throws IOException {
+        tmpFolder = new TemporaryFolder();
+        tmpFolder.create();
+    }
+
+    @Test
+    public void recordedEventsCanBeReadBack() throws IOException {
+        File file = new File(tmpFolder.getRoot(), "trace.bin");
+        long before = System.currentTimeMillis();
+        AccessTraceRecorder recorder = new FileAccessTraceRecorder(file);
+        recorder.record(
+                AccessEvent.Type.GET_UPDATED_REPO,
+                "proj1",
+                1000,
+                TimeUnit.MILLISECONDS.toNanos(12)
+        );
+        recorder.record(AccessEvent.Type.PUSH, "proj2", -1, 0);
+        recorder.record(
+                AccessEvent.Type.EVICT,
+                "proj1",
+                1L << 40,
+                TimeUnit.SECONDS.toNanos(3)
+        );
+        recorder.close();
+        long after = System.currentTimeMillis();
+        List<AccessEvent> events =
+                AccessTraceReader.readAll(new FileInputStream(file));
+        assertEquals(3, events.size());
+        assertEquals(AccessEvent.Type.GET_UPDATED_REPO, events.get(0).getType());
+        assertEquals("proj1", events.get(0).getProjectName());
+        assertEquals(1000, events.get(0).getSizeBytes());
+        assertEquals(12000, events.get(0).getDurationMicros());
+        assertEquals("proj2", events.get(1).getProjectName());
+        assertEquals(-1, events.get(1).getSizeBytes());
+        assertEquals("proj1", events.get(2).getProjectName());
+        assertEquals(1L << 40, events.get(2).getSizeBytes());
+        assertEquals(3000000, events.get(2).getDurationMicros());
+        for (AccessEvent event : events) {
+            assertTrue(event.getTimeMillis() >= before);
+            assertTrue(event.getTimeMillis() <= after);
+        }
+        /* Project names are only written once */
+        assertTrue(file.length() < 64);
+    }
+
+    @Test
+    public void reopeningATraceAppendsToIt() throws IOException {
+        File file = new File(tmpFolder.getRoot(), "trace.bin");
+        AccessTraceRecorder recorder = new FileAccessTraceRecorder(file);
+        recorder.record(AccessEvent.Type.GC, "proj1", 10, 0);
+        recorder.close();
+        recorder = new FileAccessTraceRecorder(file);
+        recorder.record(AccessEvent.Type.RESTORE, "proj2", 20, 0);
+        recorder.record(AccessEvent.Type.PUSH, "proj1", 30, 0);
+        recorder.close();
+        List<AccessEvent> events =
+                AccessTraceReader.readAll(new FileInputStream(file));
+        assertEquals(3, events.size());
+        assertEquals("proj1", events.get(0).getProjectName());
+        assertEquals("proj2", events.get(1).getProjectName());
+        assertEquals("proj1", events.get(2).getProjectName());
+        assertEquals(AccessEvent.Type.PUSH, events.get(2).getType());
+        assertEquals(30, events.get(2).getSizeBytes());
+    }
+
+    @Test
+    public void partlyWrittenEventIsCutOffWhenReopened() throws IOException {
+        File file = new File(tmpFolder.getRoot(), "trace.bin");
+        AccessTraceRecorder recorder = new FileAccessTraceRecorder(file);
+        recorder.record(AccessEvent.Type.GC, "proj1", 10, 0);
+        recorder.close();
+        long length = file.length();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            /* A push killed partway through its time */
+            out.write(new byte[] {
+                    (byte) AccessEvent.Type.PUSH.ordinal(),
+                    (byte) 0x80
+            });
+        }
+        assertEquals(
+                1,
+                AccessTraceReader.readAll(new FileInputStream(file)).size()
+        );
+        recorder = new FileAccessTraceRecorder(file);
+        recorder.record(AccessEvent.Type.RESTORE, "proj2", 20, 0);
+        recorder.close();
+        List<AccessEvent> events =
+                AccessTraceReader.readAll(new FileInputStream(file));
+        assertEquals(2, events.size());
+        assertEquals("proj1", events.get(0).getProjectName());
+        assertEquals(AccessEvent.Type.RESTORE, events.get(1).getType());
+        assertEquals("proj2", events.get(1).getProjectName());
+        assertEquals(20, events.get(1).getSizeBytes());
+        assertTrue(file.length() > length);
+    }
+
+    @Test
+    public void eventsAreFlushedWithoutMoreBeingRecorded() throws Exception {
+        File file = new File(tmpFolder.getRoot(), "trace.bin");
+        AccessTraceRecorder recorder = new FileAccessTraceRecorder(file);
+        try {
+            recorder.record(AccessEvent.Type.GC, "proj1", 10, 0);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (AccessTraceReader.readAll(
+                    new FileInputStream(file)).isEmpty()) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(50);
+            }
+        } finally {
+            recorder.close();
+        }
+    }
+
+    @Test
+    public void replayDrivesTheBridgeWithTheTracedAccesses() throws Exception {
+        JsonObject config = new JsonObject();
+        config.addProperty("port", 0);
+        config.addProperty("bindIp", "127.0.0.1");
+        config.addProperty("idleTimeout", 0);
+        config.addProperty("rootGitDirectory", "");
+        config.addProperty("apiBaseUrl", "");
+        config.addProperty("postbackBaseUrl", "http://127.0.0.1/");
+        config.addProperty("serviceName", "Overleaf");
+        List<AccessEvent> events = Arrays.asList(
+                new AccessEvent(
+                        AccessEvent.Type.GET_UPDATED_REPO,
+                        1000,
+                        "proj1",
+                        2000,
+                        0
+                ),
+                new AccessEvent(
+                        AccessEvent.Type.GET_UPDATED_REPO,
+                        2000,
+                        "proj2",
+                        5000,
+                        0
+                ),
+                new AccessEvent(AccessEvent.Type.PUSH, 3000, "proj1", 3000, 0),
+                new AccessEvent(AccessEvent.Type.EVICT, 4000, "proj2", 5000, 0),
+                new AccessEvent(
+                        AccessEvent.Type.GET_UPDATED_REPO,
+                        5000,
+                        "proj1",
+                        3000,
+                        0
+                )
+        );
+        AccessTraceReplay.Report report = new AccessTraceReplay(
+                config,
+                tmpFolder.newFolder("replay"),
+                0
+        ).replay(events);
+        assertEquals(4, report.getAccesses());
+        assertEquals(0, report.getFailedAccesses());
+        assertEquals(1, report.getRecorded(AccessEvent.Type.EVICT));
+        /* The push is replayed as a new version to get */
+        assertEquals(1, report.getRecorded(AccessEvent.Type.PUSH));
+        assertEquals(0, report.getReplayed(AccessEvent.Type.PUSH));
+        assertEquals(
+                4,
+                report.getReplayed(AccessEvent.Type.GET_UPDATED_REPO)
+        );
+        assertTrue(report.getFinalBytesOnDisk() > 5000);
+        assertTrue(
+                report.getPeakBytesOnDisk() >= report.getFinalBytesOnDisk()
+        );
+    }
+
+}
@@ -0,0 +1,68 @@
+package uk.ac.ic.wlgitbridge.data;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+import uk.ac.ic.wlgitbridge.data.filestore.RawFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CandidateSnapshotTest {
+
+    @Test
+    public void smallChangedFilesAreSentInline() {
+        Map<String, RawFile> oldFiles = new HashMap<>();
+        oldFiles.put("same.tex", new RepositoryFile("same.tex", bytes(10)));
+        oldFiles.put("main.tex", new RepositoryFile("main.tex", bytes(10)));
+        Map<String, RawFile> newFiles = new HashMap<>(oldFiles);
+        byte[] small = bytes(16);
+        newFiles.put("main.tex", new RepositoryFile("main.tex", small));
+        newFiles.put("big.png", new RepositoryFile("big.png", bytes(17)));
+        CandidateSnapshot candidate = new CandidateSnapshot(
+                "proj",
+                1,
+                new RawDirectory(newFiles),
+                new RawDirectory(oldFiles),
+                16
+        );
+        JsonArray files = candidate.getJsonRepresentation(
+                "key"
+        ).getAsJsonObject().getAsJsonArray("files");
+        Map<String, JsonObject> byName = new HashMap<>();
+        files.forEach(f -> byName.put(
+                f.getAsJsonObject().get("name").getAsString(),
+                f.getAsJsonObject()
+        ));
+        assertEquals(3, byName.size());
+        JsonObject same = byName.get("same.tex");
+        assertFalse(same.has("url"));
+        assertFalse(same.has("content"));
+        JsonObject main = byName.get("main.tex");
+        assertFalse(main.has("url"));
+        assertEquals("base64", main.get("encoding").getAsString());
+        assertEquals(
+                Base64.getEncoder().encodeToString(small),
+                main.get("content").getAsString()
+        );
+        JsonObject big = byName.get("big.png");
+        assertFalse(big.has("content"));
+        assertTrue(big.get("url").getAsString().endsWith("?key=key"));
+    }
+
+    private static byte[] bytes(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            bytes[i] = (byte) (size + i);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,215 @@
+package uk.ac.ic.wlgitbridge.git.handler;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.eclipse.jgit.util.FileUtils;
+import uk.ac.ic.wlgitbridge.bridge.gc.GcJobConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a fresh clone of a large synthetic project costs the server:
+ * finding the objects to send and writing them as a pack, with the default
+ * pack config that {@link WLUploadPackFactory} serves with. It is run once
+ * after a GC without a bitmap index, and once after a GC with one, as the GC
+ * job does.
+ *
+ * The project has the given number of commits, each of which edits a line
+ * in a few of its files.
+ *
+ * Run with:
+ *
+ *     mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ *     java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *         uk.ac.ic.wlgitbridge.git.handler.CloneBenchmark \
+ *         [commits] [files] [linesPerFile] [runs]
+ */
+public class CloneBenchmark {
+
+    private static final int EDITS_PER_COMMIT = 3;
+
+    public static void main(String[] args)
+            throws IOException, ParseException {
+        int commits = intArg(args, 0, 2000);
+        int files = intArg(args, 1, 200);
+        int linesPerFile = intArg(args, 2, 100);
+        int runs = intArg(args, 3, 5);
+        File dir = Files.createTempDirectory("clone-benchmark").toFile();
+        try (FileRepository repo = new FileRepository(new File(dir, ".git"))) {
+            repo.create();
+            long start = System.nanoTime();
+            ObjectId head = generate(repo, commits, files, linesPerFile);
+            System.out.printf(
+                    "Generated %d commits of %d files in %d ms%n",
+                    commits,
+                    files,
+                    millisSince(start)
+            );
+            for (boolean bitmaps : new boolean[] {false, true}) {
+                start = System.nanoTime();
+                gc(repo, bitmaps);
+                System.out.printf(
+                        "GC %s bitmaps took %d ms%n",
+                        bitmaps ? "with" : "without",
+                        millisSince(start)
+                );
+                long best = Long.MAX_VALUE;
+                long packBytes = 0;
+                for (int i = 0; i < runs; ++i) {
+                    start = System.nanoTime();
+                    packBytes = clone(repo, head);
+                    best = Math.min(best, millisSince(start));
+                }
+                System.out.printf(
+                        "Clone %s bitmaps: %d ms (best of %d), %d byte pack%n",
+                        bitmaps ? "with" : "without",
+                        best,
+                        runs,
+                        packBytes
+                );
+            }
+        } finally {
+            FileUtils.delete(dir, FileUtils.RECURSIVE | FileUtils.RETRY);
+        }
+    }
+
+    private static ObjectId generate(
+            FileRepository repo,
+            int commits,
+            int files,
+            int linesPerFile
+    ) throws IOException {
+        Random random = new Random(42);
+        String[][] contents = new String[files][linesPerFile];
+        ObjectId[] blobs = new ObjectId[files];
+        ObjectId head = null;
+        PersonIdent ident = new PersonIdent("benchmark", "bench@example.com");
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            for (int f = 0; f < files; ++f) {
+                for (int l = 0; l < linesPerFile; ++l) {
+                    contents[f][l] = randomLine(random);
+                }
+                blobs[f] = insertFile(inserter, contents[f]);
+            }
+            for (int c = 0; c < commits; ++c) {
+                for (int e = 0; e < EDITS_PER_COMMIT; ++e) {
+                    int f = random.nextInt(files);
+                    contents[f][random.nextInt(linesPerFile)] =
+                            randomLine(random);
+                    blobs[f] = insertFile(inserter, contents[f]);
+                }
+                TreeFormatter tree = new TreeFormatter();
+                for (int f = 0; f < files; ++f) {
+                    tree.append(
+                            String.format("file%06d.tex", f),
+                            FileMode.REGULAR_FILE,
+                            blobs[f]
+                    );
+                }
+                CommitBuilder commit = new CommitBuilder();
+                commit.setTreeId(inserter.insert(tree));
+                if (head != null) {
+                    commit.setParentId(head);
+                }
+                commit.setAuthor(ident);
+                commit.setCommitter(ident);
+                commit.setMessage("Commit " + c);
+                head = inserter.insert(commit);
+            }
+            inserter.flush();
+        }
+        RefUpdate update = repo.updateRef(Constants.R_HEADS + "master");
+        update.setNewObjectId(head);
+        update.forceUpdate();
+        return head;
+    }
+
+    private static ObjectId insertFile(
+            ObjectInserter inserter,
+            String[] lines
+    ) throws IOException {
+        return inserter.insert(
+                Constants.OBJ_BLOB,
+                String.join("\n", lines).getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    private static String randomLine(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 5 + random.nextInt(10);
+        for (int w = 0; w < words; ++w) {
+            sb.append(Long.toString(random.nextLong() & 0xffffff, 36));
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    private static void gc(
+            FileRepository repo,
+            boolean bitmaps
+    ) throws IOException, ParseException {
+        PackConfig packConfig = new GcJobConfig().makePackConfig();
+        packConfig.setBuildBitmaps(bitmaps);
+        GC gc = new GC(repo);
+        gc.setPackConfig(packConfig);
+        gc.gc();
+    }
+
+    /**
+     * Writes the pack of a clone, like upload-pack does, to nowhere.
+     * @return the size of the pack
+     */
+    private static long clone(
+            FileRepository repo,
+            ObjectId head
+    ) throws IOException {
+        CountingOutputStream out =
+                new CountingOutputStream(ByteStreams.nullOutputStream());
+        try (PackWriter writer = new PackWriter(
+                new PackConfig(repo),
+                repo.newObjectReader())) {
+            writer.setUseCachedPacks(true);
+            writer.setUseBitmaps(true);
+            writer.preparePack(
+                    NullProgressMonitor.INSTANCE,
+                    Collections.singleton(head),
+                    Collections.emptySet()
+            );
+            writer.writePack(
+                    NullProgressMonitor.INSTANCE,
+                    NullProgressMonitor.INSTANCE,
+                    out
+            );
+        }
+        return out.getCount();
+    }
+
+    private static int intArg(String[] args, int i, int defaultValue) {
+        return args.length > i ? Integer.parseInt(args[i]) : defaultValue;
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+}
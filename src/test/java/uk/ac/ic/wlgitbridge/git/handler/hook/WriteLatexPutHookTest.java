@@ -0,0 +1,173 @@
+package uk.ac.ic.wlgitbridge.git.handler.hook;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.ReceivePack;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.bridge.repo.ProjectRepo;
+import uk.ac.ic.wlgitbridge.bridge.repo.RepoStore;
+import uk.ac.ic.wlgitbridge.data.filestore.RawDirectory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class WriteLatexPutHookTest {
+
+    @Rule
+    public final TemporaryFolder tmpFolder = new TemporaryFolder();
+
+    private final RepoStore repoStore = mock(RepoStore.class);
+    private final Bridge bridge = mock(Bridge.class);
+    private final ReceivePack receivePack = mock(ReceivePack.class);
+    private final WriteLatexPutHook hook = new WriteLatexPutHook(
+            repoStore,
+            bridge,
+            "localhost",
+            Optional.empty()
+    );
+
+    private Repository repository;
+
+    @Before
+    public void setup() throws Exception {
+        repository = Git.init().setDirectory(
+                tmpFolder.newFolder("proj")
+        ).call().getRepository();
+        when(receivePack.getRepository()).thenReturn(repository);
+        when(repoStore.getMaxFileSize()).thenReturn(20L);
+    }
+
+    @After
+    public void teardown() {
+        repository.close();
+    }
+
+    @Test
+    public void forcedPushIsRejectedBeforeAnyUpload() throws Exception {
+        ReceiveCommand command = new ReceiveCommand(
+                commit(1),
+                commit(2),
+                "refs/heads/master",
+                ReceiveCommand.Type.UPDATE_NONFASTFORWARD
+        );
+        hook.onPreReceive(receivePack, Collections.singletonList(command));
+        assertRejected(command, "forced push prohibited");
+        assertNothingLoadedOrPushed();
+    }
+
+    @Test
+    public void pushToAnotherBranchIsRejectedBeforeAnyUpload()
+            throws Exception {
+        ReceiveCommand command = new ReceiveCommand(
+                ObjectId.zeroId(),
+                commit(1),
+                "refs/heads/other"
+        );
+        hook.onPreReceive(receivePack, Collections.singletonList(command));
+        assertRejected(command, "wrong branch");
+        assertNothingLoadedOrPushed();
+    }
+
+    @Test
+    public void overLimitPushIsRejectedWithoutLoadingItsTree()
+            throws Exception {
+        ReceiveCommand command = new ReceiveCommand(
+                ObjectId.zeroId(),
+                commit(1, 21),
+                "refs/heads/master"
+        );
+        hook.onPreReceive(receivePack, Collections.singletonList(command));
+        assertRejected(command, "file too big");
+        assertNothingLoadedOrPushed();
+    }
+
+    @Test
+    public void pushWithinTheLimitsIsSentToOverleaf() throws Exception {
+        ObjectId commit = commit(1, 20);
+        ProjectRepo pushed = mock(ProjectRepo.class);
+        RawDirectory contents = mock(RawDirectory.class);
+        when(pushed.getDirectory()).thenReturn(contents);
+        when(repoStore.useJGitRepo(eq(repository), any())).thenReturn(pushed);
+        ReceiveCommand command = new ReceiveCommand(
+                ObjectId.zeroId(),
+                commit,
+                "refs/heads/master"
+        );
+        hook.onPreReceive(receivePack, Collections.singletonList(command));
+        verify(repoStore).useJGitRepo(repository, commit);
+        verify(bridge).push(
+                Optional.empty(),
+                "proj",
+                contents,
+                contents,
+                "localhost"
+        );
+        assertEquals(ReceiveCommand.Result.NOT_ATTEMPTED, command.getResult());
+    }
+
+    private void assertRejected(ReceiveCommand command, String message) {
+        assertEquals(
+                ReceiveCommand.Result.REJECTED_OTHER_REASON,
+                command.getResult()
+        );
+        assertEquals(message, command.getMessage());
+        verify(receivePack).sendError(message);
+    }
+
+    private void assertNothingLoadedOrPushed() throws Exception {
+        verify(repoStore, never()).useJGitRepo(any(), any());
+        verify(bridge, never()).push(
+                any(),
+                anyString(),
+                any(),
+                any(),
+                anyString()
+        );
+    }
+
+    /* Makes a commit of files named file0, file1... of the given sizes */
+    private ObjectId commit(int... sizes) throws IOException {
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            TreeFormatter tree = new TreeFormatter();
+            for (int i = 0; i < sizes.length; ++i) {
+                tree.append(
+                        "file" + i,
+                        FileMode.REGULAR_FILE,
+                        inserter.insert(Constants.OBJ_BLOB, new byte[sizes[i]])
+                );
+            }
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(tree));
+            PersonIdent ident = new PersonIdent("test", "test@example.com");
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+            return commitId;
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package uk.ac.ic.wlgitbridge.git.util;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.git.exception.FileLimitExceededException;
+import uk.ac.ic.wlgitbridge.git.exception.GitUserException;
+import uk.ac.ic.wlgitbridge.git.exception.SizeLimitExceededException;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PushPreflightValidatorTest {
+
+    private InMemoryRepository repo;
+
+    @Before
+    public void setup() {
+        repo = new InMemoryRepository(new DfsRepositoryDescription("test"));
+    }
+
+    @Test
+    public void pushWithinTheLimitsIsAccepted() throws Exception {
+        ObjectId commit = commit(10, 10, 20);
+        validate(new PushPreflightValidator(20, Optional.of(3L)), commit);
+    }
+
+    @Test
+    public void pushWithTooManyFilesIsRejected() throws Exception {
+        ObjectId commit = commit(1, 1, 1);
+        try {
+            validate(new PushPreflightValidator(20, Optional.of(2L)), commit);
+        } catch (FileLimitExceededException e) {
+            assertEquals(
+                    "repository contains more than the limit of 2 files",
+                    e.getDescriptionLines().get(0)
+            );
+            return;
+        }
+        throw new AssertionError("Too many files were accepted");
+    }
+
+    @Test
+    public void walkStopsOnceThereAreTooManyFiles() throws Exception {
+        /* The submodule sorts after the files, so is never reached */
+        ObjectId commit = commit(
+                new ObjectId[] { ObjectId.zeroId() },
+                1, 1, 1
+        );
+        try {
+            validate(new PushPreflightValidator(20, Optional.of(2L)), commit);
+        } catch (FileLimitExceededException e) {
+            return;
+        }
+        throw new AssertionError("Too many files were accepted");
+    }
+
+    @Test
+    public void pushWithATooLargeFileIsRejected() throws Exception {
+        ObjectId commit = commit(1, 21, 1);
+        try {
+            validate(new PushPreflightValidator(20, Optional.empty()), commit);
+        } catch (SizeLimitExceededException e) {
+            assertTrue(e.getDescriptionLines().get(0).startsWith(
+                    "File 'file1' is too large"
+            ));
+            return;
+        }
+        throw new AssertionError("Too large file was accepted");
+    }
+
+    private void validate(
+            PushPreflightValidator validator,
+            ObjectId commit
+    ) throws IOException, GitUserException {
+        try (ObjectReader reader = repo.newObjectReader()) {
+            validator.validate(reader, commit);
+        }
+    }
+
+    /* Makes a commit of files named file0, file1... of the given sizes */
+    private ObjectId commit(int... sizes) throws IOException {
+        return commit(new ObjectId[0], sizes);
+    }
+
+    /* As above, followed by submodules named sub0, sub1... at the commits */
+    private ObjectId commit(
+            ObjectId[] submodules,
+            int... sizes
+    ) throws IOException {
+        try (ObjectInserter inserter = repo.newObjectInserter()) {
+            TreeFormatter tree = new TreeFormatter();
+            for (int i = 0; i < sizes.length; ++i) {
+                tree.append(
+                        "file" + i,
+                        FileMode.REGULAR_FILE,
+                        inserter.insert(Constants.OBJ_BLOB, new byte[sizes[i]])
+                );
+            }
+            for (int i = 0; i < submodules.length; ++i) {
+                tree.append("sub" + i, FileMode.GITLINK, submodules[i]);
+            }
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(inserter.insert(tree));
+            PersonIdent ident = new PersonIdent("test", "test@example.com");
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+            return commitId;
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.api.client.auth.oauth2.TokenResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AccessTokenCacheTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private AccessTokenCache.TokenRequester requester(Long expiresInSeconds) {
+        return () -> new TokenResponse().setAccessToken(
+                "token" + requests.incrementAndGet()
+        ).setExpiresInSeconds(expiresInSeconds);
+    }
+
+    @Test
+    public void tokenIsRequestedOncePerCredentials() throws IOException {
+        AccessTokenCache cache = new AccessTokenCache(60000, 10);
+        assertEquals("token1", cache.getAccessToken(
+                "user", "pass", "1.2.3.4", requester(null)));
+        assertEquals("token1", cache.getAccessToken(
+                "user", "pass", "1.2.3.4", requester(null)));
+        assertEquals("token2", cache.getAccessToken(
+                "user", "other", "1.2.3.4", requester(null)));
+        assertEquals("token3", cache.getAccessToken(
+                "user", "pass", "5.6.7.8", requester(null)));
+        assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void revokedAndExpiredTokensAreRequestedAgain() throws IOException {
+        AccessTokenCache cache = new AccessTokenCache(60000, 10);
+        cache.getAccessToken("user", "pass", "ip", requester(null));
+        cache.invalidate("user", "pass", "ip");
+        assertEquals("token2", cache.getAccessToken(
+                "user", "pass", "ip", requester(0L)));
+        assertEquals("token3", cache.getAccessToken(
+                "user", "pass", "ip", requester(null)));
+    }
+
+    @Test
+    public void failedRequestsAreNotCachedAndSizeIsBounded(
+    ) throws IOException {
+        AccessTokenCache cache = new AccessTokenCache(60000, 2);
+        try {
+            cache.getAccessToken("user", "wrong", "ip", () -> {
+                throw new IOException("bad credentials");
+            });
+            fail("Failed token request was not thrown");
+        } catch (IOException e) {
+            assertEquals("bad credentials", e.getMessage());
+        }
+        assertEquals(0, cache.size());
+        for (int i = 0; i < 5; ++i) {
+            cache.getAccessToken("user" + i, "pass", "ip", requester(null));
+        }
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void cachedTokensCanBeLookedUpWithoutRequesting(
+    ) throws IOException {
+        AccessTokenCache cache = new AccessTokenCache(60000, 10);
+        assertEquals(
+                Optional.empty(),
+                cache.getCachedAccessToken("user", "pass", "ip")
+        );
+        cache.getAccessToken("user", "pass", "ip", requester(null));
+        assertEquals(
+                Optional.of("token1"),
+                cache.getCachedAccessToken("user", "pass", "ip")
+        );
+        cache.getAccessToken("other", "pass", "ip", requester(0L));
+        assertEquals(
+                Optional.empty(),
+                cache.getCachedAccessToken("other", "pass", "ip")
+        );
+        assertEquals(2, requests.get());
+    }
+
+}
@@ -0,0 +1,273 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AdmissionControlFilterTest {
+
+    private long now = 0;
+
+    private HttpServletRequest request(
+            String method,
+            String uri,
+            String ip,
+            String auth
+    ) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn(method);
+        when(request.getRequestURI()).thenReturn(uri);
+        when(request.getRemoteAddr()).thenReturn(ip);
+        when(request.getHeader("Authorization")).thenReturn(auth);
+        return request;
+    }
+
+    private HttpServletResponse response() throws Exception {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getWriter()).thenReturn(
+                new PrintWriter(new StringWriter())
+        );
+        return response;
+    }
+
+    @Test
+    public void operationsOverARateLimitAreRefusedUntilRefilled()
+            throws Exception {
+        AdmissionControlFilter filter = new AdmissionControlFilter(
+                new AdmissionConfig(
+                        null,
+                        null,
+                        new AdmissionConfig.RateLimit(2, 2),
+                        null,
+                        null,
+                        null,
+                        null
+                ),
+                () -> now
+        );
+        FilterChain chain = mock(FilterChain.class);
+        String refs = "/proj.git/info/refs";
+        for (int i = 0; i < 2; ++i) {
+            filter.doFilter(
+                    request("GET", refs, "1.2.3.4", null),
+                    response(),
+                    chain
+            );
+        }
+        HttpServletResponse limited = response();
+        filter.doFilter(request("GET", refs, "5.6.7.8", null), limited, chain);
+        verify(limited).setStatus(429);
+        verify(limited).setHeader("Retry-After", "30");
+        /* Only ref advertisements start operations */
+        filter.doFilter(
+                request("POST", "/proj.git/git-upload-pack", "1.2.3.4", null),
+                response(),
+                chain
+        );
+        /* Other projects have their own buckets */
+        filter.doFilter(
+                request("GET", "/other.git/info/refs", "1.2.3.4", null),
+                response(),
+                chain
+        );
+        now += TimeUnit.SECONDS.toNanos(30);
+        HttpServletResponse refilled = response();
+        filter.doFilter(request("GET", refs, "1.2.3.4", null), refilled, chain);
+        verify(refilled, never()).setStatus(429);
+        verify(chain, times(5)).doFilter(any(), any());
+    }
+
+    @Test
+    public void usersAreLimitedByTheirCredentials() throws Exception {
+        AdmissionControlFilter filter = new AdmissionControlFilter(
+                new AdmissionConfig(
+                        null,
+                        new AdmissionConfig.RateLimit(60, 1),
+                        null,
+                        null,
+                        null,
+                        null,
+                        null
+                ),
+                () -> now
+        );
+        FilterChain chain = mock(FilterChain.class);
+        String refs = "/proj.git/info/refs";
+        filter.doFilter(
+                request("GET", refs, "1.2.3.4", "Basic dXNlcjpwYXNz"),
+                response(),
+                chain
+        );
+        HttpServletResponse limited = response();
+        filter.doFilter(
+                request("GET", refs, "5.6.7.8", "Basic dXNlcjpwYXNz"),
+                limited,
+                chain
+        );
+        verify(limited).setStatus(429);
+        verify(limited).setHeader("Retry-After", "1");
+        /* Someone else can't use up the user's limit without the password */
+        filter.doFilter(
+                request("GET", refs, "1.2.3.4", "Basic dXNlcjp3cm9uZw=="),
+                response(),
+                chain
+        );
+        filter.doFilter(request("GET", refs, "1.2.3.4", null), response(), chain);
+        verify(chain, times(3)).doFilter(any(), any());
+    }
+
+    @Test
+    public void challengeForCredentialsIsNotCharged() throws Exception {
+        AdmissionControlFilter filter = new AdmissionControlFilter(
+                new AdmissionConfig(
+                        new AdmissionConfig.RateLimit(60, 1),
+                        null,
+                        new AdmissionConfig.RateLimit(60, 1),
+                        null,
+                        null,
+                        null,
+                        null
+                ),
+                () -> now
+        );
+        FilterChain chain = mock(FilterChain.class);
+        String refs = "/proj.git/info/refs";
+        /* Git asks for credentials, and then makes the request again */
+        HttpServletResponse challenge = response();
+        when(challenge.getStatus()).thenReturn(401);
+        filter.doFilter(
+                request("GET", refs, "1.2.3.4", null),
+                challenge,
+                chain
+        );
+        HttpServletResponse allowed = response();
+        when(allowed.getStatus()).thenReturn(200);
+        filter.doFilter(
+                request("GET", refs, "1.2.3.4", "Basic dXNlcjpwYXNz"),
+                allowed,
+                chain
+        );
+        verify(allowed, never()).setStatus(429);
+        /* Wrong credentials are charged, so guessing is still limited */
+        now += TimeUnit.MINUTES.toNanos(1);
+        HttpServletResponse wrong = response();
+        when(wrong.getStatus()).thenReturn(401);
+        filter.doFilter(
+                request("GET", refs, "1.2.3.4", "Basic dXNlcjp3cm9uZw=="),
+                wrong,
+                chain
+        );
+        HttpServletResponse limited = response();
+        filter.doFilter(
+                request("GET", refs, "1.2.3.4", "Basic dXNlcjpwYXNz"),
+                limited,
+                chain
+        );
+        verify(limited).setStatus(429);
+        verify(chain, times(3)).doFilter(any(), any());
+    }
+
+    @Test
+    public void forwardedForIsOnlyBelievedFromTrustedProxies()
+            throws Exception {
+        AdmissionControlFilter filter = new AdmissionControlFilter(
+                new AdmissionConfig(
+                        new AdmissionConfig.RateLimit(60, 1),
+                        null,
+                        null,
+                        null,
+                        null,
+                        null,
+                        Collections.singletonList("10.0.0.1")
+                ),
+                () -> now
+        );
+        FilterChain chain = mock(FilterChain.class);
+        String refs = "/proj.git/info/refs";
+        /* A client can't get a fresh bucket by making up addresses */
+        HttpServletRequest spoofed = request("GET", refs, "1.2.3.4", null);
+        when(spoofed.getHeader("X-Forwarded-For")).thenReturn("9.9.9.9");
+        filter.doFilter(spoofed, response(), chain);
+        HttpServletRequest respoofed = request("GET", refs, "1.2.3.4", null);
+        when(respoofed.getHeader("X-Forwarded-For")).thenReturn("8.8.8.8");
+        HttpServletResponse limited = response();
+        filter.doFilter(respoofed, limited, chain);
+        verify(limited).setStatus(429);
+        /* Behind the proxy, only the hop that it appended counts */
+        HttpServletRequest proxied = request("GET", refs, "10.0.0.1", null);
+        when(proxied.getHeader("X-Forwarded-For")).thenReturn(
+                "1.2.3.4, 5.6.7.8"
+        );
+        HttpServletResponse allowed = response();
+        filter.doFilter(proxied, allowed, chain);
+        verify(allowed, never()).setStatus(429);
+        HttpServletRequest reproxied = request("GET", refs, "10.0.0.1", null);
+        when(reproxied.getHeader("X-Forwarded-For")).thenReturn(
+                "7.7.7.7, 5.6.7.8"
+        );
+        HttpServletResponse relimited = response();
+        filter.doFilter(reproxied, relimited, chain);
+        verify(relimited).setStatus(429);
+        verify(chain, times(2)).doFilter(any(), any());
+    }
+
+    @Test
+    public void expensiveRequestsAreCappedSeparatelyFromCheapOnes()
+            throws Exception {
+        AdmissionControlFilter filter = new AdmissionControlFilter(
+                new AdmissionConfig(null, null, null, 1, 1, 5, null),
+                () -> now
+        );
+        HttpServletResponse[] busy = new HttpServletResponse[2];
+        FilterChain inner = mock(FilterChain.class);
+        FilterChain outer = mock(FilterChain.class);
+        /* While a push runs, another push and a fetch come in */
+        doAnswer(invocation -> {
+            busy[0] = response();
+            filter.doFilter(
+                    request("POST", "/b.git/git-receive-pack", "ip", null),
+                    busy[0],
+                    inner
+            );
+            busy[1] = response();
+            filter.doFilter(
+                    request("POST", "/b.git/git-upload-pack", "ip", null),
+                    busy[1],
+                    inner
+            );
+            return null;
+        }).when(outer).doFilter(any(), any());
+        filter.doFilter(
+                request("POST", "/a.git/git-receive-pack", "ip", null),
+                response(),
+                outer
+        );
+        verify(busy[0]).setStatus(503);
+        verify(busy[0]).setHeader("Retry-After", "5");
+        verify(busy[1], never()).setStatus(503);
+        verify(inner, times(1)).doFilter(any(), any());
+        /* The push's permit is released once it is done */
+        HttpServletResponse after = response();
+        filter.doFilter(
+                request("POST", "/b.git/git-receive-pack", "ip", null),
+                after,
+                inner
+        );
+        verify(after, never()).setStatus(503);
+    }
+
+}
@@ -0,0 +1,117 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import org.junit.Test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncReceivePackFilterTest {
+
+    private static HttpServletRequest push(AsyncContext ctx) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getRequestURI()).thenReturn("/proj.git/git-receive-pack");
+        when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(any(), any())).thenReturn(ctx);
+        when(ctx.getRequest()).thenReturn(request);
+        return request;
+    }
+
+    @Test
+    public void pushesBeyondTheLimitAreQueuedOrTurnedAway() throws Exception {
+        AsyncReceivePackFilter filter = new AsyncReceivePackFilter(1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch postback = new CountDownLatch(1);
+        FilterChain chain = mock(FilterChain.class);
+        AsyncContext[] ctxs = new AsyncContext[3];
+        HttpServletRequest[] requests = new HttpServletRequest[3];
+        HttpServletResponse[] responses = new HttpServletResponse[3];
+        for (int i = 0; i < 3; ++i) {
+            ctxs[i] = mock(AsyncContext.class);
+            requests[i] = push(ctxs[i]);
+            responses[i] = mock(HttpServletResponse.class);
+        }
+        doAnswer(invocation -> {
+            running.countDown();
+            assertTrue(postback.await(10, TimeUnit.SECONDS));
+            return null;
+        }).when(chain).doFilter(requests[0], responses[0]);
+        try {
+            /* Runs on the thread that it arrived on, like Jetty's */
+            CompletableFuture<Void> first = CompletableFuture.runAsync(() -> {
+                try {
+                    filter.doFilter(requests[0], responses[0], chain);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertTrue(running.await(5, TimeUnit.SECONDS));
+            filter.doFilter(requests[1], responses[1], chain);
+            filter.doFilter(requests[2], responses[2], chain);
+            verify(requests[1]).startAsync(requests[1], responses[1]);
+            verify(chain, never()).doFilter(requests[1], responses[1]);
+            verify(responses[2]).sendError(503);
+            verify(chain, never()).doFilter(requests[2], responses[2]);
+
+            postback.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            verify(requests[1]).setAttribute(
+                    AsyncReceivePackFilter.RESUMED_KEY,
+                    Boolean.TRUE
+            );
+            verify(ctxs[1], timeout(5000)).dispatch();
+            verify(ctxs[1], never()).complete();
+
+            /* Jetty dispatches the queued push again, which now runs */
+            when(requests[1].getDispatcherType())
+                    .thenReturn(DispatcherType.ASYNC);
+            when(requests[1].getAttribute(AsyncReceivePackFilter.RESUMED_KEY))
+                    .thenReturn(Boolean.TRUE);
+            filter.doFilter(requests[1], responses[1], chain);
+            verify(chain).doFilter(requests[1], responses[1]);
+            verify(responses[1], never()).sendError(503);
+
+            /* All of the places are free again */
+            HttpServletRequest next = push(mock(AsyncContext.class));
+            HttpServletResponse nextResponse = mock(HttpServletResponse.class);
+            filter.doFilter(next, nextResponse, chain);
+            verify(chain).doFilter(next, nextResponse);
+            verify(next, never()).startAsync(any(), any());
+        } finally {
+            postback.countDown();
+            filter.destroy();
+        }
+    }
+
+    @Test
+    public void queuedPushesAreTurnedAwayWhenDestroyed() throws Exception {
+        AsyncReceivePackFilter filter = new AsyncReceivePackFilter(0, 1);
+        AsyncContext ctx = mock(AsyncContext.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(ctx.getResponse()).thenReturn(response);
+        FilterChain chain = mock(FilterChain.class);
+        filter.doFilter(push(ctx), response, chain);
+        filter.destroy();
+        verify(response, times(1)).sendError(503);
+        verify(ctx).complete();
+        verify(chain, never()).doFilter(any(), any());
+    }
+
+}
@@ -0,0 +1,489 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonObject;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jgit.util.FileUtils;
+import uk.ac.ic.wlgitbridge.application.GitBridgeApp;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.GetForVersionResult;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotData;
+import uk.ac.ic.wlgitbridge.snapshot.getforversion.SnapshotFile;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.GetSavedVersResult;
+import uk.ac.ic.wlgitbridge.snapshot.getsavedvers.SnapshotInfo;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.response.SnapshotResponseBuilder;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.server.MockSnapshotRequestHandler;
+import uk.ac.ic.wlgitbridge.snapshot.servermock.state.SnapshotAPIState;
+import uk.ac.ic.wlgitbridge.util.Threads;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how many concurrent clones the bridge can serve, with platform
+ * threads or with virtual threads (see the "virtualThreads" option).
+ *
+ * It runs the real server, and the bridge behind it, against the mock
+ * snapshot API, which answers after the given latency, like Overleaf. Each
+ * client clones its own project: the first clone imports it from the mock,
+ * and the rest check it with the mock and serve it from disk, so the run
+ * goes through the bridge's project locks, database, repo store and
+ * upload-pack as clones in production do.
+ *
+ * With virtual threads, the run is recorded with JFR, and the places where
+ * virtual threads were pinned to their carrier, e.g. by blocking in a
+ * synchronized block, are reported, busiest first.
+ *
+ * Executors are created when the server starts, so each run of the benchmark
+ * measures one kind of thread. Run with:
+ *
+ *     mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ *     java -cp target/classes:target/test-classes:$(cat cp.txt) \
+ *         uk.ac.ic.wlgitbridge.server.ConcurrentCloneBenchmark \
+ *         [platform|virtual] [clients] [clonesPerClient] \
+ *         [syncLatencyMillis] [files]
+ */
+public class ConcurrentCloneBenchmark {
+
+    private static final int PINNED_STACK_DEPTH = 6;
+    private static final int PINNED_STACKS_SHOWN = 10;
+
+    public static void main(String[] args) throws Exception {
+        boolean virtual = args.length > 0 && args[0].equals("virtual");
+        int clients = intArg(args, 1, 1000);
+        int clonesPerClient = intArg(args, 2, 5);
+        int syncLatencyMillis = intArg(args, 3, 200);
+        int files = intArg(args, 4, 50);
+        if (virtual && !Threads.isVirtualThreadsSupported()) {
+            System.out.printf(
+                    "Virtual threads need Java 21 or later, " +
+                            "not running with them on Java %s%n",
+                    System.getProperty("java.version")
+            );
+            return;
+        }
+        System.out.printf(
+                "%d clients cloning %d times each, " +
+                        "%d ms sync latency, %d files%n",
+                clients,
+                clonesPerClient,
+                syncLatencyMillis,
+                files
+        );
+        File dir = Files.createTempDirectory("concurrent-clone-bench").toFile();
+        Server snapshotApi = startSnapshotApi(
+                clients,
+                files,
+                syncLatencyMillis
+        );
+        try {
+            int port = freePort();
+            GitBridgeApp bridge = new GitBridgeApp(new String[] {
+                    makeConfigFile(
+                            dir,
+                            port,
+                            ((ServerConnector) snapshotApi.getConnectors()[0])
+                                    .getLocalPort(),
+                            virtual
+                    )
+            });
+            Path jfrFile = virtual
+                    ? Files.createTempFile("concurrent-clone-bench", ".jfr")
+                    : null;
+            Recording recording = virtual ? startPinnedRecording() : null;
+            bridge.run();
+            try {
+                run(
+                        "http://127.0.0.1:" + port,
+                        virtual,
+                        clients,
+                        clonesPerClient
+                );
+            } finally {
+                bridge.stop();
+                if (recording != null) {
+                    recording.stop();
+                    recording.dump(jfrFile);
+                    recording.close();
+                    reportPinned(jfrFile);
+                    Files.delete(jfrFile);
+                }
+            }
+        } finally {
+            snapshotApi.stop();
+            FileUtils.delete(dir, FileUtils.RECURSIVE | FileUtils.RETRY);
+        }
+        /* The bridge's background jobs and HTTP client outlive the server */
+        System.exit(0);
+    }
+
+    private static void run(
+            String baseUrl,
+            boolean virtual,
+            int clients,
+            int clonesPerClient
+    ) throws Exception {
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        List<Future<Void>> results = new ArrayList<>();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; ++c) {
+            String url = baseUrl + "/" + projectName(c) + ".git";
+            results.add(clientThreads.submit(() -> {
+                for (int i = 0; i < clonesPerClient; ++i) {
+                    long cloneStart = System.nanoTime();
+                    try {
+                        clone(url);
+                        latencies.add(System.nanoTime() - cloneStart);
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        clientThreads.shutdown();
+        report(virtual, latencies, failures.get(), elapsedNanos);
+    }
+
+    /**
+     * Starts the mock snapshot API with a project of the given number of
+     * files for each client, which answers after the given latency.
+     */
+    private static Server startSnapshotApi(
+            int projects,
+            int files,
+            int latencyMillis
+    ) throws Exception {
+        SnapshotResponseBuilder responses = new SnapshotResponseBuilder();
+        responses.setState(generate(projects, files));
+        /* Overleaf isn't the bottleneck being measured */
+        Server server = new Server(
+                new QueuedThreadPool(Math.max(200, 2 * projects))
+        );
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        HandlerWrapper latency = new HandlerWrapper() {
+            @Override
+            public void handle(
+                    String target,
+                    Request baseRequest,
+                    HttpServletRequest request,
+                    HttpServletResponse response
+            ) throws IOException, ServletException {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServletException(e);
+                }
+                super.handle(target, baseRequest, request, response);
+            }
+        };
+        latency.setHandler(new MockSnapshotRequestHandler(responses));
+        server.setHandler(latency);
+        server.start();
+        return server;
+    }
+
+    private static String makeConfigFile(
+            File dir,
+            int port,
+            int apiPort,
+            boolean virtual
+    ) throws IOException {
+        File rootGitDirectory = new File(dir, "wlgb");
+        JsonObject config = new JsonObject();
+        config.addProperty("port", port);
+        config.addProperty("bindIp", "127.0.0.1");
+        config.addProperty("idleTimeout", 30000);
+        config.addProperty(
+                "rootGitDirectory",
+                rootGitDirectory.getAbsolutePath()
+        );
+        config.addProperty(
+                "apiBaseUrl",
+                "http://127.0.0.1:" + apiPort + "/api/v0"
+        );
+        config.addProperty("postbackBaseUrl", "http://127.0.0.1:" + port);
+        config.addProperty("serviceName", "Overleaf");
+        config.addProperty("virtualThreads", virtual);
+        File configFile = new File(dir, "config.json");
+        Files.write(
+                configFile.toPath(),
+                config.toString().getBytes(StandardCharsets.UTF_8)
+        );
+        return configFile.getAbsolutePath();
+    }
+
+    /**
+     * Advertises the refs and fetches the whole of the branch, like git clone
+     * does over smart HTTP.
+     */
+    private static void clone(String url) throws IOException {
+        HttpURLConnection refs = (HttpURLConnection) new URL(
+                url + "/info/refs?service=git-upload-pack"
+        ).openConnection();
+        String head = firstAdvertisedId(readAll(refs));
+        HttpURLConnection pack = (HttpURLConnection) new URL(
+                url + "/git-upload-pack"
+        ).openConnection();
+        pack.setRequestMethod("POST");
+        pack.setDoOutput(true);
+        pack.setRequestProperty(
+                "Content-Type",
+                "application/x-git-upload-pack-request"
+        );
+        try (OutputStream out = pack.getOutputStream()) {
+            out.write(pktLine("want " + head + "\n"));
+            out.write("0000".getBytes(StandardCharsets.US_ASCII));
+            out.write(pktLine("done\n"));
+        }
+        readAll(pack);
+    }
+
+    /**
+     * @return the object id of the first ref in a smart HTTP advertisement,
+     * which follows the service line and a flush
+     */
+    private static String firstAdvertisedId(byte[] advertisement)
+            throws IOException {
+        String refs = new String(advertisement, StandardCharsets.US_ASCII);
+        int flush = refs.indexOf("0000");
+        if (flush < 0 || refs.length() < flush + 8 + 40) {
+            throw new IOException("No refs advertised");
+        }
+        /* Skip the flush and the length of the first ref's line */
+        return refs.substring(flush + 8, flush + 8 + 40);
+    }
+
+    private static byte[] readAll(HttpURLConnection connection)
+            throws IOException {
+        if (connection.getResponseCode() != 200) {
+            throw new IOException(
+                    connection.getURL() + ": " + connection.getResponseCode()
+            );
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            ByteStreams.copy(in, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] pktLine(String line) {
+        return String.format(
+                "%04x%s",
+                line.length() + 4,
+                line
+        ).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void report(
+            boolean virtual,
+            List<Long> latencies,
+            int failures,
+            long elapsedNanos
+    ) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(
+                "%s threads: %d clones in %.1f s, %.1f clones/s, " +
+                        "p50 %d ms, p99 %d ms, max %d ms, %d failed, " +
+                        "%d peak platform threads%n",
+                virtual ? "Virtual" : "Platform",
+                sorted.size(),
+                seconds,
+                sorted.size() / seconds,
+                percentileMillis(sorted, 0.5),
+                percentileMillis(sorted, 0.99),
+                percentileMillis(sorted, 1),
+                failures,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount()
+        );
+    }
+
+    private static long percentileMillis(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int i = (int) Math.ceil(p * sorted.size()) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(
+                sorted.get(Math.max(0, Math.min(i, sorted.size() - 1)))
+        );
+    }
+
+    private static Recording startPinnedRecording() {
+        Recording recording = new Recording();
+        recording.enable(
+                "jdk.VirtualThreadPinned"
+        ).withStackTrace().withThreshold(Duration.ofMillis(1));
+        recording.start();
+        return recording;
+    }
+
+    /**
+     * Prints the stacks that virtual threads were pinned at, grouped by their
+     * top frames.
+     */
+    private static void reportPinned(Path jfrFile) throws IOException {
+        Map<String, long[]> pinned = new HashMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(jfrFile)) {
+            long[] stats = pinned.computeIfAbsent(
+                    describe(event.getStackTrace()),
+                    stack -> new long[2]
+            );
+            ++stats[0];
+            stats[1] += event.getDuration().toNanos();
+        }
+        if (pinned.isEmpty()) {
+            System.out.println("No virtual threads were pinned for 1 ms+");
+            return;
+        }
+        System.out.println("Virtual threads pinned for 1 ms+ at:");
+        pinned.entrySet().stream().sorted(
+                (a, b) -> Long.compare(b.getValue()[1], a.getValue()[1])
+        ).limit(PINNED_STACKS_SHOWN).forEach(entry -> System.out.printf(
+                "  %d times, %d ms in total%n%s",
+                entry.getValue()[0],
+                TimeUnit.NANOSECONDS.toMillis(entry.getValue()[1]),
+                entry.getKey()
+        ));
+    }
+
+    private static String describe(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "    (no stack trace)\n";
+        }
+        StringBuilder sb = new StringBuilder();
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        for (int i = 0; i < Math.min(PINNED_STACK_DEPTH, frames.size()); ++i) {
+            RecordedFrame frame = frames.get(i);
+            sb.append("    at ");
+            sb.append(frame.getMethod().getType().getName());
+            sb.append('.');
+            sb.append(frame.getMethod().getName());
+            sb.append(':');
+            sb.append(frame.getLineNumber());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the mock API's state, with a project for each client that has
+     * one version, of the given number of files of random text of about 2KB
+     * each
+     */
+    private static SnapshotAPIState generate(int projects, int files) {
+        Random random = new Random(42);
+        Map<String, GetDocResult> getDoc = new HashMap<>();
+        Map<String, GetSavedVersResult> getSavedVers = new HashMap<>();
+        Map<String, Map<Integer, GetForVersionResult>> getForVers =
+                new HashMap<>();
+        String createdAt = "2014-11-30T18:40:58Z";
+        for (int p = 0; p < projects; ++p) {
+            String project = projectName(p);
+            getDoc.put(project, new GetDocResult(
+                    null,
+                    1,
+                    createdAt,
+                    "bench@example.com",
+                    "benchmark",
+                    null
+            ));
+            getSavedVers.put(project, new GetSavedVersResult(
+                    Collections.singletonList(new SnapshotInfo(
+                            1,
+                            "Benchmark",
+                            "bench@example.com",
+                            "benchmark",
+                            createdAt
+                    ))
+            ));
+            List<SnapshotFile> srcs = new ArrayList<>();
+            for (int f = 0; f < files; ++f) {
+                StringBuilder sb = new StringBuilder();
+                while (sb.length() < 2048) {
+                    sb.append(Long.toString(random.nextLong() & 0xffffff, 36));
+                    sb.append(random.nextInt(10) == 0 ? '\n' : ' ');
+                }
+                srcs.add(new SnapshotFile(
+                        sb.toString(),
+                        String.format("file%06d.tex", f)
+                ));
+            }
+            getForVers.put(project, Collections.singletonMap(
+                    1,
+                    new GetForVersionResult(
+                            new SnapshotData(srcs, new ArrayList<>())
+                    )
+            ));
+        }
+        return new SnapshotAPIState(
+                getDoc,
+                getSavedVers,
+                getForVers,
+                new HashMap<>(),
+                new HashMap<>()
+        );
+    }
+
+    private static String projectName(int client) {
+        return String.format("%024x", client);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static int intArg(String[] args, int i, int defaultValue) {
+        return args.length > i ? Integer.parseInt(args[i]) : defaultValue;
+    }
+
+}
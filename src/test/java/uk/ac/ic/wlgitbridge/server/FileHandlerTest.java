@@ -0,0 +1,93 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+import uk.ac.ic.wlgitbridge.data.ServletFile;
+import uk.ac.ic.wlgitbridge.data.filestore.RepositoryFile;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
+
+import javax.servlet.http.HttpServletResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FileHandlerTest {
+
+    private static final byte[] CONTENTS =
+            "\\documentclass{article}".getBytes(StandardCharsets.UTF_8);
+
+    private final Bridge bridge = mock(Bridge.class);
+    private final FileHandler handler = new FileHandler(bridge);
+    private final ServletFile file = new ServletFile(
+            new RepositoryFile("main.tex", CONTENTS),
+            null
+    );
+
+    private Request request;
+    private HttpServletResponse response;
+    private HttpOutput output;
+
+    @Before
+    public void setup() {
+        request = mock(Request.class);
+        response = mock(HttpServletResponse.class);
+        output = mock(HttpOutput.class);
+        Response baseResponse = mock(Response.class);
+        when(baseResponse.getHttpOutput()).thenReturn(output);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getRequestURI()).thenReturn("/proj/id");
+        when(request.getParameter("key")).thenReturn("key");
+        when(request.getResponse()).thenReturn(baseResponse);
+    }
+
+    @Test
+    public void pushedFileIsServedFromMemory() throws Exception {
+        when(bridge.getPushedFile("proj", "key", "id"))
+                .thenReturn(Optional.of(file));
+        handler.handle("/proj/id", request, request, response);
+        verify(request).setHandled(true);
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(response).setContentLength(CONTENTS.length);
+        verify(output).sendContent(ByteBuffer.wrap(CONTENTS));
+    }
+
+    @Test
+    public void fileCanBeFetchedAgainUntilThePushIsDone() throws Exception {
+        when(bridge.getPushedFile("proj", "key", "id"))
+                .thenReturn(Optional.of(file));
+        handler.handle("/proj/id", request, request, response);
+        handler.handle("/proj/id", request, request, response);
+        verify(output, times(2)).sendContent(ByteBuffer.wrap(CONTENTS));
+    }
+
+    @Test
+    public void unknownFileIsNotHandled() throws Exception {
+        when(bridge.getPushedFile("proj", "key", "id"))
+                .thenReturn(Optional.empty());
+        handler.handle("/proj/id", request, request, response);
+        verify(request, never()).setHandled(anyBoolean());
+        verify(output, never()).sendContent(any(ByteBuffer.class));
+    }
+
+    @Test
+    public void fileIsNotServedWithTheWrongKey() throws Exception {
+        when(bridge.getPushedFile("proj", "key", "id"))
+                .thenThrow(new InvalidPostbackKeyException());
+        handler.handle("/proj/id", request, request, response);
+        verify(request, never()).setHandled(anyBoolean());
+        verify(output, never()).sendContent(any(ByteBuffer.class));
+    }
+
+}
@@ -0,0 +1,54 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JettyThreadPoolTest {
+
+    @Test
+    public void jobsBeyondTheQueueAreRejectedAndCounted() throws Exception {
+        JettyThreadPool pool = new JettyThreadPool(new JettyConfig(
+                1, 1, 1, null, null, null, null, null
+        ));
+        pool.setReservedThreads(0);
+        pool.start();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            pool.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            started.await();
+            pool.execute(() -> {});
+            double before = rejected();
+            try {
+                pool.execute(() -> {});
+                fail("Job beyond the queue was not rejected");
+            } catch (RejectedExecutionException e) {
+                assertEquals(before + 1, rejected(), 0);
+            }
+        } finally {
+            release.countDown();
+            pool.stop();
+        }
+    }
+
+    private static double rejected() {
+        Double value = CollectorRegistry.defaultRegistry.getSampleValue(
+                "git_bridge_jetty_rejected_total"
+        );
+        return value == null ? 0 : value;
+    }
+
+}
@@ -0,0 +1,79 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import org.eclipse.jetty.server.Request;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.bridge.Bridge;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class NotifyHandlerTest {
+
+    private final Bridge bridge = mock(Bridge.class);
+    private final NotifyHandler handler = new NotifyHandler(bridge, "secret");
+
+    @Test
+    public void notificationIsPassedToTheBridge() throws Exception {
+        when(bridge.notifyUpdated("proj")).thenReturn(true);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        StringWriter body = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+        handler.handle(
+                "/proj/notify",
+                mock(Request.class),
+                notification("Bearer secret"),
+                response
+        );
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+        assertTrue(body.toString().contains("queued"));
+    }
+
+    @Test
+    public void notificationForAnInvalidProjectIsRejected() throws Exception {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        StringWriter body = new StringWriter();
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+        handler.handle(
+                "/../notify",
+                mock(Request.class),
+                notification("Bearer secret"),
+                response
+        );
+        verify(response).setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        assertTrue(body.toString().contains("invalidProject"));
+        verify(bridge, never()).notifyUpdated(anyString());
+    }
+
+    @Test
+    public void notificationWithoutTheSecretIsRejected() throws Exception {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getWriter()).thenReturn(
+                new PrintWriter(new StringWriter())
+        );
+        handler.handle(
+                "/proj/notify",
+                mock(Request.class),
+                notification("Bearer wrong"),
+                response
+        );
+        verify(response).setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        verify(bridge, never()).notifyUpdated(anyString());
+    }
+
+    private static HttpServletRequest notification(String authorization) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getHeader("Authorization")).thenReturn(authorization);
+        return request;
+    }
+
+}
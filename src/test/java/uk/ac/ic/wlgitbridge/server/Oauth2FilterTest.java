@@ -0,0 +1,170 @@
+package uk.ac.ic.wlgitbridge.server;
+
+import com.google.api.client.auth.oauth2.Credential;
+import org.apache.commons.codec.binary.Base64;
+import org.eclipse.jetty.server.Request;
+import org.junit.Test;
+import uk.ac.ic.wlgitbridge.application.config.Oauth2;
+import uk.ac.ic.wlgitbridge.bridge.snapshot.SnapshotApi;
+import uk.ac.ic.wlgitbridge.snapshot.base.ForbiddenException;
+import uk.ac.ic.wlgitbridge.snapshot.base.MissingRepositoryException;
+import uk.ac.ic.wlgitbridge.snapshot.getdoc.GetDocResult;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class Oauth2FilterTest {
+
+    private static final String PROJECT = "000000000000000000000000";
+
+    private final SnapshotApi snapshotApi = mock(SnapshotApi.class);
+    private final AccessTokenCache tokenCache = mock(AccessTokenCache.class);
+    private final Oauth2Filter filter = new Oauth2Filter(
+            snapshotApi,
+            new Oauth2("id", "secret", "http://localhost:0"),
+            Collections.singleton("10.0.0.1"),
+            tokenCache
+    );
+
+    private final AsyncContext ctx = mock(AsyncContext.class);
+    private final Request request = mock(Request.class);
+    private final HttpServletResponse response =
+            mock(HttpServletResponse.class);
+    private final FilterChain chain = mock(FilterChain.class);
+    private final StringWriter body = new StringWriter();
+
+    public Oauth2FilterTest() throws Exception {
+        when(request.getRequestURI()).thenReturn(
+                "/" + PROJECT + ".git/info/refs"
+        );
+        when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        when(request.getRemoteAddr()).thenReturn("10.0.0.1");
+        when(request.startAsync(request, response)).thenReturn(ctx);
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+    }
+
+    @Test
+    public void allowedRequestIsDispatchedAndThenPassedThrough()
+            throws Exception {
+        when(snapshotApi.getDoc(Optional.empty(), PROJECT)).thenReturn(
+                CompletableFuture.completedFuture(mock(GetDocResult.class))
+        );
+        filter.doFilter(request, response, chain);
+        verify(request).setAttribute(eq(Oauth2Filter.CHECKED_KEY), any());
+        verify(ctx).dispatch();
+        verify(ctx, never()).complete();
+        verify(chain, never()).doFilter(any(), any());
+
+        /* Jetty dispatches it again, and it goes straight to the servlet */
+        when(request.getDispatcherType()).thenReturn(DispatcherType.ASYNC);
+        when(request.getAttribute(Oauth2Filter.CHECKED_KEY))
+                .thenReturn((Runnable) () -> {});
+        when(response.getStatus()).thenReturn(200);
+        filter.doFilter(request, response, chain);
+        verify(chain).doFilter(request, response);
+        verify(snapshotApi).getDoc(any(), any());
+    }
+
+    @Test
+    public void forbiddenRequestWithoutCredentialsIsChallenged()
+            throws Exception {
+        when(snapshotApi.getDoc(Optional.empty(), PROJECT)).thenReturn(
+                failed(new ForbiddenException())
+        );
+        filter.doFilter(request, response, chain);
+        verify(response).setStatus(401);
+        verify(response).setHeader(
+                "WWW-Authenticate",
+                "Basic realm=\"Git Bridge\""
+        );
+        verify(ctx).complete();
+        verify(ctx, never()).dispatch();
+        verify(chain, never()).doFilter(any(), any());
+    }
+
+    @Test
+    public void forbiddenRequestWithCredentialsGetsTheirAccessToken()
+            throws Exception {
+        when(snapshotApi.getDoc(Optional.empty(), PROJECT)).thenReturn(
+                failed(new ForbiddenException())
+        );
+        when(request.getHeader("Authorization")).thenReturn(
+                basic("user", "pass")
+        );
+        /* Only the address appended by the trusted proxy is believed */
+        when(request.getHeader("X-Forwarded-For")).thenReturn(
+                "6.6.6.6, 1.2.3.4"
+        );
+        when(tokenCache.getCachedAccessToken("user", "pass", "1.2.3.4"))
+                .thenReturn(Optional.of("token"));
+        filter.doFilter(request, response, chain);
+        verify(request).setAttribute(
+                eq(Oauth2Filter.ATTRIBUTE_KEY),
+                any(Credential.class)
+        );
+        verify(request).setAttribute(eq(Oauth2Filter.CHECKED_KEY), any());
+        verify(ctx).dispatch();
+        verify(ctx, never()).complete();
+    }
+
+    @Test
+    public void forwardedForFromAnUntrustedPeerIsIgnored() throws Exception {
+        when(snapshotApi.getDoc(Optional.empty(), PROJECT)).thenReturn(
+                failed(new ForbiddenException())
+        );
+        when(request.getRemoteAddr()).thenReturn("5.5.5.5");
+        when(request.getHeader("Authorization")).thenReturn(
+                basic("user", "pass")
+        );
+        when(request.getHeader("X-Forwarded-For")).thenReturn("1.2.3.4");
+        when(tokenCache.getCachedAccessToken("user", "pass", "5.5.5.5"))
+                .thenReturn(Optional.of("token"));
+        filter.doFilter(request, response, chain);
+        verify(tokenCache).getCachedAccessToken("user", "pass", "5.5.5.5");
+        verify(ctx).dispatch();
+    }
+
+    @Test
+    public void missingRepositoryIsNotFound() throws Exception {
+        when(snapshotApi.getDoc(Optional.empty(), PROJECT)).thenReturn(
+                failed(new MissingRepositoryException(
+                        Collections.singletonList("no such project")
+                ))
+        );
+        filter.doFilter(request, response, chain);
+        verify(response).setStatus(404);
+        assertTrue(body.toString().contains("no such project"));
+        verify(ctx).complete();
+        verify(ctx, never()).dispatch();
+        verify(chain, never()).doFilter(any(), any());
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> ret = new CompletableFuture<>();
+        ret.completeExceptionally(t);
+        return ret;
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.encodeBase64String(
+                (username + ":" + password).getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+}
@@ -3,9 +3,13 @@ package uk.ac.ic.wlgitbridge.snapshot.push;
 import org.junit.Assert;
 import org.junit.Test;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.InternalErrorException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.InvalidPostbackKeyException;
+import uk.ac.ic.wlgitbridge.snapshot.push.exception.PostbackTimeoutException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.SnapshotPostException;
 import uk.ac.ic.wlgitbridge.snapshot.push.exception.UnexpectedPostbackException;
 
+import java.security.SecureRandom;
+
 import static org.junit.Assert.*;
 
 /**
@@ -21,7 +25,7 @@ public class PostbackManagerTest {
                    SnapshotPostException {
         String key = postbackManager.makeKeyForProject("proj");
         postbackManager.postVersionIDForProject("proj", 1, key);
-        int versionId = postbackManager.waitForVersionIdOrThrow("proj");
+        int versionId = postbackManager.waitForVersionIdOrThrow("proj", key);
         assertEquals("Version id didn't match posted", 1, versionId);
     }
 
@@ -32,7 +36,7 @@ public class PostbackManagerTest {
         InternalErrorException ex = new InternalErrorException();
         postbackManager.postExceptionForProject("proj", ex, key);
         try {
-            postbackManager.waitForVersionIdOrThrow("proj");
+            postbackManager.waitForVersionIdOrThrow("proj", key);
         } catch (InternalErrorException e) {
             Assert.assertSame("Wrong exception was thrown", ex, e);
             return;
@@ -50,10 +54,65 @@ public class PostbackManagerTest {
         postbackManager.postVersionIDForProject("proj1", 1, key1);
         postbackManager.postVersionIDForProject("proj2", 1, key2);
         assertEquals(2, postbackManager.postbackContentsTable.size());
-        postbackManager.waitForVersionIdOrThrow("proj1");
+        postbackManager.waitForVersionIdOrThrow("proj1", key1);
+        assertEquals(1, postbackManager.postbackContentsTable.size());
+        postbackManager.waitForVersionIdOrThrow("proj2", key2);
+        Assert.assertTrue(postbackManager.postbackContentsTable.isEmpty());
+    }
+
+    @Test
+    public void testOnlyPostbackWithTheRightKeyIsAccepted()
+            throws Exception {
+        String key = postbackManager.makeKeyForProject("proj");
+        try {
+            postbackManager.postVersionIDForProject("proj", 2, "wrong" + key);
+            Assert.fail("Postback with the wrong key was accepted");
+        } catch (UnexpectedPostbackException e) {
+            // expected
+        }
         assertEquals(1, postbackManager.postbackContentsTable.size());
-        postbackManager.waitForVersionIdOrThrow("proj2");
+        postbackManager.postVersionIDForProject("proj", 3, key);
+        assertEquals(3, postbackManager.waitForVersionIdOrThrow("proj", key));
         Assert.assertTrue(postbackManager.postbackContentsTable.isEmpty());
     }
 
+    @Test
+    public void testConcurrentPushesToAProjectHaveTheirOwnPostbacks()
+            throws Exception {
+        String key1 = postbackManager.makeKeyForProject("proj");
+        String key2 = postbackManager.makeKeyForProject("proj");
+        assertEquals(2, postbackManager.postbackContentsTable.size());
+        postbackManager.checkPostbackKey("proj", key1);
+        postbackManager.checkPostbackKey("proj", key2);
+        postbackManager.postVersionIDForProject("proj", 2, key2);
+        postbackManager.postVersionIDForProject("proj", 1, key1);
+        assertEquals(1, postbackManager.waitForVersionIdOrThrow("proj", key1));
+        assertEquals(2, postbackManager.waitForVersionIdOrThrow("proj", key2));
+    }
+
+    @Test
+    public void testExpiredPostbacksAreRemovedAndTimedOut() throws Exception {
+        PostbackManager expiring = new PostbackManager(
+                new SecureRandom(),
+                200
+        );
+        String key = expiring.makeKeyForProject("proj");
+        PostbackPromise promise = expiring.postbackContentsTable.get(
+                new PostbackManager.PostbackId("proj", key)
+        );
+        try {
+            promise.waitForPostback();
+            Assert.fail("Expired postback didn't time out");
+        } catch (PostbackTimeoutException e) {
+            // expected
+        }
+        Assert.assertTrue(expiring.postbackContentsTable.isEmpty());
+        try {
+            expiring.checkPostbackKey("proj", key);
+            Assert.fail("Expired postback key was still valid");
+        } catch (InvalidPostbackKeyException e) {
+            // expected
+        }
+    }
+
 }
@@ -0,0 +1,91 @@
+package uk.ac.ic.wlgitbridge.util;
+
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTraceTest {
+
+    @Test
+    public void enteringSetsAndRestoresTheCurrentTraceAndMdc() {
+        RequestTrace outer = new RequestTrace(
+                Optional.of("outer"),
+                "info/refs",
+                "proj"
+        );
+        RequestTrace inner = new RequestTrace(
+                Optional.of("inner"),
+                "git-upload-pack",
+                "proj"
+        );
+        try (RequestTrace.Scope __ = outer.enter()) {
+            try (RequestTrace.Scope ___ = inner.enter()) {
+                assertEquals(Optional.of(inner), RequestTrace.current());
+                assertEquals("inner", MDC.get(RequestTrace.MDC_KEY));
+            }
+            assertEquals(Optional.of(outer), RequestTrace.current());
+            assertEquals("outer", MDC.get(RequestTrace.MDC_KEY));
+        }
+        assertFalse(RequestTrace.current().isPresent());
+        assertNull(MDC.get(RequestTrace.MDC_KEY));
+    }
+
+    @Test
+    public void tracePropagatesToExecutorThreads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RequestTrace trace = new RequestTrace(
+                    Optional.empty(),
+                    "info/refs",
+                    "proj"
+            );
+            CompletableFuture<String> id;
+            try (RequestTrace.Scope __ = trace.enter()) {
+                id = CompletableFuture.supplyAsync(() -> {
+                    RequestTrace.addPhaseToCurrent("get_doc", 2000000);
+                    RequestTrace.addPhaseToCurrent("get_doc", 1000000);
+                    RequestTrace.addCountToCurrent("bytes_out", 42);
+                    return MDC.get(RequestTrace.MDC_KEY);
+                }, RequestTrace.propagating(executor));
+            }
+            assertEquals(trace.getId(), id.get());
+            String summary = trace.getSummary(200);
+            assertTrue(summary, summary.startsWith(
+                    "op=info/refs project=proj status=200 ms="
+            ));
+            assertTrue(summary, summary.endsWith(
+                    " get_doc_ms=3 bytes_out=42"
+            ));
+            /* The executor's thread is left as it was */
+            assertNull(executor.submit(
+                    () -> MDC.get(RequestTrace.MDC_KEY)
+            ).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void onlyPlainRequestIdsAreTakenFromClients() {
+        assertEquals(
+                "abc-123_4.5",
+                new RequestTrace(Optional.of("abc-123_4.5"), "", "").getId()
+        );
+        String forged = "x\n2020-01-01 INFO fake";
+        assertNotEquals(
+                forged,
+                new RequestTrace(Optional.of(forged), "", "").getId()
+        );
+    }
+
+}
@@ -0,0 +1,44 @@
+package uk.ac.ic.wlgitbridge.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadsTest {
+
+    @After
+    public void usePlatformThreads() {
+        Threads.useVirtualThreads(false);
+    }
+
+    @Test
+    public void platformThreadsAreNamedDaemons() throws Exception {
+        ExecutorService executor = Threads.newCachedThreadPool("test-%d");
+        Thread thread = executor.submit(Thread::currentThread).get();
+        executor.shutdown();
+        assertEquals("test-0", thread.getName());
+        assertTrue(thread.isDaemon());
+    }
+
+    @Test
+    public void virtualThreadsAreOnlyUsedWhereSupported() throws Exception {
+        boolean supported = Threads.isVirtualThreadsSupported();
+        assertEquals(supported, Threads.useVirtualThreads(true));
+        assertEquals(supported, Threads.isUsingVirtualThreads());
+        ExecutorService executor = Threads.newCachedThreadPool("test-%d");
+        Thread thread = executor.submit(Thread::currentThread).get();
+        executor.shutdown();
+        assertEquals("test-0", thread.getName());
+        assertTrue(thread.isDaemon());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void threadNamesMustBeNumbered() {
+        Threads.newThreadFactory("test");
+    }
+
+}